@@ -22,8 +22,6 @@ import javax.swing.JOptionPane;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
-
 import altline.utils.Alerts;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -194,34 +192,6 @@ public class App extends Application {
 						userManager.forceLogin();
 						if (exiting) break;
 
-						if (!DEBUG_MODE) {
-							try {
-								Task<Void> userUpdateTask = userManager.updateUser();
-								uiManager.showWorkerMonitor(userUpdateTask);
-								execute(userUpdateTask).get();
-
-							} catch (ExecutionException e) {
-								Throwable cause = e.getCause();
-								if (cause instanceof FailedLoginException) {
-									LOGGER.error("Webserver login failed upon data fetching", e);
-									Alerts.error(APPNAME, "Neuspjelo preuzimanje podataka",
-											"Greška prilikom prijave u AAIEdu sustav. Potrebno je ponoviti prijavu.");
-
-									userManager.disableAutoLogin();
-									userManager.logout();
-									continue;
-
-								} else if (cause instanceof FailingHttpStatusCodeException || cause instanceof IOException) {
-									LOGGER.error("User data update failed", e);
-									Alerts.error(APPNAME, "Neuspjelo preuzimanje podataka",
-											"Greška prilikom preuzimanja korisničkih podataka. Najnoviji podaci neće biti prikazani.");
-								}
-
-							} catch (CancellationException | InterruptedException e) {
-								LOGGER.warn("", e);
-							}
-						}
-
 						try {
 							uiManager.showPrimaryStage();
 						} catch (Throwable e) {
@@ -230,6 +200,9 @@ public class App extends Application {
 							return;
 						}
 
+						// the stored data is shown first, the fetched bills are merged into it as they arrive
+						if (!DEBUG_MODE) watchLoginUpdate(userManager.updateUser());
+
 						try {
 							LOGIN_LOCK.wait();
 						} catch (InterruptedException e) {
@@ -245,6 +218,43 @@ public class App extends Application {
 		loginThread.start();
 	}
 
+	/**
+	 * Waits for the update that follows a login in the background and reports its failure. While the update runs, its
+	 * progress is shown in the main window.
+	 */
+	private void watchLoginUpdate(Task<Integer> updateTask) {
+		final User user = userManager.getUser();
+		execute(() -> {
+			try {
+				updateTask.get();
+
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof FailedLoginException) {
+					LOGGER.error("Webserver login failed upon data fetching", e);
+					if (userManager.getUser() != user) return;
+					Alerts.error(APPNAME, "Neuspjelo preuzimanje podataka",
+							"Greška prilikom prijave u AAIEdu sustav. Potrebno je ponoviti prijavu.");
+
+					// wakes the login thread, which prompts for a login again
+					userManager.disableAutoLogin();
+					userManager.logout();
+
+				} else if (cause instanceof ServerUnavailableException) {
+					// the offline state is shown in the main window
+					LOGGER.warn("The webserver is unavailable, showing the stored data", cause);
+
+				} else {
+					// the failure is shown in the main window along with the stored data
+					LOGGER.error("User data update failed", e);
+				}
+
+			} catch (CancellationException | InterruptedException e) {
+				LOGGER.warn("", e);
+			}
+		});
+	}
+
 	public static void main(String[] args) {
 
 		try {
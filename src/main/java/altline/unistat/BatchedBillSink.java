@@ -0,0 +1,88 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Hands the batches of bills published by a data fetch over to the thread the user is modified on (the JavaFX thread),
+ * where they are applied to the user in the order they were published.
+ * <p>
+ * The sink is called on the web thread, which must never wait for the JavaFX thread to run a batch, as the JavaFX
+ * thread may be waiting for it. Only the number of queued batches is bounded: once {@code maxPendingBatches} batches
+ * wait to be applied, the fetch waits for one of them to be applied before it queues the next one.
+ * </p>
+ */
+final class BatchedBillSink implements BiConsumer<List<Bill>, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill>> {
+
+	private final Semaphore pendingBatches;
+	private final Executor fxExecutor;
+	private final BatchApplier applier;
+	private final AtomicInteger applied = new AtomicInteger();
+
+	/**
+	 * @param maxPendingBatches The largest number of batches waiting to be applied before the fetch waits for them
+	 * @param fxExecutor Runs the batches on the thread the user is modified on, in the order they are passed to it
+	 * @param applier Applies a batch to the user and returns the number of bills that were added or refreshed
+	 */
+	BatchedBillSink(int maxPendingBatches, Executor fxExecutor, BatchApplier applier) {
+		this.pendingBatches = new Semaphore(maxPendingBatches);
+		this.fxExecutor = fxExecutor;
+		this.applier = applier;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Queues the specified batch to be applied, after waiting for a queued batch to be applied if there are too many.
+	 * If interrupted while waiting, the batch is still queued, since the fetch was canceled after the bills were
+	 * received.
+	 * @param bills The fetched bills
+	 * @param storedBills The stored bills the fetched ones are reconciled with, or null to only add new bills
+	 */
+	@Override
+	public void accept(List<Bill> bills, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedBills) {
+		try {
+			pendingBatches.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fxExecutor.execute(() -> applied.addAndGet(applier.apply(bills, storedBills)));
+			return;
+		}
+		fxExecutor.execute(() -> {
+			try {
+				applied.addAndGet(applier.apply(bills, storedBills));
+			} finally {
+				pendingBatches.release();
+			}
+		});
+	}
+
+	/**
+	 * @return The number of bills that were added or refreshed by the batches applied so far
+	 */
+	int getAppliedCount() {
+		return applied.get();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@FunctionalInterface
+	interface BatchApplier {
+		int apply(List<Bill> bills, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedBills);
+	}
+
+}
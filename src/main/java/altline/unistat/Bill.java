@@ -14,6 +14,7 @@ import org.apache.commons.collections4.CollectionUtils;
 import com.sun.javafx.collections.ElementObservableListDecorator;
 
 import altline.utils.Utils;
+import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.binding.Binding;
 import javafx.beans.binding.FloatBinding;
@@ -218,6 +219,30 @@ public class Bill implements Serializable {
 		return totalSubsidy.get();
 	}
 
+	// --- fingerprint
+	private transient long fingerprint;
+	/** Whether the fingerprint matches the entries. Cleared whenever the entries or their properties change */
+	private transient boolean fingerprintValid;
+
+	/**
+	 * Bills with equal entries have equal fingerprints, regardless of the order of the entries. Bills with different
+	 * fingerprints are never equal, so comparing fingerprints rules out most unequal bills without comparing their
+	 * entries.
+	 * @return A hash of the contents of this Bill's entries
+	 */
+	public final long getFingerprint() {
+		if (!fingerprintValid) {
+			// a sum is independent of the order of the entries, like equals
+			long sum = 0;
+			for (Entry entry : entries) {
+				sum += mix(entry.hashCode());
+			}
+			fingerprint = sum;
+			fingerprintValid = true;
+		}
+		return fingerprint;
+	}
+
 	/* *************************************************************************
 	 *                                                                         *
 	 * Public API                                                              *
@@ -227,6 +252,10 @@ public class Bill implements Serializable {
 	public boolean isEdited() {
 		return edited;
 	}
+
+	void setEdited(boolean edited) {
+		this.edited = edited;
+	}
 	
 	/**
 	 * Checks whether the specified bill was issued in the same place at the same time as this bill, disregarding the contents.
@@ -256,6 +285,7 @@ public class Bill implements Serializable {
 			toAdd.add(new Entry(entry.getArticleName(), entry.getArticlePrice(), entry.getAmount(), entry.getSubsidy()));
 		}
 		this.entries.setAll(toAdd);
+		fingerprintValid = false;
 		
 		/*clearEntries();
 		for (Entry entry : entries) {
@@ -273,6 +303,7 @@ public class Bill implements Serializable {
 	public void addEntry(String articleName, float articlePrice, int amount, float subsidy) {
 		Entry entry = new Entry(articleName, articlePrice, amount, subsidy);
 		entries.add(entry);
+		fingerprintValid = false;
 	}
 
 	/**
@@ -281,7 +312,7 @@ public class Bill implements Serializable {
 	 */
 	public void removeEntry(Entry entry) {
 		if (entry == null || entry.getEnclosingInstance() != this) return;
-		entries.remove(entry);
+		if (entries.remove(entry)) fingerprintValid = false;
 	}
 
 	/**
@@ -289,6 +320,7 @@ public class Bill implements Serializable {
 	 */
 	public void clearEntries() {
 		entries.clear();
+		fingerprintValid = false;
 		
 		/*ArrayList<Entry> toRemove = new ArrayList<Entry>(entries);
 		for (Entry entry : toRemove)
@@ -303,6 +335,15 @@ public class Bill implements Serializable {
 		edited = true;
 	}
 	
+	/**
+	 * @return A new Bill containing replicas of this Bill's data, which is not affected by later changes of this Bill
+	 */
+	Bill copy() {
+		Bill copy = new Bill(getDateTime(), getSource(), getEntries());
+		copy.edited = edited;
+		return copy;
+	}
+	
 	/* *************************************************************************
 	 *                                                                         *
 	 * Overridden methods                                                      *
@@ -316,7 +357,7 @@ public class Bill implements Serializable {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(getDateTime(), entries, getSource());
+		return Objects.hash(getDateTime(), getFingerprint(), getSource());
 	}
 
 	/**
@@ -330,7 +371,23 @@ public class Bill implements Serializable {
 		if (getClass() != obj.getClass()) return false;
 		Bill other = (Bill) obj;
 		return Objects.equals(getDateTime(), other.getDateTime()) && Objects.equals(getSource(), other.getSource())
-				&& CollectionUtils.isEqualCollection(entries, other.entries);
+				&& getFingerprint() == other.getFingerprint() && CollectionUtils.isEqualCollection(entries, other.entries);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Spreads the bits of the specified hash over a long, so that sums of mixed hashes rarely collide.
+	 */
+	private static long mix(int hash) {
+		long h = hash * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		h *= 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 29);
 	}
 
 	/* *************************************************************************
@@ -393,6 +450,13 @@ public class Bill implements Serializable {
 			this.articlePrice = new SimpleFloatProperty(this, "articlePrice", articlePrice);
 			this.amount = new SimpleIntegerProperty(this, "amount", amount);
 			this.subsidy = new SimpleFloatProperty(this, "subsidy", subsidy);
+
+			// entries are only ever held by the bill that created them
+			InvalidationListener fingerprintInvalidator = observable -> fingerprintValid = false;
+			this.articleName.addListener(fingerprintInvalidator);
+			this.articlePrice.addListener(fingerprintInvalidator);
+			this.amount.addListener(fingerprintInvalidator);
+			this.subsidy.addListener(fingerprintInvalidator);
 		}
 
 		/* *************************************************************************
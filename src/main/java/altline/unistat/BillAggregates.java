@@ -0,0 +1,464 @@
+package altline.unistat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+
+/**
+ * Pre-computed totals of all bills of a {@link User}, per day, per month, per source and per article, including the
+ * bills of years that are not loaded.
+ * <p>
+ * The aggregates are kept up to date by the User as bills are added, edited and removed. Only the buckets of the
+ * changed bills are updated. The aggregates are saved together with the user's data, stamped with the version of the
+ * stored data they were computed from (see {@link BillStore#getDataVersion()}), so that the statistics can be shown
+ * right after login without going through the user's whole history. They are only recomputed from the stored bills
+ * when the stored data no longer matches the stamp.
+ * </p>
+ * Aggregates are modified on the JavaFX thread, where invalidation listeners are notified after every change.
+ */
+public final class BillAggregates implements Observable {
+
+	private static final int MAGIC = 0x55534147;
+	private static final byte VERSION = 1;
+
+	private final Totals overall = new Totals();
+	private final TreeMap<LocalDate, Totals> days = new TreeMap<>();
+	private final TreeMap<YearMonth, Totals> months = new TreeMap<>();
+	private final TreeMap<String, Totals> sources = new TreeMap<>();
+	private final TreeMap<String, ArticleTotals> articles = new TreeMap<>();
+
+	private final List<InvalidationListener> listeners = new ArrayList<>(2);
+	private long dataVersion;
+
+	BillAggregates() {
+	}
+
+	/**
+	 * Computes the aggregates of the specified bills.
+	 * @param bills The bills to aggregate
+	 * @return The computed aggregates
+	 */
+	static BillAggregates compute(Collection<Bill> bills) {
+		BillAggregates aggregates = new BillAggregates();
+		for (Bill bill : bills) {
+			aggregates.apply(bill, 1);
+		}
+		return aggregates;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Public API                                                              *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return A copy of the totals of all bills
+	 */
+	public Totals getOverall() {
+		return overall.copy();
+	}
+
+	/**
+	 * @return An unmodifiable view of the totals of each day on which bills were issued, sorted by date
+	 */
+	public NavigableMap<LocalDate, Totals> getDays() {
+		return Collections.unmodifiableNavigableMap(days);
+	}
+
+	/**
+	 * @return An unmodifiable view of the totals of each month in which bills were issued, sorted by month
+	 */
+	public NavigableMap<YearMonth, Totals> getMonths() {
+		return Collections.unmodifiableNavigableMap(months);
+	}
+
+	/**
+	 * @return An unmodifiable view of the totals of each source of bills, sorted by source
+	 */
+	public SortedMap<String, Totals> getSources() {
+		return Collections.unmodifiableSortedMap(sources);
+	}
+
+	/**
+	 * @return An unmodifiable view of the totals of each article that appears on bills, sorted by article name
+	 */
+	public SortedMap<String, ArticleTotals> getArticles() {
+		return Collections.unmodifiableSortedMap(articles);
+	}
+
+	/**
+	 * @return The totals of the specified day, or empty totals if no bills were issued on the day
+	 */
+	public Totals getDay(LocalDate date) {
+		Totals totals = days.get(date);
+		return totals == null ? new Totals() : totals;
+	}
+
+	/**
+	 * @return The totals of the specified month, or empty totals if no bills were issued in the month
+	 */
+	public Totals getMonth(YearMonth month) {
+		Totals totals = months.get(month);
+		return totals == null ? new Totals() : totals;
+	}
+
+	@Override
+	public void addListener(InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	void add(Bill bill) {
+		apply(bill, 1);
+		fireInvalidated();
+	}
+
+	void addAll(Collection<Bill> bills) {
+		for (Bill bill : bills) {
+			apply(bill, 1);
+		}
+		fireInvalidated();
+	}
+
+	void remove(Bill bill) {
+		apply(bill, -1);
+		fireInvalidated();
+	}
+
+	/**
+	 * Replaces the contribution of a bill in the state before it was edited with the contribution of the edited bill.
+	 * @param oldBill A copy of the bill before it was edited
+	 * @param newBill The edited bill
+	 */
+	void replace(Bill oldBill, Bill newBill) {
+		apply(oldBill, -1);
+		apply(newBill, 1);
+		fireInvalidated();
+	}
+
+	/**
+	 * @return The version of the stored data these aggregates were computed from
+	 */
+	long getDataVersion() {
+		return dataVersion;
+	}
+
+	void setDataVersion(long dataVersion) {
+		this.dataVersion = dataVersion;
+	}
+
+	/**
+	 * Creates a copy of these aggregates that is not affected by later changes, e.g. to be written to disk on another
+	 * thread. Must be called on the thread that modifies these aggregates.
+	 * @return The copy of these aggregates
+	 */
+	BillAggregates copy() {
+		BillAggregates copy = new BillAggregates();
+		copy.overall.add(overall, 1);
+		days.forEach((date, totals) -> copy.days.put(date, totals.copy()));
+		months.forEach((month, totals) -> copy.months.put(month, totals.copy()));
+		sources.forEach((source, totals) -> copy.sources.put(source, totals.copy()));
+		articles.forEach((name, totals) -> copy.articles.put(name, totals.copy()));
+		copy.dataVersion = dataVersion;
+		return copy;
+	}
+
+	/**
+	 * Reads aggregates from the specified file.
+	 * @param path The file to read from
+	 * @return The aggregates read from the file
+	 * @throws IOException if an IO problem occurs or the file is not a valid aggregates file
+	 */
+	static BillAggregates read(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC) throw new IOException("Not a bill aggregates file: " + path);
+			byte version = in.readByte();
+			if (version != VERSION) throw new IOException("Unsupported bill aggregates version: " + version);
+
+			BillAggregates aggregates = new BillAggregates();
+			aggregates.dataVersion = in.readLong();
+			aggregates.overall.read(in);
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				LocalDate date = LocalDate.ofEpochDay(in.readLong());
+				Totals totals = new Totals();
+				totals.read(in);
+				aggregates.days.put(date, totals);
+				aggregates.months.computeIfAbsent(YearMonth.from(date), month -> new Totals()).add(totals, 1);
+			}
+
+			count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String source = in.readUTF();
+				Totals totals = new Totals();
+				totals.read(in);
+				aggregates.sources.put(source, totals);
+			}
+
+			count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				ArticleTotals totals = new ArticleTotals();
+				totals.read(in);
+				aggregates.articles.put(name, totals);
+			}
+			return aggregates;
+		}
+	}
+
+	/**
+	 * Writes these aggregates to the specified file, replacing the file's contents. The data is written to a temporary
+	 * file first, which then atomically replaces the specified file.
+	 * @param path The file to write to
+	 * @throws IOException if an IO problem occurs
+	 */
+	void write(Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(dataVersion);
+			overall.write(out);
+
+			// months are derived from the days when read
+			out.writeInt(days.size());
+			for (Map.Entry<LocalDate, Totals> day : days.entrySet()) {
+				out.writeLong(day.getKey().toEpochDay());
+				day.getValue().write(out);
+			}
+
+			out.writeInt(sources.size());
+			for (Map.Entry<String, Totals> source : sources.entrySet()) {
+				out.writeUTF(source.getKey());
+				source.getValue().write(out);
+			}
+
+			out.writeInt(articles.size());
+			for (Map.Entry<String, ArticleTotals> article : articles.entrySet()) {
+				out.writeUTF(article.getKey());
+				article.getValue().write(out);
+			}
+		}
+
+		Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Adds (sign 1) or subtracts (sign -1) the contribution of the specified bill to the buckets it falls into. Buckets
+	 * that no longer contain any bills are removed.
+	 */
+	private void apply(Bill bill, int sign) {
+		if (bill.getDateTime() == null) return;
+		String source = bill.getSource() == null ? "" : bill.getSource();
+
+		overall.add(bill, sign);
+		update(days, bill.getDateTime().toLocalDate(), bill, sign);
+		update(months, YearMonth.from(bill.getDateTime()), bill, sign);
+		update(sources, source, bill, sign);
+
+		for (Bill.Entry entry : bill.getEntries()) {
+			String name = entry.getArticleName() == null ? "" : entry.getArticleName();
+			ArticleTotals totals = articles.computeIfAbsent(name, key -> new ArticleTotals());
+			totals.add(entry, source, sign);
+			if (totals.entryCount <= 0) articles.remove(name);
+		}
+	}
+
+	private static <K> void update(Map<K, Totals> buckets, K key, Bill bill, int sign) {
+		Totals totals = buckets.computeIfAbsent(key, k -> new Totals());
+		totals.add(bill, sign);
+		if (totals.billCount <= 0) buckets.remove(key);
+	}
+
+	private void fireInvalidated() {
+		for (InvalidationListener listener : new ArrayList<>(listeners)) {
+			listener.invalidated(this);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The totals of a group of bills.
+	 */
+	public static final class Totals {
+		private int billCount;
+		private int articleCount;
+		private double cost;
+		private double subsidy;
+
+		public int getBillCount() {
+			return billCount;
+		}
+
+		public int getArticleCount() {
+			return articleCount;
+		}
+
+		public float getCost() {
+			return (float) cost;
+		}
+
+		public float getSubsidy() {
+			return (float) subsidy;
+		}
+
+		/**
+		 * @return The cost of the bills without the subsidy
+		 */
+		public float getPaid() {
+			return (float) (cost - subsidy);
+		}
+
+		private void add(Bill bill, int sign) {
+			billCount += sign;
+			articleCount += sign * bill.getTotalArticles();
+			cost += sign * bill.getTotalCost();
+			subsidy += sign * bill.getTotalSubsidy();
+		}
+
+		private void add(Totals totals, int sign) {
+			billCount += sign * totals.billCount;
+			articleCount += sign * totals.articleCount;
+			cost += sign * totals.cost;
+			subsidy += sign * totals.subsidy;
+		}
+
+		private Totals copy() {
+			Totals copy = new Totals();
+			copy.add(this, 1);
+			return copy;
+		}
+
+		private void read(DataInputStream in) throws IOException {
+			billCount = in.readInt();
+			articleCount = in.readInt();
+			cost = in.readDouble();
+			subsidy = in.readDouble();
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(billCount);
+			out.writeInt(articleCount);
+			out.writeDouble(cost);
+			out.writeDouble(subsidy);
+		}
+	}
+
+	/**
+	 * The totals of an article over all bills it appears on.
+	 */
+	public static final class ArticleTotals {
+		private int entryCount;
+		private int amount;
+		private double cost;
+		private double subsidy;
+		private final TreeMap<String, Integer> amountBySource = new TreeMap<>();
+
+		public int getAmount() {
+			return amount;
+		}
+
+		public float getCost() {
+			return (float) cost;
+		}
+
+		public float getSubsidy() {
+			return (float) subsidy;
+		}
+
+		/**
+		 * @return An unmodifiable view of the amount of the article per source of bills, sorted by source
+		 */
+		public SortedMap<String, Integer> getAmountBySource() {
+			return Collections.unmodifiableSortedMap(amountBySource);
+		}
+
+		private void add(Bill.Entry entry, String source, int sign) {
+			entryCount += sign;
+			amount += sign * entry.getAmount();
+			cost += sign * entry.getArticlePrice() * entry.getAmount();
+			subsidy += sign * entry.getSubsidy();
+
+			int sourceAmount = amountBySource.getOrDefault(source, 0) + sign * entry.getAmount();
+			if (sourceAmount == 0) amountBySource.remove(source);
+			else amountBySource.put(source, sourceAmount);
+		}
+
+		private ArticleTotals copy() {
+			ArticleTotals copy = new ArticleTotals();
+			copy.entryCount = entryCount;
+			copy.amount = amount;
+			copy.cost = cost;
+			copy.subsidy = subsidy;
+			copy.amountBySource.putAll(amountBySource);
+			return copy;
+		}
+
+		private void read(DataInputStream in) throws IOException {
+			entryCount = in.readInt();
+			amount = in.readInt();
+			cost = in.readDouble();
+			subsidy = in.readDouble();
+			int sourceCount = in.readInt();
+			for (int i = 0; i < sourceCount; i++) {
+				amountBySource.put(in.readUTF(), in.readInt());
+			}
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(entryCount);
+			out.writeInt(amount);
+			out.writeDouble(cost);
+			out.writeDouble(subsidy);
+			out.writeInt(amountBySource.size());
+			for (Map.Entry<String, Integer> source : amountBySource.entrySet()) {
+				out.writeUTF(source.getKey());
+				out.writeInt(source.getValue());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import altline.unistat.ScrapeEngine.BillRow;
+
+/**
+ * An order-independent digest of a set of bills, made of the bills' dateTime, source and total cost.
+ * <p>
+ * The bills listed on the webserver and the stored bills of a month have equal digests if they match, so the two can be
+ * compared month by month without comparing the bills one by one. A bill whose total cost is not known contributes only
+ * its dateTime and source, which makes the digest differ from that of the same stored bill, so such months are always
+ * compared in full.
+ * </p>
+ */
+final class BillDigest {
+
+	private long sum;
+	private int count;
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Adds a bill to this digest.
+	 * @param dateTime The dateTime of the bill
+	 * @param source The source of the bill
+	 * @param totalCost The total cost of the bill, or {@link Float#NaN} if it is unknown
+	 */
+	void add(LocalDateTime dateTime, String source, float totalCost) {
+		long hash = mix(dateTime.hashCode() * 31L + source.hashCode());
+		if (!Float.isNaN(totalCost)) hash = mix(hash ^ Math.round(totalCost * 100));
+		sum += hash;
+		count++;
+	}
+
+	/**
+	 * @return The number of bills in this digest
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Computes the digests of the specified rows of the bills table per month.
+	 * @param rows The rows of the bills table
+	 * @return The digests, by the month the bills were issued in
+	 */
+	static SortedMap<YearMonth, BillDigest> ofRows(Collection<BillRow> rows) {
+		SortedMap<YearMonth, BillDigest> digests = new TreeMap<>();
+		for (BillRow row : rows) {
+			digests.computeIfAbsent(YearMonth.from(row.getDateTime()), month -> new BillDigest()).add(row.getDateTime(), row.getSource(),
+					row.getTotalCost());
+		}
+		return digests;
+	}
+
+	/**
+	 * Computes the digests of the specified bills per month.
+	 * @param bills The bills
+	 * @return The digests, by the month the bills were issued in
+	 */
+	static SortedMap<YearMonth, BillDigest> ofBills(Collection<Bill> bills) {
+		SortedMap<YearMonth, BillDigest> digests = new TreeMap<>();
+		for (Bill bill : bills) {
+			digests.computeIfAbsent(YearMonth.from(bill.getDateTime()), month -> new BillDigest()).add(bill.getDateTime(), bill.getSource(),
+					bill.getTotalCost());
+		}
+		return digests;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(sum) * 31 + count;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof BillDigest)) return false;
+		BillDigest other = (BillDigest) obj;
+		return sum == other.sum && count == other.count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BillDigest [count=%d, sum=%016x]", count, sum);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Spreads the bits of the specified hash, so that sums of hashes of similar bills rarely collide.
+	 */
+	private static long mix(long hash) {
+		long z = hash + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
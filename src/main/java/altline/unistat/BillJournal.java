@@ -0,0 +1,394 @@
+package altline.unistat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only log of the changes made to a {@link User}'s data since the user's data file was last written in full.
+ * <p>
+ * Every bill addition, edit and deletion is appended to the journal as a small checksummed record, so persisting a
+ * single change costs as much as the change itself instead of a rewrite of the whole bill history. When a user is
+ * loaded, the journal is replayed on top of the data file. Once the journal grows past {@link #COMPACTION_THRESHOLD}
+ * records, the user should be saved in full and the journal cleared.
+ * </p>
+ * Replaying a record is idempotent, so a journal that was not cleared after a full save (e.g. because the application
+ * was killed in between) can safely be replayed again.
+ */
+final class BillJournal {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * The number of records after which the journal should be compacted into a full save of the user
+	 */
+	static final int COMPACTION_THRESHOLD = 256;
+
+	private static final byte OP_ADD = 1;
+	private static final byte OP_EDIT = 2;
+	private static final byte OP_DELETE = 3;
+	private static final byte OP_USER_INFO = 4;
+
+	private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+	private final Path path;
+	private int recordCount;
+
+	BillJournal(Path path) {
+		this.path = path;
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The number of records in the journal
+	 */
+	synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return true if the journal has grown large enough to be compacted
+	 */
+	synchronized boolean needsCompaction() {
+		return recordCount >= COMPACTION_THRESHOLD;
+	}
+
+	/**
+	 * Appends a record of the specified bill being added.
+	 * @param bill The added bill
+	 * @throws IOException if an IO problem occurs
+	 */
+	void appendAdd(Bill bill) throws IOException {
+		appendAdds(Collections.singletonList(bill));
+	}
+
+	/**
+	 * Appends a record for each of the specified bills being added. All records are written with a single file access.
+	 * @param bills The added bills
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void appendAdds(Collection<Bill> bills) throws IOException {
+		if (bills.isEmpty()) return;
+
+		ArrayList<byte[]> records = new ArrayList<>(bills.size());
+		for (Bill bill : bills) {
+			records.add(encode(out -> {
+				out.writeByte(OP_ADD);
+				writeBill(out, bill);
+			}));
+		}
+		append(records);
+	}
+
+	/**
+	 * Appends a record of a bill being edited.
+	 * @param oldDateTime The dateTime of the bill before the edit
+	 * @param oldSource The source of the bill before the edit
+	 * @param bill The bill after the edit
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void appendEdit(LocalDateTime oldDateTime, String oldSource, Bill bill) throws IOException {
+		append(encode(out -> {
+			out.writeByte(OP_EDIT);
+			writeDateTime(out, oldDateTime);
+			out.writeUTF(oldSource == null ? "" : oldSource);
+			writeBill(out, bill);
+		}));
+	}
+
+	/**
+	 * Appends a record of a bill being deleted.
+	 * @param dateTime The dateTime of the deleted bill
+	 * @param source The source of the deleted bill
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void appendDelete(LocalDateTime dateTime, String source) throws IOException {
+		append(encode(out -> {
+			out.writeByte(OP_DELETE);
+			writeDateTime(out, dateTime);
+			out.writeUTF(source == null ? "" : source);
+		}));
+	}
+
+	/**
+	 * Appends a record of the user's general information (full name and available funds) changing.
+	 * @param fullName The new full name of the user
+	 * @param availableFunds The new available funds of the user
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void appendUserInfo(String fullName, float availableFunds) throws IOException {
+		append(encode(out -> {
+			out.writeByte(OP_USER_INFO);
+			out.writeUTF(fullName == null ? "" : fullName);
+			out.writeFloat(availableFunds);
+		}));
+	}
+
+	/**
+	 * Applies all records of the journal to the specified user, in the order they were appended. The user must not be
+	 * visible to the GUI yet, since its bill list is modified on the calling thread.<br>
+	 * If the journal ends with an incomplete or corrupted record (e.g. because the application was killed while
+	 * writing it), the journal is truncated after the last valid record.
+	 * @param user The user to apply the journal to
+	 * @return The number of replayed records
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized int replay(User user) throws IOException {
+		recordCount = 0;
+		if (!Files.exists(path)) return 0;
+
+		List<byte[]> records = readRecords();
+		long validLength = 0;
+		for (byte[] payload : records) {
+			validLength += 8 + payload.length;
+		}
+		applyAll(records, user);
+		recordCount = records.size();
+
+		if (validLength < Files.size(path)) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(validLength);
+			}
+		}
+
+		LOGGER.debug("Replayed {} bill journal records", recordCount);
+		return recordCount;
+	}
+
+	/**
+	 * Applies all valid records of the journal to the specified user, like {@link #replay(User)}, but leaves the journal
+	 * as it is. An incomplete or corrupted record at the end is skipped instead of truncated, and the record count is
+	 * not changed, so this can be used to read the stored data at any time.
+	 * @param user The user to apply the journal to
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void applyTo(User user) throws IOException {
+		if (Files.exists(path)) applyAll(readRecords(), user);
+	}
+
+	/**
+	 * Finds the earliest year that any record of the journal refers to, i.e. the earliest year of the user's data that
+	 * must be loaded before the journal can be replayed.
+	 * @return The earliest year, or {@link Integer#MAX_VALUE} if the journal refers to no bills
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized int getEarliestYear() throws IOException {
+		int earliestYear = Integer.MAX_VALUE;
+		if (!Files.exists(path)) return earliestYear;
+
+		for (byte[] payload : readRecords()) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			byte op = in.readByte();
+			// every bill record starts with the dateTime of the affected bill
+			if (op == OP_ADD || op == OP_EDIT || op == OP_DELETE) {
+				earliestYear = Math.min(earliestYear, readDateTime(in).getYear());
+			}
+			if (op == OP_EDIT) {
+				in.readUTF();
+				earliestYear = Math.min(earliestYear, readDateTime(in).getYear());
+			}
+		}
+		return earliestYear;
+	}
+
+	/**
+	 * Removes all records from the journal. Should be called after the user was saved in full.
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void clear() throws IOException {
+		Files.deleteIfExists(path);
+		recordCount = 0;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Reads the payloads of all valid records of the journal, up to the first incomplete or corrupted record.
+	 */
+	private List<byte[]> readRecords() throws IOException {
+		List<byte[]> records = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+
+				if (length < 0 || length > MAX_RECORD_LENGTH) {
+					LOGGER.warn("Corrupted record length in the bill journal: {}", length);
+					break;
+				}
+
+				byte[] payload = new byte[length];
+				int crc;
+				try {
+					in.readFully(payload);
+					crc = in.readInt();
+				} catch (EOFException e) {
+					LOGGER.warn("Incomplete record at the end of the bill journal");
+					break;
+				}
+
+				if (crc != checksum(payload)) {
+					LOGGER.warn("Corrupted record in the bill journal");
+					break;
+				}
+
+				records.add(payload);
+			}
+		}
+		return records;
+	}
+
+	private void applyAll(List<byte[]> records, User user) throws IOException {
+		if (records.isEmpty()) return;
+
+		// the bills are kept sorted while the records are applied, so that they are found by a binary search
+		user.sortBills();
+		for (byte[] payload : records) {
+			apply(payload, user);
+		}
+	}
+
+	private void append(byte[] record) throws IOException {
+		append(Collections.singletonList(record));
+	}
+
+	private void append(Collection<byte[]> records) throws IOException {
+		Files.createDirectories(path.getParent());
+		try (OutputStream fileOut = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+			for (byte[] record : records) {
+				out.writeInt(record.length);
+				out.write(record);
+				out.writeInt(checksum(record));
+			}
+		}
+		recordCount += records.size();
+	}
+
+	private void apply(byte[] payload, User user) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte op = in.readByte();
+
+		switch (op) {
+		case OP_ADD: {
+			// replaces the bill issued at the same time in the same place, like the addition did
+			user.addBillSorted(readBill(in));
+			break;
+		}
+		case OP_EDIT: {
+			LocalDateTime oldDateTime = readDateTime(in);
+			String oldSource = readSource(in);
+			Bill edited = readBill(in);
+
+			Bill existing = user.findBill(oldDateTime, oldSource);
+			if (existing == null) existing = user.findBill(edited.getDateTime(), edited.getSource());
+
+			if (existing != null) user.editBill(existing, edited.getDateTime(), edited.getSource(), edited.getEntries());
+			else user.addBillSorted(edited);
+			break;
+		}
+		case OP_DELETE: {
+			Bill existing = user.findBill(readDateTime(in), readSource(in));
+			if (existing != null) user.removeBill(existing);
+			break;
+		}
+		case OP_USER_INFO:
+			user.setFullName(in.readUTF());
+			user.setAvailableFunds(in.readFloat());
+			break;
+		default:
+			throw new IOException("Unknown bill journal operation: " + op);
+		}
+	}
+
+	private static byte[] encode(RecordWriter writer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writer.write(out);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	private static void writeBill(DataOutputStream out, Bill bill) throws IOException {
+		writeDateTime(out, bill.getDateTime());
+		out.writeUTF(bill.getSource() == null ? "" : bill.getSource());
+		out.writeBoolean(bill.isEdited());
+		out.writeInt(bill.getEntries().size());
+		for (Bill.Entry entry : bill.getEntries()) {
+			out.writeUTF(entry.getArticleName() == null ? "" : entry.getArticleName());
+			out.writeFloat(entry.getArticlePrice());
+			out.writeInt(entry.getAmount());
+			out.writeFloat(entry.getSubsidy());
+		}
+	}
+
+	private static Bill readBill(DataInputStream in) throws IOException {
+		Bill bill = new Bill(readDateTime(in), readSource(in));
+		bill.setEdited(in.readBoolean());
+		int entryCount = in.readInt();
+		for (int i = 0; i < entryCount; i++) {
+			bill.addEntry(in.readUTF(), in.readFloat(), in.readInt(), in.readFloat());
+		}
+		return bill;
+	}
+
+	private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+		if (dateTime == null) dateTime = LocalDateTime.MIN;
+		out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+		out.writeInt(dateTime.getNano());
+	}
+
+	private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+		return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+	}
+
+	/**
+	 * Reads a source written as an empty string if it was missing, like the data file does.
+	 */
+	private static String readSource(DataInputStream in) throws IOException {
+		String source = in.readUTF();
+		return source.isEmpty() ? null : source;
+	}
+
+	@FunctionalInterface
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+}
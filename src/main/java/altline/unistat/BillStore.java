@@ -0,0 +1,161 @@
+package altline.unistat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Persistent storage of a single {@link User}'s data.
+ * <p>
+ * Bills are identified by their dateTime and source. Besides loading the {@link User}, a store can be queried for the
+ * bills of a date range or source, and single changes can be written without rewriting the user's whole history.
+ * </p>
+ * <p>
+ * Stores are partitioned by year. When the user is loaded, only the bills of recent years are loaded (see
+ * {@link User#getFirstLoadedYear()}), and the bills of older years are loaded on demand with
+ * {@link #loadYears(int, int)}.
+ * </p>
+ * Stores are not thread-safe. The {@link SaveScheduler} of a user accesses the user's store from a single thread.
+ * @see FileBillStore
+ * @see DatabaseBillStore
+ */
+interface BillStore extends Closeable {
+
+	/**
+	 * Loads the stored data of the user, with the bills of the years since the store's first recent year.
+	 * @return The stored User, or a new User with no data if nothing is stored for the user
+	 * @throws IOException if an IO problem occurs
+	 */
+	User load() throws IOException;
+
+	/**
+	 * Loads the stored bills issued within the specified years.
+	 * @param fromYear The first year whose bills are to be loaded
+	 * @param toYear The year after the last year whose bills are to be loaded
+	 * @return The loaded bills
+	 * @throws IOException if an IO problem occurs
+	 */
+	default List<Bill> loadYears(int fromYear, int toYear) throws IOException {
+		return query(yearStart(fromYear), yearStart(toYear), null);
+	}
+
+	/**
+	 * Finds the stored bills issued within the specified time range in the specified place.
+	 * @param from The inclusive lower bound of the bills' dateTime, or null for no lower bound
+	 * @param to The exclusive upper bound of the bills' dateTime, or null for no upper bound
+	 * @param source The source of the bills, or null for bills of any source
+	 * @return The matching bills, sorted by dateTime
+	 * @throws IOException if an IO problem occurs
+	 */
+	List<Bill> query(LocalDateTime from, LocalDateTime to, String source) throws IOException;
+
+	/**
+	 * Finds the dateTimes and sources of the stored bills issued within the specified time range, without the rest of
+	 * the bills' data where the store can leave it out.
+	 * @param from The inclusive lower bound of the bills' dateTime, or null for no lower bound
+	 * @param to The exclusive upper bound of the bills' dateTime, or null for no upper bound
+	 * @return The dateTimes and sources of the matching bills
+	 * @throws IOException if an IO problem occurs
+	 */
+	default Set<SimpleImmutableEntry<LocalDateTime, String>> queryKeys(LocalDateTime from, LocalDateTime to) throws IOException {
+		Set<SimpleImmutableEntry<LocalDateTime, String>> keys = new HashSet<>();
+		for (Bill bill : query(from, to, null)) {
+			keys.add(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource()));
+		}
+		return keys;
+	}
+
+	/**
+	 * Finds the years in which the stored bills were issued, so that the bills can be read one year at a time.
+	 * @return The years of the stored bills, in ascending order
+	 * @throws IOException if an IO problem occurs
+	 */
+	default SortedSet<Integer> getYears() throws IOException {
+		SortedSet<Integer> years = new TreeSet<>();
+		for (Bill bill : query(null, null, null)) {
+			if (bill.getDateTime() != null) years.add(bill.getDateTime().getYear());
+		}
+		return years;
+	}
+
+	/**
+	 * Stores the specified bill, replacing a stored bill with the same dateTime and source.
+	 * @param bill The bill to store
+	 * @throws IOException if an IO problem occurs
+	 */
+	void upsert(Bill bill) throws IOException;
+
+	/**
+	 * Stores all the specified bills at once, replacing stored bills with the same dateTime and source.
+	 * @param bills The bills to store
+	 * @throws IOException if an IO problem occurs
+	 */
+	void insertAll(Collection<Bill> bills) throws IOException;
+
+	/**
+	 * Replaces the stored bill that had the specified dateTime and source with the specified edited bill.
+	 * @param oldDateTime The dateTime of the bill before the edit
+	 * @param oldSource The source of the bill before the edit
+	 * @param bill The bill after the edit
+	 * @throws IOException if an IO problem occurs
+	 */
+	default void update(LocalDateTime oldDateTime, String oldSource, Bill bill) throws IOException {
+		delete(oldDateTime, oldSource);
+		upsert(bill);
+	}
+
+	/**
+	 * Removes the stored bill with the specified dateTime and source, if present.
+	 * @param dateTime The dateTime of the bill
+	 * @param source The source of the bill
+	 * @throws IOException if an IO problem occurs
+	 */
+	void delete(LocalDateTime dateTime, String source) throws IOException;
+
+	/**
+	 * Stores the user's general information.
+	 * @param fullName The full name of the user
+	 * @param availableFunds The available funds of the user
+	 * @throws IOException if an IO problem occurs
+	 */
+	void saveUserInfo(String fullName, float availableFunds) throws IOException;
+
+	/**
+	 * Replaces the stored data of the user with the specified data. Only the bills of the years the User has loaded
+	 * (see {@link User#getFirstLoadedYear()}) are replaced, other bills of the User are added to the stored ones.
+	 * @param user The User whose data is to be stored. The User must not be modified while it is being stored.
+	 * @throws IOException if an IO problem occurs
+	 */
+	void saveAll(User user) throws IOException;
+
+	/**
+	 * Gets a stamp of the stored data that changes whenever the stored data changes, so that data derived from the
+	 * stored data (see {@link BillAggregates}) can be checked for being up to date.
+	 * @return The version of the stored data
+	 * @throws IOException if an IO problem occurs
+	 */
+	long getDataVersion() throws IOException;
+
+	/**
+	 * @return true if the store has accumulated enough single changes that it should be rewritten with
+	 *         {@link #saveAll(User)}
+	 */
+	boolean needsCompaction();
+
+	/**
+	 * @return The start of the specified year, or null if the year is {@link Integer#MIN_VALUE} or
+	 *         {@link Integer#MAX_VALUE}, which stand for no bound
+	 */
+	static LocalDateTime yearStart(int year) {
+		if (year == Integer.MIN_VALUE || year == Integer.MAX_VALUE) return null;
+		return LocalDateTime.of(year, 1, 1, 0, 0);
+	}
+
+}
@@ -0,0 +1,297 @@
+package altline.unistat;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bulk import and export of bill histories in a text format.
+ * <p>
+ * Files are read as a stream of records. The reading thread only splits the file into records and hands chunks of them
+ * to a fork-join pool, which parses them into bills in parallel. Only a bounded number of chunks wait to be parsed at
+ * any time, so neither the text of the file nor its records are held in memory as a whole, only the resulting bills
+ * are. Files are written one bill at a time.
+ * </p>
+ * The format of a file is determined by its extension, see {@link #forFile(Path)}.
+ * @see CsvBillTransfer
+ * @see JsonBillTransfer
+ */
+abstract class BillTransfer {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The number of records parsed in one task */
+	private static final int CHUNK_SIZE = 2048;
+	/** The number of chunks that may wait to be parsed, which bounds the memory taken by unparsed records */
+	private static final int MAX_PENDING_CHUNKS = Runtime.getRuntime().availableProcessors() * 2;
+
+	/**
+	 * Gets the transfer for the format of the specified file, determined by the file's extension.
+	 * @param file The file to transfer bills from or to
+	 * @return The transfer for the file's format
+	 * @throws IllegalArgumentException if the file's extension is not one of a supported format
+	 */
+	static BillTransfer forFile(Path file) {
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (name.endsWith(CsvBillTransfer.EXTENSION)) return new CsvBillTransfer();
+		if (name.endsWith(JsonBillTransfer.EXTENSION)) return new JsonBillTransfer();
+		throw new IllegalArgumentException("Unsupported bill file format: " + file.getFileName());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Reads the bills of the specified file. Of the bills in the file that were issued at the same time in the same place
+	 * (see {@link Bill#isSameTimePlace(Bill)}), only the first one is kept.
+	 * @param file The file to read
+	 * @return The read bills, in the order of the file
+	 * @throws IOException if an IO problem occurs or the file is malformed
+	 * @throws InterruptedException if interrupted while waiting for the bills to be parsed
+	 */
+	List<Bill> read(Path file) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		List<Bill> bills = new ArrayList<>();
+		Deque<ForkJoinTask<List<Bill>>> pending = new ArrayDeque<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			readHeader(reader);
+
+			long recordNumber = 1;
+			boolean more = true;
+			while (more) {
+				final List<String> records = new ArrayList<>(CHUNK_SIZE);
+				more = readChunk(reader, records);
+				if (records.isEmpty()) break;
+
+				final long firstRecord = recordNumber;
+				recordNumber += records.size();
+
+				pending.add(ForkJoinPool.commonPool().submit(() -> parseChunk(records, firstRecord)));
+				if (pending.size() >= MAX_PENDING_CHUNKS) collect(pending.poll(), bills);
+			}
+			while (!pending.isEmpty()) {
+				collect(pending.poll(), bills);
+			}
+
+		} finally {
+			pending.forEach(task -> task.cancel(true));
+		}
+
+		List<Bill> distinct = distinct(bills);
+		LOGGER.debug("Read {} bills in {} ms", distinct.size(), (System.nanoTime() - start) / 1000000);
+		return distinct;
+	}
+
+	/**
+	 * Writes the specified bills to the specified file, replacing the file's contents.
+	 * @param file The file to write
+	 * @param bills The bills to write
+	 * @throws IOException if an IO problem occurs
+	 */
+	void write(Path file, Collection<Bill> bills) throws IOException {
+		try (BatchWriter writer = openWriter(file)) {
+			writer.write(bills);
+		}
+	}
+
+	/**
+	 * Opens the specified file for writing bills in batches, replacing the file's contents. The file is complete once
+	 * the returned writer is closed.
+	 * @param file The file to write
+	 * @return The writer of the file
+	 * @throws IOException if an IO problem occurs
+	 */
+	BatchWriter openWriter(Path file) throws IOException {
+		return new BatchWriter(file);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Format implementation                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Reads the part of the file that precedes the first record.
+	 * @throws IOException if an IO problem occurs or the file does not start as expected
+	 */
+	protected abstract void readHeader(BufferedReader reader) throws IOException;
+
+	/**
+	 * Reads the text of the next record of the file.
+	 * @return The text of the record, or null if there are no more records
+	 * @throws IOException if an IO problem occurs or the file is malformed
+	 */
+	protected abstract String readRecord(BufferedReader reader) throws IOException;
+
+	/**
+	 * Parses the specified consecutive records into bills. Called in parallel for different chunks of the file.
+	 * @param records The texts of the records
+	 * @param firstRecord The number of the first record in the file, for error messages
+	 * @return The parsed bills, in the order of the records
+	 * @throws IOException if a record is malformed
+	 */
+	protected abstract List<Bill> parseChunk(List<String> records, long firstRecord) throws IOException;
+
+	/**
+	 * Checks whether the first bill parsed from a chunk is a continuation of the last bill parsed from the previous
+	 * chunk, for formats whose records can be parts of a bill.
+	 * @return true if the entries of the next bill are to be added to the previous bill
+	 */
+	protected boolean continuesBill(Bill previous, Bill next) {
+		return false;
+	}
+
+	protected abstract void writeHeader(Writer writer) throws IOException;
+
+	/**
+	 * @param first true if the bill is the first one written to the file
+	 */
+	protected abstract void writeBill(Writer writer, Bill bill, boolean first) throws IOException;
+
+	protected abstract void writeFooter(Writer writer) throws IOException;
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Reads the next records of the file into the specified chunk, until the chunk is full. Once the records run out,
+	 * {@link #readRecord(BufferedReader)} is not called again, since a format may not be able to tell the end of its
+	 * records twice.
+	 * @return false if the records ran out
+	 */
+	private boolean readChunk(BufferedReader reader, List<String> chunk) throws IOException {
+		while (chunk.size() < CHUNK_SIZE) {
+			String record = readRecord(reader);
+			if (record == null) return false;
+			chunk.add(record);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the specified chunk to be parsed and appends its bills to the specified list.
+	 */
+	private void collect(ForkJoinTask<List<Bill>> task, List<Bill> bills) throws IOException, InterruptedException {
+		List<Bill> parsed;
+		try {
+			parsed = task.get();
+		} catch (ExecutionException e) {
+			// the pool wraps the checked exceptions of its tasks, and wraps them again when rethrowing them in this thread
+			Throwable cause = e.getCause();
+			while (cause instanceof RuntimeException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new RuntimeException(e.getCause());
+		}
+		if (parsed.isEmpty()) return;
+
+		if (!bills.isEmpty()) {
+			Bill previous = bills.get(bills.size() - 1);
+			Bill next = parsed.get(0);
+			if (continuesBill(previous, next)) {
+				List<Bill.Entry> entries = new ArrayList<>(previous.getEntries());
+				entries.addAll(next.getEntries());
+				previous.setEntries(entries);
+				parsed = parsed.subList(1, parsed.size());
+			}
+		}
+		bills.addAll(parsed);
+	}
+
+	private static List<Bill> distinct(List<Bill> bills) {
+		Set<SimpleImmutableEntry<LocalDateTime, String>> keys = new HashSet<>(bills.size() * 2);
+		List<Bill> distinct = new ArrayList<>(bills.size());
+		for (Bill bill : bills) {
+			if (keys.add(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource()))) distinct.add(bill);
+		}
+
+		if (distinct.size() < bills.size()) LOGGER.info("Skipped {} duplicate bills of the file", bills.size() - distinct.size());
+		return distinct;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Writes bills to a file in batches, so that the bills of a file need not all be held in memory at once.
+	 */
+	final class BatchWriter implements Closeable {
+		private final Writer writer;
+		private final long start = System.nanoTime();
+		private int count;
+
+		private BatchWriter(Path file) throws IOException {
+			writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+			try {
+				writeHeader(writer);
+			} catch (IOException e) {
+				writer.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Appends the specified bills to the file.
+		 * @param bills The bills to write
+		 * @throws IOException if an IO problem occurs
+		 */
+		void write(Collection<Bill> bills) throws IOException {
+			for (Bill bill : bills) {
+				writeBill(writer, bill, count == 0);
+				count++;
+			}
+		}
+
+		/**
+		 * @return The number of bills written so far
+		 */
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * Completes and closes the file.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				writeFooter(writer);
+			} finally {
+				writer.close();
+			}
+			LOGGER.debug("Wrote {} bills in {} ms", count, (System.nanoTime() - start) / 1000000);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package altline.unistat;
+
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stops requests to the webserver while it appears to be down, so that they fail at once instead of waiting for their
+ * timeouts.
+ * <p>
+ * The breaker is closed while requests succeed. It opens once a number of requests in a row fail, or at once when the
+ * server turns out to be unreachable. While it is open, requests are refused. After a while it lets requests through
+ * again as a trial: the first success closes it, a failure opens it again for twice as long as before, up to a maximum.
+ * </p>
+ * The breaker can be used from several threads at once.
+ */
+final class CircuitBreaker {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	enum State {
+		CLOSED,
+		OPEN,
+		/** Letting requests through as a trial */
+		HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long minOpenTime;
+	private final long maxOpenTime;
+	private final Consumer<State> stateListener;
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long openTime;
+	private long openUntil;
+
+	/**
+	 * @param failureThreshold The number of failed requests in a row that open the breaker
+	 * @param minOpenTime The time in milliseconds the breaker stays open the first time
+	 * @param maxOpenTime The longest time in milliseconds the breaker stays open
+	 * @param stateListener Called with the new state whenever the state changes, while the breaker is locked
+	 */
+	CircuitBreaker(int failureThreshold, long minOpenTime, long maxOpenTime, Consumer<State> stateListener) {
+		this.failureThreshold = failureThreshold;
+		this.minOpenTime = minOpenTime;
+		this.maxOpenTime = maxOpenTime;
+		this.stateListener = stateListener;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return true if a request may be made, false if the breaker is open
+	 */
+	synchronized boolean allowRequest() {
+		if (state == State.OPEN) {
+			if (System.currentTimeMillis() < openUntil) return false;
+			setState(State.HALF_OPEN);
+		}
+		return true;
+	}
+
+	/**
+	 * Records a request that succeeded, which closes the breaker.
+	 */
+	synchronized void recordSuccess() {
+		failures = 0;
+		openTime = 0;
+		if (state != State.CLOSED) setState(State.CLOSED);
+	}
+
+	/**
+	 * Records a request that failed with a transient error.
+	 */
+	synchronized void recordFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) open();
+	}
+
+	/**
+	 * Opens the breaker at once, e.g. because the server can not be reached.
+	 */
+	synchronized void trip() {
+		open();
+	}
+
+	synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The time in milliseconds until the breaker lets requests through again, or 0 if it does
+	 */
+	synchronized long getRetryDelay() {
+		if (state != State.OPEN) return 0;
+		return Math.max(0, openUntil - System.currentTimeMillis());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void open() {
+		// requests that were already under way when it opened do not keep it open longer
+		if (state == State.OPEN) return;
+
+		openTime = openTime == 0 ? minOpenTime : Math.min(maxOpenTime, openTime * 2);
+		openUntil = System.currentTimeMillis() + openTime;
+		failures = 0;
+		LOGGER.warn("The webserver appears to be down, requests are stopped for {} s", openTime / 1000);
+		setState(State.OPEN);
+	}
+
+	private void setState(State state) {
+		this.state = state;
+		stateListener.accept(state);
+	}
+
+}
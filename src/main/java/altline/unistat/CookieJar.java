@@ -0,0 +1,208 @@
+package altline.unistat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import altline.utils.Crypt;
+
+/**
+ * The webserver session of a user, persisted between runs of the application so that the user does not have to be
+ * logged on the webserver again.
+ * <p>
+ * The cookies are stored encrypted. Cookies that expire are dropped when the jar is read, and so are session cookies
+ * once the jar is older than {@link #SESSION_LIFETIME}, since the server will have forgotten the session by then.
+ * </p>
+ */
+final class CookieJar {
+
+	private static final int MAGIC = 0x55534A52;
+	private static final byte VERSION = 1;
+
+	/** The time in milliseconds for which cookies without an expiry are kept */
+	static final long SESSION_LIFETIME = 12 * 60 * 60 * 1000;
+
+	private final String userID;
+	private final long savedAt;
+	private final List<StoredCookie> cookies;
+
+	/**
+	 * @param userID The user whose session the cookies hold
+	 * @param cookies The cookies of the session
+	 */
+	CookieJar(String userID, List<StoredCookie> cookies) {
+		this(userID, System.currentTimeMillis(), cookies);
+	}
+
+	private CookieJar(String userID, long savedAt, List<StoredCookie> cookies) {
+		this.userID = userID;
+		this.savedAt = savedAt;
+		this.cookies = Collections.unmodifiableList(cookies);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return The user whose session the cookies hold
+	 */
+	String getUserID() {
+		return userID;
+	}
+
+	/**
+	 * @return The cookies of the session that have not expired
+	 */
+	List<StoredCookie> getCookies() {
+		return cookies;
+	}
+
+	/**
+	 * Reads a jar from the specified file, dropping the cookies that have expired.
+	 * @param path The file to read from
+	 * @return The read jar, or null if the file does not exist
+	 * @throws IOException if an IO problem occurs or the file is not a valid cookie jar
+	 */
+	static CookieJar read(Path path) throws IOException {
+		if (!Files.exists(path)) return null;
+
+		byte[] data;
+		try {
+			data = Base64.getDecoder().decode(Crypt.decrypt(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII)));
+		} catch (RuntimeException e) {
+			throw new IOException("The cookie jar can not be decrypted: " + path, e);
+		}
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+			if (in.readInt() != MAGIC) throw new IOException("Not a cookie jar: " + path);
+			byte version = in.readByte();
+			if (version != VERSION) throw new IOException("Unsupported cookie jar version: " + version);
+
+			String userID = in.readUTF();
+			long savedAt = in.readLong();
+			long now = System.currentTimeMillis();
+			boolean sessionAlive = now - savedAt < SESSION_LIFETIME;
+
+			int count = in.readInt();
+			List<StoredCookie> cookies = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				StoredCookie cookie = new StoredCookie(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(),
+						in.readBoolean(), in.readBoolean());
+				if (cookie.isSession() ? sessionAlive : cookie.getExpires() > now) cookies.add(cookie);
+			}
+			return new CookieJar(userID, savedAt, cookies);
+		}
+	}
+
+	/**
+	 * Writes this jar to the specified file, replacing the file's contents.
+	 * @param path The file to write to
+	 * @throws IOException if an IO problem occurs
+	 */
+	void write(Path path) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeUTF(userID);
+			out.writeLong(savedAt);
+			out.writeInt(cookies.size());
+			for (StoredCookie cookie : cookies) {
+				out.writeUTF(cookie.getName());
+				out.writeUTF(cookie.getValue());
+				out.writeUTF(cookie.getDomain());
+				out.writeUTF(cookie.getPath());
+				out.writeLong(cookie.getExpires());
+				out.writeBoolean(cookie.isSecure());
+				out.writeBoolean(cookie.isHttpOnly());
+			}
+		}
+		String encrypted = Crypt.encrypt(Base64.getEncoder().encodeToString(bytes.toByteArray()));
+
+		Files.createDirectories(path.getParent());
+		Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tempFile, encrypted.getBytes(StandardCharsets.US_ASCII));
+		Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * A cookie in a form that does not depend on the {@link ScrapeEngine} that received it.
+	 */
+	static final class StoredCookie {
+		private final String name;
+		private final String value;
+		private final String domain;
+		private final String path;
+		private final long expires;
+		private final boolean secure;
+		private final boolean httpOnly;
+
+		/**
+		 * @param expires The time the cookie expires in milliseconds since the epoch, or -1 for a session cookie
+		 */
+		StoredCookie(String name, String value, String domain, String path, long expires, boolean secure, boolean httpOnly) {
+			this.name = name;
+			this.value = value == null ? "" : value;
+			this.domain = domain;
+			this.path = path == null || path.isEmpty() ? "/" : path;
+			this.expires = expires;
+			this.secure = secure;
+			this.httpOnly = httpOnly;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String getValue() {
+			return value;
+		}
+
+		String getDomain() {
+			return domain;
+		}
+
+		String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return The time the cookie expires in milliseconds since the epoch, or -1 for a session cookie
+		 */
+		long getExpires() {
+			return expires;
+		}
+
+		boolean isSession() {
+			return expires < 0;
+		}
+
+		boolean isSecure() {
+			return secure;
+		}
+
+		boolean isHttpOnly() {
+			return httpOnly;
+		}
+	}
+
+}
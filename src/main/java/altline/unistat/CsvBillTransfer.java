@@ -0,0 +1,184 @@
+package altline.unistat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Transfers bills in CSV format, with a header row and one row for each bill entry:
+ *
+ * <pre>
+ * dateTime,source,articleName,articlePrice,amount,subsidy
+ * 2019-10-01T12:30:15,Restoran,Juha,3.5,1,2.0
+ * </pre>
+ *
+ * The rows of a bill are consecutive. A bill without entries is written as a single row with empty entry fields. The
+ * dateTime is in ISO-8601 format and numbers use a decimal point. Fields containing a comma, quote or line break are
+ * quoted as described in RFC 4180.
+ */
+final class CsvBillTransfer extends BillTransfer {
+
+	static final String EXTENSION = ".csv";
+
+	private static final String HEADER = "dateTime,source,articleName,articlePrice,amount,subsidy";
+	private static final int FIELD_COUNT = 6;
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	protected void readHeader(BufferedReader reader) throws IOException {
+		String header = reader.readLine();
+		if (header == null) return;
+		if (header.startsWith("\uFEFF")) header = header.substring(1);
+		if (!header.trim().equalsIgnoreCase(HEADER)) throw new IOException("Unexpected CSV header: " + header);
+	}
+
+	@Override
+	protected String readRecord(BufferedReader reader) throws IOException {
+		String record;
+		do {
+			record = reader.readLine();
+			if (record == null) return null;
+		} while (record.isEmpty());
+
+		// a quoted field may contain line breaks
+		while (!isComplete(record)) {
+			String line = reader.readLine();
+			if (line == null) throw new IOException("Unterminated quoted field at the end of the file");
+			record = record + "\n" + line;
+		}
+		return record;
+	}
+
+	@Override
+	protected List<Bill> parseChunk(List<String> records, long firstRecord) throws IOException {
+		List<Bill> bills = new ArrayList<>();
+		Bill bill = null;
+		long recordNumber = firstRecord;
+
+		for (String record : records) {
+			List<String> fields = split(record);
+			if (fields.size() != FIELD_COUNT) {
+				throw new IOException(String.format("Record %d has %d fields instead of %d", recordNumber, fields.size(), FIELD_COUNT));
+			}
+
+			try {
+				LocalDateTime dateTime = LocalDateTime.parse(fields.get(0));
+				String source = fields.get(1);
+				if (bill == null || !Objects.equals(bill.getDateTime(), dateTime) || !Objects.equals(bill.getSource(), source)) {
+					bill = new Bill(dateTime, source);
+					bills.add(bill);
+				}
+
+				if (!fields.get(2).isEmpty()) {
+					bill.addEntry(fields.get(2), Float.parseFloat(fields.get(3)), Integer.parseInt(fields.get(4)),
+							Float.parseFloat(fields.get(5)));
+				}
+
+			} catch (DateTimeParseException | NumberFormatException e) {
+				throw new IOException("Record " + recordNumber + " is malformed: " + e.getMessage(), e);
+			}
+			recordNumber++;
+		}
+		return bills;
+	}
+
+	/**
+	 * The rows of a bill can be split between two chunks.
+	 */
+	@Override
+	protected boolean continuesBill(Bill previous, Bill next) {
+		return previous.isSameTimePlace(next);
+	}
+
+	@Override
+	protected void writeHeader(Writer writer) throws IOException {
+		writer.write(HEADER);
+		writer.write('\n');
+	}
+
+	@Override
+	protected void writeBill(Writer writer, Bill bill, boolean first) throws IOException {
+		String billFields = quote(bill.getDateTime() == null ? "" : bill.getDateTime().toString()) + ',' + quote(bill.getSource());
+		if (bill.getEntries().isEmpty()) {
+			writer.write(billFields);
+			writer.write(",,,,\n");
+			return;
+		}
+
+		for (Bill.Entry entry : bill.getEntries()) {
+			writer.write(billFields);
+			writer.write(',');
+			writer.write(quote(entry.getArticleName()));
+			writer.write(',');
+			writer.write(Float.toString(entry.getArticlePrice()));
+			writer.write(',');
+			writer.write(Integer.toString(entry.getAmount()));
+			writer.write(',');
+			writer.write(Float.toString(entry.getSubsidy()));
+			writer.write('\n');
+		}
+	}
+
+	@Override
+	protected void writeFooter(Writer writer) throws IOException {
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return true if the specified text does not end within a quoted field
+	 */
+	private static boolean isComplete(String record) {
+		int quotes = 0;
+		for (int i = 0; i < record.length(); i++) {
+			if (record.charAt(i) == '"') quotes++;
+		}
+		return quotes % 2 == 0;
+	}
+
+	private static List<String> split(String record) {
+		List<String> fields = new ArrayList<>(FIELD_COUNT);
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < record.length(); i++) {
+			char c = record.charAt(i);
+			if (quoted) {
+				if (c != '"') field.append(c);
+				else if (i + 1 < record.length() && record.charAt(i + 1) == '"') field.append(record.charAt(++i));
+				else quoted = false;
+
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if (c != '\r') {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static String quote(String field) {
+		if (field == null) return "";
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) return field;
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+
+}
@@ -0,0 +1,417 @@
+package altline.unistat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A {@link BillStore} that keeps the user's data in an embedded H2 database file.
+ * <p>
+ * Bills are stored in a table whose primary key is their dateTime and source, with a secondary index on the source, so
+ * single changes, range queries and the loading of single years only touch the affected rows. The entries of a bill are stored together with the
+ * bill in a compact binary form.
+ * </p>
+ * DateTimes are bound as {@link LocalDateTime} values, which H2 stores as they are, down to the nanosecond. Going
+ * through {@link java.sql.Timestamp} would convert them from and to the default time zone, which shifts the times that
+ * fall into a daylight saving gap. A bill without a source is stored with an empty source, since the source is part of
+ * the primary key, and read back without one.
+ */
+final class DatabaseBillStore implements BillStore {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * The suffix of the database file name, which H2 appends to the database path of the connection URL
+	 */
+	static final String FILE_SUFFIX = ".mv.db";
+
+	private static final String SQL_SELECT_USER = "SELECT FULL_NAME, AVAILABLE_FUNDS FROM USER_INFO WHERE USER_ID = ?";
+	private static final String SQL_MERGE_USER = "MERGE INTO USER_INFO (USER_ID, FULL_NAME, AVAILABLE_FUNDS) KEY (USER_ID) VALUES (?, ?, ?)";
+	private static final String SQL_SELECT_BILLS = "SELECT DATE_TIME, SOURCE, EDITED, ENTRIES FROM BILLS";
+	private static final String SQL_SELECT_KEYS = "SELECT DATE_TIME, SOURCE FROM BILLS";
+	private static final String SQL_SELECT_YEARS = "SELECT DISTINCT YEAR(DATE_TIME) FROM BILLS ORDER BY 1";
+	private static final String SQL_MERGE_BILL = "MERGE INTO BILLS (DATE_TIME, SOURCE, EDITED, ENTRIES) KEY (DATE_TIME, SOURCE) VALUES (?, ?, ?, ?)";
+	private static final String SQL_DELETE_BILL = "DELETE FROM BILLS WHERE DATE_TIME = ? AND SOURCE = ?";
+	private static final String SQL_DELETE_BILLS_SINCE = "DELETE FROM BILLS WHERE DATE_TIME >= ?";
+	private static final String SQL_SELECT_VERSION = "SELECT DATA_VERSION FROM DATA_INFO";
+	private static final String SQL_INCREMENT_VERSION = "UPDATE DATA_INFO SET DATA_VERSION = DATA_VERSION + 1";
+	private static final String SQL_EXISTS_BILLS_BEFORE = "SELECT 1 FROM BILLS WHERE DATE_TIME < ? LIMIT 1";
+
+	private final String userID;
+	private final Connection connection;
+	private final int recentYear;
+
+	/**
+	 * Opens the specified database file, creating it if it does not exist.
+	 * @param userID The userID of the user whose data is stored
+	 * @param databaseFile The database file, whose name must end with {@link #FILE_SUFFIX}
+	 * @param recentYear The first year whose bills are loaded with the user
+	 * @throws IOException if the database can not be opened
+	 */
+	DatabaseBillStore(String userID, Path databaseFile, int recentYear) throws IOException {
+		this.userID = userID;
+		this.recentYear = recentYear;
+
+		String path = databaseFile.toAbsolutePath().toString();
+		if (path.endsWith(FILE_SUFFIX)) path = path.substring(0, path.length() - FILE_SUFFIX.length());
+
+		try {
+			Files.createDirectories(databaseFile.getParent());
+			connection = DriverManager.getConnection("jdbc:h2:" + path);
+			createTables();
+		} catch (SQLException e) {
+			throw new IOException("Could not open the bill database: " + databaseFile, e);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public User load() throws IOException {
+		User user = new User(userID);
+		try (PreparedStatement statement = connection.prepareStatement(SQL_SELECT_USER)) {
+			statement.setString(1, userID);
+			try (ResultSet result = statement.executeQuery()) {
+				if (result.next()) {
+					user.setFullName(result.getString(1));
+					user.setAvailableFunds(result.getFloat(2));
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not load user information", e);
+		}
+
+		long start = System.nanoTime();
+		LocalDateTime from = BillStore.yearStart(recentYear);
+		List<Bill> bills = query(from, null, null);
+		user.addBills(bills);
+		if (from != null && hasBillsBefore(from)) user.setFirstLoadedYear(recentYear);
+		LOGGER.debug("Loaded {} bills from the database in {} ms", bills.size(), (System.nanoTime() - start) / 1000000);
+		return user;
+	}
+
+	@Override
+	public List<Bill> query(LocalDateTime from, LocalDateTime to, String source) throws IOException {
+		List<Object> parameters = new ArrayList<>(3);
+		String sql = SQL_SELECT_BILLS + where(from, to, source, parameters) + " ORDER BY DATE_TIME";
+
+		try (PreparedStatement statement = prepare(sql, parameters)) {
+			List<Bill> bills = new ArrayList<>();
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					bills.add(readBill(result));
+				}
+			}
+			return bills;
+
+		} catch (SQLException e) {
+			throw new IOException("Could not query bills", e);
+		}
+	}
+
+	/**
+	 * Only the key columns are read, so the entries of the bills are not decoded.
+	 */
+	@Override
+	public Set<SimpleImmutableEntry<LocalDateTime, String>> queryKeys(LocalDateTime from, LocalDateTime to) throws IOException {
+		List<Object> parameters = new ArrayList<>(2);
+		String sql = SQL_SELECT_KEYS + where(from, to, null, parameters);
+
+		try (PreparedStatement statement = prepare(sql, parameters)) {
+			Set<SimpleImmutableEntry<LocalDateTime, String>> keys = new HashSet<>();
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					keys.add(new SimpleImmutableEntry<>(result.getObject(1, LocalDateTime.class), emptyToNull(result.getString(2))));
+				}
+			}
+			return keys;
+
+		} catch (SQLException e) {
+			throw new IOException("Could not query bills", e);
+		}
+	}
+
+	@Override
+	public SortedSet<Integer> getYears() throws IOException {
+		try (Statement statement = connection.createStatement();
+				ResultSet result = statement.executeQuery(SQL_SELECT_YEARS)) {
+			SortedSet<Integer> years = new TreeSet<>();
+			while (result.next()) {
+				years.add(result.getInt(1));
+			}
+			return years;
+
+		} catch (SQLException e) {
+			throw new IOException("Could not query bills", e);
+		}
+	}
+
+	@Override
+	public void upsert(Bill bill) throws IOException {
+		insertAll(Collections.singletonList(bill));
+	}
+
+	@Override
+	public void insertAll(Collection<Bill> bills) throws IOException {
+		if (bills.isEmpty()) return;
+		transaction(() -> mergeBills(bills));
+	}
+
+	@Override
+	public void update(LocalDateTime oldDateTime, String oldSource, Bill bill) throws IOException {
+		transaction(() -> {
+			deleteBill(oldDateTime, oldSource);
+			mergeBills(Collections.singletonList(bill));
+		});
+	}
+
+	@Override
+	public void delete(LocalDateTime dateTime, String source) throws IOException {
+		transaction(() -> deleteBill(dateTime, source));
+	}
+
+	@Override
+	public void saveUserInfo(String fullName, float availableFunds) throws IOException {
+		transaction(() -> mergeUserInfo(fullName, availableFunds));
+	}
+
+	/**
+	 * Replaces the stored bills of the years the User has loaded and merges the User's other bills into the stored
+	 * ones.
+	 */
+	@Override
+	public void saveAll(User user) throws IOException {
+		List<Bill> bills = new ArrayList<>(user.getBills());
+		LocalDateTime loadedFrom = BillStore.yearStart(user.getFirstLoadedYear());
+		transaction(() -> {
+			if (loadedFrom == null) {
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate("DELETE FROM BILLS");
+				}
+			} else {
+				try (PreparedStatement statement = connection.prepareStatement(SQL_DELETE_BILLS_SINCE)) {
+					statement.setObject(1, loadedFrom);
+					statement.executeUpdate();
+				}
+			}
+			mergeUserInfo(user.getFullName(), user.getAvailableFunds());
+			mergeBills(bills);
+		});
+	}
+
+	/**
+	 * The version is a counter that is incremented in every transaction that writes to the database.
+	 */
+	@Override
+	public long getDataVersion() throws IOException {
+		try (Statement statement = connection.createStatement();
+				ResultSet result = statement.executeQuery(SQL_SELECT_VERSION)) {
+			return result.next() ? result.getLong(1) : 0;
+		} catch (SQLException e) {
+			throw new IOException("Could not read the data version", e);
+		}
+	}
+
+	/**
+	 * Every change is written in place, so the database never needs to be rewritten.
+	 */
+	@Override
+	public boolean needsCompaction() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			throw new IOException("Could not close the bill database", e);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void createTables() throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS USER_INFO ("
+					+ "USER_ID VARCHAR PRIMARY KEY, "
+					+ "FULL_NAME VARCHAR, "
+					+ "AVAILABLE_FUNDS REAL)");
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS BILLS ("
+					+ "DATE_TIME TIMESTAMP(9) NOT NULL, "
+					+ "SOURCE VARCHAR NOT NULL, "
+					+ "EDITED BOOLEAN NOT NULL, "
+					+ "ENTRIES VARBINARY NOT NULL, "
+					+ "PRIMARY KEY (DATE_TIME, SOURCE))");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS BILLS_BY_SOURCE ON BILLS (SOURCE, DATE_TIME)");
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS DATA_INFO (DATA_VERSION BIGINT NOT NULL)");
+			try (ResultSet result = statement.executeQuery(SQL_SELECT_VERSION)) {
+				if (!result.next()) statement.executeUpdate("INSERT INTO DATA_INFO VALUES (0)");
+			}
+		}
+	}
+
+	/**
+	 * Runs the specified statements in a single transaction, which is rolled back if any of them fails. The data
+	 * version is incremented within the transaction.
+	 */
+	private void transaction(SqlAction action) throws IOException {
+		try {
+			connection.setAutoCommit(false);
+			try {
+				action.run();
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate(SQL_INCREMENT_VERSION);
+				}
+				connection.commit();
+			} catch (SQLException | IOException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not write to the bill database", e);
+		}
+	}
+
+	/**
+	 * Builds the WHERE clause of a query of bills, and adds the values of its parameters to the specified list.
+	 * @return The WHERE clause, with a leading space
+	 */
+	private static String where(LocalDateTime from, LocalDateTime to, String source, List<Object> parameters) {
+		StringBuilder sql = new StringBuilder(" WHERE TRUE");
+		if (from != null) {
+			sql.append(" AND DATE_TIME >= ?");
+			parameters.add(from);
+		}
+		if (to != null) {
+			sql.append(" AND DATE_TIME < ?");
+			parameters.add(to);
+		}
+		if (source != null) {
+			sql.append(" AND SOURCE = ?");
+			parameters.add(source);
+		}
+		return sql.toString();
+	}
+
+	private PreparedStatement prepare(String sql, List<Object> parameters) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		for (int i = 0; i < parameters.size(); i++) {
+			statement.setObject(i + 1, parameters.get(i));
+		}
+		return statement;
+	}
+
+	private boolean hasBillsBefore(LocalDateTime dateTime) throws IOException {
+		try (PreparedStatement statement = connection.prepareStatement(SQL_EXISTS_BILLS_BEFORE)) {
+			statement.setObject(1, dateTime);
+			try (ResultSet result = statement.executeQuery()) {
+				return result.next();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not query bills", e);
+		}
+	}
+
+	private void mergeUserInfo(String fullName, float availableFunds) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(SQL_MERGE_USER)) {
+			statement.setString(1, userID);
+			statement.setString(2, fullName);
+			statement.setFloat(3, availableFunds);
+			statement.executeUpdate();
+		}
+	}
+
+	private void mergeBills(Collection<Bill> bills) throws SQLException, IOException {
+		try (PreparedStatement statement = connection.prepareStatement(SQL_MERGE_BILL)) {
+			for (Bill bill : bills) {
+				statement.setObject(1, bill.getDateTime());
+				statement.setString(2, nullToEmpty(bill.getSource()));
+				statement.setBoolean(3, bill.isEdited());
+				statement.setBytes(4, encodeEntries(bill));
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	private void deleteBill(LocalDateTime dateTime, String source) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(SQL_DELETE_BILL)) {
+			statement.setObject(1, dateTime);
+			statement.setString(2, nullToEmpty(source));
+			statement.executeUpdate();
+		}
+	}
+
+	private static Bill readBill(ResultSet result) throws SQLException, IOException {
+		Bill bill = new Bill(result.getObject(1, LocalDateTime.class), emptyToNull(result.getString(2)));
+		bill.setEdited(result.getBoolean(3));
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(result.getBytes(4)));
+		int entryCount = in.readInt();
+		for (int i = 0; i < entryCount; i++) {
+			bill.addEntry(in.readUTF(), in.readFloat(), in.readInt(), in.readFloat());
+		}
+		return bill;
+	}
+
+	private static byte[] encodeEntries(Bill bill) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(bill.getEntries().size());
+			for (Bill.Entry entry : bill.getEntries()) {
+				out.writeUTF(nullToEmpty(entry.getArticleName()));
+				out.writeFloat(entry.getArticlePrice());
+				out.writeInt(entry.getAmount());
+				out.writeFloat(entry.getSubsidy());
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String nullToEmpty(String string) {
+		return string == null ? "" : string;
+	}
+
+	private static String emptyToNull(String string) {
+		return string == null || string.isEmpty() ? null : string;
+	}
+
+	@FunctionalInterface
+	private interface SqlAction {
+		void run() throws SQLException, IOException;
+	}
+
+}
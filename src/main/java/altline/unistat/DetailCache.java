@@ -0,0 +1,283 @@
+package altline.unistat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import altline.unistat.ScrapeEngine.BillRow;
+
+/**
+ * A persistent cache of the parsed detail pages of a user's bills.
+ * <p>
+ * An issued bill never changes on the webserver, so once its details are fetched they never have to be fetched again.
+ * Each cached page is stored in its own file, named after the hash of the bill's source and dateTime, so the same bill
+ * always maps to the same file regardless of the URL or session it was fetched with. The validators the server sent with
+ * a page, if any, are kept with it so the page can be revalidated with a conditional request.
+ * </p>
+ * The cache can be used from several threads at once.
+ */
+final class DetailCache {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final int MAGIC = 0x55534443;
+	private static final byte VERSION = 1;
+
+	private final Path dir;
+
+	/**
+	 * @param dir The directory the cached pages are stored in. It is created when the first page is stored.
+	 */
+	DetailCache(Path dir) {
+		this.dir = dir;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Gets the cached details of the bill of the specified row.
+	 * @param row The row of the bill
+	 * @return The cached details, or null if the bill's details are not cached or can not be read
+	 */
+	Record get(BillRow row) {
+		Path file = getFile(row.getDateTime(), row.getSource());
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) throw new IOException("Not a bill details file: " + file);
+			byte version = in.readByte();
+			if (version != VERSION) throw new IOException("Unsupported bill details version: " + version);
+
+			Validators validators = new Validators(emptyToNull(in.readUTF()), emptyToNull(in.readUTF()));
+			int count = in.readInt();
+			List<CachedEntry> entries = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				entries.add(new CachedEntry(in.readUTF(), in.readFloat(), in.readInt(), in.readFloat()));
+			}
+			return new Record(validators, entries);
+
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			LOGGER.warn("Discarding unreadable cached bill details: " + file, e);
+			remove(file);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the details of the specified bill, replacing the details cached for it before.
+	 * @param bill The bill, complete with its entries
+	 * @param validators The validators the server sent with the details page
+	 */
+	void put(Bill bill, Validators validators) {
+		Path file = getFile(bill.getDateTime(), bill.getSource());
+		Path tempFile = null;
+		try {
+			Files.createDirectories(file.getParent());
+			tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				out.writeUTF(nullToEmpty(validators.getEtag()));
+				out.writeUTF(nullToEmpty(validators.getLastModified()));
+				out.writeInt(bill.getEntries().size());
+				for (Bill.Entry entry : bill.getEntries()) {
+					out.writeUTF(nullToEmpty(entry.getArticleName()));
+					out.writeFloat(entry.getArticlePrice());
+					out.writeInt(entry.getAmount());
+					out.writeFloat(entry.getSubsidy());
+				}
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException e) {
+			// the cache only saves requests, so a failure to store a page is not worth bothering the user with
+			LOGGER.warn("Could not cache bill details: " + file, e);
+			if (tempFile != null) remove(tempFile);
+		}
+	}
+
+	/**
+	 * Removes the cached details of the bill of the specified row, so that they are fetched again the next time.
+	 * @param row The row of the bill
+	 */
+	void invalidate(BillRow row) {
+		remove(getFile(row.getDateTime(), row.getSource()));
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Gets the file of the specified bill. The files are spread over subdirectories named after the first byte of the
+	 * hash, so that no directory grows too large.
+	 */
+	private Path getFile(LocalDateTime dateTime, String source) {
+		String hash = hash(dateTime + "|" + source);
+		return dir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+	}
+
+	private static String hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-256 is always supported", e);
+		}
+	}
+
+	private static void remove(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOGGER.warn("Could not delete " + file, e);
+		}
+	}
+
+	private static String nullToEmpty(String string) {
+		return string == null ? "" : string;
+	}
+
+	private static String emptyToNull(String string) {
+		return string.isEmpty() ? null : string;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The cached details of a bill.
+	 */
+	static final class Record {
+		private final Validators validators;
+		private final List<CachedEntry> entries;
+
+		private Record(Validators validators, List<CachedEntry> entries) {
+			this.validators = validators;
+			this.entries = Collections.unmodifiableList(entries);
+		}
+
+		/**
+		 * @return The validators the server sent with the details page
+		 */
+		Validators getValidators() {
+			return validators;
+		}
+
+		/**
+		 * Adds the cached entries to the specified bill.
+		 * @param bill The bill to add the entries to
+		 */
+		void fill(Bill bill) {
+			for (CachedEntry entry : entries) {
+				bill.addEntry(entry.articleName, entry.articlePrice, entry.amount, entry.subsidy);
+			}
+		}
+	}
+
+	private static final class CachedEntry {
+		private final String articleName;
+		private final float articlePrice;
+		private final int amount;
+		private final float subsidy;
+
+		private CachedEntry(String articleName, float articlePrice, int amount, float subsidy) {
+			this.articleName = articleName;
+			this.articlePrice = articlePrice;
+			this.amount = amount;
+			this.subsidy = subsidy;
+		}
+	}
+
+	/**
+	 * The HTTP validators of a details page, with which a cached page can be revalidated by a conditional request.
+	 * <p>
+	 * A {@link ScrapeEngine} sends the validators it is given with a details request and replaces them with the ones it
+	 * receives. If the server answers that the page is not modified, the engine marks the validators so and leaves the
+	 * bill untouched.
+	 * </p>
+	 */
+	static final class Validators {
+		private String etag;
+		private String lastModified;
+		private boolean notModified;
+
+		/**
+		 * Creates validators without values, for an unconditional request.
+		 */
+		Validators() {
+		}
+
+		Validators(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return The entity tag of the page, or null if the server did not send one
+		 */
+		String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return The last modification time of the page as sent by the server, or null if it did not send one
+		 */
+		String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return true if the page has validators to revalidate it with
+		 */
+		boolean isPresent() {
+			return etag != null || lastModified != null;
+		}
+
+		/**
+		 * @return true if the server answered a conditional request with "not modified"
+		 */
+		boolean isNotModified() {
+			return notModified;
+		}
+
+		void update(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		void setNotModified(boolean notModified) {
+			this.notModified = notModified;
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package altline.unistat;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import altline.unistat.ScrapeEngine.BillRow;
+
+/**
+ * Fetches bill details concurrently over a {@link ScrapeEngine}, on a bounded number of threads.
+ * <p>
+ * Details found in the {@link DetailCache} are taken from it, and fetched details are stored in it as soon as they are
+ * complete, so that an interrupted fetch does not lose them. Requests are spaced out by a {@link RateLimiter} so that
+ * the server is not hammered. The results are returned as
+ * {@link Future}s, so the caller can consume them in the order it submitted them regardless of the order in which they
+ * complete.
+ * </p>
+ */
+final class DetailFetcher implements Closeable {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The time in milliseconds to wait for the running fetches to stop on close */
+	private static final long STOP_TIMEOUT = 5000;
+
+	private final ScrapeEngine engine;
+	private final DetailCache cache;
+	private final ExecutorService executor;
+	private final RateLimiter rateLimiter;
+	private final AtomicInteger unsettledPages = new AtomicInteger();
+	private final AtomicInteger cachedDetails = new AtomicInteger();
+
+	/**
+	 * @param engine The engine that fetches the details. Only rows with a detail URL may be submitted.
+	 * @param cache The cache of the details of the user's bills
+	 * @param concurrency The number of details fetched at the same time
+	 * @param rateLimiter The limiter that every request takes a permit from
+	 */
+	DetailFetcher(ScrapeEngine engine, DetailCache cache, int concurrency, RateLimiter rateLimiter) {
+		this.engine = engine;
+		this.cache = cache;
+		this.rateLimiter = rateLimiter;
+		this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "DetailFetcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Submits the details of the specified row to be fetched, or taken from the cache, and added to the specified bill.
+	 * @param row The row of the bill. It must have a detail URL.
+	 * @param bill The bill to add the entries to
+	 * @return The Future bill, complete with its entries
+	 */
+	Future<Bill> submit(BillRow row, Bill bill) {
+		return executor.submit(() -> {
+			DetailCache.Record cached = cache.get(row);
+			if (cached != null) {
+				cached.fill(bill);
+				cachedDetails.incrementAndGet();
+				return bill;
+			}
+
+			rateLimiter.acquire();
+			DetailCache.Validators validators = new DetailCache.Validators();
+			if (engine.fetchDetails(row, bill, validators)) cache.put(bill, validators);
+			else unsettledPages.incrementAndGet();
+			return bill;
+		});
+	}
+
+	/**
+	 * @return The number of fetched details pages that may not have been completely loaded, so their contents may be
+	 *         incomplete
+	 */
+	int getUnsettledCount() {
+		return unsettledPages.get();
+	}
+
+	/**
+	 * @return The number of details that were taken from the cache instead of fetched
+	 */
+	int getCachedCount() {
+		return cachedDetails.get();
+	}
+
+	/**
+	 * Cancels the details that are not fetched yet and waits for the running fetches to stop.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) LOGGER.warn("Detail downloads did not stop in time");
+		} catch (InterruptedException e) {
+			LOGGER.warn("", e);
+		}
+	}
+
+}
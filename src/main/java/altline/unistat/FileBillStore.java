@@ -0,0 +1,583 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import altline.utils.Alerts;
+
+/**
+ * A {@link BillStore} that keeps the user's data in data files written by {@link UserCodec}, with a
+ * {@link BillJournal} of the changes made since the data files were last written.
+ * <p>
+ * The bills of recent years are kept in the user's main data file, which is memory-mapped when lazy loading is enabled.
+ * The bills of each older year are kept in a compressed archive file of that year, next to the main data file. Archives
+ * are only read when the bills of their year are requested, and several archives are decoded in parallel. When the user
+ * is saved, only the archives whose bills have changed since they were loaded are rewritten.
+ * </p>
+ * The data files have no index other than the order of the bills, so queries scan the years they cover. The data the
+ * queries are answered from is decoded once and kept up to date with the changes written through this store, until
+ * the data files are rewritten or change otherwise.
+ */
+final class FileBillStore implements BillStore {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final String ARCHIVE_SUFFIX = ".dat";
+
+	private final String userID;
+	private final Path userFile;
+	private final BillJournal journal;
+	private final int recentYear;
+
+	/**
+	 * Fingerprints of the bills of the archived years that are loaded, as they were when they were loaded or last
+	 * written
+	 */
+	private final Map<Integer, Long> archiveFingerprints = new HashMap<>();
+
+	/** The stored data with the journal applied, that queries are answered from, or null until the first query */
+	private User queryData;
+	/** The first year and the year after the last year of the archives read into the query data */
+	private int queryFromYear;
+	private int queryToYear;
+	/** The version of the data files the query data was read at */
+	private long queryFilesVersion;
+	/** The version of the journal the query data was read at, or brought up to date with */
+	private long queryJournalVersion;
+
+	/**
+	 * @param userID The userID of the user whose data is stored
+	 * @param userFile The main data file of the user
+	 * @param journalFile The journal file of the user
+	 * @param recentYear The first year whose bills are kept in the main data file and loaded with the user
+	 */
+	FileBillStore(String userID, Path userFile, Path journalFile, int recentYear) {
+		this.userID = userID;
+		this.userFile = userFile;
+		this.journal = new BillJournal(journalFile);
+		this.recentYear = recentYear;
+	}
+
+	/**
+	 * @return true if a data file of the user exists
+	 */
+	boolean exists() {
+		return Files.exists(userFile);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Reads the user's main data file and the archives of the recent years, and replays the user's bill journal on top
+	 * of them. Archives of years the journal refers to are read as well. If the main data file can not be read, the
+	 * journal is replayed on a new User.
+	 */
+	@Override
+	public User load() throws IOException {
+		User user = read(Math.min(recentYear, journal.getEarliestYear()), Integer.MAX_VALUE, true);
+
+		try {
+			journal.replay(user);
+		} catch (IOException e) {
+			Alerts.catching("Could not replay the bill journal", e, LOGGER);
+		}
+
+		return user;
+	}
+
+	/**
+	 * Decodes the archives of the specified years in parallel.
+	 */
+	@Override
+	public List<Bill> loadYears(int fromYear, int toYear) throws IOException {
+		Map<Integer, List<Bill>> archives = readArchives(fromYear, toYear);
+		archives.forEach((year, bills) -> archiveFingerprints.put(year, fingerprint(bills)));
+
+		List<Bill> bills = new ArrayList<>();
+		archives.values().forEach(bills::addAll);
+		return bills;
+	}
+
+	/**
+	 * Neither the data files nor the journal are changed by a query. The returned bills are copies.
+	 */
+	@Override
+	public synchronized List<Bill> query(LocalDateTime from, LocalDateTime to, String source) throws IOException {
+		int fromYear = from == null ? Integer.MIN_VALUE : from.getYear();
+		int toYear = to == null ? Integer.MAX_VALUE : to.getYear() + 1;
+
+		LazyBillList bills = getQueryData(fromYear, toYear).getBillList();
+		List<Bill> result = new ArrayList<>();
+		for (int i = 0; i < bills.size(); i++) {
+			LocalDateTime dateTime = bills.getDateTime(i);
+			if (from != null && dateTime.isBefore(from)) continue;
+			if (to != null && !dateTime.isBefore(to)) continue;
+			if (source != null && !Objects.equals(bills.getSource(i), source)) continue;
+			result.add(bills.get(i).copy());
+		}
+		return result;
+	}
+
+	/**
+	 * The keys are read from the query data without copying the bills.
+	 */
+	@Override
+	public synchronized Set<SimpleImmutableEntry<LocalDateTime, String>> queryKeys(LocalDateTime from, LocalDateTime to) throws IOException {
+		int fromYear = from == null ? Integer.MIN_VALUE : from.getYear();
+		int toYear = to == null ? Integer.MAX_VALUE : to.getYear() + 1;
+
+		LazyBillList bills = getQueryData(fromYear, toYear).getBillList();
+		Set<SimpleImmutableEntry<LocalDateTime, String>> keys = new HashSet<>();
+		for (int i = 0; i < bills.size(); i++) {
+			LocalDateTime dateTime = bills.getDateTime(i);
+			if (from != null && dateTime.isBefore(from)) continue;
+			if (to != null && !dateTime.isBefore(to)) continue;
+			keys.add(new SimpleImmutableEntry<>(dateTime, bills.getSource(i)));
+		}
+		return keys;
+	}
+
+	/**
+	 * The years of the archives, and of the bills of the main data file and the journal.
+	 */
+	@Override
+	public synchronized SortedSet<Integer> getYears() throws IOException {
+		SortedSet<Integer> years = listArchivedYears();
+		LazyBillList bills = getQueryData(recentYear, Integer.MAX_VALUE).getBillList();
+		for (int i = 0; i < bills.size(); i++) {
+			LocalDateTime dateTime = bills.getDateTime(i);
+			if (dateTime != null) years.add(dateTime.getYear());
+		}
+		return years;
+	}
+
+	@Override
+	public void upsert(Bill bill) throws IOException {
+		journal.appendAdd(bill);
+		updateQueryData(user -> user.addBillSorted(bill.copy()));
+	}
+
+	@Override
+	public void insertAll(Collection<Bill> bills) throws IOException {
+		journal.appendAdds(bills);
+		updateQueryData(user -> bills.forEach(bill -> user.addBillSorted(bill.copy())));
+	}
+
+	@Override
+	public void update(LocalDateTime oldDateTime, String oldSource, Bill bill) throws IOException {
+		journal.appendEdit(oldDateTime, oldSource, bill);
+		updateQueryData(user -> {
+			// the same as replaying the record
+			Bill existing = user.findBill(oldDateTime, oldSource);
+			if (existing == null) existing = user.findBill(bill.getDateTime(), bill.getSource());
+
+			if (existing == null) {
+				user.addBillSorted(bill.copy());
+				return;
+			}
+			boolean moved = !Objects.equals(existing.getDateTime(), bill.getDateTime());
+			user.editBill(existing, bill.getDateTime(), bill.getSource(), bill.getEntries());
+			if (moved) user.getBillList().moveSorted(existing);
+		});
+	}
+
+	@Override
+	public void delete(LocalDateTime dateTime, String source) throws IOException {
+		journal.appendDelete(dateTime, source);
+		updateQueryData(user -> {
+			Bill existing = user.findBill(dateTime, source);
+			if (existing != null) user.removeBill(existing);
+		});
+	}
+
+	@Override
+	public void saveUserInfo(String fullName, float availableFunds) throws IOException {
+		journal.appendUserInfo(fullName, availableFunds);
+		updateQueryData(user -> {
+			user.setFullName(fullName);
+			user.setAvailableFunds(availableFunds);
+		});
+	}
+
+	/**
+	 * Writes the bills of the specified User's recent years to the user's main data file and the bills of older years
+	 * to their archives, then clears the user's bill journal. Archives of loaded years are only written if their bills
+	 * have changed. Bills of years that are not loaded are merged into their archives.
+	 */
+	@Override
+	public void saveAll(User user) throws IOException {
+		synchronized (this) {
+			queryData = null;
+		}
+		long start = System.nanoTime();
+		user.sortBills();
+		LazyBillList bills = user.getBillList();
+
+		int recentIndex = 0;
+		while (recentIndex < bills.size() && bills.getDateTime(recentIndex) != null
+				&& bills.getDateTime(recentIndex).getYear() < recentYear) {
+			recentIndex++;
+		}
+
+		// archives are written before the main data file, so that bills moving out of it are never lost
+		Set<Integer> archivedYears = new HashSet<>();
+		for (int from = 0, to; from < recentIndex; from = to) {
+			int year = bills.getDateTime(from).getYear();
+			to = from + 1;
+			while (to < recentIndex && bills.getDateTime(to).getYear() == year) {
+				to++;
+			}
+
+			archivedYears.add(year);
+			writeArchive(user, year, from, to);
+		}
+
+		UserCodec.write(user, recentIndex, bills.size(), userFile, Pref.getCompressData(), Pref.getLazyLoading());
+
+		for (int year : listArchivedYears()) {
+			if (user.isYearLoaded(year) && !archivedYears.contains(year)) {
+				// all bills of the year were removed, or moved to the main data file
+				Files.deleteIfExists(getArchiveFile(year));
+				archiveFingerprints.remove(year);
+			}
+		}
+
+		LOGGER.debug("User data written in {} ms ({} bytes)", (System.nanoTime() - start) / 1000000, Files.size(userFile));
+
+		try {
+			journal.clear();
+		} catch (IOException e) {
+			// the journal will simply be replayed on top of the saved data again
+			LOGGER.warn("Could not clear the bill journal", e);
+		}
+	}
+
+	/**
+	 * The version is derived from the identity, size and modification time of the user's data files and journal, all
+	 * of which change when the files are written to.
+	 */
+	@Override
+	public long getDataVersion() throws IOException {
+		return 31 * getFilesVersion() + fileVersion(journal.getPath());
+	}
+
+	@Override
+	public boolean needsCompaction() {
+		return journal.needsCompaction();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Gets the data that queries are answered from, reading it if it was not read yet, does not cover the specified
+	 * years or the data files changed since it was read. The data is read for the specified years and the years it
+	 * already covered, so queries of alternating years do not read the data over and over.
+	 * @param fromYear The first year whose bills are queried
+	 * @param toYear The year after the last year whose bills are queried
+	 * @return The stored data with the journal applied
+	 */
+	private synchronized User getQueryData(int fromYear, int toYear) throws IOException {
+		long filesVersion = getFilesVersion();
+		long journalVersion = fileVersion(journal.getPath());
+		if (queryData != null && filesVersion == queryFilesVersion && journalVersion == queryJournalVersion
+				&& fromYear >= queryFromYear && toYear <= queryToYear) {
+			return queryData;
+		}
+
+		if (queryData != null) {
+			fromYear = Math.min(fromYear, queryFromYear);
+			toYear = Math.max(toYear, queryToYear);
+		}
+		User user = read(fromYear, toYear, false);
+		journal.applyTo(user);
+
+		queryData = user;
+		queryFromYear = fromYear;
+		queryToYear = toYear;
+		queryFilesVersion = filesVersion;
+		queryJournalVersion = journalVersion;
+		return user;
+	}
+
+	/**
+	 * Applies a change that was just written to the journal to the query data as well, if it was read. The change keeps
+	 * the bills sorted, and only the journal was written, so only the journal's version is taken again.
+	 */
+	private synchronized void updateQueryData(Consumer<User> change) throws IOException {
+		if (queryData == null) return;
+		change.accept(queryData);
+		queryJournalVersion = fileVersion(journal.getPath());
+	}
+
+	/**
+	 * @return The version of the user's main data file and archives, derived the same way as the data version
+	 */
+	private long getFilesVersion() throws IOException {
+		long version = 17;
+		version = 31 * version + fileVersion(userFile);
+		for (int year : listArchivedYears()) {
+			version = 31 * version + fileVersion(getArchiveFile(year));
+		}
+		return version;
+	}
+
+	/**
+	 * Reads the user's main data file and the archives of the specified years. The main data file may contain bills
+	 * older than the recent years if it was written before its bills were archived, in which case the archives of those
+	 * years are read as well.
+	 * @param fromYear The first year whose archive is to be read
+	 * @param toYear The year after the last year whose archive is to be read
+	 * @param load Whether the bills are loaded into the user, in which case the loaded archives are tracked and the main
+	 *            data file may be memory-mapped. Otherwise the main data file is read to the heap, so that it can be
+	 *            replaced while the read data is kept.
+	 * @return The User read from the files
+	 */
+	private User read(int fromYear, int toYear, boolean load) throws IOException {
+		User user = readUserFile(load);
+		if (user == null) {
+			user = new User(userID);
+
+		} else if (!user.getUserID().equals(userID)) {
+			LOGGER.warn("User data corrupted. UserIDs of the logging-in user and their data file do not match");
+			user = new User(userID);
+		}
+
+		LazyBillList userBills = user.getBillList();
+		for (int i = 0; i < userBills.size(); i++) {
+			LocalDateTime dateTime = userBills.getDateTime(i);
+			if (dateTime != null) fromYear = Math.min(fromYear, dateTime.getYear());
+		}
+		final int firstYear = fromYear;
+
+		Map<Integer, List<Bill>> archives = readArchives(firstYear, toYear);
+		List<Bill> archivedBills = new ArrayList<>();
+		archives.values().forEach(archivedBills::addAll);
+
+		if (load) {
+			archives.forEach((year, bills) -> archiveFingerprints.put(year, fingerprint(bills)));
+			boolean olderArchives = listArchivedYears().stream().anyMatch(year -> year < firstYear);
+			user.setFirstLoadedYear(olderArchives ? firstYear : Integer.MIN_VALUE);
+		}
+
+		// bills of the main data file take precedence over archived ones
+		user.addLoadedBills(archivedBills, firstYear);
+		return user;
+	}
+
+	/**
+	 * Decodes the archives of the specified years in parallel.
+	 * @return The bills of each decoded archive, by year in ascending order
+	 */
+	private Map<Integer, List<Bill>> readArchives(int fromYear, int toYear) throws IOException {
+		List<Integer> years = new ArrayList<>();
+		for (int year : listArchivedYears()) {
+			if (year >= fromYear && year < toYear) years.add(year);
+		}
+		if (years.isEmpty()) return Collections.emptyMap();
+
+		long start = System.nanoTime();
+		Map<Integer, List<Bill>> archives = new TreeMap<>();
+		try {
+			archives.putAll(years.parallelStream().collect(Collectors.toMap(year -> year, year -> {
+				try {
+					return UserCodec.read(getArchiveFile(year)).getBills();
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not read the bill archive of " + year, e);
+				}
+			})));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		LOGGER.debug("Read {} bill archives in {} ms", years.size(), (System.nanoTime() - start) / 1000000);
+		return archives;
+	}
+
+	/**
+	 * Writes the bills of an archived year, unless they are unchanged since they were loaded. If the year's archive was
+	 * not loaded, the bills are merged into it.
+	 */
+	private void writeArchive(User user, int year, int fromIndex, int toIndex) throws IOException {
+		Path archiveFile = getArchiveFile(year);
+		List<Bill> bills = user.getBills().subList(fromIndex, toIndex);
+
+		if (user.isYearLoaded(year)) {
+			long fingerprint = fingerprint(bills);
+			Long loadedFingerprint = archiveFingerprints.get(year);
+			if (loadedFingerprint == null && Files.exists(archiveFile)) {
+				// the year was loaded through another store, e.g. before the user's profile was cached
+				loadedFingerprint = fingerprint(UserCodec.read(archiveFile).getBills());
+			}
+			if (loadedFingerprint != null && loadedFingerprint == fingerprint) {
+				archiveFingerprints.put(year, fingerprint);
+				return;
+			}
+
+			UserCodec.write(user, fromIndex, toIndex, archiveFile, true, false);
+			archiveFingerprints.put(year, fingerprint);
+
+		} else {
+			User archive = Files.exists(archiveFile) ? UserCodec.read(archiveFile) : new User(userID);
+			archive.sortBills();
+			for (Bill bill : bills) {
+				// replaces the archived bill issued at the same time in the same place
+				archive.addBillSorted(bill.copy());
+			}
+			UserCodec.write(archive, archiveFile, true, false);
+		}
+		LOGGER.debug("Wrote the bill archive of {}", year);
+	}
+
+	/**
+	 * @return The years whose archives exist, in ascending order
+	 */
+	private SortedSet<Integer> listArchivedYears() throws IOException {
+		SortedSet<Integer> years = new TreeSet<>();
+		String prefix = getArchivePrefix();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(userFile.getParent(), prefix + "*" + ARCHIVE_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					years.add(Integer.parseInt(name.substring(prefix.length(), name.length() - ARCHIVE_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					LOGGER.debug("Not a bill archive: {}", file);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// no user data directory, no archives
+		}
+		return years;
+	}
+
+	private Path getArchiveFile(int year) {
+		return userFile.resolveSibling(getArchivePrefix() + year + ARCHIVE_SUFFIX);
+	}
+
+	/**
+	 * @return The beginning of the archive file names, e.g. "[name of the main data file without extension]."
+	 */
+	private String getArchivePrefix() {
+		String name = userFile.getFileName().toString();
+		int extension = name.lastIndexOf('.');
+		return (extension < 0 ? name : name.substring(0, extension)) + ".";
+	}
+
+	private static long fileVersion(Path file) throws IOException {
+		if (!Files.exists(file)) return 0;
+
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		long version = Objects.hashCode(attributes.fileKey());
+		version = 31 * version + attributes.size();
+		version = 31 * version + attributes.lastModifiedTime().toMillis();
+		return version;
+	}
+
+	private static long fingerprint(List<Bill> bills) {
+		long fingerprint = bills.size();
+		for (Bill bill : bills) {
+			fingerprint = 31 * fingerprint + bill.hashCode();
+			fingerprint = 31 * fingerprint + (bill.isEdited() ? 1 : 0);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Reads the user's data file. Data files written in the legacy (Java serialization) format are migrated to the
+	 * binary format of {@link UserCodec}.<br>
+	 * If lazy loading is enabled and the file is indexed, the file is memory-mapped and bills are only read from it
+	 * when they are accessed.
+	 * @param map Whether the file may be memory-mapped
+	 * @return The User read from the file, or null if the file does not exist or could not be read
+	 */
+	private User readUserFile(boolean map) {
+		if (!Files.isReadable(userFile)) return null;
+
+		try {
+			if (!UserCodec.isCodecFile(userFile)) return migrateUserFile();
+
+			long start = System.nanoTime();
+			if (map && Pref.getLazyLoading()) {
+				MappedUserFile mappedFile = MappedUserFile.open(userFile);
+				if (mappedFile != null) {
+					LOGGER.debug("User data mapped in {} ms ({} bills)", (System.nanoTime() - start) / 1000000, mappedFile.getBillCount());
+					return new User(mappedFile);
+				}
+			}
+
+			User user = UserCodec.read(userFile);
+			LOGGER.debug("User data read in {} ms ({} bytes)", (System.nanoTime() - start) / 1000000, Files.size(userFile));
+			return user;
+
+		} catch (IOException e) {
+			Alerts.catching("Could not read user data from file: " + userFile.toAbsolutePath(), e, LOGGER);
+			return null;
+		}
+	}
+
+	/**
+	 * Migrates the user's data file from the legacy (Java serialization) format to the binary format of
+	 * {@link UserCodec}. The legacy file is first copied to a backup next to the migrated one, so it is kept as it was
+	 * even if the migration fails. The read time of the legacy file, the write time of the binary file and the sizes of
+	 * both are logged.
+	 * @return The User read from the file, or null if the file could not be read
+	 * @throws IOException if an IO problem occurs
+	 */
+	private User migrateUserFile() throws IOException {
+		LOGGER.info("Migrating user data file to binary format v{}", UserCodec.VERSION);
+		Path backupFile = userFile.resolveSibling(userFile.getFileName() + ".legacy");
+		Files.copy(userFile, backupFile, StandardCopyOption.REPLACE_EXISTING);
+
+		long start = System.nanoTime();
+		User user = (User) App.ioManager.readObject(userFile);
+		long legacyReadTime = System.nanoTime() - start;
+		if (user == null) return null;
+
+		start = System.nanoTime();
+		UserCodec.write(user, userFile, Pref.getCompressData(), Pref.getLazyLoading());
+		long writeTime = System.nanoTime() - start;
+
+		LOGGER.info("User data migrated ({} bills)\n\tlegacy: {} bytes, read in {} ms\n\tbinary: {} bytes, written in {} ms",
+				user.getBills().size(),
+				Files.size(backupFile), legacyReadTime / 1000000,
+				Files.size(userFile), writeTime / 1000000);
+
+		return user;
+	}
+
+}
@@ -0,0 +1,144 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.List;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+
+/**
+ * A {@link ScrapeEngine} that guards the page requests of another engine with a {@link RetryPolicy} and a
+ * {@link CircuitBreaker}.
+ * <p>
+ * Navigating and fetching bill details are idempotent GET requests, so they are repeated on transient errors. The
+ * login form is submitted only once. Every guarded request is refused with a {@link ServerUnavailableException} while
+ * the breaker is open, and its outcome is recorded in the breaker.
+ * </p>
+ */
+final class GuardedScrapeEngine implements ScrapeEngine {
+
+	private final ScrapeEngine engine;
+	private final RetryPolicy retryPolicy;
+	private final CircuitBreaker breaker;
+	private final Runnable retryListener;
+
+	/**
+	 * @param engine The engine whose requests to guard
+	 * @param retryPolicy The policy of repeating failed requests
+	 * @param breaker The breaker that stops requests while the server is down
+	 * @param retryListener Called before each repeated request, on the thread of the request
+	 */
+	GuardedScrapeEngine(ScrapeEngine engine, RetryPolicy retryPolicy, CircuitBreaker breaker, Runnable retryListener) {
+		this.engine = engine;
+		this.retryPolicy = retryPolicy;
+		this.breaker = breaker;
+		this.retryListener = retryListener;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public String connect(String url) throws IOException {
+		return guard(() -> engine.connect(url));
+	}
+
+	@Override
+	public String getCurrentUrl() {
+		return engine.getCurrentUrl();
+	}
+
+	@Override
+	public String submitLogin(String userID, String password) throws IOException {
+		checkBreaker();
+		try {
+			String url = engine.submitLogin(userID, password);
+			breaker.recordSuccess();
+			return url;
+		} catch (IOException | FailingHttpStatusCodeException e) {
+			recordFailure(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public String readLoginError() {
+		return engine.readLoginError();
+	}
+
+	@Override
+	public String readGeneralData(UserData userData) throws ParseException, IOException {
+		return engine.readGeneralData(userData);
+	}
+
+	@Override
+	public List<BillRow> readBillRows() {
+		return engine.readBillRows();
+	}
+
+	@Override
+	public boolean fetchDetails(BillRow row, Bill bill, DetailCache.Validators validators) throws ParseException, IOException {
+		return guard(() -> {
+			// the entries of a failed attempt are not kept
+			bill.clearEntries();
+			return engine.fetchDetails(row, bill, validators);
+		});
+	}
+
+	@Override
+	public List<CookieJar.StoredCookie> getCookies() {
+		return engine.getCookies();
+	}
+
+	@Override
+	public void addCookies(Collection<CookieJar.StoredCookie> cookies) {
+		engine.addCookies(cookies);
+	}
+
+	@Override
+	public void clearCookies() {
+		engine.clearCookies();
+	}
+
+	@Override
+	public Traffic getTraffic() {
+		return engine.getTraffic();
+	}
+
+	@Override
+	public void close() throws IOException {
+		engine.close();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private <T, X extends Exception> T guard(RetryPolicy.Request<T, X> request) throws IOException, X {
+		checkBreaker();
+		try {
+			T result = retryPolicy.execute(request, retryListener);
+			breaker.recordSuccess();
+			return result;
+		} catch (IOException | FailingHttpStatusCodeException e) {
+			recordFailure(e);
+			throw e;
+		}
+	}
+
+	private void checkBreaker() throws ServerUnavailableException {
+		if (!breaker.allowRequest()) throw new ServerUnavailableException(breaker.getRetryDelay(), null);
+	}
+
+	private void recordFailure(Exception e) {
+		if (RetryPolicy.isUnreachable(e)) breaker.trip();
+		else if (RetryPolicy.isTransient(e)) breaker.recordFailure();
+	}
+
+}
@@ -0,0 +1,516 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A streaming HTML tokenizer that keeps track of the open elements, so that elements can be matched against
+ * {@link Selector}s while the document is read, without building a document tree.
+ * <p>
+ * The scanner is lenient like a browser: an end tag closes the nearest open element with the same name along with the
+ * elements opened after it, end tags without an open element are ignored, void elements are never open and starting
+ * some elements closes the element they can not be nested in (e.g. a <code>td</code> closes an open <code>td</code>).
+ * The contents of script and style elements are skipped. Character references are decoded in text and attribute
+ * values.
+ * </p>
+ */
+final class HtmlScanner {
+
+	private static final Set<String> VOID_ELEMENTS = new HashSet<>(Arrays.asList(
+			"area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr"));
+	private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<>(Arrays.asList("script", "style"));
+	/** The elements whose boundaries separate the words of the text around them */
+	private static final Set<String> BREAKING_ELEMENTS = new HashSet<>(Arrays.asList(
+			"br", "div", "h1", "h2", "h3", "h4", "h5", "h6", "li", "p", "td", "th", "tr"));
+	/** The elements that a start tag closes if one of them is the current element */
+	private static final Map<String, Set<String>> IMPLIED_ENDS = new HashMap<>();
+
+	static {
+		Set<String> cells = new HashSet<>(Arrays.asList("td", "th"));
+		Set<String> rows = new HashSet<>(Arrays.asList("td", "th", "tr"));
+		IMPLIED_ENDS.put("td", cells);
+		IMPLIED_ENDS.put("th", cells);
+		IMPLIED_ENDS.put("tr", rows);
+		IMPLIED_ENDS.put("tbody", rows);
+		IMPLIED_ENDS.put("li", Collections.singleton("li"));
+		IMPLIED_ENDS.put("option", Collections.singleton("option"));
+		IMPLIED_ENDS.put("p", Collections.singleton("p"));
+	}
+
+	private final Reader reader;
+	private final Handler handler;
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+
+	private final Deque<OpenElement> openElements = new ArrayDeque<>();
+	private final StringBuilder text = new StringBuilder();
+
+	private HtmlScanner(Reader reader, Handler handler) {
+		this.reader = reader;
+		this.handler = handler;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Reads the HTML document from the specified reader and reports its elements to the specified handler.
+	 * @param reader The reader of the document. It is not closed.
+	 * @param handler The handler of the document's elements
+	 * @throws IOException if an IO problem occurs
+	 */
+	static void scan(Reader reader, Handler handler) throws IOException {
+		new HtmlScanner(reader, handler).scan();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void scan() throws IOException {
+		openElements.push(new OpenElement(new Element("#document", Collections.emptyMap(), null), false));
+
+		int c;
+		while ((c = read()) >= 0) {
+			if (c != '<') {
+				text.append((char) c);
+				continue;
+			}
+
+			int next = peek();
+			if (next == '!' || next == '?') {
+				flushText();
+				skipMarkup();
+			} else if (next == '/') {
+				flushText();
+				read();
+				readEndTag();
+			} else if (isLetter(next)) {
+				flushText();
+				readStartTag();
+			} else {
+				text.append('<');
+			}
+		}
+
+		flushText();
+		while (openElements.size() > 1) {
+			closeTop();
+		}
+	}
+
+	private void readStartTag() throws IOException {
+		String tag = readName();
+		Map<String, String> attributes = new LinkedHashMap<>();
+		boolean selfClosing = false;
+
+		while (true) {
+			skipWhitespace();
+			int c = peek();
+			if (c < 0) return;
+			if (c == '>') {
+				read();
+				break;
+			}
+			if (c == '/') {
+				read();
+				selfClosing = true;
+				continue;
+			}
+
+			String name = readName();
+			if (name.isEmpty()) {
+				read(); // a stray character
+				continue;
+			}
+			skipWhitespace();
+			String value = "";
+			if (peek() == '=') {
+				read();
+				skipWhitespace();
+				value = decode(readAttributeValue());
+			}
+			attributes.putIfAbsent(name, value);
+		}
+
+		Set<String> impliedEnds = IMPLIED_ENDS.get(tag);
+		while (impliedEnds != null && openElements.size() > 1 && impliedEnds.contains(openElements.peek().element.tag)) {
+			closeTop();
+		}
+
+		if (BREAKING_ELEMENTS.contains(tag)) appendText(" ");
+		OpenElement parent = openElements.peek();
+		Element element = new Element(tag, attributes, parent.element);
+		boolean captureText = handler.startElement(element);
+
+		if (VOID_ELEMENTS.contains(tag) || selfClosing) {
+			handler.endElement(element, "");
+			return;
+		}
+		openElements.push(new OpenElement(element, captureText));
+
+		if (RAW_TEXT_ELEMENTS.contains(tag)) {
+			skipRawText(tag);
+			closeTop();
+		}
+	}
+
+	private void readEndTag() throws IOException {
+		String tag = readName();
+		int c;
+		while ((c = read()) >= 0 && c != '>') {
+			// skip to the end of the tag
+		}
+		if (tag.isEmpty()) return;
+
+		boolean open = false;
+		for (OpenElement openElement : openElements) {
+			if (openElement.element.tag.equals(tag)) {
+				open = true;
+				break;
+			}
+		}
+		if (!open) return;
+
+		String closed;
+		do {
+			closed = openElements.peek().element.tag;
+			closeTop();
+		} while (!closed.equals(tag));
+	}
+
+	private void closeTop() {
+		OpenElement top = openElements.pop();
+		if (BREAKING_ELEMENTS.contains(top.element.tag)) appendText(" ");
+		String elementText = top.text == null ? null : normalize(top.text);
+		handler.endElement(top.element, elementText);
+	}
+
+	/**
+	 * Passes the text read since the last tag to the open elements that capture their text.
+	 */
+	private void flushText() {
+		if (text.length() == 0) return;
+		appendText(decode(text.toString()));
+		text.setLength(0);
+	}
+
+	private void appendText(String decoded) {
+		for (OpenElement openElement : openElements) {
+			if (openElement.text != null) openElement.text.append(decoded);
+		}
+	}
+
+	/**
+	 * Skips comments, doctypes and processing instructions.
+	 */
+	private void skipMarkup() throws IOException {
+		if (read() == '!' && peek() == '-') {
+			read();
+			if (peek() == '-') {
+				read();
+				int dashes = 0;
+				int c;
+				while ((c = read()) >= 0) {
+					if (c == '>' && dashes >= 2) return;
+					dashes = c == '-' ? dashes + 1 : 0;
+				}
+				return;
+			}
+		}
+
+		int c;
+		while ((c = read()) >= 0 && c != '>') {
+			// skip to the end of the markup
+		}
+	}
+
+	private void skipRawText(String tag) throws IOException {
+		String end = "</" + tag;
+		int matched = 0;
+		int c;
+		while ((c = read()) >= 0) {
+			if (Character.toLowerCase((char) c) == end.charAt(matched)) {
+				if (++matched == end.length()) break;
+			} else {
+				matched = c == '<' ? 1 : 0;
+			}
+		}
+		while ((c = read()) >= 0 && c != '>') {
+			// skip to the end of the tag
+		}
+	}
+
+	private String readName() throws IOException {
+		StringBuilder name = new StringBuilder();
+		int c;
+		while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '>' && c != '/' && c != '=') {
+			name.append(Character.toLowerCase((char) read()));
+		}
+		return name.toString();
+	}
+
+	private String readAttributeValue() throws IOException {
+		StringBuilder value = new StringBuilder();
+		int quote = peek();
+		if (quote == '"' || quote == '\'') {
+			read();
+			int c;
+			while ((c = read()) >= 0 && c != quote) {
+				value.append((char) c);
+			}
+			return value.toString();
+		}
+
+		int c;
+		while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '>') {
+			value.append((char) read());
+		}
+		return value.toString();
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (peek() >= 0 && Character.isWhitespace(peek())) {
+			read();
+		}
+	}
+
+	private int read() throws IOException {
+		if (!fill()) return -1;
+		return buffer[position++];
+	}
+
+	private int peek() throws IOException {
+		if (!fill()) return -1;
+		return buffer[position];
+	}
+
+	private boolean fill() throws IOException {
+		if (position < limit) return true;
+		limit = reader.read(buffer);
+		position = 0;
+		if (limit > 0) return true;
+		limit = 0;
+		return false;
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Collapses whitespace the way it is rendered and trims the text.
+	 */
+	private static String normalize(CharSequence text) {
+		StringBuilder normalized = new StringBuilder(text.length());
+		boolean space = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c) || c == '\u00A0') {
+				space = normalized.length() > 0;
+			} else {
+				if (space) normalized.append(' ');
+				normalized.append(c);
+				space = false;
+			}
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * Decodes the character references of the specified text.
+	 */
+	static String decode(String text) {
+		int amp = text.indexOf('&');
+		if (amp < 0) return text;
+
+		StringBuilder decoded = new StringBuilder(text.length());
+		decoded.append(text, 0, amp);
+		int i = amp;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			int end = c == '&' ? text.indexOf(';', i) : -1;
+			if (end < 0 || end - i > 10) {
+				decoded.append(c);
+				i++;
+				continue;
+			}
+
+			String reference = text.substring(i + 1, end);
+			String replacement = decodeReference(reference);
+			if (replacement == null) {
+				decoded.append(c);
+				i++;
+			} else {
+				decoded.append(replacement);
+				i = end + 1;
+			}
+		}
+		return decoded.toString();
+	}
+
+	private static String decodeReference(String reference) {
+		if (reference.startsWith("#")) {
+			try {
+				int codePoint = reference.startsWith("#x") || reference.startsWith("#X")
+						? Integer.parseInt(reference.substring(2), 16)
+						: Integer.parseInt(reference.substring(1));
+				return new String(Character.toChars(codePoint));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		switch (reference) {
+			case "amp":
+				return "&";
+			case "lt":
+				return "<";
+			case "gt":
+				return ">";
+			case "quot":
+				return "\"";
+			case "apos":
+				return "'";
+			case "nbsp":
+				return "\u00A0";
+			default:
+				return null;
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Receives the elements of a scanned document in document order.
+	 */
+	interface Handler {
+
+		/**
+		 * Called when the start tag of an element is read.
+		 * @param element The started element
+		 * @return true if the text content of the element is to be passed to {@link #endElement(Element, String)}
+		 */
+		boolean startElement(Element element);
+
+		/**
+		 * Called when an element ends, either with its end tag, implicitly or at the end of the document.
+		 * @param element The ended element
+		 * @param text The whitespace-normalized text content of the element, or null if it was not requested
+		 */
+		void endElement(Element element, String text);
+	}
+
+	/**
+	 * An element of a scanned document, with its position among the elements that are open when it starts.
+	 */
+	static final class Element {
+		private final String tag;
+		private final Map<String, String> attributes;
+		private final Element parent;
+		private final int index;
+		private final int typeIndex;
+
+		private int childCount;
+		private Map<String, Integer> childTypeCounts;
+
+		private Element(String tag, Map<String, String> attributes, Element parent) {
+			this.tag = tag;
+			this.attributes = attributes;
+			this.parent = parent;
+
+			if (parent == null) {
+				this.index = 1;
+				this.typeIndex = 1;
+			} else {
+				this.index = ++parent.childCount;
+				if (parent.childTypeCounts == null) parent.childTypeCounts = new HashMap<>();
+				this.typeIndex = parent.childTypeCounts.merge(tag, 1, Integer::sum);
+			}
+		}
+
+		/**
+		 * @return The lower-case name of the element
+		 */
+		String getTag() {
+			return tag;
+		}
+
+		/**
+		 * @return The decoded value of the specified attribute, or null if the element does not have it
+		 */
+		String getAttribute(String name) {
+			return attributes.get(name.toLowerCase(Locale.ROOT));
+		}
+
+		boolean hasClass(String className) {
+			String classes = attributes.get("class");
+			if (classes == null) return false;
+			for (String name : classes.split("\\s+")) {
+				if (name.equals(className)) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return The parent element, or null for the document
+		 */
+		Element getParent() {
+			return parent;
+		}
+
+		/**
+		 * @return The 1-based position of the element among the element children of its parent
+		 */
+		int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The 1-based position of the element among the children of its parent with the same name
+		 */
+		int getTypeIndex() {
+			return typeIndex;
+		}
+
+		boolean isDocument() {
+			return parent == null;
+		}
+
+		@Override
+		public String toString() {
+			return "<" + tag + " " + attributes + ">";
+		}
+	}
+
+	private static final class OpenElement {
+		private final Element element;
+		private final StringBuilder text;
+
+		private OpenElement(Element element, boolean captureText) {
+			this.element = element;
+			this.text = captureText ? new StringBuilder() : null;
+		}
+	}
+
+}
@@ -0,0 +1,272 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.CookieManager;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.DomNodeList;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
+import com.gargoylesoftware.htmlunit.html.HtmlButton;
+import com.gargoylesoftware.htmlunit.html.HtmlForm;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.html.HtmlPasswordInput;
+import com.gargoylesoftware.htmlunit.html.HtmlTextInput;
+import com.gargoylesoftware.htmlunit.util.Cookie;
+
+import altline.unistat.PageReadiness.PageType;
+
+/**
+ * A {@link ScrapeEngine} that loads pages in an HtmlUnit {@link WebClient} emulating a full browser, including the
+ * pages' JavaScript.
+ * <p>
+ * Bill details with a URL are fetched on a pool of additional clients that share the cookies, and so the session, of
+ * the main client. Details without a URL are opened by clicking the details button of their row on the main client.
+ * </p>
+ * Pages are read as soon as the elements their data is read from are present, see {@link PageReadiness}.
+ * Conditional requests are not supported, so details are always fetched in full.
+ */
+final class HtmlUnitScrapeEngine implements ScrapeEngine {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final PageReadiness readiness = new PageReadiness();
+	private final Traffic traffic = new Traffic();
+	private final WebClient webClient;
+	private final Queue<WebClient> idleDetailClients = new ConcurrentLinkedQueue<>();
+	private HtmlPage currentPage;
+	private List<DomNode> billRowNodes = Collections.emptyList();
+
+	HtmlUnitScrapeEngine() {
+		webClient = createClient();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public String connect(String url) throws IOException {
+		HtmlPage page = webClient.getPage(url);
+		awaitPage(page, PageType.of(page.getUrl()));
+		return setCurrent(page);
+	}
+
+	@Override
+	public String getCurrentUrl() {
+		if (currentPage == null) return "";
+		return currentPage.getUrl().toExternalForm();
+	}
+
+	@Override
+	public String submitLogin(String userID, String password) throws IOException {
+		HtmlForm loginForm = currentPage.getFormByName("f");
+		HtmlTextInput usernameInput = loginForm.getInputByName("username");
+		HtmlPasswordInput passwordInput = loginForm.getInputByName("password");
+		HtmlButton submitInput = loginForm.getButtonByName("Submit");
+
+		usernameInput.type(userID);
+		passwordInput.type(password);
+
+		HtmlPage page = submitInput.click();
+		awaitPage(page, PageType.of(page.getUrl()));
+		return setCurrent(page);
+	}
+
+	@Override
+	public String readLoginError() {
+		DomNode errorMsgContainer = currentPage.querySelector(".aai_messages_container");
+		return errorMsgContainer != null ? errorMsgContainer.asText() : "--";
+	}
+
+	@Override
+	public String readGeneralData(UserData userData) throws ParseException, IOException {
+		DomNode node_testimonialCard = currentPage.querySelector(".testimonial-card");
+		if (node_testimonialCard == null) throw new IOException("The student page has no student data");
+
+		DomNode node_fullName = node_testimonialCard.getFirstByXPath(".//div[3]/h4");
+		userData.setFullName(node_fullName.asText());
+
+		DomNode node_institution = node_testimonialCard.getFirstByXPath(".//div[3]/h5");
+		userData.setInstitution(node_institution.asText());
+
+		DomNode node_privilege = node_testimonialCard.getFirstByXPath(".//div[3]/div[1]/div[1]/p[2]");
+		userData.setPrivilege(node_privilege.asText());
+
+		DomNode node_availableFunds = node_testimonialCard.getFirstByXPath(".//div[3]/div[1]/div[2]/p[2]");
+		userData.setAvailableFunds(ServerFormat.parseAmount(node_availableFunds.asText()));
+
+		return ((DomNode) node_testimonialCard.getFirstByXPath(".//div[3]/a")).getAttributes().getNamedItem("href").getTextContent();
+	}
+
+	@Override
+	public List<BillRow> readBillRows() {
+		final DomNodeList<DomNode> nodes = currentPage.querySelectorAll(".table > tbody:nth-child(2) > tr");
+		final List<BillRow> rows = new ArrayList<>(nodes.getLength());
+
+		for (int i = 0; i < nodes.getLength(); i++) {
+			DomNodeList<DomNode> cells = nodes.get(i).querySelectorAll("td");
+
+			String source = cells.get(0).asText();
+			LocalDateTime dateTime = ServerFormat.parseDateTime(cells.get(1).asText(), cells.get(2).asText());
+			float totalCost = ServerFormat.parseAmountOrNaN(cells.get(3).asText());
+			rows.add(new BillRow(i, dateTime, source, totalCost, getDetailUrl((HtmlAnchor) cells.get(6).querySelector("a"))));
+		}
+
+		billRowNodes = new ArrayList<>(nodes);
+		return rows;
+	}
+
+	@Override
+	public boolean fetchDetails(BillRow row, Bill bill, DetailCache.Validators validators) throws ParseException, IOException {
+		if (row.getDetailUrl() == null) {
+			DomNode rowNode = billRowNodes.get(row.getIndex());
+			HtmlPage detailsPage = ((HtmlAnchor) rowNode.querySelectorAll("td").get(6).querySelector("a")).click();
+			boolean settled = awaitPage(detailsPage, PageType.DETAILS);
+			parseDetails(detailsPage, bill, validators);
+			return settled;
+		}
+
+		WebClient client = idleDetailClients.poll();
+		if (client == null) {
+			client = createClient();
+			client.setCookieManager(webClient.getCookieManager());
+		}
+		try {
+			HtmlPage detailsPage = client.getPage(row.getDetailUrl());
+			boolean settled = awaitPage(detailsPage, PageType.DETAILS);
+			parseDetails(detailsPage, bill, validators);
+			return settled;
+
+		} finally {
+			idleDetailClients.add(client);
+		}
+	}
+
+	@Override
+	public List<CookieJar.StoredCookie> getCookies() {
+		List<CookieJar.StoredCookie> cookies = new ArrayList<>();
+		for (Cookie cookie : webClient.getCookieManager().getCookies()) {
+			cookies.add(new CookieJar.StoredCookie(cookie.getName(), cookie.getValue(), cookie.getDomain(), cookie.getPath(),
+					cookie.getExpires() == null ? -1 : cookie.getExpires().getTime(), cookie.isSecure(), cookie.isHttpOnly()));
+		}
+		return cookies;
+	}
+
+	@Override
+	public void addCookies(Collection<CookieJar.StoredCookie> cookies) {
+		for (CookieJar.StoredCookie cookie : cookies) {
+			webClient.getCookieManager().addCookie(new Cookie(cookie.getDomain(), cookie.getName(), cookie.getValue(), cookie.getPath(),
+					cookie.isSession() ? null : new Date(cookie.getExpires()), cookie.isSecure(), cookie.isHttpOnly()));
+		}
+	}
+
+	@Override
+	public void clearCookies() {
+		webClient.getCookieManager().clearCookies();
+	}
+
+	@Override
+	public Traffic getTraffic() {
+		return traffic;
+	}
+
+	@Override
+	public void close() {
+		LOGGER.info("Page wait times: {}", readiness);
+		WebClient client;
+		while ((client = idleDetailClients.poll()) != null) {
+			// closing a client clears its cookies, which belong to the main client
+			client.setCookieManager(new CookieManager());
+			client.close();
+		}
+		webClient.close();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static WebClient createClient() {
+		WebClient client = new WebClient(BrowserVersion.INTERNET_EXPLORER); // IE doesn't throw js exceptions when fetching
+		client.getOptions().setThrowExceptionOnScriptError(false);
+		return client;
+	}
+
+	/**
+	 * Records the specified received page and waits for it to be ready, see {@link PageReadiness#await(HtmlPage, PageType)}.
+	 * @return false if the page was not ready within the time budget of its type
+	 */
+	private boolean awaitPage(HtmlPage page, PageType type) {
+		traffic.recordPage(page.getWebResponse().getContentLength());
+		long start = System.nanoTime();
+		boolean ready = readiness.await(page, type);
+		traffic.recordWait(System.nanoTime() - start, ready);
+		return ready;
+	}
+
+	private String setCurrent(HtmlPage page) {
+		this.currentPage = page;
+		return getCurrentUrl();
+	}
+
+	/**
+	 * Gets the URL of the details page the specified details button links to.
+	 * @return The URL, or null if the button only works through JavaScript
+	 */
+	private static URL getDetailUrl(HtmlAnchor detailsBtn) {
+		String href = detailsBtn.getHrefAttribute().trim();
+		if (href.isEmpty() || href.startsWith("#") || href.toLowerCase().startsWith("javascript:") || detailsBtn.hasAttribute("onclick")) {
+			return null;
+		}
+
+		try {
+			return ((HtmlPage) detailsBtn.getPage()).getFullyQualifiedUrl(href);
+		} catch (MalformedURLException e) {
+			LOGGER.warn("Malformed bill details URL: {}", href);
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the entries listed on the specified details page of a bill to the bill, and records the validators of the
+	 * page.
+	 */
+	private static void parseDetails(HtmlPage detailsPage, Bill bill, DetailCache.Validators validators) throws ParseException {
+		WebResponse response = detailsPage.getWebResponse();
+		validators.update(response.getResponseHeaderValue("ETag"), response.getResponseHeaderValue("Last-Modified"));
+
+		DomNodeList<DomNode> detailRows = detailsPage.querySelectorAll(".table > tbody:nth-child(2) > tr:nth-last-child(n+2)");
+		for (DomNode detailRow : detailRows) {
+
+			DomNodeList<DomNode> detailCells = detailRow.querySelectorAll("td");
+
+			String articleName = detailCells.get(0).asText();
+			int amount = Integer.parseInt(detailCells.get(1).asText());
+			float articlePrice = ServerFormat.parseAmount(detailCells.get(2).asText());
+			float subsidy = ServerFormat.parseAmount(detailCells.get(4).asText());
+
+			bill.addEntry(articleName, articlePrice, amount, subsidy);
+		}
+	}
+
+}
@@ -0,0 +1,623 @@
+package altline.unistat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import altline.unistat.HtmlScanner.Element;
+
+/**
+ * A {@link ScrapeEngine} that fetches pages with plain HTTP requests and reads them with the streaming
+ * {@link HtmlScanner}, without running the pages' JavaScript or building a document tree.
+ * <p>
+ * Connections are kept alive between requests and responses are requested gzip-compressed. Cookies are kept in memory
+ * for the lifetime of the engine. The forms that the single sign-on pages submit with JavaScript are submitted by the
+ * engine itself.
+ * </p>
+ * <p>
+ * Details are revalidated with conditional requests when the server sent validators with them.
+ * </p>
+ * All data is extracted with precompiled {@link Selector}s equivalent to the queries of the
+ * {@link HtmlUnitScrapeEngine}.
+ */
+final class HttpScrapeEngine implements ScrapeEngine {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64; Trident/7.0; rv:11.0) like Gecko";
+	private static final int TIMEOUT = 30000;
+	private static final int MAX_REDIRECTS = 10;
+	/** The number of JavaScript-submitted forms that are submitted in a row, e.g. the SAML response of a login */
+	private static final int MAX_AUTO_SUBMITS = 5;
+
+	private static final Selector CARD_FULL_NAME = Selector.compile(".testimonial-card > div:nth-of-type(3) > h4");
+	private static final Selector CARD_INSTITUTION = Selector.compile(".testimonial-card > div:nth-of-type(3) > h5");
+	private static final Selector CARD_PRIVILEGE = Selector.compile(
+			".testimonial-card > div:nth-of-type(3) > div:nth-of-type(1) > div:nth-of-type(1) > p:nth-of-type(2)");
+	private static final Selector CARD_AVAILABLE_FUNDS = Selector.compile(
+			".testimonial-card > div:nth-of-type(3) > div:nth-of-type(1) > div:nth-of-type(2) > p:nth-of-type(2)");
+	private static final Selector CARD_BILLS_LINK = Selector.compile(".testimonial-card > div:nth-of-type(3) > a");
+
+	private static final Selector TABLE_ROW = Selector.compile(".table > tbody:nth-child(2) > tr");
+	private static final Selector TABLE_CELL = Selector.compile(".table > tbody:nth-child(2) > tr > td");
+	private static final Selector DETAILS_LINK = Selector.compile(".table > tbody:nth-child(2) > tr > td:nth-child(7) a");
+
+	private static final Selector LOGIN_ERROR = Selector.compile(".aai_messages_container");
+	private static final Selector FORM = Selector.compile("form");
+	private static final Selector FORM_FIELD = Selector.compile("form input");
+	private static final Selector FORM_BUTTON = Selector.compile("form button");
+
+	private final CookieManager cookies = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+	/**
+	 * The expiry times of the received persistent cookies by their name and domain. A {@link HttpCookie} only knows its
+	 * max age relative to when it was received.
+	 */
+	private final Map<String, Long> cookieExpiries = new ConcurrentHashMap<>();
+	private final Traffic traffic = new Traffic();
+	private Response currentPage;
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public String connect(String url) throws IOException {
+		currentPage = autoSubmit(request(new URL(url), null, null));
+		return getCurrentUrl();
+	}
+
+	@Override
+	public String getCurrentUrl() {
+		if (currentPage == null) return "";
+		return currentPage.url.toExternalForm();
+	}
+
+	@Override
+	public String submitLogin(String userID, String password) throws IOException {
+		Form loginForm = null;
+		for (Form form : readForms(currentPage)) {
+			if ("f".equals(form.name)) loginForm = form;
+		}
+		if (loginForm == null) throw new IOException("The page has no login form");
+
+		loginForm.set("username", userID);
+		loginForm.set("password", password);
+		loginForm.submitButton("Submit");
+
+		currentPage = autoSubmit(submit(currentPage, loginForm));
+		return getCurrentUrl();
+	}
+
+	@Override
+	public String readLoginError() {
+		String[] error = new String[1];
+		scan(currentPage, new HtmlScanner.Handler() {
+			@Override
+			public boolean startElement(Element element) {
+				return error[0] == null && LOGIN_ERROR.matches(element);
+			}
+
+			@Override
+			public void endElement(Element element, String text) {
+				if (text != null && error[0] == null) error[0] = text;
+			}
+		});
+		return error[0] != null ? error[0] : "--";
+	}
+
+	@Override
+	public String readGeneralData(UserData userData) throws ParseException, IOException {
+		final Selector[] selectors = { CARD_FULL_NAME, CARD_INSTITUTION, CARD_PRIVILEGE, CARD_AVAILABLE_FUNDS, CARD_BILLS_LINK };
+		final String[] values = new String[selectors.length];
+		final String[] billsLink = new String[1];
+
+		scan(currentPage, new HtmlScanner.Handler() {
+			@Override
+			public boolean startElement(Element element) {
+				for (int i = 0; i < selectors.length; i++) {
+					if (values[i] == null && selectors[i].matches(element)) {
+						if (selectors[i] == CARD_BILLS_LINK) billsLink[0] = element.getAttribute("href");
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public void endElement(Element element, String text) {
+				if (text == null) return;
+				for (int i = 0; i < selectors.length; i++) {
+					if (values[i] == null && selectors[i].matches(element)) {
+						values[i] = text;
+						return;
+					}
+				}
+			}
+		});
+
+		if (values[0] == null || billsLink[0] == null) throw new IOException("The student page has no student data");
+		userData.setFullName(values[0]);
+		userData.setInstitution(values[1]);
+		userData.setPrivilege(values[2]);
+		if (values[3] == null) throw new ParseException("The available funds are missing", 0);
+		userData.setAvailableFunds(ServerFormat.parseAmount(values[3]));
+		return billsLink[0];
+	}
+
+	@Override
+	public List<BillRow> readBillRows() {
+		final List<BillRow> rows = new ArrayList<>();
+		for (TableRow tableRow : readTableRows(currentPage)) {
+			if (tableRow.cells.size() < 7) {
+				LOGGER.warn("Skipping a bill row with {} cells", tableRow.cells.size());
+				continue;
+			}
+
+			URL detailUrl = null;
+			if (tableRow.link != null && !tableRow.link.isEmpty() && !tableRow.link.startsWith("#")
+					&& !tableRow.link.toLowerCase(Locale.ROOT).startsWith("javascript:")) {
+				try {
+					detailUrl = new URL(currentPage.url, tableRow.link);
+				} catch (MalformedURLException e) {
+					LOGGER.warn("Malformed bill details URL: {}", tableRow.link);
+				}
+			}
+
+			rows.add(new BillRow(rows.size(), ServerFormat.parseDateTime(tableRow.cells.get(1), tableRow.cells.get(2)),
+					tableRow.cells.get(0), ServerFormat.parseAmountOrNaN(tableRow.cells.get(3)), detailUrl));
+		}
+		return rows;
+	}
+
+	@Override
+	public boolean fetchDetails(BillRow row, Bill bill, DetailCache.Validators validators) throws ParseException, IOException {
+		if (row.getDetailUrl() == null) throw new IOException("The details of the bill are only reachable through JavaScript");
+
+		Response detailsPage = request(row.getDetailUrl(), null, validators);
+		if (validators.isNotModified()) return true;
+
+		List<TableRow> detailRows = readTableRows(detailsPage);
+		// the last row holds the totals of the bill
+		for (TableRow detailRow : detailRows.subList(0, Math.max(0, detailRows.size() - 1))) {
+			List<String> cells = detailRow.cells;
+			if (cells.size() < 5) throw new ParseException("A bill detail row has " + cells.size() + " cells", 0);
+
+			String articleName = cells.get(0);
+			int amount;
+			try {
+				amount = Integer.parseInt(cells.get(1));
+			} catch (NumberFormatException e) {
+				throw new ParseException("Unparseable amount: \"" + cells.get(1) + "\"", 0);
+			}
+			float articlePrice = ServerFormat.parseAmount(cells.get(2));
+			float subsidy = ServerFormat.parseAmount(cells.get(4));
+
+			bill.addEntry(articleName, articlePrice, amount, subsidy);
+		}
+		return true;
+	}
+
+	@Override
+	public List<CookieJar.StoredCookie> getCookies() {
+		final long now = System.currentTimeMillis();
+		final List<CookieJar.StoredCookie> stored = new ArrayList<>();
+		for (HttpCookie cookie : cookies.getCookieStore().getCookies()) {
+			long expires = -1;
+			if (cookie.getMaxAge() >= 0) {
+				Long expiry = cookieExpiries.get(getCookieKey(cookie.getName(), cookie.getDomain()));
+				expires = expiry != null ? expiry : now + cookie.getMaxAge() * 1000;
+			}
+			stored.add(new CookieJar.StoredCookie(cookie.getName(), cookie.getValue(), cookie.getDomain(), cookie.getPath(), expires,
+					cookie.getSecure(), cookie.isHttpOnly()));
+		}
+		return stored;
+	}
+
+	@Override
+	public void addCookies(Collection<CookieJar.StoredCookie> storedCookies) {
+		final long now = System.currentTimeMillis();
+		for (CookieJar.StoredCookie stored : storedCookies) {
+			HttpCookie cookie = new HttpCookie(stored.getName(), stored.getValue());
+			cookie.setVersion(0);
+			cookie.setDomain(stored.getDomain());
+			cookie.setPath(stored.getPath());
+			cookie.setSecure(stored.isSecure());
+			cookie.setHttpOnly(stored.isHttpOnly());
+			if (!stored.isSession()) {
+				long maxAge = (stored.getExpires() - now) / 1000;
+				if (maxAge <= 0) continue;
+				cookie.setMaxAge(maxAge);
+				cookieExpiries.put(getCookieKey(stored.getName(), stored.getDomain()), stored.getExpires());
+			}
+
+			String host = stored.getDomain().startsWith(".") ? stored.getDomain().substring(1) : stored.getDomain();
+			try {
+				cookies.getCookieStore().add(new URI(stored.isSecure() ? "https" : "http", host, stored.getPath(), null), cookie);
+			} catch (URISyntaxException e) {
+				LOGGER.warn("Skipping a cookie of an invalid domain: {}", stored.getDomain());
+			}
+		}
+	}
+
+	@Override
+	public void clearCookies() {
+		cookies.getCookieStore().removeAll();
+		cookieExpiries.clear();
+	}
+
+	@Override
+	public Traffic getTraffic() {
+		return traffic;
+	}
+
+	@Override
+	public void close() {
+		clearCookies();
+		currentPage = null;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Makes a request to the specified URL, following redirects. Does not change the current page, so it can be called
+	 * concurrently.
+	 * @param url The URL to request
+	 * @param formBody The URL-encoded form to post, or null for a GET request
+	 * @param validators The validators to make a conditional request with, which are then replaced by the received
+	 *            ones, or null
+	 * @return The received page, with an empty body if the validators are marked as not modified
+	 */
+	private Response request(URL url, String formBody, DetailCache.Validators validators) throws IOException {
+		String method = formBody == null ? "GET" : "POST";
+
+		for (int redirects = 0;; redirects++) {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			connection.setRequestMethod(method);
+			connection.setRequestProperty("User-Agent", USER_AGENT);
+			connection.setRequestProperty("Accept", "text/html,application/xhtml+xml,*/*");
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			addCookies(connection, url);
+			if (validators != null) {
+				if (validators.getEtag() != null) connection.setRequestProperty("If-None-Match", validators.getEtag());
+				if (validators.getLastModified() != null) connection.setRequestProperty("If-Modified-Since", validators.getLastModified());
+			}
+
+			if (formBody != null) {
+				byte[] body = formBody.getBytes(StandardCharsets.UTF_8);
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+				connection.setFixedLengthStreamingMode(body.length);
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(body);
+				}
+			}
+
+			LOGGER.debug("{} {}", method, url);
+			int status = connection.getResponseCode();
+			storeCookies(connection, url);
+
+			if (status >= 300 && status < 400 && connection.getHeaderField("Location") != null) {
+				URL location = new URL(url, connection.getHeaderField("Location"));
+				readBody(connection, false);
+				if (redirects >= MAX_REDIRECTS) throw new IOException("Too many redirects from " + url);
+
+				if (status != 307 && status != 308) {
+					method = "GET";
+					formBody = null;
+				}
+				url = location;
+				continue;
+			}
+
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null && validators.isPresent()) {
+				readBody(connection, false);
+				validators.setNotModified(true);
+				return new Response(url, "");
+			}
+
+			String body = readBody(connection, status >= 400);
+			if (status >= 400) throw new StatusCodeException(status, url);
+			if (validators != null) {
+				validators.update(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+				validators.setNotModified(false);
+			}
+			return new Response(url, body);
+		}
+	}
+
+	/**
+	 * Reads the whole response, so that the connection can be reused.
+	 */
+	private String readBody(HttpURLConnection connection, boolean error) throws IOException {
+		InputStream stream = error ? connection.getErrorStream() : connection.getInputStream();
+		if (stream == null) {
+			traffic.recordPage(0);
+			return "";
+		}
+
+		if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) stream = new GZIPInputStream(stream);
+		try (InputStream in = stream) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 8192));
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, read);
+			}
+			traffic.recordPage(bytes.size());
+			return new String(bytes.toByteArray(), getCharset(connection));
+		}
+	}
+
+	private static Charset getCharset(HttpURLConnection connection) {
+		String contentType = connection.getContentType();
+		if (contentType != null) {
+			for (String parameter : contentType.split(";")) {
+				String trimmed = parameter.trim();
+				if (trimmed.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+					try {
+						return Charset.forName(trimmed.substring(8).replace("\"", ""));
+					} catch (IllegalArgumentException e) {
+						LOGGER.debug("Unknown charset: {}", trimmed);
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	private void addCookies(HttpURLConnection connection, URL url) throws IOException {
+		try {
+			for (Map.Entry<String, List<String>> header : cookies.get(url.toURI(), Collections.emptyMap()).entrySet()) {
+				if (!header.getValue().isEmpty()) connection.setRequestProperty(header.getKey(), String.join("; ", header.getValue()));
+			}
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void storeCookies(HttpURLConnection connection, URL url) throws IOException {
+		try {
+			cookies.put(url.toURI(), connection.getHeaderFields());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+
+		final long now = System.currentTimeMillis();
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if (!"Set-Cookie".equalsIgnoreCase(header.getKey())) continue;
+			for (String value : header.getValue()) {
+				try {
+					for (HttpCookie cookie : HttpCookie.parse(value)) {
+						String key = getCookieKey(cookie.getName(), cookie.getDomain() != null ? cookie.getDomain() : url.getHost());
+						if (cookie.getMaxAge() >= 0) cookieExpiries.put(key, now + cookie.getMaxAge() * 1000);
+						else cookieExpiries.remove(key);
+					}
+				} catch (IllegalArgumentException e) {
+					LOGGER.debug("Unparseable cookie: {}", value);
+				}
+			}
+		}
+	}
+
+	private static String getCookieKey(String name, String domain) {
+		if (domain == null) domain = "";
+		if (domain.startsWith(".")) domain = domain.substring(1);
+		return name + "@" + domain.toLowerCase(Locale.ROOT);
+	}
+
+	private Response submit(Response page, Form form) throws IOException {
+		URL action = form.action == null || form.action.isEmpty() ? page.url : new URL(page.url, form.action);
+		String body = form.encode();
+		if ("post".equalsIgnoreCase(form.method)) return request(action, body, null);
+
+		String query = action.getQuery() == null || action.getQuery().isEmpty() ? body : action.getQuery() + "&" + body;
+		return request(new URL(action, action.getPath() + "?" + query), null, null);
+	}
+
+	/**
+	 * Submits the forms that a browser would submit with JavaScript as soon as the page loads, like the SAML forms of
+	 * the single sign-on.
+	 * @return The page received after the last submitted form
+	 */
+	private Response autoSubmit(Response page) throws IOException {
+		for (int i = 0; i < MAX_AUTO_SUBMITS; i++) {
+			Form autoForm = null;
+			for (Form form : readForms(page)) {
+				if (form.has("SAMLResponse") || form.has("SAMLRequest")) autoForm = form;
+			}
+			if (autoForm == null) return page;
+
+			LOGGER.debug("Submitting the single sign-on form of {}", page.url);
+			page = submit(page, autoForm);
+		}
+		return page;
+	}
+
+	private static List<Form> readForms(Response page) {
+		final List<Form> forms = new ArrayList<>();
+		scan(page, new HtmlScanner.Handler() {
+			@Override
+			public boolean startElement(Element element) {
+				if (FORM.matches(element)) {
+					forms.add(new Form(element.getAttribute("name"), element.getAttribute("action"), element.getAttribute("method")));
+
+				} else if (FORM_FIELD.matches(element) && !forms.isEmpty() && element.getAttribute("name") != null) {
+					String type = element.getAttribute("type") == null ? "text" : element.getAttribute("type").toLowerCase(Locale.ROOT);
+					boolean checkable = type.equals("checkbox") || type.equals("radio");
+					if (!type.equals("submit") && !type.equals("button") && (!checkable || element.getAttribute("checked") != null)) {
+						String value = element.getAttribute("value");
+						forms.get(forms.size() - 1).fields.add(new String[] { element.getAttribute("name"), value == null ? "" : value });
+					}
+					if (type.equals("submit")) forms.get(forms.size() - 1).addButton(element);
+
+				} else if (FORM_BUTTON.matches(element) && !forms.isEmpty()) {
+					forms.get(forms.size() - 1).addButton(element);
+				}
+				return false;
+			}
+
+			@Override
+			public void endElement(Element element, String text) {
+			}
+		});
+		return forms;
+	}
+
+	/**
+	 * Reads the cells and the details link of the rows of the table of the specified page.
+	 */
+	private static List<TableRow> readTableRows(Response page) {
+		final List<TableRow> rows = new ArrayList<>();
+		scan(page, new HtmlScanner.Handler() {
+			private TableRow row;
+
+			@Override
+			public boolean startElement(Element element) {
+				if (TABLE_ROW.matches(element)) {
+					row = new TableRow();
+					rows.add(row);
+				} else if (row != null && DETAILS_LINK.matches(element)) {
+					if (row.link == null) row.link = element.getAttribute("href");
+				} else if (row != null && TABLE_CELL.matches(element)) {
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public void endElement(Element element, String text) {
+				if (text != null && row != null) row.cells.add(text);
+				else if (TABLE_ROW.matches(element)) row = null;
+			}
+		});
+		return rows;
+	}
+
+	private static void scan(Response page, HtmlScanner.Handler handler) {
+		if (page == null) return;
+		try {
+			HtmlScanner.scan(new StringReader(page.body), handler);
+		} catch (IOException e) {
+			throw new AssertionError("A string can not fail to be read", e);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static final class Response {
+		private final URL url;
+		private final String body;
+
+		private Response(URL url, String body) {
+			this.url = url;
+			this.body = body;
+		}
+	}
+
+	private static final class TableRow {
+		private final List<String> cells = new ArrayList<>(7);
+		private String link;
+	}
+
+	private static final class Form {
+		private final String name;
+		private final String action;
+		private final String method;
+		/** Pairs of a field name and value */
+		private final List<String[]> fields = new ArrayList<>();
+		private final List<String[]> buttons = new ArrayList<>(1);
+
+		private Form(String name, String action, String method) {
+			this.name = name;
+			this.action = action;
+			this.method = method == null ? "get" : method;
+		}
+
+		private boolean has(String fieldName) {
+			for (String[] field : fields) {
+				if (field[0].equals(fieldName)) return true;
+			}
+			return false;
+		}
+
+		private void set(String fieldName, String value) {
+			for (String[] field : fields) {
+				if (field[0].equals(fieldName)) {
+					field[1] = value;
+					return;
+				}
+			}
+			fields.add(new String[] { fieldName, value });
+		}
+
+		private void addButton(Element element) {
+			if (element.getAttribute("name") == null) return;
+			String value = element.getAttribute("value");
+			buttons.add(new String[] { element.getAttribute("name"), value == null ? "" : value });
+		}
+
+		/**
+		 * Includes the specified submit button in the submitted fields, like a browser does when it is clicked.
+		 */
+		private void submitButton(String buttonName) {
+			for (String[] button : buttons) {
+				if (button[0].equals(buttonName)) {
+					fields.add(button);
+					return;
+				}
+			}
+		}
+
+		private String encode() {
+			StringBuilder encoded = new StringBuilder();
+			try {
+				for (String[] field : fields) {
+					if (encoded.length() > 0) encoded.append('&');
+					encoded.append(URLEncoder.encode(field[0], "UTF-8")).append('=').append(URLEncoder.encode(field[1], "UTF-8"));
+				}
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError("UTF-8 is always supported", e);
+			}
+			return encoded.toString();
+		}
+	}
+
+}
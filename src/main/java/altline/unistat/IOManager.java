@@ -30,6 +30,7 @@ final class IOManager {
 	// pathIDs of the application's files and directories
 	public static final String F_APPLOCK = "F_APPLOCK";
 	public static final String F_COOKIE_STORE = "F_COOKIE_STORE";
+	public static final String F_SYNC_HISTORY = "F_SYNC_HISTORY";
 	public static final String DIR_USERDATA = "DIR_USERDATA";
 	// ----
 
@@ -50,6 +51,7 @@ final class IOManager {
 
 		putFile(F_APPLOCK, "app.lock");
 		putFile(F_COOKIE_STORE, "cookieStore.dat");
+		putFile(F_SYNC_HISTORY, "syncHistory.jsonl");
 
 		putDir(DIR_USERDATA, "userdata");
 	}
@@ -92,7 +94,46 @@ final class IOManager {
 	 * @return The data file of the specified User
 	 */
 	public Path getUserFile(String userID) {
-		return getPath(DIR_USERDATA).resolve(UUID.nameUUIDFromBytes(userID.getBytes(StandardCharsets.UTF_8)).toString() + ".dat");
+		return getPath(DIR_USERDATA).resolve(getUserFileName(userID) + ".dat");
+	}
+
+	/**
+	 * Gets the journal file for the {@link User} with the specified userID. The journal holds the changes made to the
+	 * User's data since its data file was last written.
+	 * @param userID The userID of the User whose journal file is to be retrieved
+	 * @return The journal file of the specified User
+	 */
+	public Path getUserJournalFile(String userID) {
+		return getPath(DIR_USERDATA).resolve(getUserFileName(userID) + ".journal");
+	}
+
+	/**
+	 * Gets the bill database file for the {@link User} with the specified userID
+	 * @param userID The userID of the User whose database file is to be retrieved
+	 * @return The database file of the specified User
+	 */
+	public Path getUserDatabaseFile(String userID) {
+		return getPath(DIR_USERDATA).resolve(getUserFileName(userID) + DatabaseBillStore.FILE_SUFFIX);
+	}
+
+	/**
+	 * @param userID The userID of a user
+	 * @return The file that holds the aggregates of the bills of the user with the specified userID
+	 */
+	public Path getUserAggregatesFile(String userID) {
+		return getPath(DIR_USERDATA).resolve(getUserFileName(userID) + ".agg");
+	}
+
+	/**
+	 * @param userID The userID of a user
+	 * @return The directory that holds the cached bill details of the user with the specified userID
+	 */
+	public Path getUserDetailCacheDir(String userID) {
+		return getPath(DIR_USERDATA).resolve(getUserFileName(userID) + ".details");
+	}
+
+	private String getUserFileName(String userID) {
+		return UUID.nameUUIDFromBytes(userID.getBytes(StandardCharsets.UTF_8)).toString();
 	}
 	
 	void start() {
@@ -129,7 +170,13 @@ final class IOManager {
 		return obj;
 	}
 
-	public void writeObject(Object obj, Path path) {
+	/**
+	 * Writes the specified object to the specified file, replacing the file's contents.
+	 * @param obj The object to write
+	 * @param path The file to write to
+	 * @return true if the object was written successfully, false otherwise
+	 */
+	public boolean writeObject(Object obj, Path path) {
 		LOGGER.debug("Writing object to: {}", path.toAbsolutePath());
 
 		try {
@@ -146,12 +193,14 @@ final class IOManager {
 		) {
 
 			oos.writeObject(obj);
+			return true;
 
 		} catch (SecurityException e) {
 			Alerts.catching("Read/Write access denied.\nPath: " + path.toAbsolutePath(), e, LOGGER);
 		} catch (IOException e) {
 			Alerts.catching("Could not write to file: " + path.toAbsolutePath(), e, LOGGER);
 		}
+		return false;
 	}
 
 	public void writeString(String str, Path path, OpenOption... options) {
@@ -0,0 +1,174 @@
+package altline.unistat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transfers bills in JSON format, as an array with one object for each bill:
+ *
+ * <pre>
+ * [
+ * {"dateTime":"2019-10-01T12:30:15","source":"Restoran","entries":[{"articleName":"Juha","articlePrice":3.5,"amount":1,"subsidy":2.0}]}
+ * ]
+ * </pre>
+ *
+ * The dateTime is in ISO-8601 format. Unknown fields of the objects are ignored.
+ * <p>
+ * The array is split into the texts of its objects while it is read, and each object is only parsed once its chunk is
+ * parsed, so the document is never held in memory as a whole.
+ * </p>
+ */
+final class JsonBillTransfer extends BillTransfer {
+
+	static final String EXTENSION = ".json";
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	protected void readHeader(BufferedReader reader) throws IOException {
+		int c = skipWhitespace(reader);
+		if (c == '\uFEFF') c = skipWhitespace(reader);
+		if (c != '[') throw new IOException("The file does not contain a JSON array");
+	}
+
+	@Override
+	protected String readRecord(BufferedReader reader) throws IOException {
+		int c = skipWhitespace(reader);
+		if (c == ',') c = skipWhitespace(reader);
+		if (c == ']') return null;
+		if (c != '{') throw new IOException(c < 0 ? "Unexpected end of the file" : "Expected a JSON object, found: " + (char) c);
+
+		StringBuilder record = new StringBuilder("{");
+		int depth = 1;
+		boolean inString = false;
+		while (depth > 0) {
+			c = reader.read();
+			if (c < 0) throw new IOException("Unexpected end of the file");
+			record.append((char) c);
+
+			if (inString) {
+				if (c == '\\') record.append((char) reader.read());
+				else if (c == '"') inString = false;
+			} else if (c == '"') {
+				inString = true;
+			} else if (c == '{' || c == '[') {
+				depth++;
+			} else if (c == '}' || c == ']') {
+				depth--;
+			}
+		}
+		return record.toString();
+	}
+
+	@Override
+	protected List<Bill> parseChunk(List<String> records, long firstRecord) throws IOException {
+		List<Bill> bills = new ArrayList<>(records.size());
+		long recordNumber = firstRecord;
+		for (String record : records) {
+			try {
+				bills.add(toBill(JsonParser.parseObject(record)));
+			} catch (IllegalArgumentException | ClassCastException | NullPointerException | DateTimeParseException e) {
+				throw new IOException("Record " + recordNumber + " is malformed: " + e.getMessage(), e);
+			}
+			recordNumber++;
+		}
+		return bills;
+	}
+
+	@Override
+	protected void writeHeader(Writer writer) throws IOException {
+		writer.write("[\n");
+	}
+
+	@Override
+	protected void writeBill(Writer writer, Bill bill, boolean first) throws IOException {
+		if (!first) writer.write(",\n");
+		writer.write("{\"dateTime\":");
+		writeString(writer, bill.getDateTime() == null ? null : bill.getDateTime().toString());
+		writer.write(",\"source\":");
+		writeString(writer, bill.getSource());
+		writer.write(",\"entries\":[");
+
+		boolean firstEntry = true;
+		for (Bill.Entry entry : bill.getEntries()) {
+			if (!firstEntry) writer.write(',');
+			firstEntry = false;
+
+			writer.write("{\"articleName\":");
+			writeString(writer, entry.getArticleName());
+			writer.write(",\"articlePrice\":");
+			writer.write(Float.toString(entry.getArticlePrice()));
+			writer.write(",\"amount\":");
+			writer.write(Integer.toString(entry.getAmount()));
+			writer.write(",\"subsidy\":");
+			writer.write(Float.toString(entry.getSubsidy()));
+			writer.write('}');
+		}
+		writer.write("]}");
+	}
+
+	@Override
+	protected void writeFooter(Writer writer) throws IOException {
+		writer.write("\n]\n");
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static Bill toBill(Map<String, Object> object) {
+		Bill bill = new Bill(LocalDateTime.parse((String) object.get("dateTime")), (String) object.get("source"));
+
+		Object entries = object.get("entries");
+		if (entries != null) {
+			for (Object element : (List<?>) entries) {
+				Map<?, ?> entry = (Map<?, ?>) element;
+				bill.addEntry((String) entry.get("articleName"), ((Number) entry.get("articlePrice")).floatValue(),
+						((Number) entry.get("amount")).intValue(), ((Number) entry.get("subsidy")).floatValue());
+			}
+		}
+		return bill;
+	}
+
+	private static int skipWhitespace(BufferedReader reader) throws IOException {
+		int c;
+		do {
+			c = reader.read();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		return c;
+	}
+
+	private static void writeString(Writer writer, String value) throws IOException {
+		if (value == null) {
+			writer.write("null");
+			return;
+		}
+
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c < 0x20) {
+				writer.write(String.format("\\u%04x", (int) c));
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+
+}
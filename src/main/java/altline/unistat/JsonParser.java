@@ -0,0 +1,192 @@
+package altline.unistat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the text of a single JSON value into maps, lists, strings, numbers, booleans and nulls.
+ */
+final class JsonParser {
+	private final String text;
+	private int pos;
+
+	private JsonParser(String text) {
+		this.text = text;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Parses the specified text of a single JSON object.
+	 * @param text The text of the object
+	 * @return The fields of the object by name, in the order of the text. Numbers are parsed as Doubles.
+	 * @throws IllegalArgumentException if the text is not a JSON object
+	 */
+	static Map<String, Object> parseObject(String text) {
+		return new JsonParser(text).parseWhole();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> parseWhole() {
+		Object value = parseValue();
+		skipWhitespace();
+		if (pos < text.length()) throw error("Unexpected text after the object");
+		if (!(value instanceof Map)) throw error("Not a JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	private Object parseValue() {
+		skipWhitespace();
+		if (pos >= text.length()) throw error("Unexpected end of the text");
+
+		char c = text.charAt(pos);
+		switch (c) {
+			case '{':
+				return parseMap();
+			case '[':
+				return parseList();
+			case '"':
+				return parseString();
+			case 't':
+				expect("true");
+				return Boolean.TRUE;
+			case 'f':
+				expect("false");
+				return Boolean.FALSE;
+			case 'n':
+				expect("null");
+				return null;
+			default:
+				return parseNumber();
+		}
+	}
+
+	private Map<String, Object> parseMap() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return map;
+		}
+
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') throw error("Expected a field name");
+			String name = parseString();
+			skipWhitespace();
+			if (next() != ':') throw error("Expected ':'");
+			map.put(name, parseValue());
+
+			skipWhitespace();
+			char c = next();
+			if (c == '}') return map;
+			if (c != ',') throw error("Expected ',' or '}'");
+		}
+	}
+
+	private List<Object> parseList() {
+		List<Object> list = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return list;
+		}
+
+		while (true) {
+			list.add(parseValue());
+			skipWhitespace();
+			char c = next();
+			if (c == ']') return list;
+			if (c != ',') throw error("Expected ',' or ']'");
+		}
+	}
+
+	private String parseString() {
+		StringBuilder value = new StringBuilder();
+		pos++;
+		while (true) {
+			char c = next();
+			if (c == '"') return value.toString();
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+
+			char escaped = next();
+			switch (escaped) {
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > text.length()) throw error("Unexpected end of the text");
+					value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					pos += 4;
+					break;
+				default:
+					value.append(escaped);
+			}
+		}
+	}
+
+	private Number parseNumber() {
+		int start = pos;
+		while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+			pos++;
+		}
+		if (start == pos) throw error("Unexpected character: " + text.charAt(pos));
+		return Double.valueOf(text.substring(start, pos));
+	}
+
+	private void expect(String literal) {
+		if (!text.startsWith(literal, pos)) throw error("Unexpected value");
+		pos += literal.length();
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private char peek() {
+		if (pos >= text.length()) throw error("Unexpected end of the text");
+		return text.charAt(pos);
+	}
+
+	private char next() {
+		char c = peek();
+		pos++;
+		return c;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos);
+	}
+
+}
@@ -0,0 +1,728 @@
+package altline.unistat;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.sun.javafx.collections.ElementObservableListDecorator;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ModifiableObservableListBase;
+
+/**
+ * The observable list that holds the bills of a {@link User}.
+ * <p>
+ * Bills loaded from a {@link MappedUserFile} are held as their index in the file until they are first accessed, at
+ * which point they are materialized into {@link Bill} objects. Sorting the list, looking bills up by dateTime and source
+ * and writing unmaterialized bills back to disk do not materialize them.
+ * </p>
+ * <p>
+ * Whether the list holds a bill with some dateTime and source is answered by a hash index that is built on the first
+ * lookup and kept up to date as the list and its bills change, so it takes constant time. The index does not store
+ * positions, which would have to be moved on every insertion and removal. The position of a bill is found from its
+ * dateTime with a binary search instead, as long as the list is sorted by dateTime, which it knows and keeps track of.
+ * Only the positions in a list that is not sorted are searched for by a scan. A bill of a sorted list whose dateTime
+ * changes is moved to its position in the order of dateTimes.
+ * </p>
+ * <p>
+ * Like a list created with an extractor, this list reports changes of its bills' dateTime, source and entries as
+ * update changes. Only materialized bills can change, so only they are observed.
+ * </p>
+ * The slots, the index and the observers are only accessed while holding the lock of the slots, so that a snapshot or
+ * a lookup that runs on another thread than a change sees the list either before or after the change. Change events
+ * are fired without holding the lock.
+ */
+final class LazyBillList extends ModifiableObservableListBase<Bill> {
+	private static final Comparator<LocalDateTime> DATE_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+	/** Each element is either a materialized {@link Bill} or the Integer index of an unmaterialized bill in the file */
+	private final ArrayList<Object> slots;
+	private final Map<Bill, BillObserver> observers = new IdentityHashMap<>();
+	private final MappedUserFile file;
+	/** The number of bills with each dateTime and source, or null until the first lookup */
+	private Map<SimpleImmutableEntry<LocalDateTime, String>, Integer> index;
+	/** The number of bills issued at each dateTime, kept along with the index */
+	private Map<LocalDateTime, Integer> dateTimeCounts;
+	/** Whether the bills are sorted by the dateTime they are indexed under, or null until it is first needed */
+	private Boolean sorted;
+
+	LazyBillList() {
+		this.slots = new ArrayList<>();
+		this.file = null;
+		this.sorted = true;
+	}
+
+	/**
+	 * Creates a list holding all bills of the specified file, none of which are materialized.
+	 * @param file The file to read the bills from
+	 */
+	LazyBillList(MappedUserFile file) {
+		this.file = file;
+		this.slots = new ArrayList<>(file.getBillCount());
+		for (int i = 0; i < file.getBillCount(); i++) {
+			slots.add(i);
+		}
+	}
+
+	private LazyBillList(MappedUserFile file, ArrayList<Object> slots, Boolean sorted) {
+		this.file = file;
+		this.slots = slots;
+		this.sorted = sorted;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return The file that unmaterialized bills of this list are read from, or null if this list holds no such bills
+	 */
+	MappedUserFile getFile() {
+		return file;
+	}
+
+	boolean isMaterialized(int index) {
+		synchronized (slots) {
+			return slots.get(index) instanceof Bill;
+		}
+	}
+
+	/**
+	 * @return true if the bill at the specified position is unmaterialized and can be copied from the file as it is
+	 * @see #copyUnmaterialized(int, DataOutput)
+	 */
+	boolean isCopyable(int index) {
+		synchronized (slots) {
+			Object slot = slots.get(index);
+			return slot instanceof Integer && file.isInFile((Integer) slot);
+		}
+	}
+
+	/**
+	 * Copies the encoded form of the unmaterialized bill at the specified position to the specified output.
+	 * @see MappedUserFile#copyBill(int, DataOutput)
+	 */
+	void copyUnmaterialized(int index, DataOutput out) throws IOException {
+		int fileIndex;
+		synchronized (slots) {
+			fileIndex = (Integer) slots.get(index);
+		}
+		file.copyBill(fileIndex, out);
+	}
+
+	/**
+	 * Gets the dateTime of the bill at the specified position without materializing it.
+	 */
+	LocalDateTime getDateTime(int index) {
+		synchronized (slots) {
+			Object slot = slots.get(index);
+			return slot instanceof Bill ? ((Bill) slot).getDateTime() : file.getDateTime((Integer) slot);
+		}
+	}
+
+	/**
+	 * Gets the source of the bill at the specified position without materializing it.
+	 */
+	String getSource(int index) {
+		synchronized (slots) {
+			Object slot = slots.get(index);
+			return slot instanceof Bill ? ((Bill) slot).getSource() : file.getSource((Integer) slot);
+		}
+	}
+
+	/**
+	 * Finds the position of the first bill issued at the specified time in the specified place, without materializing
+	 * any bills.
+	 * @return The position of the bill, or -1 if there is no such bill in this list
+	 */
+	int indexOf(LocalDateTime dateTime, String source) {
+		synchronized (slots) {
+			if (!getIndex().containsKey(new SimpleImmutableEntry<>(dateTime, source))) return -1;
+
+			int to = searchEnd(dateTime);
+			for (int i = searchStart(dateTime); i < to; i++) {
+				if (isIndexedUnder(i, dateTime, source)) return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks whether this list holds a bill issued at the specified time, in any place, without materializing any bills.
+	 * @return true if there is such a bill in this list
+	 */
+	boolean containsDateTime(LocalDateTime dateTime) {
+		synchronized (slots) {
+			getIndex();
+			return dateTimeCounts.containsKey(dateTime);
+		}
+	}
+
+	/**
+	 * Adds those of the specified bills whose dateTime and source differ from the bills already in this list, each at
+	 * its position in the order of dateTimes, in a single change. A list that is not sorted is sorted first, so that
+	 * only the added bills have to be placed instead of sorting the whole list again. The bills of this list are not
+	 * materialized.
+	 * @param bills The bills to add
+	 * @return The added bills
+	 */
+	List<Bill> addMissing(Collection<Bill> bills) {
+		Set<SimpleImmutableEntry<LocalDateTime, String>> keys = new HashSet<>(bills.size() * 2);
+		List<Bill> missing = new ArrayList<>(bills.size());
+		synchronized (slots) {
+			Map<SimpleImmutableEntry<LocalDateTime, String>, Integer> existing = getIndex();
+			for (Bill bill : bills) {
+				SimpleImmutableEntry<LocalDateTime, String> key = new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource());
+				if (!existing.containsKey(key) && keys.add(key)) missing.add(bill);
+			}
+		}
+		if (missing.isEmpty()) return missing;
+
+		sortByDateTime();
+		beginChange();
+		try {
+			for (Bill bill : missing) {
+				addSorted(bill);
+			}
+		} finally {
+			endChange();
+		}
+		return missing;
+	}
+
+	/**
+	 * Sorts the bills by their dateTime without materializing them. The sort is stable.
+	 */
+	void sortByDateTime() {
+		final int size;
+		final int[] permutation;
+		synchronized (slots) {
+			size = slots.size();
+			if (isSorted()) return;
+
+			final LocalDateTime[] keys = new LocalDateTime[size];
+			final Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				keys[i] = indexedDateTime(i);
+				order[i] = i;
+			}
+
+			Arrays.sort(order, (o1, o2) -> DATE_ORDER.compare(keys[o1], keys[o2]));
+
+			boolean unchanged = true;
+			permutation = new int[size];
+			ArrayList<Object> sortedSlots = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				if (order[i] != i) unchanged = false;
+				permutation[order[i]] = i;
+				sortedSlots.add(slots.get(order[i]));
+			}
+			sorted = true;
+			if (unchanged) return;
+
+			slots.clear();
+			slots.addAll(sortedSlots);
+		}
+
+		beginChange();
+		nextPermutation(0, size, permutation);
+		endChange();
+	}
+
+	/**
+	 * Adds the specified bill after the bills issued at or before its dateTime, so a list sorted by dateTime stays
+	 * sorted without sorting it again. The position is found by a binary search that does not materialize bills.
+	 * @param bill The bill to add
+	 */
+	void addSorted(Bill bill) {
+		if (bill == null) throw new NullPointerException("Bill can not be null");
+		add(sortedPosition(bill.getDateTime()), bill);
+	}
+
+	/**
+	 * Moves the specified bill of this list to its position in the order of dateTimes, after its dateTime was changed.
+	 * A sorted list moves its bills by itself as their dateTimes change, so there this only finds the bill.
+	 * @param bill The bill to move
+	 * @return true if the bill is in this list
+	 */
+	boolean moveSorted(Bill bill) {
+		int position;
+		synchronized (slots) {
+			position = identityIndexOf(bill, bill.getDateTime(), bill.getSource());
+			if (position < 0) return false;
+			// a sorted list moves its bills as their dateTimes change
+			if (isSorted() || isInOrder(bill.getDateTime(), position - 1, position + 1)) return true;
+		}
+
+		remove(position);
+		addSorted(bill);
+		return true;
+	}
+
+	/**
+	 * Creates a copy of this list that is not affected by later changes of this list or its bills. Materialized bills
+	 * are copied, though the copies of the last snapshot are reused for the bills that did not change since, so taking
+	 * a snapshot only costs a pass over the slots. Unmaterialized bills stay unmaterialized in the copy, since their
+	 * contents never change.
+	 * @return The copy of this list
+	 */
+	LazyBillList snapshot() {
+		synchronized (slots) {
+			ArrayList<Object> snapshotSlots = new ArrayList<>(slots.size());
+			for (Object slot : slots) {
+				snapshotSlots.add(slot instanceof Bill ? snapshotCopy((Bill) slot) : slot);
+			}
+			return new LazyBillList(file, snapshotSlots, sorted);
+		}
+	}
+
+	/**
+	 * Moves the specified file over the file that unmaterialized bills of this list are read from, and reads them from
+	 * the new file from then on. The new file must be indexed and hold the bills of this list within the specified
+	 * range, in order. Unmaterialized bills outside of the range are decoded to the heap first.<br>
+	 * This list must be the latest snapshot of the list that the file was opened for, so that it holds every
+	 * unmaterialized bill that list still holds.
+	 * @param newFile The new file
+	 * @param fromIndex The position of the first bill of the new file
+	 * @param toIndex The position after the last bill of the new file
+	 * @throws IOException if the file can not be replaced
+	 * @see MappedUserFile#replaceWith(Path, int[])
+	 */
+	void replaceFile(Path newFile, int fromIndex, int toIndex) throws IOException {
+		int[] newIndices = new int[file.getBillCount()];
+		Arrays.fill(newIndices, MappedUserFile.UNREFERENCED);
+		synchronized (slots) {
+			for (int i = 0; i < slots.size(); i++) {
+				Object slot = slots.get(i);
+				if (slot instanceof Integer) {
+					newIndices[(Integer) slot] = i >= fromIndex && i < toIndex ? i - fromIndex : MappedUserFile.DETACHED;
+				}
+			}
+		}
+		file.replaceWith(newFile, newIndices);
+	}
+
+	/**
+	 * Makes sure the bills of this list stay readable when the file they are read from gets replaced by a file that is
+	 * not indexed.
+	 * @see MappedUserFile#release()
+	 */
+	void release() {
+		if (file != null) file.release();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public Bill get(int index) {
+		synchronized (slots) {
+			Object slot = slots.get(index);
+			if (slot instanceof Bill) return (Bill) slot;
+
+			Bill bill = file.materialize((Integer) slot);
+			slots.set(index, bill);
+			observe(bill);
+			return bill;
+		}
+	}
+
+	@Override
+	public int size() {
+		synchronized (slots) {
+			return slots.size();
+		}
+	}
+
+	/**
+	 * Only searches the bills that have the same dateTime and source as the specified object, through the index, and
+	 * only materializes those.
+	 */
+	@Override
+	public int indexOf(Object o) {
+		if (!(o instanceof Bill)) return -1;
+		Bill bill = (Bill) o;
+
+		synchronized (slots) {
+			LocalDateTime dateTime = bill.getDateTime();
+			if (!getIndex().containsKey(new SimpleImmutableEntry<>(dateTime, bill.getSource()))) return -1;
+
+			int to = searchEnd(dateTime);
+			for (int i = searchStart(dateTime); i < to; i++) {
+				if (matches(i, bill)) return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Only searches the bills that have the same dateTime and source as the specified object, through the index, and
+	 * only materializes those.
+	 */
+	@Override
+	public int lastIndexOf(Object o) {
+		if (!(o instanceof Bill)) return -1;
+		Bill bill = (Bill) o;
+
+		synchronized (slots) {
+			LocalDateTime dateTime = bill.getDateTime();
+			if (!getIndex().containsKey(new SimpleImmutableEntry<>(dateTime, bill.getSource()))) return -1;
+
+			int from = searchStart(dateTime);
+			for (int i = searchEnd(dateTime) - 1; i >= from; i--) {
+				if (matches(i, bill)) return i;
+			}
+			return -1;
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int index = indexOf(o);
+		if (index < 0) return false;
+		remove(index);
+		return true;
+	}
+
+	@Override
+	protected void doAdd(int index, Bill element) {
+		if (element == null) throw new NullPointerException("Bill can not be null");
+		synchronized (slots) {
+			if (Boolean.TRUE.equals(sorted) && !isInOrder(element.getDateTime(), index - 1, index)) sorted = false;
+			slots.add(index, element);
+			indexAdd(element.getDateTime(), element.getSource());
+			observe(element);
+		}
+	}
+
+	@Override
+	protected Bill doSet(int index, Bill element) {
+		if (element == null) throw new NullPointerException("Bill can not be null");
+		synchronized (slots) {
+			Bill old = get(index);
+			if (Boolean.TRUE.equals(sorted) && !isInOrder(element.getDateTime(), index - 1, index + 1)) sorted = false;
+			indexRemove(indexedDateTime(index), indexedSource(index));
+			slots.set(index, element);
+			indexAdd(element.getDateTime(), element.getSource());
+			unobserve(old);
+			observe(element);
+			return old;
+		}
+	}
+
+	@Override
+	protected Bill doRemove(int index) {
+		synchronized (slots) {
+			Bill old = get(index);
+			indexRemove(indexedDateTime(index), indexedSource(index));
+			slots.remove(index);
+			unobserve(old);
+			return old;
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return The position after the last bill issued at or before the specified dateTime, in a list sorted by dateTime
+	 */
+	private int sortedPosition(LocalDateTime dateTime) {
+		synchronized (slots) {
+			int low = 0;
+			int high = slots.size();
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (DATE_ORDER.compare(indexedDateTime(middle), dateTime) <= 0) low = middle + 1;
+				else high = middle;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * @return The position of the first bill issued at or after the specified dateTime, in a list sorted by dateTime
+	 */
+	private int firstPosition(LocalDateTime dateTime) {
+		int low = 0;
+		int high = slots.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (DATE_ORDER.compare(indexedDateTime(middle), dateTime) < 0) low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * The bills indexed under the specified dateTime are all at or after this position, and before
+	 * {@link #searchEnd(LocalDateTime)}. Must be called while holding the lock of the slots, like the other methods
+	 * that read the slots.
+	 */
+	private int searchStart(LocalDateTime dateTime) {
+		return isSorted() ? firstPosition(dateTime) : 0;
+	}
+
+	private int searchEnd(LocalDateTime dateTime) {
+		return isSorted() ? sortedPosition(dateTime) : slots.size();
+	}
+
+	/**
+	 * @return true if the bills are sorted by the dateTime they are indexed under, which is checked on the first call
+	 */
+	private boolean isSorted() {
+		if (sorted == null) {
+			sorted = true;
+			for (int i = 1; i < slots.size() && sorted; i++) {
+				sorted = DATE_ORDER.compare(indexedDateTime(i - 1), indexedDateTime(i)) <= 0;
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * @param dateTime The dateTime of a bill
+	 * @param before The position of the bill before it
+	 * @param after The position of the bill after it
+	 * @return true if the specified dateTime is not earlier than that of the bill before and not later than that of the
+	 *         bill after, where there are such bills
+	 */
+	private boolean isInOrder(LocalDateTime dateTime, int before, int after) {
+		return (before < 0 || DATE_ORDER.compare(indexedDateTime(before), dateTime) <= 0)
+				&& (after >= slots.size() || DATE_ORDER.compare(dateTime, indexedDateTime(after)) <= 0);
+	}
+
+	/**
+	 * Gets the dateTime the bill at the specified position is indexed under, which only differs from its dateTime while
+	 * a change of it is being reported. Must be called while holding the lock of the slots.
+	 */
+	private LocalDateTime indexedDateTime(int position) {
+		Object slot = slots.get(position);
+		if (!(slot instanceof Bill)) return file.getDateTime((Integer) slot);
+		BillObserver observer = observers.get(slot);
+		return observer != null ? observer.indexedDateTime : ((Bill) slot).getDateTime();
+	}
+
+	private String indexedSource(int position) {
+		Object slot = slots.get(position);
+		if (!(slot instanceof Bill)) return file.getSource((Integer) slot);
+		BillObserver observer = observers.get(slot);
+		return observer != null ? observer.indexedSource : ((Bill) slot).getSource();
+	}
+
+	private boolean isIndexedUnder(int position, LocalDateTime dateTime, String source) {
+		return Objects.equals(indexedDateTime(position), dateTime) && Objects.equals(indexedSource(position), source);
+	}
+
+	/**
+	 * Must be called while holding the lock of the slots.
+	 */
+	private boolean matches(int index, Bill bill) {
+		Object slot = slots.get(index);
+		if (slot == bill) return true;
+		if (slot instanceof Bill) return slot.equals(bill);
+
+		// only worth materializing if it can be equal
+		return Objects.equals(getDateTime(index), bill.getDateTime()) && Objects.equals(getSource(index), bill.getSource())
+				&& get(index).equals(bill);
+	}
+
+	/**
+	 * Gets the index of the bills, building it if it was not built yet. Must be called while holding the lock of the
+	 * slots.
+	 */
+	private Map<SimpleImmutableEntry<LocalDateTime, String>, Integer> getIndex() {
+		if (index == null) {
+			index = new HashMap<>(slots.size() * 2);
+			dateTimeCounts = new HashMap<>(slots.size() * 2);
+			for (int i = 0; i < slots.size(); i++) {
+				indexAdd(indexedDateTime(i), indexedSource(i));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a bill to the index if it was built. Must be called while holding the lock of the slots, like the other
+	 * methods that change the index.
+	 */
+	private void indexAdd(LocalDateTime dateTime, String source) {
+		if (index == null) return;
+
+		index.merge(new SimpleImmutableEntry<>(dateTime, source), 1, Integer::sum);
+		dateTimeCounts.merge(dateTime, 1, Integer::sum);
+	}
+
+	private void indexRemove(LocalDateTime dateTime, String source) {
+		if (index == null) return;
+
+		index.computeIfPresent(new SimpleImmutableEntry<>(dateTime, source), (key, count) -> count == 1 ? null : count - 1);
+		dateTimeCounts.computeIfPresent(dateTime, (time, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * @return The copy of the specified bill of this list for a snapshot. The copy is reused by later snapshots until
+	 *         the bill changes, so a snapshot only copies the bills that changed since the last one.
+	 */
+	private Bill snapshotCopy(Bill bill) {
+		// called while holding the lock of the slots
+		BillObserver observer = observers.get(bill);
+		return observer == null ? bill.copy() : observer.snapshotCopy();
+	}
+
+	/**
+	 * Finds the position of the specified bill object among the bills with the same dateTime, so only bills that share
+	 * their dateTime with another bill have to be compared.
+	 * @param dateTime The dateTime the bill is indexed under
+	 * @param source The source the bill is indexed under
+	 * @return The position of the bill, or -1 if it is not in this list
+	 */
+	private int identityIndexOf(Bill bill, LocalDateTime dateTime, String source) {
+		synchronized (slots) {
+			if (!getIndex().containsKey(new SimpleImmutableEntry<>(dateTime, source))) return -1;
+
+			int to = searchEnd(dateTime);
+			for (int i = searchStart(dateTime); i < to; i++) {
+				if (slots.get(i) == bill) return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Observes the specified bill, once more if it is observed already. Must be called while holding the lock of the
+	 * slots, like {@link #unobserve(Bill)}.
+	 */
+	private void observe(Bill bill) {
+		observers.computeIfAbsent(bill, b -> new BillObserver(b)).references++;
+	}
+
+	private void unobserve(Bill bill) {
+		// the same bill object may be in the list more than once
+		BillObserver observer = observers.get(bill);
+		if (observer == null || --observer.references > 0) return;
+
+		observers.remove(bill);
+		observer.dispose();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private final class BillObserver implements InvalidationListener {
+		private final Bill bill;
+		private final ElementObservableListDecorator<Bill.Entry> entries;
+		/** The dateTime and source the bill is indexed under */
+		private LocalDateTime indexedDateTime;
+		private String indexedSource;
+		/** The copy of the bill taken for the last snapshot, or null if the bill changed since */
+		private Bill snapshotCopy;
+		/** The number of slots that hold the bill */
+		private int references;
+
+		private BillObserver(Bill bill) {
+			this.bill = bill;
+			this.indexedDateTime = bill.getDateTime();
+			this.indexedSource = bill.getSource();
+			this.entries = new ElementObservableListDecorator<Bill.Entry>(
+					bill.getEntries(),
+					entry -> new Observable[] {
+							entry.articleNameProperty(),
+							entry.amountProperty(),
+							entry.articlePriceProperty(),
+							entry.subsidyProperty() });
+
+			bill.dateTimeProperty().addListener(this);
+			bill.sourceProperty().addListener(this);
+			entries.addListener(this);
+		}
+
+		private void dispose() {
+			bill.dateTimeProperty().removeListener(this);
+			bill.sourceProperty().removeListener(this);
+			entries.removeListener(this);
+		}
+
+		/**
+		 * @return A copy of the bill that is not affected by later changes of the bill. Snapshots only read their bills,
+		 *         so they can share the copy.
+		 */
+		private Bill snapshotCopy() {
+			// the edited flag is not observable, so it is compared instead
+			if (snapshotCopy == null || snapshotCopy.isEdited() != bill.isEdited()) snapshotCopy = bill.copy();
+			return snapshotCopy;
+		}
+
+		@Override
+		public void invalidated(Observable observable) {
+			// validate the properties again so that further changes get reported as well
+			LocalDateTime dateTime = bill.getDateTime();
+			String source = bill.getSource();
+
+			int index;
+			int newIndex;
+			synchronized (slots) {
+				snapshotCopy = null;
+				index = identityIndexOf(bill, indexedDateTime, indexedSource);
+				if (index < 0) return;
+				newIndex = index;
+
+				if (!Objects.equals(dateTime, indexedDateTime) || !Objects.equals(source, indexedSource)) {
+					// the position is found under the old dateTime, so the list is sorted under the old one
+					boolean move = isSorted() && !isInOrder(dateTime, index - 1, index + 1);
+					indexRemove(indexedDateTime, indexedSource);
+					indexAdd(dateTime, source);
+					indexedDateTime = dateTime;
+					indexedSource = source;
+
+					if (move) {
+						slots.remove(index);
+						newIndex = sortedPosition(dateTime);
+						slots.add(newIndex, bill);
+					}
+				}
+			}
+
+			beginChange();
+			if (newIndex == index) {
+				nextUpdate(index);
+			} else {
+				modCount++;
+				nextRemove(index, bill);
+				nextAdd(newIndex, newIndex + 1);
+			}
+			endChange();
+		}
+	}
+
+}
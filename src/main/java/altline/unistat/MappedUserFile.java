@@ -0,0 +1,385 @@
+package altline.unistat;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A read-only view of an indexed user data file (see {@link UserCodec}) that is memory-mapped instead of being read
+ * into the heap. Only the header, the dictionary and the index of bill offsets are decoded when the file is opened.
+ * Single bills are decoded straight from the mapped file when they are requested, so the cost of opening the file
+ * does not grow with the number of bills in it.
+ * <p>
+ * When the file is rewritten, the new file is mapped in its place (see {@link #replaceWith(Path, int[])}), so the bills
+ * keep being read from disk instead of the heap. Bills are still identified by their index in the file that was opened.
+ * </p>
+ */
+final class MappedUserFile {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** Marks a bill that is not in the new file, but is still held by a bill list, in {@link #replaceWith(Path, int[])} */
+	static final int DETACHED = -1;
+	/** Marks a bill that is not in the new file and is no longer held by any bill list */
+	static final int UNREFERENCED = -2;
+	/** Unmaps mapped buffers, or null if they can not be unmapped */
+	private static final Unmapper UNMAPPER = createUnmapper();
+
+	private final Path path;
+	private volatile UserCodec.Header header;
+	/** The offsets of the bills in the mapped data, by their index in the opened file. -1 for bills not in the data. */
+	private final int[] offsets;
+	/** The bills that were dropped from the file while still being held by a bill list, by their index */
+	private final Map<Integer, Bill> detached = new HashMap<>();
+
+	/**
+	 * The data of the file. This is the mapped file, unless {@link #release()} was called, after which it is a heap
+	 * copy.
+	 */
+	private ByteBuffer buffer;
+
+	private MappedUserFile(Path path, MappedByteBuffer buffer, UserCodec.Header header, int[] offsets) {
+		this.path = path;
+		this.buffer = buffer;
+		this.header = header;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Maps the specified user data file.
+	 * @param path The user data file
+	 * @return The mapped file, or null if the file is not indexed and can therefore only be read as a whole
+	 * @throws IOException if an IO problem occurs or the file is not a valid user data file
+	 */
+	static MappedUserFile open(Path path) throws IOException {
+		MappedByteBuffer buffer = map(path);
+
+		UserCodec.Header header = UserCodec.readHeader(new DataInputStream(new ByteBufferInputStream(buffer.duplicate())));
+		if (!header.isIndexed()) {
+			unmap(buffer);
+			return null;
+		}
+
+		int[] offsets;
+		try {
+			offsets = readIndex(buffer);
+		} catch (IOException e) {
+			unmap(buffer);
+			throw e;
+		}
+
+		LOGGER.debug("Mapped user data file with {} bills", offsets.length);
+		return new MappedUserFile(path, buffer, header, offsets);
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	String getUserID() {
+		return header.userID;
+	}
+
+	String getFullName() {
+		return header.fullName;
+	}
+
+	float getAvailableFunds() {
+		return header.availableFunds;
+	}
+
+	String[] getDictionary() {
+		return header.dictionary;
+	}
+
+	int getBillCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * Decodes the bill with the specified index into a new {@link Bill} object.
+	 * @param index The index of the bill in the file
+	 * @return The decoded bill
+	 * @throws UncheckedIOException if the bill could not be decoded
+	 */
+	synchronized Bill materialize(int index) {
+		Bill detachedBill = detached.get(index);
+		if (detachedBill != null) return detachedBill.copy();
+		try {
+			return UserCodec.readBill(input(index), header.dictionary);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read bill " + index + " from " + path, e);
+		}
+	}
+
+	/**
+	 * Decodes only the dateTime of the bill with the specified index.
+	 * @param index The index of the bill in the file
+	 * @return The dateTime of the bill
+	 * @throws UncheckedIOException if the bill could not be decoded
+	 */
+	synchronized LocalDateTime getDateTime(int index) {
+		Bill detachedBill = detached.get(index);
+		if (detachedBill != null) return detachedBill.getDateTime();
+		try {
+			return UserCodec.readBillDateTime(input(index));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read bill " + index + " from " + path, e);
+		}
+	}
+
+	/**
+	 * Decodes only the source of the bill with the specified index.
+	 * @param index The index of the bill in the file
+	 * @return The source of the bill
+	 * @throws UncheckedIOException if the bill could not be decoded
+	 */
+	synchronized String getSource(int index) {
+		Bill detachedBill = detached.get(index);
+		if (detachedBill != null) return detachedBill.getSource();
+		try {
+			return UserCodec.readBillSource(input(index), header.dictionary);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read bill " + index + " from " + path, e);
+		}
+	}
+
+	/**
+	 * @return true if the bill with the specified index is encoded in the mapped data, so it can be copied as it is
+	 */
+	synchronized boolean isInFile(int index) {
+		return offsets[index] >= 0 && !detached.containsKey(index);
+	}
+
+	/**
+	 * Copies the encoded bill with the specified index to the specified output as it is. The copied bill refers to
+	 * this file's dictionary. The bill must be in the file, see {@link #isInFile(int)}.
+	 * @param index The index of the bill in the file
+	 * @param out The output to copy the bill to
+	 * @throws IOException if an IO problem occurs
+	 */
+	synchronized void copyBill(int index, DataOutput out) throws IOException {
+		ByteBuffer data = buffer.duplicate();
+		data.position(offsets[index]);
+		UserCodec.skipBill(new DataInputStream(new ByteBufferInputStream(data)));
+
+		byte[] bytes = new byte[data.position() - offsets[index]];
+		data.position(offsets[index]);
+		data.get(bytes);
+		out.write(bytes);
+	}
+
+	/**
+	 * Moves the specified indexed file over this file and maps it in place of this file. The new file was written from
+	 * a bill list holding bills of this file, and the specified array tells where each bill of this file went:
+	 * <ul>
+	 * <li>bills written to the new file are read from it from then on,</li>
+	 * <li>{@link #DETACHED} bills are decoded to the heap before this file is unmapped, so they stay readable,</li>
+	 * <li>{@link #UNREFERENCED} bills are dropped.</li>
+	 * </ul>
+	 * This file is unmapped before it is replaced, since some platforms do not allow replacing a mapped file. If it can
+	 * not be unmapped, the new file is copied to the heap instead of being mapped, so that mappings of the file do not
+	 * pile up until the garbage collector releases them.
+	 * @param newFile The new file
+	 * @param newIndices The index in the new file of each bill of this file, or {@link #DETACHED} or
+	 *            {@link #UNREFERENCED}
+	 * @throws IOException if the new file is not a valid indexed file or can not be moved, in which case this file stays
+	 *             mapped
+	 */
+	synchronized void replaceWith(Path newFile, int[] newIndices) throws IOException {
+		MappedUserFile replacement = open(newFile);
+		if (replacement == null) throw new IOException("Not an indexed user data file: " + newFile);
+		unmap((MappedByteBuffer) replacement.buffer);
+
+		for (int i = 0; i < newIndices.length; i++) {
+			if (newIndices[i] == DETACHED && !detached.containsKey(i)) detached.put(i, materialize(i));
+			else if (newIndices[i] != DETACHED) detached.remove(i);
+		}
+
+		ByteBuffer oldBuffer = buffer;
+		buffer = null;
+		boolean mapNew = !(oldBuffer instanceof MappedByteBuffer) || unmap((MappedByteBuffer) oldBuffer);
+		try {
+			Files.move(newFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// a buffer that could not be unmapped is still readable
+			buffer = oldBuffer instanceof MappedByteBuffer && mapNew ? map(path) : oldBuffer;
+			throw e;
+		}
+
+		ByteBuffer newBuffer = mapNew ? map(path) : ByteBuffer.wrap(Files.readAllBytes(path));
+		header = replacement.header;
+		buffer = newBuffer;
+		for (int i = 0; i < newIndices.length; i++) {
+			offsets[i] = newIndices[i] >= 0 ? replacement.offsets[newIndices[i]] : -1;
+		}
+		LOGGER.debug("{} rewritten user data file {} ({} bills detached)", mapNew ? "Mapped" : "Copied", path,
+				detached.size());
+	}
+
+	/**
+	 * Copies the data of the file to the heap and unmaps the file, so that the file can be replaced by a file that can
+	 * not be mapped in its place. The bills of the file stay readable.
+	 */
+	synchronized void release() {
+		if (!(buffer instanceof MappedByteBuffer)) return;
+
+		MappedByteBuffer mapped = (MappedByteBuffer) buffer;
+		ByteBuffer copy = ByteBuffer.allocate(mapped.capacity());
+		copy.put(mapped.duplicate());
+		copy.flip();
+
+		buffer = copy;
+		unmap(mapped);
+		LOGGER.debug("Released mapped user data file {}", path);
+	}
+
+	private static MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("User data file too large: " + channel.size());
+			return channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Reads the index of bill offsets at the end of an indexed file. Every position is checked before it is read, so
+	 * that a truncated or corrupted file fails with an IOException instead of being read past its end.
+	 * @return The offsets of the bills
+	 * @throws IOException if the index is corrupted
+	 */
+	private static int[] readIndex(ByteBuffer buffer) throws IOException {
+		int capacity = buffer.capacity();
+		long indexPosition = capacity >= 12 ? buffer.getLong(capacity - 8) : -1;
+		if (indexPosition < 0 || indexPosition > capacity - 12) throw new IOException("Corrupted user data index");
+
+		int billCount = buffer.getInt((int) indexPosition);
+		if (billCount < 0 || indexPosition + 4 + 4L * billCount > capacity - 8) throw new IOException("Corrupted user data index");
+
+		int[] offsets = new int[billCount];
+		for (int i = 0; i < billCount; i++) {
+			offsets[i] = buffer.getInt((int) indexPosition + 4 + 4 * i);
+			if (offsets[i] < 0 || offsets[i] >= indexPosition) throw new IOException("Corrupted user data index");
+		}
+		return offsets;
+	}
+
+	private DataInputStream input(int index) {
+		ByteBuffer data = buffer.duplicate();
+		data.position(offsets[index]);
+		return new DataInputStream(new ByteBufferInputStream(data));
+	}
+
+	/**
+	 * Since there is no public API to unmap a file, the buffer is unmapped through the internal API of the running Java
+	 * version (see {@link #UNMAPPER}). If that fails, the file stays mapped until the buffer is garbage collected.
+	 * @return Whether the buffer was unmapped
+	 */
+	static boolean unmap(MappedByteBuffer buffer) {
+		if (UNMAPPER == null) return false;
+		try {
+			UNMAPPER.unmap(buffer);
+			return true;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.warn("Could not unmap the user data file. It stays mapped until it is garbage collected", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the internal API that unmaps buffers: {@code sun.misc.Unsafe.invokeCleaner} since Java 9, which no longer
+	 * allows access to the cleaner of a buffer, and the cleaner of the buffer before.
+	 * @return The unmapper, or null if neither API is available
+	 */
+	private static Unmapper createUnmapper() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (NoSuchMethodException e) {
+			// before Java 9
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.warn("Mapped user data files can not be unmapped. They stay mapped until they are garbage collected", e);
+			return null;
+		}
+
+		try {
+			Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> {
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) cleanMethod.invoke(cleaner);
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.warn("Mapped user data files can not be unmapped. They stay mapped until they are garbage collected", e);
+			return null;
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@FunctionalInterface
+	private interface Unmapper {
+		void unmap(ByteBuffer buffer) throws ReflectiveOperationException;
+	}
+
+	/**
+	 * An InputStream that reads from a {@link ByteBuffer}, starting at the buffer's position.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+}
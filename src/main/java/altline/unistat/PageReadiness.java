@@ -0,0 +1,165 @@
+package altline.unistat;
+
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.javascript.background.JavaScriptJobManager;
+
+/**
+ * Waits for the pages loaded by an {@link HtmlUnitScrapeEngine} to be ready to be read.
+ * <p>
+ * A page is ready as soon as the element its data is read from is present, or once it has no background JavaScript
+ * left to run, whichever comes first. Scripts that never settle therefore only delay the pages whose data is really
+ * missing, and only up to the time budget of the page's {@link PageType}.
+ * </p>
+ * The time each wait took is recorded per page type. The detector can be used from several threads at once.
+ */
+final class PageReadiness {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The longest time in milliseconds between two checks of a page */
+	private static final long POLL_INTERVAL = 50;
+
+	enum PageType {
+		LOGIN("form[name=f]", 5000),
+		STUDENT(".testimonial-card", 5000),
+		BILLS(".table > tbody:nth-child(2)", 5000),
+		DETAILS(".table > tbody:nth-child(2) > tr", 3000),
+		/** A page that is only ready once its scripts settle */
+		OTHER(null, 2000);
+
+		private final String selector;
+		private final long timeout;
+
+		/**
+		 * @param selector The selector of the element the page's data is read from, or null if there is none
+		 * @param timeout The longest time in milliseconds to wait for the page
+		 */
+		private PageType(String selector, long timeout) {
+			this.selector = selector;
+			this.timeout = timeout;
+		}
+
+		/**
+		 * @return The type of the webserver page with the specified URL. Details pages can not be told by their URL.
+		 */
+		static PageType of(URL url) {
+			String path = url.getPath();
+			if (path.endsWith("/loginuserpass.php")) return LOGIN;
+			if (path.startsWith("/Student/StudentRacuni")) return BILLS;
+			if (path.equals("/Student") || path.equals("/Student/")) return STUDENT;
+			return OTHER;
+		}
+	}
+
+	private final Map<PageType, Stats> stats = new EnumMap<>(PageType.class);
+
+	PageReadiness() {
+		for (PageType type : PageType.values()) {
+			stats.put(type, new Stats());
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Waits for the specified page to be ready. Also returns if the page's window navigates to another page.
+	 * @param page The page to wait for
+	 * @param type The type of the page
+	 * @return false if the page was not ready within the time budget of its type
+	 */
+	boolean await(HtmlPage page, PageType type) {
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(type.timeout);
+		final JavaScriptJobManager jobs = page.getEnclosingWindow().getJobManager();
+
+		boolean ready;
+		while (true) {
+			if (isReady(page, type, jobs)) {
+				ready = true;
+				break;
+			}
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				ready = false;
+				break;
+			}
+			jobs.waitForJobs(Math.min(POLL_INTERVAL, remaining));
+		}
+
+		long waited = System.nanoTime() - start;
+		stats.get(type).record(waited, ready);
+		if (ready) LOGGER.debug("{} page ready in {} ms", type, TimeUnit.NANOSECONDS.toMillis(waited));
+		else LOGGER.warn("{} page not ready after {} ms (background jobs: {})", type, type.timeout, jobs.getJobCount());
+		return ready;
+	}
+
+	/**
+	 * @return The wait times recorded so far, per page type
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("PageReadiness [");
+		boolean first = true;
+		for (Map.Entry<PageType, Stats> entry : stats.entrySet()) {
+			if (entry.getValue().waits.sum() == 0) continue;
+			if (!first) sb.append(", ");
+			sb.append(entry.getKey()).append('=').append(entry.getValue());
+			first = false;
+		}
+		return sb.append(']').toString();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static boolean isReady(HtmlPage page, PageType type, JavaScriptJobManager jobs) {
+		if (type.selector != null && page.querySelector(type.selector) != null) return true;
+		// the scripts left the page, or are done with it
+		return page.getEnclosingWindow().getEnclosedPage() != page || jobs.getJobCount() == 0;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static final class Stats {
+		private final LongAdder waits = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private void record(long nanos, boolean ready) {
+			waits.increment();
+			if (!ready) timeouts.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+
+		@Override
+		public String toString() {
+			long count = waits.sum();
+			return String.format("{waits=%d, avg=%d ms, max=%d ms, timeouts=%d}", count,
+					TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / Math.max(1, count)),
+					TimeUnit.NANOSECONDS.toMillis(maxNanos.get()), timeouts.sum());
+		}
+	}
+
+}
@@ -10,6 +10,21 @@ public final class Pref {
 	public static final String USER_ID = "user_id";
 	public static final String AL_PWD = "al_pwd";
 	public static final String EXIT_ON_CLOSE = "exit_on_close";
+	public static final String COMPRESS_DATA = "compress_data";
+	public static final String LAZY_LOADING = "lazy_loading";
+	public static final String SAVE_DELAY = "save_delay";
+	public static final String STORAGE = "storage";
+	public static final String FETCH_CONCURRENCY = "fetch_concurrency";
+	public static final String FETCH_RATE = "fetch_rate";
+	public static final String SCRAPE_ENGINE = "scrape_engine";
+	public static final String BACKGROUND_SYNC = "background_sync";
+	public static final String SYNC_INTERVAL = "sync_interval";
+
+	public static final String STORAGE_FILE = "file";
+	public static final String STORAGE_DATABASE = "database";
+
+	public static final String ENGINE_HTMLUNIT = "htmlunit";
+	public static final String ENGINE_HTTP = "http";
 
 	private Pref() {
 	}
@@ -29,6 +44,66 @@ public final class Pref {
 	public static boolean getExitOnClose() {
 		return pref.getBoolean(EXIT_ON_CLOSE, true);
 	}
+	
+	public static boolean getCompressData() {
+		return pref.getBoolean(COMPRESS_DATA, true);
+	}
+	
+	public static boolean getLazyLoading() {
+		return pref.getBoolean(LAZY_LOADING, true);
+	}
+	
+	/**
+	 * @return The time in milliseconds for which requests to save the user's data are coalesced into a single save
+	 */
+	public static long getSaveDelay() {
+		return pref.getLong(SAVE_DELAY, 2000);
+	}
+	
+	/**
+	 * @return The kind of storage for the user's data, either {@link #STORAGE_FILE} or {@link #STORAGE_DATABASE}
+	 */
+	public static String getStorage() {
+		return pref.get(STORAGE, STORAGE_FILE);
+	}
+	
+	/**
+	 * @return The number of bill detail pages fetched from the webserver at the same time. 1 fetches them one by one.
+	 */
+	public static int getFetchConcurrency() {
+		return Math.max(1, pref.getInt(FETCH_CONCURRENCY, 4));
+	}
+	
+	/**
+	 * @return The maximum number of bill detail pages requested from the webserver per second
+	 */
+	public static double getFetchRate() {
+		double rate = pref.getDouble(FETCH_RATE, 5);
+		return rate > 0 ? rate : 5;
+	}
+	
+	/**
+	 * @return The engine that reads the webserver's pages, either {@link #ENGINE_HTMLUNIT} or {@link #ENGINE_HTTP}
+	 */
+	public static String getScrapeEngine() {
+		return pref.get(SCRAPE_ENGINE, ENGINE_HTMLUNIT);
+	}
+	
+	/**
+	 * @return true if the logged-in user's data is updated from the webserver in the background
+	 */
+	public static boolean getBackgroundSync() {
+		return pref.getBoolean(BACKGROUND_SYNC, true);
+	}
+	
+	/**
+	 * @return The time in milliseconds between background updates outside of the hours the user's bills are usually
+	 *         issued in, before backing off
+	 */
+	public static long getSyncInterval() {
+		long interval = pref.getLong(SYNC_INTERVAL, 30 * 60 * 1000);
+		return interval > 0 ? interval : 30 * 60 * 1000;
+	}
 
 	
 	public static void setAutoLogin(boolean autoLogin) {
@@ -42,5 +117,41 @@ public final class Pref {
 	public static void setExitOnClose(boolean exitOnClose) {
 		pref.putBoolean(EXIT_ON_CLOSE, exitOnClose);
 	}
+	
+	public static void setCompressData(boolean compressData) {
+		pref.putBoolean(COMPRESS_DATA, compressData);
+	}
+	
+	public static void setLazyLoading(boolean lazyLoading) {
+		pref.putBoolean(LAZY_LOADING, lazyLoading);
+	}
+	
+	public static void setSaveDelay(long saveDelay) {
+		pref.putLong(SAVE_DELAY, saveDelay);
+	}
+	
+	public static void setStorage(String storage) {
+		pref.put(STORAGE, storage);
+	}
+	
+	public static void setFetchConcurrency(int fetchConcurrency) {
+		pref.putInt(FETCH_CONCURRENCY, fetchConcurrency);
+	}
+	
+	public static void setFetchRate(double fetchRate) {
+		pref.putDouble(FETCH_RATE, fetchRate);
+	}
+	
+	public static void setScrapeEngine(String scrapeEngine) {
+		pref.put(SCRAPE_ENGINE, scrapeEngine);
+	}
+	
+	public static void setBackgroundSync(boolean backgroundSync) {
+		pref.putBoolean(BACKGROUND_SYNC, backgroundSync);
+	}
+	
+	public static void setSyncInterval(long syncInterval) {
+		pref.putLong(SYNC_INTERVAL, syncInterval);
+	}
 
 }
@@ -0,0 +1,174 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An in-memory cache of the profiles of users that are not logged in, so that logging a user in again does not have
+ * to read the user's data from disk.
+ * <p>
+ * Profiles are evicted in least-recently-used order once the estimated memory taken by the cached profiles exceeds the
+ * cache's memory budget. The most recently cached profile is never evicted.
+ * </p>
+ * The cache is thread-safe.
+ */
+final class ProfileCache {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The estimated memory taken by a profile besides its bills, e.g. the profile's GUI */
+	private static final long PROFILE_OVERHEAD = 4 << 20;
+	private static final long SLOT_SIZE = 16;
+	private static final long BILL_SIZE = 400;
+	private static final long ENTRY_SIZE = 250;
+
+	private final long budget;
+	private final Consumer<Profile> evictionListener;
+	private final LinkedHashMap<String, Profile> profiles = new LinkedHashMap<>(8, 0.75f, true);
+	private long size;
+
+	/**
+	 * @param budget The maximum estimated memory in bytes taken by the cached profiles
+	 * @param evictionListener The listener that is notified of every profile that is evicted from the cache. It is
+	 *            called after the profile's store is closed.
+	 */
+	ProfileCache(long budget, Consumer<Profile> evictionListener) {
+		this.budget = budget;
+		this.evictionListener = evictionListener;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Caches the specified profile, replacing a cached profile of the same user, and evicts the least recently used
+	 * profiles if the cache exceeds its memory budget.
+	 * @param profile The profile to cache
+	 */
+	void put(Profile profile) {
+		List<Profile> evicted = new ArrayList<>();
+		synchronized (this) {
+			Profile old = profiles.put(profile.getUser().getUserID(), profile);
+			if (old != null) size -= old.size;
+
+			profile.size = estimateSize(profile.getUser());
+			size += profile.size;
+
+			Iterator<Profile> iterator = profiles.values().iterator();
+			while (size > budget && profiles.size() > 1) {
+				Profile eldest = iterator.next();
+				iterator.remove();
+				size -= eldest.size;
+				evicted.add(eldest);
+			}
+		}
+
+		for (Profile eldest : evicted) {
+			LOGGER.debug("Evicting the cached profile of a user ({} KB)", eldest.size >> 10);
+			evict(eldest);
+		}
+	}
+
+	/**
+	 * Removes the profile of the user with the specified userID from the cache.
+	 * @param userID The userID of the user
+	 * @return The removed profile, or null if the user's profile was not cached
+	 */
+	synchronized Profile take(String userID) {
+		Profile profile = profiles.remove(userID);
+		if (profile != null) size -= profile.size;
+		return profile;
+	}
+
+	/**
+	 * Evicts all cached profiles.
+	 */
+	void clear() {
+		List<Profile> evicted;
+		synchronized (this) {
+			evicted = new ArrayList<>(profiles.values());
+			profiles.clear();
+			size = 0;
+		}
+		evicted.forEach(this::evict);
+	}
+
+	/**
+	 * @return The estimated memory in bytes taken by the cached profiles
+	 */
+	synchronized long getSize() {
+		return size;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void evict(Profile profile) {
+		if (profile.getStore() != null) {
+			try {
+				profile.getStore().close();
+			} catch (IOException e) {
+				LOGGER.warn("Could not close the store of an evicted profile", e);
+			}
+		}
+		evictionListener.accept(profile);
+	}
+
+	/**
+	 * Estimates the heap memory taken by the specified User. Bills that are not materialized only take a slot in the
+	 * User's bill list.
+	 */
+	private static long estimateSize(User user) {
+		LazyBillList bills = user.getBillList();
+		long size = PROFILE_OVERHEAD + bills.size() * SLOT_SIZE;
+		for (int i = 0; i < bills.size(); i++) {
+			if (bills.isMaterialized(i)) size += BILL_SIZE + bills.get(i).getEntries().size() * ENTRY_SIZE;
+		}
+		return size;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The loaded data of a user that is not logged in.
+	 */
+	static final class Profile {
+		private final User user;
+		private final BillStore store;
+		private long size;
+
+		/**
+		 * @param user The loaded User
+		 * @param store The open store of the User, or null if the store was closed
+		 */
+		Profile(User user, BillStore store) {
+			this.user = user;
+			this.store = store;
+		}
+
+		User getUser() {
+			return user;
+		}
+
+		BillStore getStore() {
+			return store;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package altline.unistat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits the rate of requests made to the webserver.
+ * <p>
+ * The bucket holds up to a burst of permits and is refilled at a constant rate. A request that finds the bucket empty
+ * reserves the next permit and waits until it is refilled, so waiting requests are served in the order they arrived and
+ * the rate holds however many threads share the limiter.
+ * </p>
+ * The limiter is thread-safe.
+ */
+final class RateLimiter {
+
+	private final double permitsPerNano;
+	private final double burst;
+	private double permits;
+	private long lastRefill;
+
+	/**
+	 * @param permitsPerSecond The rate at which permits are refilled
+	 * @param burst The maximum number of permits that can be taken without waiting
+	 * @throws IllegalArgumentException if the rate is not positive or the burst is less than 1
+	 */
+	RateLimiter(double permitsPerSecond, int burst) {
+		if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("The rate must be positive: " + permitsPerSecond);
+		if (burst < 1) throw new IllegalArgumentException("The burst must be at least 1: " + burst);
+
+		this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		this.permits = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Takes a permit, waiting until one is available.
+	 * @throws InterruptedException if interrupted while waiting. The permit is still taken.
+	 */
+	void acquire() throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			refill();
+			permits--;
+			waitNanos = permits >= 0 ? 0 : (long) (-permits / permitsPerNano);
+		}
+		if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void refill() {
+		long now = System.nanoTime();
+		permits = Math.min(burst, permits + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+	}
+
+}
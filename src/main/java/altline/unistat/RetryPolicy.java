@@ -0,0 +1,137 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+
+/**
+ * Repeats idempotent requests that fail with a transient error, waiting a jittered, exponentially growing time between
+ * attempts.
+ * <p>
+ * Errors are transient if the server answered with a 5xx or 429 status code, the connection broke off or a response
+ * timed out, which a busy server may well answer in time when asked again. Errors that show the server is
+ * unreachable, like a refused connection or an unknown host, are not repeated, since repeating them would only add up
+ * their timeouts; they are for a {@link CircuitBreaker} to handle.
+ * </p>
+ * A policy can be used from several threads at once.
+ */
+final class RetryPolicy {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+
+	/**
+	 * @param maxAttempts The largest number of times a request is made
+	 * @param baseDelay The time in milliseconds to wait before the first repetition. Each further repetition waits twice
+	 *            as long.
+	 * @param maxDelay The longest time in milliseconds to wait before a repetition
+	 */
+	RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Makes the specified request, repeating it while it fails with a transient error and attempts remain.
+	 * @param request The request. It must be safe to repeat.
+	 * @param retryListener Called before each repetition
+	 * @return The result of the request
+	 * @throws IOException if the last attempt fails with an IO problem, or the wait is interrupted
+	 * @throws X if the request fails with the request's own exception, which is not repeated
+	 */
+	<T, X extends Exception> T execute(Request<T, X> request, Runnable retryListener) throws IOException, X {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return request.call();
+
+			} catch (IOException | FailingHttpStatusCodeException e) {
+				if (attempt >= maxAttempts || !isTransient(e)) throw e;
+
+				long delay = getDelay(attempt);
+				LOGGER.info("Request failed ({}), attempt {} of {} in {} ms", e.toString(), attempt + 1, maxAttempts, delay);
+				retryListener.run();
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting to repeat a request");
+					interrupted.addSuppressed(e);
+					throw interrupted;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the specified error is likely to pass if the request is repeated
+	 */
+	static boolean isTransient(Exception e) {
+		if (e instanceof FailingHttpStatusCodeException) return isTransientStatus(((FailingHttpStatusCodeException) e).getStatusCode());
+		if (e instanceof ScrapeEngine.StatusCodeException) return isTransientStatus(((ScrapeEngine.StatusCodeException) e).getStatusCode());
+		// a timeout is an InterruptedIOException too, but not one caused by interrupting the thread
+		if (e instanceof SocketTimeoutException) return true;
+		if (e instanceof ServerUnavailableException || e instanceof InterruptedIOException || isUnreachable(e)) return false;
+		return e instanceof IOException;
+	}
+
+	/**
+	 * @return true if the specified error shows that the server can not be reached at all
+	 */
+	static boolean isUnreachable(Exception e) {
+		return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static boolean isTransientStatus(int statusCode) {
+		return statusCode >= 500 || statusCode == 429;
+	}
+
+	/**
+	 * @return A random time in milliseconds between the half and the whole of the exponential delay of the specified
+	 *         attempt, so that clients that failed together do not repeat together
+	 */
+	private long getDelay(int attempt) {
+		long delay = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * A request that can be repeated.
+	 * @param <T> The type of the result of the request
+	 * @param <X> The type of the request's own exception, which is never repeated
+	 */
+	@FunctionalInterface
+	interface Request<T, X extends Exception> {
+		T call() throws IOException, X;
+	}
+
+}
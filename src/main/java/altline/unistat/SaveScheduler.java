@@ -0,0 +1,337 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import altline.utils.Alerts;
+import javafx.application.Platform;
+
+/**
+ * Writes the data of a logged-in {@link User} to the user's {@link BillStore} in the background.
+ * <p>
+ * Save requests are coalesced: a full save is written once the save window has passed since the first pending request,
+ * and covers all requests made in the meantime. The save is written from a snapshot of the user that is taken on the
+ * JavaFX thread, so the user can keep being modified while the snapshot is written.<br>
+ * All access to the user's store, including single changes and queries, happens in order on a single dedicated thread,
+ * so the JavaFX thread never has to wait for the disk.
+ * </p>
+ * <p>
+ * The user's {@link BillAggregates} are written after every full save and, coalesced in the same way, after single
+ * changes, stamped with the version of the stored data they match.
+ * </p>
+ * A scheduler serves a single user and must be closed when the user logs out, which also closes the user's store.
+ */
+final class SaveScheduler {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final User user;
+	private final BillStore store;
+	private final Path aggregatesFile;
+	private final long windowMillis;
+	private final ScheduledThreadPoolExecutor executor;
+
+	/** Whether a full save was requested that is not yet being written */
+	private boolean savePending;
+	/** Whether the aggregates of the user changed since they were last written */
+	private boolean aggregatesPending;
+	private ScheduledFuture<?> scheduledSave;
+	private boolean closed;
+
+	/**
+	 * @param user The user whose data is to be saved
+	 * @param store The store to save the user's data to
+	 * @param aggregatesFile The file to save the user's aggregates to
+	 * @param windowMillis The time in milliseconds for which save requests are coalesced
+	 */
+	SaveScheduler(User user, BillStore store, Path aggregatesFile, long windowMillis) {
+		this.user = user;
+		this.store = store;
+		this.aggregatesFile = aggregatesFile;
+		this.windowMillis = windowMillis;
+
+		this.executor = new ScheduledThreadPoolExecutor(1, runnable -> new Thread(runnable, "UserDataWriter"));
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Requests a full save of the user's data. The save is written once the save window has passed, unless a save was
+	 * already requested, in which case that save will include the current state of the user.<br>
+	 * This method may be called from any thread and returns immediately.
+	 */
+	synchronized void requestSave() {
+		if (closed) return;
+
+		savePending = true;
+		scheduleSnapshot();
+	}
+
+	/**
+	 * Requests the user's aggregates to be written. The aggregates are written once the save window has passed,
+	 * together with any full save requested in the meantime.<br>
+	 * This method may be called from any thread and returns immediately.
+	 */
+	synchronized void requestAggregatesSave() {
+		if (closed) return;
+
+		aggregatesPending = true;
+		scheduleSnapshot();
+	}
+
+	/**
+	 * Writes a change to the user's store on the writer thread, after all previously submitted disk operations. If the
+	 * change can not be written, a full save is requested instead. If the store has accumulated enough changes, it gets
+	 * compacted with a full save.<br>
+	 * The change must be written from data that is not modified afterwards (e.g. copies of bills).
+	 * @param action The action that writes the change to the store
+	 */
+	synchronized void submit(StoreAction action) {
+		if (closed) return;
+
+		executor.execute(() -> {
+			try {
+				action.apply(store);
+			} catch (IOException e) {
+				LOGGER.warn("Could not write a change of the user's data. Saving user data in full", e);
+				requestSave();
+				return;
+			}
+			requestAggregatesSave();
+
+			if (store.needsCompaction()) {
+				LOGGER.info("Compacting the user's stored data");
+				requestSave();
+			}
+		});
+	}
+
+	/**
+	 * Queries the user's store on the writer thread, after all previously submitted disk operations, and waits for the
+	 * result. Must not be called on the JavaFX thread.
+	 * @see BillStore#query(LocalDateTime, LocalDateTime, String)
+	 * @throws IOException if an IO problem occurs or the scheduler is closed
+	 * @throws InterruptedException if interrupted while waiting for the result
+	 */
+	List<Bill> query(LocalDateTime from, LocalDateTime to, String source) throws IOException, InterruptedException {
+		return query(store -> store.query(from, to, source));
+	}
+
+	/**
+	 * Runs the specified query of the user's store on the writer thread, after all previously submitted disk
+	 * operations, and waits for the result. Must not be called on the JavaFX thread.
+	 * @param query The query to run
+	 * @return The result of the query
+	 * @throws IOException if an IO problem occurs or the scheduler is closed
+	 * @throws InterruptedException if interrupted while waiting for the result
+	 */
+	<T> T query(StoreQuery<T> query) throws IOException, InterruptedException {
+		Future<T> result;
+		synchronized (this) {
+			if (closed) throw new IOException("The user's store is closed");
+			result = executor.submit(() -> query.apply(store));
+		}
+
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Loads the bills of the specified years from the user's store on the writer thread, after all previously submitted
+	 * disk operations, and passes them to the specified callback on the writer thread. If the bills can not be loaded,
+	 * the problem is reported to the user.
+	 * @see BillStore#loadYears(int, int)
+	 * @param callback The callback to pass the loaded bills to
+	 */
+	synchronized void loadYears(int fromYear, int toYear, Consumer<List<Bill>> callback) {
+		if (closed) return;
+
+		executor.execute(() -> {
+			long start = System.nanoTime();
+			List<Bill> bills;
+			try {
+				bills = store.loadYears(fromYear, toYear);
+			} catch (IOException e) {
+				Alerts.catching("Could not load older bills", e, LOGGER);
+				return;
+			}
+			LOGGER.debug("Loaded {} older bills in {} ms", bills.size(), (System.nanoTime() - start) / 1000000);
+			callback.accept(bills);
+		});
+	}
+
+	/**
+	 * @return The store the user's data is saved to
+	 */
+	BillStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Writes the pending save right away, if any, and stops accepting new requests. Disk operations that were already
+	 * submitted still get executed before the user's store is closed, which can be waited for with
+	 * {@link #awaitTermination(long, TimeUnit)}.<br>
+	 * If called from a thread other than the JavaFX thread, this method waits for the snapshot of the user to be
+	 * taken on the JavaFX thread.
+	 */
+	void close() {
+		close(true);
+	}
+
+	/**
+	 * Closes this scheduler like {@link #close()}, optionally leaving the user's store open, e.g. for the store to be
+	 * reused once the user logs in again. The store must not be used by anything else until this scheduler terminated.
+	 * @param closeStore false to leave the user's store open
+	 */
+	void close(boolean closeStore) {
+		boolean writePending, aggregatesWritePending;
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+
+			if (scheduledSave != null) scheduledSave.cancel(false);
+			scheduledSave = null;
+			writePending = savePending;
+			aggregatesWritePending = writePending || aggregatesPending;
+			savePending = false;
+			aggregatesPending = false;
+		}
+
+		if (writePending) {
+			try {
+				User snapshot = Platform.isFxApplicationThread() ? user.snapshot() : App.runFxAndWait(user::snapshot);
+				executor.execute(() -> write(snapshot));
+			} catch (ExecutionException | InterruptedException e) {
+				LOGGER.error("Could not take a snapshot of the user. The pending save is not written", e);
+			}
+		}
+
+		if (aggregatesWritePending && user.getAggregates() != null) {
+			try {
+				BillAggregates aggregates = Platform.isFxApplicationThread() ? user.getAggregates().copy()
+						: App.runFxAndWait(user.getAggregates()::copy);
+				executor.execute(() -> writeAggregates(aggregates));
+			} catch (ExecutionException | InterruptedException e) {
+				LOGGER.warn("Could not take a snapshot of the user's aggregates", e);
+			}
+		}
+
+		if (closeStore) {
+			executor.execute(() -> {
+				try {
+					store.close();
+				} catch (IOException e) {
+					LOGGER.warn("Could not close the user's store", e);
+				}
+			});
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for all submitted disk operations to finish after the scheduler was closed.
+	 * @param timeout The maximum time to wait
+	 * @param unit The time unit of the timeout argument
+	 * @return true if all operations finished, false if the timeout elapsed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void scheduleSnapshot() {
+		if (scheduledSave == null) {
+			scheduledSave = executor.schedule(() -> App.runFx(this::writeSnapshot), windowMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the user and its aggregates, as requested, and hands them to the writer thread. Must be
+	 * called on the JavaFX thread, where the user is modified.
+	 */
+	private synchronized void writeSnapshot() {
+		scheduledSave = null;
+		if (closed) return;
+
+		if (savePending) {
+			User snapshot = user.snapshot();
+			executor.execute(() -> write(snapshot));
+			// the stored data changes with the save, so the aggregates get a new stamp
+			aggregatesPending = true;
+		}
+		if (aggregatesPending && user.getAggregates() != null) {
+			BillAggregates aggregates = user.getAggregates().copy();
+			executor.execute(() -> writeAggregates(aggregates));
+		}
+		savePending = false;
+		aggregatesPending = false;
+	}
+
+	/**
+	 * Writes the specified snapshot of the user to the user's store in full. Runs on the writer thread.
+	 */
+	private void write(User snapshot) {
+		LOGGER.info("Saving user data");
+		try {
+			store.saveAll(snapshot);
+		} catch (IOException e) {
+			Alerts.catching("Could not save user data", e, LOGGER);
+		}
+	}
+
+	/**
+	 * Writes the specified snapshot of the user's aggregates, stamped with the current version of the stored data. Runs
+	 * on the writer thread, after the changes the aggregates include were written to the store.
+	 */
+	private void writeAggregates(BillAggregates aggregates) {
+		try {
+			aggregates.setDataVersion(store.getDataVersion());
+			aggregates.write(aggregatesFile);
+		} catch (IOException e) {
+			// the aggregates are recomputed when the user logs in next time
+			LOGGER.warn("Could not save the user's aggregates", e);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@FunctionalInterface
+	interface StoreAction {
+		void apply(BillStore store) throws IOException;
+	}
+
+	@FunctionalInterface
+	interface StoreQuery<T> {
+		T apply(BillStore store) throws IOException;
+	}
+
+}
@@ -0,0 +1,248 @@
+package altline.unistat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fetches the pages of the webserver and reads the data of the application from them, on behalf of
+ * {@link WebManager}.
+ * <p>
+ * Like a browser tab, an engine has a single current page that it navigates and reads. Only bill details can be
+ * fetched beside the current page, concurrently from several threads, if the details of the bill have their own URL.
+ * Other methods must not be called concurrently.
+ * </p>
+ * @see HtmlUnitScrapeEngine
+ * @see HttpScrapeEngine
+ */
+interface ScrapeEngine extends Closeable {
+
+	/**
+	 * Navigates to the specified URL, following redirects.
+	 * @param url The URL to connect to
+	 * @return The URL of the received page
+	 * @throws IOException if an IO problem occurs or the server returns a failing status code
+	 */
+	String connect(String url) throws IOException;
+
+	/**
+	 * @return The URL of the current page, or an empty string if there is none
+	 */
+	String getCurrentUrl();
+
+	/**
+	 * Fills in and submits the login form of the current page.
+	 * @param userID The user ID to log in with
+	 * @param password The password to log in with
+	 * @return The URL of the page received after the login
+	 * @throws IOException if an IO problem occurs, the current page has no login form or the server returns a failing
+	 *             status code
+	 */
+	String submitLogin(String userID, String password) throws IOException;
+
+	/**
+	 * @return The error message shown on the current login page, or "--" if there is none
+	 */
+	String readLoginError();
+
+	/**
+	 * Reads the user's general data from the current student page into the specified object.
+	 * @param userData The object to fill in
+	 * @return The link of the bills page as found on the student page
+	 * @throws ParseException if a value can not be parsed
+	 * @throws IOException if the current page has no student data
+	 */
+	String readGeneralData(UserData userData) throws ParseException, IOException;
+
+	/**
+	 * Reads the rows of the bills table of the current bills page.
+	 * @return The rows of the table, newest first
+	 */
+	List<BillRow> readBillRows();
+
+	/**
+	 * Fetches the details of the bill of the specified row and adds its entries to the specified bill. May be called
+	 * concurrently for rows that have a detail URL.
+	 * <p>
+	 * If the specified validators hold values and the engine supports conditional requests, the details are only
+	 * fetched if they were modified. Otherwise the validators are marked as not modified and the bill is left untouched.
+	 * The validators received with the details replace the specified ones.
+	 * </p>
+	 * @param row The row of the bill, read from the current bills page
+	 * @param bill The bill to add the entries to
+	 * @param validators The validators of the cached details to revalidate, or empty validators
+	 * @return false if the details page may not have been completely loaded
+	 * @throws ParseException if a value can not be parsed
+	 * @throws IOException if an IO problem occurs or the server returns a failing status code
+	 */
+	boolean fetchDetails(BillRow row, Bill bill, DetailCache.Validators validators) throws ParseException, IOException;
+
+	/**
+	 * @return The cookies the engine currently holds
+	 */
+	List<CookieJar.StoredCookie> getCookies();
+
+	/**
+	 * Adds the specified cookies to the cookies the engine holds, e.g. to restore a persisted session.
+	 * @param cookies The cookies to add
+	 */
+	void addCookies(Collection<CookieJar.StoredCookie> cookies);
+
+	/**
+	 * Removes all cookies the engine holds, ending its session without notifying the server.
+	 */
+	void clearCookies();
+
+	/**
+	 * @return The counters of the pages the engine received since it was created
+	 */
+	Traffic getTraffic();
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Thrown when the server answers a request with a failing status code.
+	 */
+	static final class StatusCodeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int statusCode;
+
+		StatusCodeException(int statusCode, URL url) {
+			super("The server returned status " + statusCode + " for " + url);
+			this.statusCode = statusCode;
+		}
+
+		int getStatusCode() {
+			return statusCode;
+		}
+	}
+
+	/**
+	 * Counts the pages an engine receives, the bytes of their content, and the waits for them to be ready to be read,
+	 * with the time they took and how many of them timed out. The counters only grow, so the traffic of an operation is the difference of the counters before and
+	 * after it. The counters can be updated from several threads at once.
+	 */
+	static final class Traffic {
+		private final LongAdder pages = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder waits = new LongAdder();
+		private final LongAdder waitTimeouts = new LongAdder();
+
+		/**
+		 * Records a received page.
+		 * @param contentBytes The length of the page's content in bytes
+		 */
+		void recordPage(long contentBytes) {
+			pages.increment();
+			bytes.add(Math.max(0, contentBytes));
+		}
+
+		/**
+		 * Records a wait for a received page to be ready, e.g. for its scripts to run.
+		 * @param nanos The time the wait took
+		 * @param ready false if the page was not ready when the wait timed out
+		 */
+		void recordWait(long nanos, boolean ready) {
+			waitNanos.add(nanos);
+			waits.increment();
+			if (!ready) waitTimeouts.increment();
+		}
+
+		long getPages() {
+			return pages.sum();
+		}
+
+		long getBytes() {
+			return bytes.sum();
+		}
+
+		long getWaitNanos() {
+			return waitNanos.sum();
+		}
+
+		long getWaits() {
+			return waits.sum();
+		}
+
+		long getWaitTimeouts() {
+			return waitTimeouts.sum();
+		}
+	}
+
+	/**
+	 * A row of the bills table.
+	 */
+	static final class BillRow {
+		private final int index;
+		private final LocalDateTime dateTime;
+		private final String source;
+		private final float totalCost;
+		private final URL detailUrl;
+
+		/**
+		 * @param index The position of the row in the table
+		 * @param dateTime The time the bill was issued
+		 * @param source The place the bill was issued
+		 * @param totalCost The total cost of the bill as listed in the table, or {@link Float#NaN} if it is unknown
+		 * @param detailUrl The URL of the details of the bill, or null if the details are only reachable through
+		 *            JavaScript
+		 */
+		BillRow(int index, LocalDateTime dateTime, String source, float totalCost, URL detailUrl) {
+			this.index = index;
+			this.dateTime = dateTime;
+			this.source = source;
+			this.totalCost = totalCost;
+			this.detailUrl = detailUrl;
+		}
+
+		int getIndex() {
+			return index;
+		}
+
+		LocalDateTime getDateTime() {
+			return dateTime;
+		}
+
+		String getSource() {
+			return source;
+		}
+
+		/**
+		 * @return The total cost of the bill as listed in the table, or {@link Float#NaN} if it is unknown
+		 */
+		float getTotalCost() {
+			return totalCost;
+		}
+
+		URL getDetailUrl() {
+			return detailUrl;
+		}
+
+		/**
+		 * @return true if the total cost listed in this row shows that the specified bill, issued at the same time in the
+		 *         same place, has different entries. False if they match or the total cost of the row is unknown.
+		 */
+		boolean differsFrom(Bill bill) {
+			return !Float.isNaN(totalCost) && Math.abs(bill.getTotalCost() - totalCost) >= 0.005f;
+		}
+
+		/**
+		 * @return A new bill with the dateTime and source of this row and no entries
+		 */
+		Bill toBill() {
+			return new Bill(dateTime, source);
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+package altline.unistat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import altline.unistat.HtmlScanner.Element;
+
+/**
+ * A compiled CSS selector that is matched against the elements of an {@link HtmlScanner} as they are read.
+ * <p>
+ * Supported is the subset of CSS the application needs: type selectors (<code>div</code>, <code>*</code>), class and ID
+ * selectors (<code>.card</code>, <code>#main</code>), attribute selectors (<code>[name]</code>,
+ * <code>[name=value]</code>), the <code>:nth-child(n)</code>, <code>:nth-of-type(n)</code> and
+ * <code>:first-child</code> pseudo-classes, and the descendant and child (<code>&gt;</code>) combinators.
+ * </p>
+ * Selectors are immutable and thread-safe.
+ */
+final class Selector {
+
+	private static final Pattern TOKEN = Pattern.compile(
+			"\\s*>\\s*|\\s+|([a-zA-Z][\\w-]*|\\*)|\\.([\\w-]+)|#([\\w-]+)|\\[([\\w-]+)(?:=\"?([^\\]\"]*)\"?)?\\]"
+					+ "|:nth-child\\((\\d+)\\)|:nth-of-type\\((\\d+)\\)|(:first-child)");
+
+	private final String source;
+	/** The compound selectors from left to right */
+	private final List<Compound> compounds;
+	/** The combinators between the compound selectors, true for a child combinator */
+	private final List<Boolean> childCombinators;
+
+	private Selector(String source, List<Compound> compounds, List<Boolean> childCombinators) {
+		this.source = source;
+		this.compounds = compounds;
+		this.childCombinators = childCombinators;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Compiles the specified selector.
+	 * @param selector The selector in CSS syntax
+	 * @return The compiled selector
+	 * @throws IllegalArgumentException if the selector is not supported
+	 */
+	static Selector compile(String selector) {
+		List<Compound> compounds = new ArrayList<>();
+		List<Boolean> childCombinators = new ArrayList<>();
+		Compound compound = new Compound();
+
+		String trimmed = selector.trim();
+		Matcher matcher = TOKEN.matcher(trimmed);
+		int position = 0;
+		while (position < trimmed.length()) {
+			if (!matcher.find(position) || matcher.start() != position) {
+				throw new IllegalArgumentException("Unsupported selector: " + selector);
+			}
+			position = matcher.end();
+
+			String token = matcher.group();
+			if (token.trim().isEmpty() || token.trim().equals(">")) {
+				if (compound.isEmpty()) throw new IllegalArgumentException("Unsupported selector: " + selector);
+				compounds.add(compound);
+				childCombinators.add(token.trim().equals(">"));
+				compound = new Compound();
+
+			} else if (matcher.group(1) != null) {
+				if (!matcher.group(1).equals("*")) compound.tag = matcher.group(1).toLowerCase(Locale.ROOT);
+				compound.any = true;
+			} else if (matcher.group(2) != null) {
+				compound.classes.add(matcher.group(2));
+			} else if (matcher.group(3) != null) {
+				compound.id = matcher.group(3);
+			} else if (matcher.group(4) != null) {
+				compound.attributes.add(new String[] { matcher.group(4).toLowerCase(Locale.ROOT), matcher.group(5) });
+			} else if (matcher.group(6) != null) {
+				compound.index = Integer.parseInt(matcher.group(6));
+			} else if (matcher.group(7) != null) {
+				compound.typeIndex = Integer.parseInt(matcher.group(7));
+			} else if (matcher.group(8) != null) {
+				compound.index = 1;
+			}
+		}
+
+		if (compound.isEmpty()) throw new IllegalArgumentException("Unsupported selector: " + selector);
+		compounds.add(compound);
+		return new Selector(trimmed, compounds, childCombinators);
+	}
+
+	/**
+	 * Checks whether the specified element matches this selector, considering the element's open ancestors.
+	 * @param element The element to check
+	 * @return true if the element matches
+	 */
+	boolean matches(Element element) {
+		return matches(element, compounds.size() - 1);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private boolean matches(Element element, int compoundIndex) {
+		if (!compounds.get(compoundIndex).matches(element)) return false;
+		if (compoundIndex == 0) return true;
+
+		if (childCombinators.get(compoundIndex - 1)) {
+			return element.getParent() != null && matches(element.getParent(), compoundIndex - 1);
+		}
+		for (Element ancestor = element.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+			if (matches(ancestor, compoundIndex - 1)) return true;
+		}
+		return false;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static final class Compound {
+		private boolean any;
+		private String tag;
+		private String id;
+		private final List<String> classes = new ArrayList<>(1);
+		/** Pairs of an attribute name and the required value, or null if any value matches */
+		private final List<String[]> attributes = new ArrayList<>(0);
+		private int index;
+		private int typeIndex;
+
+		private boolean isEmpty() {
+			return !any && id == null && classes.isEmpty() && attributes.isEmpty() && index == 0 && typeIndex == 0;
+		}
+
+		private boolean matches(Element element) {
+			if (element.isDocument()) return false;
+			if (tag != null && !tag.equals(element.getTag())) return false;
+			if (id != null && !id.equals(element.getAttribute("id"))) return false;
+			if (index != 0 && index != element.getIndex()) return false;
+			if (typeIndex != 0 && typeIndex != element.getTypeIndex()) return false;
+
+			for (String className : classes) {
+				if (!element.hasClass(className)) return false;
+			}
+			for (String[] attribute : attributes) {
+				String value = element.getAttribute(attribute[0]);
+				if (value == null || (attribute[1] != null && !attribute[1].equals(value))) return false;
+			}
+			return true;
+		}
+	}
+
+}
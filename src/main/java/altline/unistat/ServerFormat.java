@@ -0,0 +1,69 @@
+package altline.unistat;
+
+import java.text.ParseException;
+import java.time.LocalDateTime;
+
+/**
+ * Parsing of the values shown on the webserver's pages.
+ * <p>
+ * The parsing methods are thread-safe, unlike a shared {@link java.text.DecimalFormat}, so pages can be parsed on
+ * several threads at once.
+ * </p>
+ */
+final class ServerFormat {
+
+	private ServerFormat() {
+	}
+
+	/**
+	 * Parses a decimal number with a decimal comma from the beginning of the specified text, like
+	 * <code>"12,50 kn"</code>. Text after the number is ignored.
+	 * @param text The text starting with the number
+	 * @return The parsed number
+	 * @throws ParseException if the text does not start with a number
+	 */
+	static float parseAmount(String text) throws ParseException {
+		String trimmed = text.trim();
+		int end = 0;
+		if (end < trimmed.length() && (trimmed.charAt(end) == '-' || trimmed.charAt(end) == '+')) end++;
+
+		int digitsStart = end;
+		while (end < trimmed.length() && Character.isDigit(trimmed.charAt(end))) {
+			end++;
+		}
+		if (end == digitsStart) throw new ParseException("Unparseable number: \"" + text + "\"", 0);
+
+		if (end + 1 < trimmed.length() && trimmed.charAt(end) == ',' && Character.isDigit(trimmed.charAt(end + 1))) {
+			end++;
+			while (end < trimmed.length() && Character.isDigit(trimmed.charAt(end))) {
+				end++;
+			}
+		}
+		return Float.parseFloat(trimmed.substring(0, end).replace(',', '.'));
+	}
+
+	/**
+	 * Parses an amount like {@link #parseAmount(String)}, but without failing.
+	 * @param text The text starting with the number
+	 * @return The parsed number, or {@link Float#NaN} if the text does not start with a number
+	 */
+	static float parseAmountOrNaN(String text) {
+		try {
+			return parseAmount(text);
+		} catch (ParseException e) {
+			return Float.NaN;
+		}
+	}
+
+	/**
+	 * Parses the date and time of a bill as shown in the bills table.
+	 * @param date The date, like <code>"1.10.2019"</code>
+	 * @param time The time, like <code>"12:30"</code>
+	 * @return The dateTime of the bill
+	 * @throws java.time.format.DateTimeParseException if the date or time can not be parsed
+	 */
+	static LocalDateTime parseDateTime(String date, String time) {
+		return LocalDateTime.parse(date + ". " + time, UIManager.SERVER_DATE_TIME_FORMATTER);
+	}
+
+}
@@ -0,0 +1,29 @@
+package altline.unistat;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request to the webserver is not made because the server appears to be down.
+ */
+public final class ServerUnavailableException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final long retryDelay;
+
+	/**
+	 * @param retryDelay The time in milliseconds until requests are made again
+	 * @param cause The error that showed the server is down, or null
+	 */
+	public ServerUnavailableException(long retryDelay, Throwable cause) {
+		super("The webserver is unavailable, requests are made again in " + (retryDelay + 999) / 1000 + " s", cause);
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * @return The time in milliseconds until requests are made again, from when the exception was thrown
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+}
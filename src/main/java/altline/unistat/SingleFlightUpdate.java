@@ -0,0 +1,74 @@
+package altline.unistat;
+
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps track of the running update or repair of a user's data, so that only one runs at a time.
+ * <p>
+ * A request joins the running task instead of starting a new one if the task updates the same user and is not done
+ * yet. A running update does not cover a repair, so a repair is started beside it, while an update joins a running
+ * repair.
+ * </p>
+ * @param <T> The type of the tasks
+ */
+final class SingleFlightUpdate<T> {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final Predicate<T> isDone;
+	/** The running update or repair, which later requests join. Guarded by this. */
+	private T running;
+	/** true if {@link #running} is a repair */
+	private boolean runningRepair;
+	/** The user {@link #running} updates */
+	private User runningUser;
+
+	/**
+	 * @param isDone Tells whether a task is done
+	 */
+	SingleFlightUpdate(Predicate<T> isDone) {
+		this.isDone = isDone;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Returns the running task if it covers the request, or else starts a new one and keeps track of it.
+	 * @param user The user whose data is to be updated
+	 * @param repair true to request a repair instead of an update
+	 * @param starter Creates and starts the new task
+	 * @return The running or the started task
+	 */
+	synchronized T start(User user, boolean repair, Supplier<T> starter) {
+		if (running != null && !isDone.test(running) && runningUser == user && (runningRepair || !repair)) {
+			LOGGER.info("User data {} requested, joining the running {}", repair ? "repair" : "update",
+					runningRepair ? "repair" : "update");
+			return running;
+		}
+
+		T task = starter.get();
+		running = task;
+		runningRepair = repair;
+		runningUser = user;
+		return task;
+	}
+
+	/**
+	 * Stops keeping track of the running task, so that the next request starts a new one.
+	 * @return The task that was running, or null if there was none
+	 */
+	synchronized T clear() {
+		T task = running;
+		running = null;
+		runningUser = null;
+		return task;
+	}
+
+}
@@ -0,0 +1,121 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A rolling history of {@link SyncReport}s, kept in a local file with one report per line in JSON format, so that
+ * regressions and slowdowns of the webserver can be spotted over time.
+ * <p>
+ * The file holds at most {@link #MAX_RECORDS} reports. Reports are appended to the file, and once it outgrows the limit
+ * the oldest quarter of the reports is dropped. The history is read from the file on first use, so its methods must not
+ * be called on the JavaFX thread.
+ * </p>
+ */
+final class SyncHistory {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The largest number of reports kept */
+	private static final int MAX_RECORDS = 500;
+	/** The number of the latest successful fetches the typical fetch time is taken from */
+	private static final int TYPICAL_SAMPLE = 20;
+
+	private final Path file;
+	private Deque<String> records;
+
+	/**
+	 * @param file The file that holds the history
+	 */
+	SyncHistory(Path file) {
+		this.file = file;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Appends the specified finished report to the history.
+	 * @param report The report to append
+	 * @throws IOException if the file can not be written
+	 */
+	synchronized void append(SyncReport report) throws IOException {
+		loadRecords();
+		String record = report.toJson();
+		records.addLast(record);
+
+		if (records.size() > MAX_RECORDS) {
+			while (records.size() > MAX_RECORDS * 3 / 4) {
+				records.removeFirst();
+			}
+			Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(tempFile, records, StandardCharsets.UTF_8);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} else {
+			Files.write(file, Collections.singletonList(record), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		}
+	}
+
+	/**
+	 * @return The median time in milliseconds of the latest successful fetches, or -1 if there were none
+	 */
+	synchronized long getTypicalMillis() {
+		loadRecords();
+
+		List<Long> times = new ArrayList<>(TYPICAL_SAMPLE);
+		for (Iterator<String> it = records.descendingIterator(); it.hasNext() && times.size() < TYPICAL_SAMPLE;) {
+			Map<String, Object> fields;
+			try {
+				fields = JsonParser.parseObject(it.next());
+			} catch (IllegalArgumentException e) {
+				LOGGER.debug("Skipping a malformed sync history record", e);
+				continue;
+			}
+			if (!SyncReport.Outcome.SUCCEEDED.name().equals(fields.get("outcome"))) continue;
+			Object totalMillis = fields.get("totalMs");
+			if (totalMillis instanceof Number) times.add(((Number) totalMillis).longValue());
+		}
+		if (times.isEmpty()) return -1;
+
+		Collections.sort(times);
+		return times.get(times.size() / 2);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void loadRecords() {
+		if (records != null) return;
+		records = new ArrayDeque<>();
+		if (!Files.isReadable(file)) return;
+
+		try {
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) records.addLast(line);
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Could not read the sync history, starting a new one", e);
+		}
+	}
+
+}
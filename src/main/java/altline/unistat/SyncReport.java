@@ -0,0 +1,332 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timing and traffic of a single data fetch from the webserver.
+ * <p>
+ * The time of the fetch is split into {@link Phase}s. Phases nest: a login that happens while the bill list is
+ * requested counts towards the login only, so the phase times add up to the time of the fetch. Besides the phases, the
+ * report holds the pages the engine received and the bytes of their content, the waits for the pages to be ready to be
+ * read with the time they took and how many timed out, the number of bills listed, fetched, taken from the cache and skipped, the number of logins and
+ * the number of requests that had to be repeated.
+ * </p>
+ * A report is filled in on the thread of the fetch, except for the repeated requests, which may be recorded from any
+ * thread. It is only read once the fetch is {@linkplain #finish finished}. It is written to the {@link SyncHistory} as a single line of JSON.
+ */
+public final class SyncReport {
+
+	private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("H:mm");
+
+	public enum Phase {
+		LOGIN("Prijava"),
+		GENERAL_DATA("Opći podaci"),
+		BILL_LIST("Popis računa"),
+		DETAILS("Detalji računa");
+
+		private final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	public enum Outcome {
+		SUCCEEDED,
+		FAILED,
+		CANCELED
+	}
+
+	private final LocalDateTime start = LocalDateTime.now();
+	private final boolean repair;
+	private final String engineName;
+	private final ScrapeEngine.Traffic traffic;
+	private final long startNanos = System.nanoTime();
+	private final long startPages;
+	private final long startBytes;
+	private final long startWaitNanos;
+	private final long startWaits;
+	private final long startWaitTimeouts;
+
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private final Deque<Phase> activePhases = new ArrayDeque<>();
+	private long phaseStart;
+
+	private int billsListed;
+	private int billsStale;
+	private int billsFetched;
+	private int billsCached;
+	private int logins;
+	private final AtomicInteger retries = new AtomicInteger();
+	private boolean incomplete;
+
+	private Outcome outcome;
+	private String error;
+	private long totalNanos;
+	private long pages;
+	private long bytes;
+	private long waitNanos;
+	private long waits;
+	private long waitTimeouts;
+	private long typicalMillis = -1;
+
+	/**
+	 * Starts a report of a fetch that begins now.
+	 * @param repair Whether the fetch reconciles the whole bill list
+	 * @param engineName The name of the engine the fetch is made with
+	 * @param engine The engine the fetch is made with
+	 */
+	SyncReport(boolean repair, String engineName, ScrapeEngine engine) {
+		this.repair = repair;
+		this.engineName = engineName;
+		this.traffic = engine.getTraffic();
+		this.startPages = traffic.getPages();
+		this.startBytes = traffic.getBytes();
+		this.startWaitNanos = traffic.getWaitNanos();
+		this.startWaits = traffic.getWaits();
+		this.startWaitTimeouts = traffic.getWaitTimeouts();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Starts timing the specified phase. The phase that is timed at the moment is paused until the specified phase ends.
+	 */
+	void beginPhase(Phase phase) {
+		long now = System.nanoTime();
+		if (!activePhases.isEmpty()) phaseNanos[activePhases.peek().ordinal()] += now - phaseStart;
+		activePhases.push(phase);
+		phaseStart = now;
+	}
+
+	/**
+	 * Stops timing the phase that was begun last, and resumes timing the phase it paused.
+	 */
+	void endPhase() {
+		long now = System.nanoTime();
+		phaseNanos[activePhases.pop().ordinal()] += now - phaseStart;
+		phaseStart = now;
+	}
+
+	/**
+	 * Records the number of bills listed on the webserver, and how many of them need their details fetched.
+	 */
+	void recordBillList(int listed, int stale) {
+		this.billsListed = listed;
+		this.billsStale = stale;
+	}
+
+	/**
+	 * Records the number of bills whose details were fetched from the webserver, and how many were taken from the
+	 * cache instead.
+	 */
+	void recordDetails(int fetched, int cached) {
+		this.billsFetched = fetched;
+		this.billsCached = cached;
+	}
+
+	/**
+	 * Records a login on the webserver, whether it was the first one of the fetch or one after the session expired.
+	 */
+	void recordLogin() {
+		logins++;
+	}
+
+	/**
+	 * Records a request that had to be repeated after it failed, as the engine's retry policy does. May be called
+	 * from any thread.
+	 */
+	void recordRetry() {
+		retries.incrementAndGet();
+	}
+
+	/**
+	 * Records that some of the data could not be read, so the fetch may succeed with incomplete data.
+	 */
+	void recordIncomplete() {
+		this.incomplete = true;
+	}
+
+	/**
+	 * Ends the report, closing the phases that are still timed.
+	 * @param outcome How the fetch ended
+	 * @param failure The cause of the failure, or null
+	 */
+	void finish(Outcome outcome, Throwable failure) {
+		while (!activePhases.isEmpty()) {
+			endPhase();
+		}
+		this.outcome = outcome;
+		this.error = failure == null ? null : failure.getClass().getSimpleName() + ": " + failure.getMessage();
+		this.totalNanos = System.nanoTime() - startNanos;
+		this.pages = traffic.getPages() - startPages;
+		this.bytes = traffic.getBytes() - startBytes;
+		this.waitNanos = traffic.getWaitNanos() - startWaitNanos;
+		this.waits = traffic.getWaits() - startWaits;
+		this.waitTimeouts = traffic.getWaitTimeouts() - startWaitTimeouts;
+	}
+
+	/**
+	 * Sets the time a fetch usually takes, as found in the history of fetches, to compare this fetch with.
+	 * @param typicalMillis The time in milliseconds, or a negative value if it is unknown
+	 */
+	void setTypicalMillis(long typicalMillis) {
+		this.typicalMillis = typicalMillis;
+	}
+
+	public LocalDateTime getStart() {
+		return start;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return true if some of the data could not be read, so the fetched data may be incomplete
+	 */
+	public boolean isIncomplete() {
+		return incomplete;
+	}
+
+	/**
+	 * @return The time the fetch took, in milliseconds
+	 */
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+	}
+
+	/**
+	 * @return The time the specified phase took, in milliseconds
+	 */
+	public long getPhaseMillis(Phase phase) {
+		return TimeUnit.NANOSECONDS.toMillis(phaseNanos[phase.ordinal()]);
+	}
+
+	/**
+	 * @return The number of bills whose details were fetched or taken from the cache, per second of the fetch
+	 */
+	public double getBillsPerSecond() {
+		if (totalNanos <= 0) return 0;
+		return (billsFetched + billsCached) / (totalNanos / 1e9);
+	}
+
+	/**
+	 * @return A one-line summary of the fetch for the user
+	 */
+	public String getSummary() {
+		String time = start.format(TIME_FORMATTER);
+		switch (outcome) {
+			case SUCCEEDED:
+				if (incomplete) return String.format("Djelomično osvježeno u %s (%s)", time, formatSeconds(totalNanos));
+				return String.format("Osvježeno u %s (%s)", time, formatSeconds(totalNanos));
+			case CANCELED:
+				return "Osvježavanje prekinuto u " + time;
+			default:
+				return "Osvježavanje neuspješno u " + time;
+		}
+	}
+
+	/**
+	 * @return The breakdown of the fetch for the user, one item per line
+	 */
+	public String getDetails() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(repair ? "Popravak podataka" : "Osvježavanje").append(", ").append(formatSeconds(totalNanos)).append('\n');
+		for (Phase phase : Phase.values()) {
+			sb.append(phase).append(": ").append(formatSeconds(phaseNanos[phase.ordinal()])).append('\n');
+		}
+		sb.append(String.format("Čekanje na stranice: %s (čekanja: %d, isteklo: %d)\n", formatSeconds(waitNanos), waits, waitTimeouts));
+		sb.append(String.format(Locale.ROOT, "Stranica: %d (%d kB)\n", pages, (bytes + 512) / 1024));
+		sb.append(String.format("Računa na popisu: %d, preuzeto: %d, iz predmemorije: %d, preskočeno: %d\n", billsListed, billsFetched,
+				billsCached, billsListed - billsStale));
+		sb.append("Prijava na poslužitelj: ").append(logins).append('\n');
+		sb.append("Ponovljenih zahtjeva: ").append(retries).append('\n');
+		sb.append(String.format(Locale.ROOT, "Brzina: %.1f računa/s", getBillsPerSecond()).replace('.', ','));
+		if (incomplete) sb.append("\nNeki podaci nisu preuzeti ispravno");
+		if (typicalMillis >= 0) sb.append("\nUobičajeno trajanje: ").append(formatSeconds(TimeUnit.MILLISECONDS.toNanos(typicalMillis)));
+		if (error != null) sb.append("\nGreška: ").append(error);
+		return sb.toString();
+	}
+
+	/**
+	 * @return The report as a single line of JSON, as it is written to the {@link SyncHistory}
+	 */
+	String toJson() {
+		StringBuilder sb = new StringBuilder(384);
+		sb.append("{\"start\":\"").append(start).append('"');
+		sb.append(",\"mode\":\"").append(repair ? "repair" : "update").append('"');
+		sb.append(",\"engine\":\"").append(engineName).append('"');
+		sb.append(",\"outcome\":\"").append(outcome).append('"');
+		sb.append(",\"totalMs\":").append(getTotalMillis());
+		sb.append(",\"phasesMs\":{");
+		for (Phase phase : Phase.values()) {
+			if (phase.ordinal() > 0) sb.append(',');
+			sb.append('"').append(phase.name()).append("\":").append(getPhaseMillis(phase));
+		}
+		sb.append('}');
+		sb.append(",\"pages\":").append(pages);
+		sb.append(",\"bytes\":").append(bytes);
+		sb.append(",\"pageWaitMs\":").append(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+		sb.append(",\"pageWaits\":").append(waits);
+		sb.append(",\"pageWaitTimeouts\":").append(waitTimeouts);
+		sb.append(",\"billsListed\":").append(billsListed);
+		sb.append(",\"billsFetched\":").append(billsFetched);
+		sb.append(",\"billsCached\":").append(billsCached);
+		sb.append(",\"billsSkipped\":").append(billsListed - billsStale);
+		sb.append(",\"logins\":").append(logins);
+		sb.append(",\"retries\":").append(retries);
+		if (incomplete) sb.append(",\"incomplete\":true");
+		sb.append(",\"billsPerSecond\":").append(String.format(Locale.ROOT, "%.2f", getBillsPerSecond()));
+		if (error != null) sb.append(",\"error\":\"").append(escape(error)).append('"');
+		return sb.append('}').toString();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Overridden methods                                                      *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@Override
+	public String toString() {
+		return "SyncReport " + toJson();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static String formatSeconds(long nanos) {
+		return String.format(Locale.ROOT, "%.1f s", nanos / 1e9).replace('.', ',');
+	}
+
+	private static String escape(String text) {
+		StringBuilder sb = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+			else sb.append(c);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,250 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.security.auth.login.FailedLoginException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javafx.concurrent.Task;
+
+/**
+ * Updates the data of a logged-in {@link User} from the webserver in the background, without a progress dialog.
+ * <p>
+ * The interval between updates adapts to the user's habits: the hours of the day in which the user's bills are usually
+ * issued are learned from the user's recent bills, and during those hours and the hour after them the data is updated
+ * every {@link #BUSY_INTERVAL}. Outside of them the data is updated every base interval, which doubles with every update
+ * that brings no new bills, up to {@link #MAX_INTERVAL}. A busy hour that starts before the next update is due brings
+ * the update forward.
+ * </p>
+ * A scheduler serves a single user and must be closed when the user logs out.
+ */
+final class SyncScheduler {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The interval between updates during the hours the user's bills are usually issued in */
+	private static final long BUSY_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+	/** The longest interval between updates */
+	private static final long MAX_INTERVAL = TimeUnit.HOURS.toMillis(4);
+	/** The number of days of bills the busy hours are learned from */
+	private static final int HISTORY_DAYS = 56;
+	/** The number of bills needed before the busy hours are trusted */
+	private static final int MIN_HISTORY = 10;
+	/** An hour is busy if it has this many times the bills of an average hour */
+	private static final int BUSY_FACTOR = 2;
+
+	private final User user;
+	private final long baseInterval;
+	private final ScheduledThreadPoolExecutor executor;
+	/** Tells the current local time */
+	private final Supplier<LocalDateTime> clock;
+	/** Tells the time in milliseconds until the webserver is expected back, or 0 if it is not considered down */
+	private final LongSupplier offlineDelay;
+
+	/** The number of the user's recent bills issued in each hour of the day */
+	private final int[] hourCounts = new int[24];
+	private int billCount;
+	/** The number of updates in a row that brought no new bills */
+	private int idleUpdates;
+	private ScheduledFuture<?> scheduledUpdate;
+	/** The update this scheduler is waiting for, or null */
+	private Task<Integer> runningUpdate;
+	private boolean closed;
+
+	/**
+	 * @param user The user whose data is to be updated
+	 * @param baseInterval The time in milliseconds between updates outside of the busy hours
+	 */
+	SyncScheduler(User user, long baseInterval) {
+		this(user, baseInterval, LocalDateTime::now, () -> App.webManager.getOfflineDelay());
+	}
+
+	/**
+	 * @param user The user whose data is to be updated
+	 * @param baseInterval The time in milliseconds between updates outside of the busy hours
+	 * @param clock Tells the current local time
+	 * @param offlineDelay Tells the time in milliseconds until the webserver is expected back, or 0 if it is not
+	 *            considered down
+	 */
+	SyncScheduler(User user, long baseInterval, Supplier<LocalDateTime> clock, LongSupplier offlineDelay) {
+		this.user = user;
+		this.baseInterval = Math.min(baseInterval, MAX_INTERVAL);
+		this.clock = clock;
+		this.offlineDelay = offlineDelay;
+
+		this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "BackgroundSync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Learns the busy hours from the user's stored bills and schedules the first update. This method returns
+	 * immediately.
+	 */
+	void start() {
+		executor.execute(() -> {
+			try {
+				recordBills(App.userManager.queryBills(clock.get().minusDays(HISTORY_DAYS), null, null));
+			} catch (IOException | InterruptedException e) {
+				LOGGER.warn("Could not read the recent bills, the busy hours are learned from new bills only", e);
+			}
+			scheduleNext();
+		});
+	}
+
+	/**
+	 * Takes the issue times of the specified bills into account when deciding on the busy hours.<br>
+	 * This method may be called from any thread.
+	 * @param bills The bills the user got
+	 */
+	synchronized void recordBills(Collection<Bill> bills) {
+		for (Bill bill : bills) {
+			hourCounts[bill.getDateTime().getHour()]++;
+			billCount++;
+		}
+	}
+
+	/**
+	 * Adapts the interval between updates to the result of an update: an update that brought no new bills doubles it,
+	 * and one that did resets it to the base interval.
+	 * @param added The number of new bills the update brought
+	 */
+	synchronized void recordUpdate(int added) {
+		idleUpdates = added > 0 ? 0 : idleUpdates + 1;
+	}
+
+	/**
+	 * @return The delay in milliseconds until the next update, if it is scheduled now
+	 */
+	synchronized long nextDelay() {
+		// no update is made while the webserver is considered down
+		long offline = offlineDelay.getAsLong();
+		if (offline > 0) return offline;
+
+		LocalDateTime now = clock.get();
+		long interval = Math.min(MAX_INTERVAL, baseInterval << Math.min(idleUpdates, 16));
+		if (isBusyHour(now.getHour())) return Math.min(interval, BUSY_INTERVAL);
+
+		// wake up for the first busy hour that starts before the update would be due
+		LocalDateTime hour = now.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+		long untilHour = Duration.between(now, hour).toMillis();
+		for (; untilHour < interval; untilHour += TimeUnit.HOURS.toMillis(1)) {
+			if (isBusyHour(hour.getHour())) return untilHour;
+			hour = hour.plusHours(1);
+		}
+		return interval;
+	}
+
+	/**
+	 * Stops the updates. An update that is running is canceled and no further updates are made.
+	 */
+	synchronized void close() {
+		if (closed) return;
+		closed = true;
+		if (scheduledUpdate != null) scheduledUpdate.cancel(false);
+		if (runningUpdate != null) runningUpdate.cancel();
+		executor.shutdown();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private synchronized void scheduleNext() {
+		if (closed) return;
+		long delay = nextDelay();
+		LOGGER.debug("Next background update in {} min", TimeUnit.MILLISECONDS.toMinutes(delay));
+		scheduledUpdate = executor.schedule(this::update, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs an update of the user's data, or joins the running one, waits for it and adapts the interval to its result.
+	 */
+	private void update() {
+		if (App.userManager.getUser() != user) return;
+		LOGGER.info("Background update of user data");
+
+		// joins an update that is already running
+		Task<Integer> updateTask;
+		try {
+			updateTask = App.userManager.updateUser();
+		} catch (IllegalStateException e) {
+			// the user logged out in the meantime, which closes this scheduler
+			LOGGER.info("Background update skipped, no user is logged in", e);
+			return;
+		}
+		synchronized (this) {
+			if (closed) {
+				updateTask.cancel();
+				return;
+			}
+			runningUpdate = updateTask;
+		}
+
+		int added = 0;
+		try {
+			Integer result = updateTask.get();
+			if (result != null) added = result;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ServerUnavailableException) {
+				// not an idle update, the next one is made once the server is expected back
+				LOGGER.info("Background update skipped, the webserver is unavailable");
+				scheduleNext();
+				return;
+			}
+			if (cause instanceof FailedLoginException) LOGGER.warn("Webserver login failed upon background update", cause);
+			else LOGGER.warn("Background update failed", cause);
+		} catch (CancellationException e) {
+			LOGGER.info("Background update canceled");
+		} catch (InterruptedException e) {
+			LOGGER.debug("", e);
+			return;
+		} finally {
+			synchronized (this) {
+				runningUpdate = null;
+			}
+		}
+
+		recordUpdate(added);
+		LOGGER.info("Background update brought {} new bills", added);
+		scheduleNext();
+	}
+
+	/**
+	 * @return true if bills are expected to appear on the webserver in the specified hour of the day, which is so in the
+	 *         hours the user's bills are usually issued in and the hour after them
+	 */
+	private boolean isBusyHour(int hour) {
+		return isUsualHour(hour) || isUsualHour((hour + 23) % 24);
+	}
+
+	private boolean isUsualHour(int hour) {
+		if (billCount < MIN_HISTORY) return false;
+		return hourCounts[hour] * hourCounts.length >= billCount * BUSY_FACTOR;
+	}
+
+}
@@ -5,6 +5,7 @@ import java.lang.reflect.Field;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -93,6 +94,11 @@ public final class UIManager {
 
 	private Stage primaryStage;
 	private GuiBase guiBase;
+	/**
+	 * The loaded GUIs of the logged-in user and of the users whose profiles are cached, by the User object they were
+	 * loaded for, since their controllers observe that object
+	 */
+	private final Map<User, UserGui> userGuis = new IdentityHashMap<>();
 
 	void start(Stage primaryStage) {
 		this.primaryStage = primaryStage;
@@ -122,14 +128,26 @@ public final class UIManager {
 	}
 
 	/**
-	 * Causes the GUI to be reloaded when {@link #showPrimaryStage()} is called. Called when there is a user change.<br>
-	 * I feel that this way of handling GUI leaks memory because no listeners are unregistered anywhere with this.
-	 * Should be looked into...
+	 * Causes the GUI of the logged-in user to be shown when {@link #showPrimaryStage()} is called. Called when there is
+	 * a user change. The GUI of a user is kept as long as the user's profile is cached, so that it does not have to be
+	 * reloaded when the user logs in again. A user that is loaded anew gets a new GUI.
 	 */
 	public void invalidateGui() {
 		guiBase = null;
 	}
 
+	/**
+	 * Discards the loaded GUI of the specified user and detaches the listeners its controllers registered. Called when
+	 * the user's profile is evicted from the profile cache.
+	 * @param user The user
+	 */
+	void discardGui(User user) {
+		App.runFx(() -> {
+			UserGui gui = userGuis.remove(user);
+			if (gui != null) gui.base.dispose();
+		});
+	}
+
 	/**
 	 * Creates and shows (in a new utility {@link Stage}) the specified {@link ProgressMonitor}. The created stage will
 	 * have the specified title string as its title.
@@ -299,21 +317,32 @@ public final class UIManager {
 				@Override
 				public Void call() throws Exception {
 					if (guiBase == null) {
-						try {
-							FXMLLoader loader = new FXMLLoader(App.class.getResource("/gui/Base.fxml"));
-							Pane root = loader.load();
-							Scene scene = new Scene(root, 1280, 720);
-							scene.getStylesheets().add(App.class.getResource("/gui/application.css").toExternalForm());
-							primaryStage.setScene(scene);
+						User user = App.userManager.getUser();
+						UserGui gui = user == null ? null : userGuis.get(user);
+
+						if (gui == null) {
+							try {
+								FXMLLoader loader = new FXMLLoader(App.class.getResource("/gui/Base.fxml"));
+								Pane root = loader.load();
+								Scene scene = new Scene(root, 1280, 720);
+								scene.getStylesheets().add(App.class.getResource("/gui/application.css").toExternalForm());
+
+								gui = new UserGui(scene, loader.<GuiBase>getController());
+								if (user != null) userGuis.put(user, gui);
+
+							} catch (IOException e) {
+								LOGGER.error("", e);
+							}
+						}
+
+						if (gui != null) {
+							primaryStage.setScene(gui.scene);
 							primaryStage.setTitle(App.TITLE);
 							primaryStage.setOnCloseRequest(e -> {
 								App.getMain().exit();
 							});
 
-							guiBase = loader.<GuiBase>getController();
-
-						} catch (IOException e) {
-							LOGGER.error("", e);
+							guiBase = gui.base;
 						}
 					}
 
@@ -340,4 +369,17 @@ public final class UIManager {
 		}
 	}
 
+	/**
+	 * The loaded GUI of a user.
+	 */
+	private static final class UserGui {
+		private final Scene scene;
+		private final GuiBase base;
+
+		private UserGui(Scene scene, GuiBase base) {
+			this.scene = scene;
+			this.base = base;
+		}
+	}
+
 }
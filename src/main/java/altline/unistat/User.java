@@ -5,14 +5,13 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
-import com.sun.javafx.collections.ElementObservableListDecorator;
-
-import javafx.beans.Observable;
 import javafx.beans.property.FloatProperty;
 import javafx.beans.property.SimpleFloatProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -29,9 +28,10 @@ public class User implements Serializable {
 	 ************************************************************************* */
 
 	private transient String userID;
-	private transient ObservableList<Bill> bills;
+	private transient LazyBillList bills;
 	private transient ObservableList<Bill> publicBills;
-	private transient ElementObservableListDecorator<Bill> elementObservableBills;
+	private transient int firstLoadedYear = Integer.MIN_VALUE;
+	private transient BillAggregates aggregates;
 	
 	/* *************************************************************************
 	 *                                                                         *
@@ -41,27 +41,29 @@ public class User implements Serializable {
 
 	User(String userID) {
 		if(userID == null) throw new NullPointerException("userID");
-		init(userID);
+		init(userID, new LazyBillList());
+	}
+
+	/**
+	 * Creates a User whose bills are read from the specified file as they are accessed.
+	 * @param file The user's data file
+	 */
+	User(MappedUserFile file) {
+		init(file.getUserID(), new LazyBillList(file));
+		setFullName(file.getFullName());
+		setAvailableFunds(file.getAvailableFunds());
 	}
 
-	private void init(String userID) {
+	private User(String userID, LazyBillList bills) {
+		init(userID, bills);
+	}
+
+	private void init(String userID, LazyBillList bills) {
 		this.userID = userID;
 		this.fullName = new SimpleStringProperty(this, "fullName", "");
 		this.availableFunds = new SimpleFloatProperty(this, "availableFunds");
-		this.bills = FXCollections.observableArrayList();
+		this.bills = bills;
 		this.publicBills = FXCollections.unmodifiableObservableList(this.bills);
-		this.elementObservableBills = new ElementObservableListDecorator<Bill>(
-				getBills(),
-				bill -> new Observable[] {
-						bill.dateTimeProperty(),
-						bill.sourceProperty(),
-						new ElementObservableListDecorator<Bill.Entry>(
-								bill.getEntries(),
-								entry -> new Observable[] {
-										entry.articleNameProperty(),
-										entry.amountProperty(),
-										entry.articlePriceProperty(),
-										entry.subsidyProperty() }) });
 	}
 	
 	/* *************************************************************************
@@ -119,10 +121,36 @@ public class User implements Serializable {
 	}
 	
 	/**
-	 * @return An {@link ElementObservableListDecorator} that gets notified when the user's bill list or any bills within it get modified.
+	 * Older bills of a User are only loaded on demand (see {@link UserManager#loadBillsSince(int)}), so the bill list
+	 * may not contain all of the User's bills.
+	 * @return The earliest year from which all of the User's bills are in this User's bill list, or
+	 *         {@link Integer#MIN_VALUE} if all of the User's bills are in the list
 	 */
-	public ElementObservableListDecorator<Bill> getElementObservableBills(){
-		return elementObservableBills;
+	public int getFirstLoadedYear() {
+		return firstLoadedYear;
+	}
+	
+	/**
+	 * @return true if the User's bill list contains all of the User's bills issued in the specified year
+	 */
+	public boolean isYearLoaded(int year) {
+		return year >= firstLoadedYear;
+	}
+
+	/**
+	 * The aggregates cover all of the User's bills, including those of years that are not loaded.
+	 * @return The pre-computed totals of this User's bills, or null if they are not available
+	 */
+	public BillAggregates getAggregates() {
+		return aggregates;
+	}
+
+	/**
+	 * @return An unmodifiable observable list of this User's bills that also reports modifications of the bills within it.
+	 */
+	public ObservableList<Bill> getElementObservableBills(){
+		// the bill list reports modifications of its bills by itself, without materializing bills that were not accessed
+		return publicBills;
 	}
 	
 	/* *************************************************************************
@@ -132,14 +160,39 @@ public class User implements Serializable {
 	 ************************************************************************* */
 
 	/**
-	 * Adds the specified bill to this User's bill list.
+	 * Adds the specified bill to this User's bill list. A bill issued at the same time in the same place is replaced by
+	 * the specified bill, the same as in the stores, so that replaying the stored additions gives the same bills.
 	 * @param bill the bill to add
 	 */
 	void addBill(Bill bill) {
 		if(bill == null) throw new NullPointerException("Bill can not be null");
+		int index = bills.indexOf(bill.getDateTime(), bill.getSource());
+		if (index >= 0) {
+			Bill replaced = bills.set(index, bill);
+			if (aggregates != null) aggregates.replace(replaced, bill);
+			return;
+		}
+		if (aggregates != null) aggregates.add(bill);
 		bills.add(bill);
 	}
 
+	/**
+	 * Adds the specified bill to this User's bill list the same as {@link #addBill(Bill)}, but at its position in the
+	 * order of dateTimes, so bills that are sorted stay sorted.
+	 * @param bill the bill to add
+	 */
+	void addBillSorted(Bill bill) {
+		if(bill == null) throw new NullPointerException("Bill can not be null");
+		int index = bills.indexOf(bill.getDateTime(), bill.getSource());
+		if (index >= 0) {
+			Bill replaced = bills.set(index, bill);
+			if (aggregates != null) aggregates.replace(replaced, bill);
+			return;
+		}
+		if (aggregates != null) aggregates.add(bill);
+		bills.addSorted(bill);
+	}
+
 	/**
 	 * Removes the specified bill from this User's bill list if present.
 	 * @param bill the bill to remove
@@ -147,18 +200,159 @@ public class User implements Serializable {
 	 */
 	boolean removeBill(Bill bill) {
 		if(bill == null) return false;
-		return bills.remove(bill);
+		if (!bills.remove(bill)) return false;
+		if (aggregates != null) aggregates.remove(bill);
+		return true;
+	}
+
+	/**
+	 * Edits the specified bill of this User to contain the specified data and marks it as edited.
+	 * @see Bill#edit(LocalDateTime, String, Collection)
+	 */
+	void editBill(Bill bill, LocalDateTime dateTime, String source, Collection<Bill.Entry> entries) {
+		Bill oldBill = aggregates == null ? null : bill.copy();
+		bill.edit(dateTime, source, entries);
+		if (aggregates != null) aggregates.replace(oldBill, bill);
+	}
+	
+	/**
+	 * Replaces the entries of this User's bill issued at the same time in the same place as the specified bill with
+	 * replicas of the entries of the specified bill, unless the bill was edited. The bill is not marked as edited.
+	 * @param bill The bill with the new entries
+	 * @return The updated bill of this User, or null if this User has no such unedited bill or it already has equal
+	 *         entries
+	 */
+	Bill refreshBill(Bill bill) {
+		Bill existing = findBill(bill.getDateTime(), bill.getSource());
+		if (existing == null || existing.isEdited() || existing.equals(bill)) return null;
+
+		Bill oldBill = aggregates == null ? null : existing.copy();
+		existing.setEntries(bill.getEntries());
+		if (aggregates != null) aggregates.replace(oldBill, existing);
+		return existing;
+	}
+	
+	/**
+	 * Finds the bill issued at the specified time in the specified place.
+	 * @param dateTime The dateTime of the bill
+	 * @param source The source of the bill
+	 * @return The matching bill, or null if this User has no such bill
+	 */
+	Bill findBill(LocalDateTime dateTime, String source) {
+		int index = bills.indexOf(dateTime, source);
+		return index < 0 ? null : bills.get(index);
+	}
+
+	/**
+	 * Checks whether this User has a bill issued at the specified time in the specified place, without reading the bill.
+	 * @param dateTime The dateTime of the bill
+	 * @param source The source of the bill
+	 * @return true if this User has such a bill
+	 */
+	boolean hasBill(LocalDateTime dateTime, String source) {
+		return bills.indexOf(dateTime, source) >= 0;
+	}
+
+	/**
+	 * Checks whether this User has a bill issued at the specified time, in any place.
+	 * @param dateTime The dateTime of the bill
+	 * @return true if this User has such a bill
+	 */
+	boolean hasBillAt(LocalDateTime dateTime) {
+		return bills.containsDateTime(dateTime);
 	}
 	
 	void addBills(Collection<Bill> bills) {
+		if (aggregates != null) aggregates.addAll(bills);
 		this.bills.addAll(bills);
 	}
 	
+	/**
+	 * Adds those of the specified bills that were not issued at the same time in the same place as a bill of this User,
+	 * at their positions in the order of dateTimes, in a single change of the bill list.
+	 * @param bills The bills to add
+	 * @return The added bills
+	 */
+	List<Bill> addNewBills(Collection<Bill> bills) {
+		return addNewBills(bills, Collections.emptyMap());
+	}
+
+	/**
+	 * Adds those of the specified bills that were not issued at the same time in the same place as a bill of this User,
+	 * at their positions in the order of dateTimes, in a single change of the bill list. Bills of years that are not loaded may have a stored version, which the
+	 * aggregates already count, so an added bill replaces its stored version in the aggregates instead of being counted
+	 * twice.
+	 * @param bills The bills to add
+	 * @param storedBills The stored versions of the bills, by dateTime and source
+	 * @return The added bills
+	 */
+	List<Bill> addNewBills(Collection<Bill> bills, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedBills) {
+		List<Bill> added = this.bills.addMissing(bills);
+		if (added.isEmpty()) return added;
+
+		if (aggregates != null) {
+			for (Bill bill : added) {
+				Bill storedBill = storedBills.get(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource()));
+				if (storedBill != null) aggregates.replace(storedBill, bill);
+				else aggregates.add(bill);
+			}
+		}
+		return added;
+	}
+	
+	/**
+	 * Adds the specified bills of years that were not loaded before, skipping bills this User already has, and marks
+	 * the years since the specified year as loaded.
+	 * @param bills The loaded bills
+	 * @param sinceYear The earliest year whose bills were loaded
+	 */
+	void addLoadedBills(Collection<Bill> bills, int sinceYear) {
+		this.bills.addMissing(bills);
+		setFirstLoadedYear(Math.min(firstLoadedYear, sinceYear));
+	}
+	
+	void setFirstLoadedYear(int firstLoadedYear) {
+		this.firstLoadedYear = firstLoadedYear;
+	}
+	
+	/**
+	 * Sets the aggregates of this User's bills, which are kept up to date from then on as bills are added, edited and
+	 * removed through this User.
+	 * @param aggregates The aggregates of all of this User's bills
+	 */
+	void setAggregates(BillAggregates aggregates) {
+		this.aggregates = aggregates;
+	}
+	
 	void sortBills() {
-		Comparator<LocalDateTime> dateComparator = Comparator.naturalOrder();
-		bills.sort((o1, o2) -> {
-			return dateComparator.compare(o1.getDateTime(), o2.getDateTime());
-		});
+		bills.sortByDateTime();
+	}
+	
+	/**
+	 * @return The modifiable list of this User's bills, which knows which bills were read from a file
+	 */
+	LazyBillList getBillList() {
+		return bills;
+	}
+	
+	/**
+	 * Creates a copy of this User that is not affected by later changes of this User, e.g. to be written to disk on
+	 * another thread. Must be called on the thread that modifies this User.
+	 * @return The copy of this User
+	 */
+	User snapshot() {
+		User snapshot = new User(userID, bills.snapshot());
+		snapshot.setFullName(getFullName());
+		snapshot.setAvailableFunds(getAvailableFunds());
+		snapshot.setFirstLoadedYear(firstLoadedYear);
+		return snapshot;
+	}
+	
+	/**
+	 * Makes sure this User's bills stay readable when the file they are read from gets replaced.
+	 */
+	void releaseMappedData() {
+		bills.release();
 	}
 	
 	/* *************************************************************************
@@ -199,7 +393,7 @@ public class User implements Serializable {
 			bills.add((Bill) in.readObject());
 		}
 
-		init(userID);
+		init(userID, new LazyBillList());
 		setFullName(fullName);
 		setAvailableFunds(availableFunds);
 		setBills(bills);
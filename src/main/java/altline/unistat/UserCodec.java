@@ -0,0 +1,535 @@
+package altline.unistat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes {@link User} data in the compact, versioned binary user data format.
+ *
+ * <h2>Format</h2>
+ *
+ * <pre>
+ * file:    header, user, dictionary block, varint bill block count, bill blocks, [index]
+ * header:  int magic ("USTD"), byte version, byte flags
+ * user:    UTF userID, UTF fullName, float availableFunds
+ * block:   byte codec, varint item count, varint raw length, [varint stored length], stored bytes
+ * bill:    varlong epoch second (UTC, zigzag), byte flags, [varint nano], varint source, varint entry count, entries
+ * entry:   varint article name, float article price, varint amount, float subsidy
+ * index:   int bill count, int file offset of each bill, long file offset of the index
+ * </pre>
+ *
+ * Every source and article name is stored once in the dictionary block, and bills and entries refer to them by their
+ * index in the dictionary. A missing source or article name is stored as an empty string, and an empty source is read
+ * back as a missing one, the same as in the bill journal. The stored bytes of a block are deflated if the block's
+ * codec is {@link #CODEC_DEFLATE}.
+ * <p>
+ * Files with the {@link #FLAG_INDEXED} flag (since version 2) store all bill blocks uncompressed and end with an index
+ * of bill offsets, which lets {@link MappedUserFile} read single bills directly from the mapped file.
+ * </p>
+ */
+final class UserCodec {
+
+	static final int MAGIC = 0x55535444;
+	static final byte VERSION = 2;
+
+	static final byte FLAG_INDEXED = 1;
+
+	private static final byte CODEC_RAW = 0;
+	private static final byte CODEC_DEFLATE = 1;
+
+	private static final byte BILL_EDITED = 1;
+	private static final byte BILL_NANOS = 2;
+
+	/**
+	 * The maximum number of bills in a single block
+	 */
+	private static final int BLOCK_SIZE = 512;
+
+	private UserCodec() {
+	}
+
+	/**
+	 * Checks whether the specified file is written in this codec's format.
+	 * @param path The file to check
+	 * @return true if the file starts with this codec's magic number
+	 * @throws IOException if an IO problem occurs
+	 */
+	static boolean isCodecFile(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+			return in.available() >= 4 && in.readInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * Reads a User from the specified file.
+	 * @param path The file to read from
+	 * @return The User read from the file
+	 * @throws IOException if an IO problem occurs or the file is not a valid user data file
+	 */
+	static User read(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Reads a User from the specified stream. The stream is not closed.
+	 * @param stream The stream to read from
+	 * @return The User read from the stream
+	 * @throws IOException if an IO problem occurs or the stream does not contain valid user data
+	 */
+	static User read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+		Header header = readHeader(in);
+		String[] dictionary = header.dictionary;
+
+		User user = new User(header.userID);
+		user.setFullName(header.fullName);
+		user.setAvailableFunds(header.availableFunds);
+
+		ArrayList<Bill> bills = new ArrayList<>();
+		int blockCount = readVarInt(in);
+		for (int i = 0; i < blockCount; i++) {
+			Block block = readBlock(in);
+			bills.ensureCapacity(bills.size() + block.itemCount);
+			for (int j = 0; j < block.itemCount; j++) {
+				bills.add(readBill(block.data, dictionary));
+			}
+		}
+
+		user.addBills(bills);
+		return user;
+	}
+
+	/**
+	 * Writes the specified User to the specified file, replacing the file's contents. The data is written to a temporary
+	 * file first, which then atomically replaces the specified file.
+	 * @param user The User to write
+	 * @param path The file to write to
+	 * @param compress Whether the blocks of the file should be compressed
+	 * @param indexed Whether the file should be indexed for reading through a {@link MappedUserFile}. Bill blocks of
+	 *            indexed files are never compressed.
+	 * @throws IOException if an IO problem occurs
+	 */
+	static void write(User user, Path path, boolean compress, boolean indexed) throws IOException {
+		write(user, 0, user.getBills().size(), path, compress, indexed);
+	}
+
+	/**
+	 * Writes the User's bills within the specified range of the User's bill list to the specified file, replacing the
+	 * file's contents. The data is written to a temporary file first, which then atomically replaces the specified
+	 * file.
+	 * @param user The User to write
+	 * @param fromIndex The index of the first bill to write
+	 * @param toIndex The index after the last bill to write
+	 * @param path The file to write to
+	 * @param compress Whether the blocks of the file should be compressed
+	 * @param indexed Whether the file should be indexed for reading through a {@link MappedUserFile}
+	 * @throws IOException if an IO problem occurs
+	 */
+	static void write(User user, int fromIndex, int toIndex, Path path, boolean compress, boolean indexed) throws IOException {
+		Files.createDirectories(path.getParent());
+		Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (OutputStream out = Files.newOutputStream(tempFile)) {
+			write(user, fromIndex, toIndex, out, compress, indexed);
+		}
+
+		// the file that is about to be replaced may still be mapped by the user's bill list, which then reads the new file
+		MappedUserFile mappedFile = user.getBillList().getFile();
+		if (mappedFile != null && mappedFile.getPath().equals(path)) {
+			if (indexed) {
+				user.getBillList().replaceFile(tempFile, fromIndex, toIndex);
+				return;
+			}
+			user.releaseMappedData();
+		}
+		Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the specified User to the specified stream. The stream is flushed, but not closed.<br>
+	 * Bills of the User that were never read from their {@link MappedUserFile} are copied from the file as they are,
+	 * without being materialized.
+	 * @param user The User to write
+	 * @param stream The stream to write to
+	 * @param compress Whether the blocks of the written data should be compressed
+	 * @param indexed Whether the written data should be indexed for reading through a {@link MappedUserFile}
+	 * @throws IOException if an IO problem occurs
+	 */
+	static void write(User user, OutputStream stream, boolean compress, boolean indexed) throws IOException {
+		write(user, 0, user.getBills().size(), stream, compress, indexed);
+	}
+
+	/**
+	 * Writes the User's bills within the specified range of the User's bill list to the specified stream. The stream
+	 * is flushed, but not closed.
+	 * @see #write(User, OutputStream, boolean, boolean)
+	 */
+	static void write(User user, int fromIndex, int toIndex, OutputStream stream, boolean compress, boolean indexed) throws IOException {
+		LazyBillList bills = user.getBillList();
+		final int billCount = toIndex - fromIndex;
+		MappedUserFile sourceFile = bills.getFile();
+
+		// unmaterialized bills can only be copied as they are if their dictionary indices stay the same
+		Map<String, Integer> dictionary = new LinkedHashMap<>();
+		if (sourceFile != null) {
+			for (String string : sourceFile.getDictionary()) {
+				intern(dictionary, string);
+			}
+			if (dictionary.size() != sourceFile.getDictionary().length) {
+				dictionary.clear();
+				sourceFile = null;
+			}
+		}
+
+		for (int i = fromIndex; i < toIndex; i++) {
+			if (sourceFile != null && bills.isCopyable(i)) continue;
+
+			Bill bill = bills.get(i);
+			intern(dictionary, bill.getSource());
+			for (Bill.Entry entry : bill.getEntries()) {
+				intern(dictionary, entry.getArticleName());
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(indexed ? FLAG_INDEXED : 0);
+
+		out.writeUTF(user.getUserID());
+		out.writeUTF(nullToEmpty(user.getFullName()));
+		out.writeFloat(user.getAvailableFunds());
+
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(8192);
+		DataOutputStream data = new DataOutputStream(raw);
+
+		for (String string : dictionary.keySet()) {
+			data.writeUTF(string);
+		}
+		writeBlock(out, dictionary.size(), raw, compress);
+
+		int[] offsets = new int[billCount];
+		writeVarInt(out, (billCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		for (int start = 0; start < billCount; start += BLOCK_SIZE) {
+			int end = Math.min(start + BLOCK_SIZE, billCount);
+			for (int i = start; i < end; i++) {
+				int index = fromIndex + i;
+				offsets[i] = raw.size();
+				if (sourceFile != null && bills.isCopyable(index)) bills.copyUnmaterialized(index, data);
+				else writeBill(data, bills.get(index), dictionary);
+			}
+
+			int dataStart = writeBlock(out, end - start, raw, compress && !indexed);
+			for (int i = start; i < end; i++) {
+				offsets[i] += dataStart;
+			}
+		}
+
+		if (indexed) {
+			int indexPosition = out.size();
+			out.writeInt(offsets.length);
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			out.writeLong(indexPosition);
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Reads the header, user information and dictionary of a user data file.
+	 * @param in The input positioned at the start of the file
+	 * @return The read header
+	 * @throws IOException if an IO problem occurs or the input is not a valid user data file
+	 */
+	static Header readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) throw new IOException("Not a user data file");
+		byte version = in.readByte();
+		if (version < 1 || version > VERSION) throw new IOException("Unsupported user data format version: " + version);
+
+		Header header = new Header();
+		header.flags = in.readByte();
+		header.userID = in.readUTF();
+		header.fullName = in.readUTF();
+		header.availableFunds = in.readFloat();
+
+		Block dictionaryBlock = readBlock(in);
+		header.dictionary = new String[dictionaryBlock.itemCount];
+		for (int i = 0; i < header.dictionary.length; i++) {
+			header.dictionary[i] = dictionaryBlock.data.readUTF();
+		}
+		return header;
+	}
+
+	/**
+	 * Reads only the dateTime of a bill, leaving the input positioned after it.
+	 */
+	static LocalDateTime readBillDateTime(DataInput in) throws IOException {
+		long epochSecond = unzigzag(readVarLong(in));
+		byte flags = in.readByte();
+		int nano = (flags & BILL_NANOS) != 0 ? readVarInt(in) : 0;
+		return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Reads only the dateTime and source of a bill, leaving the input positioned after the source.
+	 * @return The source of the bill
+	 */
+	static String readBillSource(DataInput in, String[] dictionary) throws IOException {
+		readBillDateTime(in);
+		return emptyToNull(lookup(dictionary, readVarInt(in)));
+	}
+
+	/**
+	 * Reads past a whole bill without decoding it.
+	 */
+	static void skipBill(DataInput in) throws IOException {
+		readBillDateTime(in);
+		readVarInt(in);
+		int entryCount = readVarInt(in);
+		for (int i = 0; i < entryCount; i++) {
+			readVarInt(in);
+			in.skipBytes(4);
+			readVarInt(in);
+			in.skipBytes(4);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static void writeBill(DataOutput out, Bill bill, Map<String, Integer> dictionary) throws IOException {
+		LocalDateTime dateTime = bill.getDateTime() == null ? LocalDateTime.MIN : bill.getDateTime();
+		byte flags = 0;
+		if (bill.isEdited()) flags |= BILL_EDITED;
+		if (dateTime.getNano() != 0) flags |= BILL_NANOS;
+
+		writeVarLong(out, zigzag(dateTime.toEpochSecond(ZoneOffset.UTC)));
+		out.writeByte(flags);
+		if (dateTime.getNano() != 0) writeVarInt(out, dateTime.getNano());
+		writeVarInt(out, dictionary.get(nullToEmpty(bill.getSource())));
+
+		writeVarInt(out, bill.getEntries().size());
+		for (Bill.Entry entry : bill.getEntries()) {
+			writeVarInt(out, dictionary.get(nullToEmpty(entry.getArticleName())));
+			out.writeFloat(entry.getArticlePrice());
+			writeVarInt(out, entry.getAmount());
+			out.writeFloat(entry.getSubsidy());
+		}
+	}
+
+	static Bill readBill(DataInput in, String[] dictionary) throws IOException {
+		long epochSecond = unzigzag(readVarLong(in));
+		byte flags = in.readByte();
+		int nano = (flags & BILL_NANOS) != 0 ? readVarInt(in) : 0;
+
+		Bill bill = new Bill(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC), emptyToNull(lookup(dictionary, readVarInt(in))));
+		bill.setEdited((flags & BILL_EDITED) != 0);
+
+		int entryCount = readVarInt(in);
+		for (int i = 0; i < entryCount; i++) {
+			bill.addEntry(lookup(dictionary, readVarInt(in)), in.readFloat(), readVarInt(in), in.readFloat());
+		}
+		return bill;
+	}
+
+	/**
+	 * Writes the contents of the specified buffer as a block, compressing it if requested and worthwhile, and resets the
+	 * buffer.
+	 * @return The position in the output at which the (uncompressed) block data starts
+	 */
+	private static int writeBlock(DataOutputStream out, int itemCount, ByteArrayOutputStream raw, boolean compress) throws IOException {
+		byte[] rawBytes = raw.toByteArray();
+		raw.reset();
+
+		byte[] deflated = compress ? deflate(rawBytes) : null;
+		if (deflated != null && deflated.length < rawBytes.length) {
+			out.writeByte(CODEC_DEFLATE);
+			writeVarInt(out, itemCount);
+			writeVarInt(out, rawBytes.length);
+			writeVarInt(out, deflated.length);
+			out.write(deflated);
+			return -1;
+		} else {
+			out.writeByte(CODEC_RAW);
+			writeVarInt(out, itemCount);
+			writeVarInt(out, rawBytes.length);
+			int dataStart = out.size();
+			out.write(rawBytes);
+			return dataStart;
+		}
+	}
+
+	static Block readBlock(DataInputStream in) throws IOException {
+		byte codec = in.readByte();
+		int itemCount = readVarInt(in);
+		int rawLength = readVarInt(in);
+
+		byte[] raw;
+		switch (codec) {
+		case CODEC_RAW:
+			raw = new byte[rawLength];
+			in.readFully(raw);
+			break;
+		case CODEC_DEFLATE:
+			byte[] stored = new byte[readVarInt(in)];
+			in.readFully(stored);
+			raw = inflate(stored, rawLength);
+			break;
+		default:
+			throw new IOException("Unknown block codec: " + codec);
+		}
+
+		return new Block(itemCount, new DataInputStream(new ByteArrayInputStream(raw)));
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data, int rawLength) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] raw = new byte[rawLength];
+			int count = inflater.inflate(raw);
+			if (count != rawLength || !inflater.finished()) throw new IOException("Corrupted block");
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted block", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void intern(Map<String, Integer> dictionary, String string) {
+		dictionary.putIfAbsent(nullToEmpty(string), dictionary.size());
+	}
+
+	static String lookup(String[] dictionary, int index) throws IOException {
+		if (index < 0 || index >= dictionary.length) throw new IOException("Invalid dictionary index: " + index);
+		return dictionary[index];
+	}
+
+	private static String nullToEmpty(String string) {
+		return string == null ? "" : string;
+	}
+
+	private static String emptyToNull(String string) {
+		return string.isEmpty() ? null : string;
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varlong");
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	static final class Header {
+		byte flags;
+		String userID;
+		String fullName;
+		float availableFunds;
+		String[] dictionary;
+
+		boolean isIndexed() {
+			return (flags & FLAG_INDEXED) != 0;
+		}
+	}
+
+	static final class Block {
+		final int itemCount;
+		final DataInputStream data;
+
+		private Block(int itemCount, DataInputStream data) {
+			this.itemCount = itemCount;
+			this.data = data;
+		}
+	}
+
+}
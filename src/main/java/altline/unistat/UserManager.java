@@ -1,10 +1,23 @@
 package altline.unistat;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.time.Year;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.login.FailedLoginException;
 
@@ -18,6 +31,7 @@ import altline.unistat.gui.GuiLogin;
 import altline.unistat.gui.component.ProgressMonitor;
 import altline.utils.Alerts;
 import altline.utils.Crypt;
+import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.concurrent.Task;
@@ -27,6 +41,28 @@ public final class UserManager {
 	private static final UserManager INSTANCE = new UserManager();
 	private static final Logger LOGGER = LogManager.getLogger();
 
+	/**
+	 * The maximum time in seconds to wait for the user's data to be written when the application exits
+	 */
+	private static final long SAVE_TIMEOUT = 10;
+
+	/**
+	 * The number of most recent years whose bills are loaded when a user logs in. Bills of older years are loaded on
+	 * demand.
+	 */
+	private static final int RECENT_YEARS = 2;
+
+	/**
+	 * The cached profiles of logged-out users may take up to this fraction of the maximum heap size (1/n)
+	 */
+	private static final int PROFILE_CACHE_SHARE = 4;
+
+	/**
+	 * The largest number of fetched bill batches waiting to be added to the user on the JavaFX thread, before the data
+	 * fetch waits for them
+	 */
+	private static final int MAX_PENDING_BATCHES = 4;
+
 	public static final UserManager getInstance() {
 		return INSTANCE;
 	}
@@ -38,6 +74,20 @@ public final class UserManager {
 	 ************************************************************************* */
 
 	private String encpwd;
+	private volatile SaveScheduler saveScheduler;
+	/** The earliest year whose bills were requested to be loaded for the logged-in user. Accessed on the JavaFX thread. */
+	private int requestedSinceYear = Integer.MIN_VALUE;
+	/** The scheduler of the user that logged out last, which may still be writing the user's data */
+	private volatile SaveScheduler closingScheduler;
+	/** The background updates of the logged-in user's data, if enabled */
+	private volatile SyncScheduler syncScheduler;
+	/** The running update or repair of the logged-in user's data, which later requests join */
+	private final SingleFlightUpdate<Task<Integer>> runningUpdate = new SingleFlightUpdate<>(Task::isDone);
+	/** The prefetch of the saved user's profile, if one was started */
+	private volatile Future<?> prefetch;
+	/** The profiles of logged-out users, whose GUI is discarded along with them */
+	private final ProfileCache profileCache = new ProfileCache(Runtime.getRuntime().maxMemory() / PROFILE_CACHE_SHARE,
+			profile -> App.uiManager.discardGui(profile.getUser()));
 
 	/* *************************************************************************
 	 *                                                                         *
@@ -84,10 +134,16 @@ public final class UserManager {
 	 * @return true if the user has a bill with the same source and dateTime as the specified bill
 	 */
 	public boolean billExists(Bill bill) {
-		for (Bill testBill : getUser().getBills()) {
-			if (bill.isSameTimePlace(testBill)) return true;
-		}
-		return false;
+		return getUser().hasBill(bill.getDateTime(), bill.getSource());
+	}
+
+	/**
+	 * Checks whether the currently logged-in user has a bill issued at the specified time, in any place.
+	 * @param dateTime The dateTime to check
+	 * @return true if the user has a bill with the specified dateTime
+	 */
+	public boolean billExistsAt(LocalDateTime dateTime) {
+		return getUser().hasBillAt(dateTime);
 	}
 
 	/**
@@ -96,28 +152,50 @@ public final class UserManager {
 	 * @return true if the user has a bill equal to the specified bill
 	 */
 	public boolean equalBillExists(Bill bill) {
-		return getUser().getBills().contains(bill);
+		Bill existing = getUser().findBill(bill.getDateTime(), bill.getSource());
+		return existing != null && existing.equals(bill);
 	}
 
 	/**
 	 * Logs the user out of the application and the webserver. If no user is logged in, this method will have no effect.
 	 */
 	public void logout() {
+		logout(true);
+	}
+
+	/**
+	 * Logs the user out of the application, and optionally the webserver.
+	 * @param endWebSession false to keep the user's webserver session, so that it can be resumed by the next auto-login
+	 */
+	private void logout(boolean endWebSession) {
 		if (!isUserLoggedIn()) return;
 		LOGGER.info("Logging out...");
 
-		try {
-			App.webManager.logout();
-		} catch (FailingHttpStatusCodeException | IOException e) {
-			Alerts.catching("Problem logging out of webserver", e, LOGGER);
-		}
+		// the main window is shown while the user is updated, so the user may log out in the middle of an update
+		Task<Integer> update = runningUpdate.clear();
+		if (update != null) update.cancel();
+
+		// not waited for, the web thread may be busy with a data fetch
+		if (endWebSession) App.webManager.logout();
 
 		encpwd = null;
+		User loggedOutUser = getUser();
+		if (syncScheduler != null) {
+			syncScheduler.close();
+			syncScheduler = null;
+		}
+		// the store is left open for the cached profile, it is closed once the profile is evicted
+		BillStore store = saveScheduler.getStore();
+		saveScheduler.close(false);
+		closingScheduler = saveScheduler;
+		saveScheduler = null;
 		try {
 			App.runFxAndWait(() -> setUser(null));
 		} catch (InterruptedException e) {
 			LOGGER.warn("", e);
 		}
+		// logging in again waits for the scheduler to finish writing before the store is reused
+		profileCache.put(new ProfileCache.Profile(loggedOutUser, store));
 
 		synchronized (App.LOGIN_LOCK) {
 			App.LOGIN_LOCK.notify();
@@ -135,15 +213,22 @@ public final class UserManager {
 	}
 
 	/**
-	 * Returns a {@link Task} that updates the data of the currently logged-in user. This includes fetching data from
-	 * the webserver.<br>
-	 * The updated data is saved.
+	 * Starts a {@link Task} that updates the data of the currently logged-in user and returns it. This includes fetching
+	 * data from the webserver.<br>
+	 * Only one update runs at a time: if an update or a repair of the user is already running, no new one is started and
+	 * the running task is returned instead, so the caller waits for its result.<br>
+	 * The updated data is written to the user's {@link BillStore} in the background.
 	 * <h2>Task description</h2>
 	 * <p>
-	 * The task acquires and starts a data fetch task from {@link WebManager#fetchData()}. The task will then wait for
-	 * the data fetch to finish, then schedule an action on the JavaFX thread that will apply the fetched data to the
-	 * user and save the new state to disk. This task catches and rethrows the exceptions thrown in the data fetch task,
-	 * as documented below.
+	 * The task acquires and starts a data fetch task from {@link WebManager#fetchData(java.util.function.Consumer)}.
+	 * Each batch of bills the data fetch publishes is added to the user on the JavaFX thread and submitted to be stored
+	 * to disk as soon as it arrives, so the bills fill in while the fetch runs and are kept if the fetch is canceled or
+	 * fails. The task will then wait for the data fetch to finish, then schedule an action on the JavaFX thread that will
+	 * apply the rest of the fetched data to the user, and then submit it to be stored to disk. This task catches and
+	 * rethrows the exceptions thrown in the data fetch task, as documented below.<br>
+	 * The fetched bills the user does not have yet are added to the user in a single change of the bill list per batch,
+	 * so that updates running at the same time can not add a bill twice. Bills the user has that changed on the
+	 * webserver get the fetched entries, unless the user edited them.
 	 * </p>
 	 * <h3>Task Exceptions</h3> Notable exceptions that the task may encounter include:
 	 * <ul>
@@ -152,98 +237,237 @@ public final class UserManager {
 	 * <li>{@link IOException} - if an IO problem occurs</li>
 	 * <li>{@link IllegalStateException} - if no user is logged on the application</li>
 	 * </ul>
-	 * @return The Task that, when started, will update the user's data
+	 * @return The started or the running Task that updates the user's data. The value of the Task is the number of new
+	 *         and changed bills.
+	 * @throws IllegalStateException if no user is logged in
 	 */
-	public Task<Void> updateUser() {
-		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged in");
+	public Task<Integer> updateUser() {
+		return startUpdate(false);
+	}
 
-		Task<Void> updateTask = new Task<Void>() {
-			@Override
-			protected Void call() throws FailedLoginException, FailingHttpStatusCodeException, IOException {
+	/**
+	 * Starts a {@link Task} that repairs the data of the currently logged-in user and returns it. The task works like
+	 * the one of {@link #updateUser()}, except that the data fetch compares the whole bill list of the webserver with the
+	 * user's stored bills month by month and fetches the bills that are missing or differ, see
+	 * {@link WebManager#repairData(java.util.function.BiConsumer)}.<br>
+	 * If a repair is already running, it is returned instead. A running update does not cover a repair, so the repair is
+	 * started beside it and its fetch waits for the update's fetch to finish.
+	 * @return The started or the running Task that repairs the user's data. The value of the Task is the number of
+	 *         repaired bills.
+	 * @throws IllegalStateException if no user is logged in
+	 */
+	public Task<Integer> repairUser() {
+		return startUpdate(true);
+	}
 
-				LOGGER.info("Updating user data");
+	/**
+	 * Requests the currently logged-in user's data to be saved in full to be retrieved at a later date. The saved data
+	 * can be retrieved with the User's userID.<br>
+	 * The data is written in the background once the save window ({@link Pref#getSaveDelay()}) has passed, together
+	 * with any other save requested in the meantime. This method returns immediately.<br>
+	 * Single bill changes made through this class are stored as they are made and do not require a call to this method.
+	 */
+	public void saveUser() {
+		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged on the application");
+		saveScheduler.requestSave();
+	}
 
-				Task<UserData> fetchTask = App.webManager.fetchData();
-				fetchTask.setOnCancelled(e -> {
-					this.cancel();
-				});
-				fetchTask.titleProperty().addListener((obs, oldVal, newVal) -> {
-					this.updateTitle(newVal);
-				});
-				fetchTask.messageProperty().addListener((obs, oldVal, newVal) -> {
-					this.updateMessage(newVal);
-				});
-				fetchTask.progressProperty().addListener((obs, oldVal, newVal) -> {
-					this.updateProgress(fetchTask.getWorkDone(), fetchTask.getTotalWork());
-				});
+	/**
+	 * Finds the stored bills of the currently logged-in user issued within the specified time range in the specified
+	 * place, without loading the user's whole history.<br>
+	 * This method reads from disk and must not be called on the JavaFX thread.
+	 * @param from The inclusive lower bound of the bills' dateTime, or null for no lower bound
+	 * @param to The exclusive upper bound of the bills' dateTime, or null for no upper bound
+	 * @param source The source of the bills, or null for bills of any source
+	 * @return The matching bills, sorted by dateTime. The bills are copies that are not part of the user's bill list.
+	 * @throws IOException if an IO problem occurs
+	 * @throws InterruptedException if interrupted while waiting for the query
+	 */
+	public List<Bill> queryBills(LocalDateTime from, LocalDateTime to, String source) throws IOException, InterruptedException {
+		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged on the application");
+		return saveScheduler.query(from, to, source);
+	}
 
-				App.execute(fetchTask);
+	/**
+	 * Loads the bills of the currently logged-in user issued since the specified year, if they are not loaded yet. The
+	 * bills are read in the background and added to the user's bill list on the JavaFX thread when they are read.<br>
+	 * Must be called on the JavaFX thread.
+	 * @param year The earliest year whose bills are to be loaded
+	 * @see User#getFirstLoadedYear()
+	 */
+	public void loadBillsSince(int year) {
+		final User user = getUser();
+		if (user == null || year >= requestedSinceYear) return;
 
-				do {
-					try {
-						UserData fetchedData = fetchTask.get();
-						if (this.isCancelled()) return null;
+		final int toYear = requestedSinceYear;
+		requestedSinceYear = year;
+		LOGGER.info("Loading bills since {}", year == Integer.MIN_VALUE ? "the beginning" : year);
 
-						App.runFxAndWait(() -> {
-							applyUserData(fetchedData);
-							saveUser();
-						});
+		saveScheduler.loadYears(year, toYear, bills -> App.runFx(() -> {
+			if (getUser() == user) user.addLoadedBills(bills, year);
+		}));
+	}
 
-					} catch (ExecutionException e) {
-						Throwable cause = e.getCause();
-						if (cause instanceof FailedLoginException) throw (FailedLoginException) cause;
-						else if (cause instanceof FailingHttpStatusCodeException) throw (FailingHttpStatusCodeException) cause;
-						else if (cause instanceof IOException) throw (IOException) cause;
-						else throw new RuntimeException(cause);
+	/**
+	 * Loads all bills of the currently logged-in user that are not loaded yet.
+	 * @see #loadBillsSince(int)
+	 */
+	public void loadAllBills() {
+		loadBillsSince(Integer.MIN_VALUE);
+	}
 
-					} catch (CancellationException e) {
-						break; // action to do on fetchTask cancel is already defined above
+	/**
+	 * Creates a task that imports the bills of the specified CSV or JSON file into the bills of the currently logged-in
+	 * user. The file's format is determined by its extension (see {@link BillTransfer}).<br>
+	 * Bills issued at the same time in the same place as a bill the user already has (see
+	 * {@link Bill#isSameTimePlace(Bill)}) are skipped. The remaining bills are added to the user in a single update and
+	 * stored to disk in the background.
+	 * @param file The file to import
+	 * @return The Task that, when started, imports the bills. The value of the Task is the number of imported bills.
+	 * @throws IllegalArgumentException if the format of the file is not supported
+	 */
+	public Task<Integer> importBills(Path file) {
+		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged in");
+		final BillTransfer transfer = BillTransfer.forFile(file);
+		final User user = getUser();
+		final SaveScheduler scheduler = saveScheduler;
+		final int firstLoadedYear = user.getFirstLoadedYear();
 
-					} catch (InterruptedException e) {
-						if (this.isCancelled()) {
-							fetchTask.cancel();
-							return null;
-						}
-					}
-				} while (!fetchTask.isDone());
+		return new Task<Integer>() {
+			@Override
+			protected Integer call() throws IOException, InterruptedException, ExecutionException {
+				LOGGER.info("Importing bills");
+				updateTitle("Uvoz računa");
+				updateMessage("Čitanje datoteke...");
+
+				List<Bill> bills = transfer.read(file);
+				if (isCancelled()) return 0;
+
+				// the user only holds the bills of the loaded years, older ones are checked against the keys the store
+				// has for their years, one year at a time
+				SortedSet<Integer> olderYears = new TreeSet<>();
+				for (Bill bill : bills) {
+					if (bill.getDateTime().getYear() < firstLoadedYear) olderYears.add(bill.getDateTime().getYear());
+				}
+				for (int year : olderYears) {
+					if (isCancelled()) return 0;
+					Set<SimpleImmutableEntry<LocalDateTime, String>> storedKeys = scheduler.query(
+							store -> store.queryKeys(BillStore.yearStart(year), BillStore.yearStart(year + 1)));
+					bills.removeIf(bill -> bill.getDateTime().getYear() == year
+							&& storedKeys.contains(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource())));
+				}
+				if (isCancelled()) return 0;
+
+				updateMessage("Dodavanje računa...");
+				final List<Bill> importedBills = bills;
+				List<Bill> added = App.runFxAndWait(() -> {
+					return getUser() == user ? user.addNewBills(importedBills) : Collections.<Bill>emptyList();
+				});
+
+				// the added bills become part of the user, so the store gets copies of them
+				List<Bill> addedCopies = copyBills(added);
+				if (!addedCopies.isEmpty()) scheduler.submit(store -> store.insertAll(addedCopies));
 
-				return null;
+				LOGGER.info("Imported {} of {} bills", added.size(), importedBills.size());
+				return added.size();
 			}
 		};
-
-		return updateTask;
 	}
 
 	/**
-	 * Saves the currently logged-in user's data to be retrieved at a later date. The saved data can be retrieved with
-	 * the User's userID.
+	 * Creates a task that exports all stored bills of the currently logged-in user, including the bills of years that
+	 * are not loaded, to the specified CSV or JSON file. The bills are read from the store and written one year at a
+	 * time. The file's format is determined by its extension (see {@link BillTransfer}).
+	 * @param file The file to export to. An existing file is replaced.
+	 * @return The Task that, when started, exports the bills. The value of the Task is the number of exported bills.
+	 * @throws IllegalArgumentException if the format of the file is not supported
 	 */
-	public void saveUser() {
-		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged on the application");
+	public Task<Integer> exportBills(Path file) {
+		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged in");
+		final BillTransfer transfer = BillTransfer.forFile(file);
+		final SaveScheduler scheduler = saveScheduler;
+
+		return new Task<Integer>() {
+			@Override
+			protected Integer call() throws IOException, InterruptedException {
+				LOGGER.info("Exporting bills");
+				updateTitle("Izvoz računa");
+				updateMessage("Zapisivanje datoteke...");
+
+				SortedSet<Integer> years = scheduler.query(BillStore::getYears);
+				int exported;
+				boolean cancelled = false;
+				try (BillTransfer.BatchWriter writer = transfer.openWriter(file)) {
+					for (int year : years) {
+						if (isCancelled()) {
+							cancelled = true;
+							break;
+						}
+						writer.write(scheduler.query(BillStore.yearStart(year), BillStore.yearStart(year + 1), null));
+					}
+					exported = writer.getCount();
+				}
+				// a partly written file is not left behind
+				if (cancelled) {
+					Files.deleteIfExists(file);
+					return 0;
+				}
 
-		LOGGER.info("Saving user data");
-		App.ioManager.writeObject(getUser(), App.ioManager.getUserFile(getUser().getUserID()));
+				LOGGER.info("Exported {} bills of {} years", exported, years.size());
+				return exported;
+			}
+		};
 	}
 
 	/**
-	 * Adds a new {@link Bill} to the {@link User}'s list of Bills.
+	 * Adds a new {@link Bill} to the {@link User}'s list of Bills, replacing the user's bill with the same dateTime and
+	 * source if there is one. The addition is stored to disk in the background.
 	 * @param source The Source string of the Bill
 	 * @param dateTime The Bill's dateTime
 	 * @param entries The collection of {@link Entry Bill.Entry} objects whose clones are to be added to the new Bill
 	 */
 	public void createBill(String source, LocalDateTime dateTime, Collection<Bill.Entry> entries) {
+		final Bill bill = new Bill(dateTime, source, entries);
+		final Bill storedBill = bill.copy();
 		try {
 			App.runFxAndWait(() -> {
-				getUser().addBill(new Bill(dateTime, source, entries));
-				getUser().sortBills();
+				getUser().addBillSorted(bill);
 			});
 		} catch (InterruptedException e) {
 			LOGGER.warn("", e);
 		}
+		store(store -> store.upsert(storedBill));
+	}
+
+	/**
+	 * Edits the specified Bill to contain the specified data and marks it as edited. The edit is stored to disk in
+	 * the background.
+	 * @param bill The Bill to edit
+	 * @param dateTime The new dateTime of the Bill
+	 * @param source The new source string of the Bill
+	 * @param entries The collection of {@link Entry Bill.Entry} objects whose clones are to be set as the new entries
+	 *            of the Bill
+	 */
+	public void editBill(Bill bill, LocalDateTime dateTime, String source, Collection<Bill.Entry> entries) {
+		final LocalDateTime oldDateTime = bill.getDateTime();
+		final String oldSource = bill.getSource();
+		final Bill storedBill;
+		try {
+			storedBill = App.runFxAndWait(() -> {
+				getUser().editBill(bill, dateTime, source, entries);
+				getUser().getBillList().moveSorted(bill);
+				return bill.copy();
+			});
+		} catch (ExecutionException | InterruptedException e) {
+			LOGGER.warn("", e);
+			return;
+		}
+		store(store -> store.update(oldDateTime, oldSource, storedBill));
 	}
 
 	/**
-	 * Removes the specified Bill from the User's list of Bills if present.
+	 * Removes the specified Bill from the User's list of Bills if present. The removal is stored to disk in the
+	 * background.
 	 * @param bill The Bill to remove
 	 */
 	public void deleteBill(Bill bill) {
@@ -254,6 +478,9 @@ public final class UserManager {
 		} catch (InterruptedException e) {
 			LOGGER.warn("", e);
 		}
+		final LocalDateTime dateTime = bill.getDateTime();
+		final String source = bill.getSource();
+		store(store -> store.delete(dateTime, source));
 	}
 
 	/* *************************************************************************
@@ -282,7 +509,7 @@ public final class UserManager {
 			userID = Pref.getSavedUserId();
 			password = Crypt.decrypt(Pref.getPreferences().get(Pref.AL_PWD, ""));
 
-			loggedIn = login(userID, password);
+			loggedIn = login(userID, password, true);
 		}
 
 		while (!loggedIn) {
@@ -309,7 +536,7 @@ public final class UserManager {
 				password = loginGui.getPassword();
 				boolean remember = loginGui.getRemember();
 
-				loggedIn = login(userID, password);
+				loggedIn = login(userID, password, false);
 
 				if (loggedIn && remember) enableAutoLogin(userID, password);
 				else if(isAutoLogin()) disableAutoLogin();
@@ -335,9 +562,13 @@ public final class UserManager {
 	 * and update it with fresh data.
 	 * @param userID the user ID used to log on the data-serving website
 	 * @param password the password used to log on the data-serving website
+	 * @param savedLogin true to log in with the saved login info without contacting the webserver, so that the user's
+	 *            stored data is shown at once. The saved password was verified before; the data fetch that follows
+	 *            resumes the user's webserver session or logs in, and fails with a {@link FailedLoginException} if the
+	 *            password is no longer valid.
 	 * @return true if the login was successful, false otherwise
 	 */
-	boolean login(String userID, String password) {
+	boolean login(String userID, String password, boolean savedLogin) {
 		if (isUserLoggedIn()) throw new IllegalStateException("A user is already logged in");
 
 		ProgressMonitor loginMonitor = new ProgressMonitor();
@@ -345,9 +576,13 @@ public final class UserManager {
 		loginMonitor.setProgress(-1);
 		Stage loginMonitorStage = App.uiManager.showProgressMonitor(loginMonitor, "Prijava");
 
-		if (!App.DEBUG_MODE) {
+		if (!App.DEBUG_MODE && !savedLogin) {
 			try {
 				if (!isLoginValid(userID, password)) return false;
+			} catch (ServerUnavailableException e) {
+				LOGGER.warn("Login verification failed", e);
+				Alerts.warn("Poslužitelj trenutno nije dostupan. Pokušajte ponovno kasnije.");
+				return false;
 			} catch (FailingHttpStatusCodeException | IOException e) {
 				Alerts.catching("Provjera valjanosti prijave neuspjela. Pokušajte ponovno kasnije.", e, LOGGER);
 				return false;
@@ -356,16 +591,7 @@ public final class UserManager {
 
 		encpwd = Crypt.encrypt(password);
 
-		User user = loadUser(userID);
-		if (user == null) {
-			user = new User(userID);
-
-		} else if (!user.getUserID().equals(userID)) {
-			LOGGER.warn("User data corrupted. UserIDs of the logging-in user and their data file do not match");
-			user = new User(userID);
-		}
-
-		final User fu = user;
+		final User fu = loadUser(userID);
 		try {
 			App.runFxAndWait(() -> {
 				setUser(fu);
@@ -375,6 +601,11 @@ public final class UserManager {
 			LOGGER.warn("", e);
 		}
 
+		if (!App.DEBUG_MODE && Pref.getBackgroundSync()) {
+			syncScheduler = new SyncScheduler(fu, Pref.getSyncInterval());
+			syncScheduler.start();
+		}
+
 		LOGGER.info("Application login successful");
 		return true;
 	}
@@ -395,14 +626,37 @@ public final class UserManager {
 		return Crypt.decrypt(encpwd);
 	}
 
+	/**
+	 * Starts prefetching the profile of the saved user in the background if auto-login is enabled, so that the data is
+	 * ready by the time the user is logged in.
+	 */
 	void start() {
+		String savedUserID = Pref.getSavedUserId();
+		if (!isAutoLogin() || savedUserID == null || savedUserID.isEmpty()) return;
+
+		prefetch = App.execute(() -> {
+			LOGGER.info("Prefetching the saved user's profile");
+			BillStore store = openBillStore(savedUserID);
+			profileCache.put(new ProfileCache.Profile(readUser(savedUserID, store), store));
+		});
 	}
 
 	void stop() {
+		SaveScheduler scheduler = saveScheduler;
 		if (isUserLoggedIn()) {
-			// saveUser();
-			logout();
+			logout(!isAutoLogin());
+		}
+
+		// make sure the user's data is on disk before the application exits
+		if (scheduler != null) {
+			try {
+				if (!scheduler.awaitTermination(SAVE_TIMEOUT, TimeUnit.SECONDS)) LOGGER.error("Timed out while saving user data");
+			} catch (InterruptedException e) {
+				LOGGER.warn("", e);
+			}
 		}
+		// closes the stores of the cached profiles, including the one the scheduler wrote to
+		profileCache.clear();
 	}
 
 	/* *************************************************************************
@@ -411,6 +665,93 @@ public final class UserManager {
 	 *                                                                         *
 	 ************************************************************************* */
 
+	/**
+	 * Starts an update task, unless a running one covers the request.
+	 * @param repair true to reconcile the whole bill list instead of fetching the fresh bills only
+	 * @return The started or the running task
+	 */
+	private Task<Integer> startUpdate(boolean repair) {
+		return runningUpdate.start(getUser(), repair, () -> {
+			Task<Integer> updateTask = createUpdateTask(repair);
+			App.runFx(() -> {
+				activeUpdate.set(updateTask);
+				// the task stops running once it is done
+				updateTask.runningProperty().addListener((obs, oldVal, newVal) -> {
+					if (!newVal && activeUpdate.get() == updateTask) activeUpdate.set(null);
+				});
+			});
+			App.execute(updateTask);
+			return updateTask;
+		});
+	}
+
+	/**
+	 * @param repair true to reconcile the whole bill list instead of fetching the fresh bills only
+	 * @see #updateUser()
+	 * @see #repairUser()
+	 */
+	private Task<Integer> createUpdateTask(boolean repair) {
+		if (!isUserLoggedIn()) throw new IllegalStateException("No user is logged in");
+		final User user = getUser();
+
+		Task<Integer> updateTask = new Task<Integer>() {
+			@Override
+			protected Integer call() throws FailedLoginException, FailingHttpStatusCodeException, IOException {
+
+				LOGGER.info("Updating user data");
+
+				BatchedBillSink billSink = new BatchedBillSink(MAX_PENDING_BATCHES, App::runFx,
+						(bills, storedBills) -> applyBills(user, bills, storedBills));
+				Task<UserData> fetchTask = repair ? App.webManager.repairData(billSink)
+						: App.webManager.fetchData(bills -> billSink.accept(bills, null));
+				fetchTask.setOnCancelled(e -> {
+					this.cancel();
+				});
+				fetchTask.titleProperty().addListener((obs, oldVal, newVal) -> {
+					this.updateTitle(newVal);
+				});
+				fetchTask.messageProperty().addListener((obs, oldVal, newVal) -> {
+					this.updateMessage(newVal);
+				});
+				fetchTask.progressProperty().addListener((obs, oldVal, newVal) -> {
+					this.updateProgress(fetchTask.getWorkDone(), fetchTask.getTotalWork());
+				});
+
+				App.execute(fetchTask);
+
+				do {
+					try {
+						UserData fetchedData = fetchTask.get();
+						if (this.isCancelled()) return null;
+
+						// runs after the published batches, which are queued on the JavaFX thread before it
+						App.runFxAndWait(() -> applyUserData(user, fetchedData));
+
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof FailedLoginException) throw (FailedLoginException) cause;
+						else if (cause instanceof FailingHttpStatusCodeException) throw (FailingHttpStatusCodeException) cause;
+						else if (cause instanceof IOException) throw (IOException) cause;
+						else throw new RuntimeException(cause);
+
+					} catch (CancellationException e) {
+						break; // action to do on fetchTask cancel is already defined above
+
+					} catch (InterruptedException e) {
+						if (this.isCancelled()) {
+							fetchTask.cancel();
+							return null;
+						}
+					}
+				} while (!fetchTask.isDone());
+
+				return billSink.getAppliedCount();
+			}
+		};
+
+		return updateTask;
+	}
+
 	/**
 	 * Verifies the specified login details with the webserver.
 	 * @param userID The webserver user ID of the user to log on
@@ -424,21 +765,222 @@ public final class UserManager {
 	}
 
 	/**
-	 * Loads the previously saved data of the {@link User} with the specified userID
+	 * Provides the {@link User} with the specified userID. The User's cached profile is used if there is one, otherwise
+	 * the previously saved data of the User is loaded from the User's {@link BillStore}. If the User has no saved data,
+	 * a new User is created. A {@link SaveScheduler} is set up to save the User's data from then on.
 	 * @param userID The userID of the User whose data is to be loaded
 	 * @return The User object constructed from the loaded data
 	 */
 	private User loadUser(String userID) {
-		LOGGER.info("Loading user data");
-		return (User) App.ioManager.readObject(App.ioManager.getUserFile(userID));
+		awaitPendingIO();
+
+		ProfileCache.Profile profile = profileCache.take(userID);
+		User user;
+		BillStore store;
+		if (profile != null) {
+			LOGGER.info("Using cached user profile");
+			user = profile.getUser();
+			store = profile.getStore() != null ? profile.getStore() : openBillStore(userID);
+
+		} else {
+			LOGGER.info("Loading user data");
+			store = openBillStore(userID);
+			user = readUser(userID, store);
+		}
+
+		requestedSinceYear = user.getFirstLoadedYear();
+		saveScheduler = new SaveScheduler(user, store, App.ioManager.getUserAggregatesFile(userID), Pref.getSaveDelay());
+		return user;
+	}
+
+	/**
+	 * Reads the data of the User with the specified userID from the specified store, including the User's aggregates.
+	 */
+	private User readUser(String userID, BillStore store) {
+		User user;
+		try {
+			user = store.load();
+		} catch (IOException e) {
+			Alerts.catching("Could not load user data", e, LOGGER);
+			user = new User(userID);
+		}
+
+		loadAggregates(user, store);
+		return user;
 	}
 
-	private void applyUserData(UserData userData) {
-		User user = getUser();
+	/**
+	 * Sets the {@link BillAggregates} of the specified User. The aggregates are read from the User's aggregates file if
+	 * they match the data in the User's store, otherwise they are computed from all of the User's stored bills and
+	 * saved.
+	 */
+	private void loadAggregates(User user, BillStore store) {
+		Path aggregatesFile = App.ioManager.getUserAggregatesFile(user.getUserID());
+		long start = System.nanoTime();
+		try {
+			long dataVersion = store.getDataVersion();
+			if (Files.exists(aggregatesFile)) {
+				BillAggregates aggregates = BillAggregates.read(aggregatesFile);
+				if (aggregates.getDataVersion() == dataVersion) {
+					user.setAggregates(aggregates);
+					LOGGER.debug("Aggregates read in {} ms", (System.nanoTime() - start) / 1000000);
+					return;
+				}
+				LOGGER.info("Aggregates do not match the stored user data");
+			}
+
+			BillAggregates aggregates = BillAggregates.compute(store.query(null, null, null));
+			aggregates.setDataVersion(dataVersion);
+			user.setAggregates(aggregates);
+			LOGGER.debug("Aggregates computed in {} ms", (System.nanoTime() - start) / 1000000);
+			aggregates.write(aggregatesFile);
+
+		} catch (IOException e) {
+			if (user.getAggregates() != null) {
+				LOGGER.warn("Could not save the aggregates of the user data", e);
+			} else {
+				LOGGER.warn("Could not load the aggregates of the stored user data. Aggregating the loaded bills", e);
+				user.setAggregates(BillAggregates.compute(user.getBills()));
+			}
+		}
+	}
+
+	/**
+	 * Waits for the prefetch of the saved user's profile to finish, and for the data of the user that logged out last
+	 * to be written, so that the data is not read while it is being written.
+	 */
+	private void awaitPendingIO() {
+		Future<?> pendingPrefetch = prefetch;
+		if (pendingPrefetch != null) {
+			try {
+				pendingPrefetch.get();
+			} catch (ExecutionException e) {
+				LOGGER.warn("Prefetching the saved user's profile failed", e.getCause());
+			} catch (InterruptedException e) {
+				LOGGER.warn("", e);
+			}
+			prefetch = null;
+		}
+
+		SaveScheduler closing = closingScheduler;
+		if (closing != null) {
+			try {
+				if (!closing.awaitTermination(SAVE_TIMEOUT, TimeUnit.SECONDS)) LOGGER.error("Timed out while saving user data");
+			} catch (InterruptedException e) {
+				LOGGER.warn("", e);
+			}
+			closingScheduler = null;
+		}
+	}
+
+	/**
+	 * Opens the {@link BillStore} selected in the preferences for the User with the specified userID. When the database
+	 * store is opened for the first time, the User's data file is imported into it. If the database can not be opened,
+	 * the data file is used instead.
+	 * @param userID The userID of the User whose store is to be opened
+	 * @return The opened store
+	 */
+	private BillStore openBillStore(String userID) {
+		int recentYear = Year.now().getValue() - RECENT_YEARS + 1;
+		FileBillStore fileStore = new FileBillStore(userID, App.ioManager.getUserFile(userID), App.ioManager.getUserJournalFile(userID), recentYear);
+		if (!Pref.STORAGE_DATABASE.equals(Pref.getStorage())) return fileStore;
+
+		Path databaseFile = App.ioManager.getUserDatabaseFile(userID);
+		boolean imported = Files.exists(databaseFile);
+		DatabaseBillStore databaseStore = null;
+		try {
+			databaseStore = new DatabaseBillStore(userID, databaseFile, recentYear);
+			if (!imported && fileStore.exists()) {
+				LOGGER.info("Importing user data file into the bill database");
+				FileBillStore importStore = new FileBillStore(userID, App.ioManager.getUserFile(userID),
+						App.ioManager.getUserJournalFile(userID), Integer.MIN_VALUE);
+				databaseStore.saveAll(importStore.load());
+			}
+			return databaseStore;
+
+		} catch (IOException e) {
+			Alerts.catching("Could not open the bill database. The user data file is used instead", e, LOGGER);
+			if (databaseStore != null) {
+				try {
+					databaseStore.close();
+				} catch (IOException e1) {
+					LOGGER.warn("", e1);
+				}
+			}
+			return fileStore;
+		}
+	}
+
+	/**
+	 * Submits a change to be written to the logged-in user's {@link BillStore} in the background.
+	 * @param action The action that writes the change to the store
+	 * @see SaveScheduler#submit(SaveScheduler.StoreAction)
+	 */
+	private void store(SaveScheduler.StoreAction action) {
+		SaveScheduler scheduler = saveScheduler;
+		if (scheduler != null) scheduler.submit(action);
+	}
+
+	private static List<Bill> copyBills(Collection<Bill> bills) {
+		List<Bill> copies = new ArrayList<>(bills.size());
+		for (Bill bill : bills) {
+			copies.add(bill.copy());
+		}
+		return copies;
+	}
+
+	/**
+	 * Applies the specified fetched general data to the user and submits it to be stored, unless the user is no longer
+	 * logged in. Must be called on the JavaFX thread.
+	 * @param user The user the data was fetched for
+	 * @param userData The fetched data
+	 */
+	private void applyUserData(User user, UserData userData) {
+		if (getUser() != user) return;
+
 		user.setFullName(userData.getFullName());
 		user.setAvailableFunds(userData.getAvailableFunds());
-		user.addBills(userData.getBills());
-		user.sortBills();
+		store(store -> store.saveUserInfo(userData.getFullName(), userData.getAvailableFunds()));
+	}
+
+	/**
+	 * Adds those of the specified fetched bills that the user does not have yet to the user, refreshes the unedited
+	 * bills that changed on the webserver, and submits both to be stored. Must be called on the JavaFX thread.
+	 * @param user The user the bills were fetched for
+	 * @param bills The fetched bills
+	 * @param storedBills The stored bills a repair compared the bill list with, by dateTime and source. A repair
+	 *            fetches bills of years that are not loaded, which may already be stored with different details, so
+	 *            the added bills replace them in the store and in the user's aggregates. null if the added bills are
+	 *            not stored yet.
+	 * @return The number of added and refreshed bills, which is 0 if the user is no longer logged in
+	 */
+	private int applyBills(User user, List<Bill> bills, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedBills) {
+		if (getUser() != user) return 0;
+
+		List<Bill> refreshedBills = new ArrayList<>();
+		for (Bill bill : bills) {
+			Bill refreshed = user.refreshBill(bill);
+			if (refreshed != null) refreshedBills.add(refreshed.copy());
+		}
+		List<Bill> added = storedBills == null ? user.addNewBills(bills) : user.addNewBills(bills, storedBills);
+		if (added.isEmpty() && refreshedBills.isEmpty()) return 0;
+
+		SyncScheduler scheduler = syncScheduler;
+		if (scheduler != null) scheduler.recordBills(added);
+
+		// the new bills become part of the user, so the store gets copies of them
+		List<Bill> addedCopies = copyBills(added);
+		store(store -> {
+			if (storedBills != null) {
+				for (Bill bill : addedCopies) {
+					store.upsert(bill);
+				}
+			} else store.insertAll(addedCopies);
+			for (Bill refreshed : refreshedBills) {
+				store.upsert(refreshed);
+			}
+		});
+		return added.size() + refreshedBills.size();
 	}
 
 	/* *************************************************************************
@@ -470,4 +1012,45 @@ public final class UserManager {
 		user.set(value);
 	}
 
+	// --- activeUpdate
+	/**
+	 * The running update or repair of the logged-in user's data, or null if none is running. Changes on the JavaFX
+	 * thread.
+	 */
+	private final ReadOnlyObjectWrapper<Task<Integer>> activeUpdate = new ReadOnlyObjectWrapper<>(this, "activeUpdate");
+
+	public final ReadOnlyObjectProperty<Task<Integer>> activeUpdateProperty() {
+		return activeUpdate.getReadOnlyProperty();
+	}
+
+	public final Task<Integer> getActiveUpdate() {
+		return activeUpdate.get();
+	}
+
+	// --- offline
+	/**
+	 * Whether the webserver is considered down, in which case the user's stored data is shown but can not be updated
+	 * for a while
+	 */
+	public final ReadOnlyBooleanProperty offlineProperty() {
+		return App.webManager.offlineProperty();
+	}
+
+	public final boolean isOffline() {
+		return offlineProperty().get();
+	}
+
+	// --- lastSyncReport
+	/**
+	 * The report of the latest data fetch from the webserver, or null if no data was fetched since the application
+	 * started
+	 */
+	public final ReadOnlyObjectProperty<SyncReport> lastSyncReportProperty() {
+		return App.webManager.lastSyncReportProperty();
+	}
+
+	public final SyncReport getLastSyncReport() {
+		return lastSyncReportProperty().get();
+	}
+
 }
@@ -1,112 +1,253 @@
 package altline.unistat;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import javax.security.auth.login.FailedLoginException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
-import com.gargoylesoftware.htmlunit.WebClient;
-import com.gargoylesoftware.htmlunit.html.DomNode;
-import com.gargoylesoftware.htmlunit.html.DomNodeList;
-import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
-import com.gargoylesoftware.htmlunit.html.HtmlButton;
-import com.gargoylesoftware.htmlunit.html.HtmlForm;
-import com.gargoylesoftware.htmlunit.html.HtmlPage;
-import com.gargoylesoftware.htmlunit.html.HtmlPasswordInput;
-import com.gargoylesoftware.htmlunit.html.HtmlTextInput;
 
+import altline.unistat.ScrapeEngine.BillRow;
+import altline.unistat.SyncReport.Outcome;
+import altline.unistat.SyncReport.Phase;
 import altline.utils.Alerts;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.concurrent.Task;
 
 final class WebManager {
-	private static final WebManager INSTANCE = new WebManager();
+	private static final WebManager INSTANCE = new WebManager(new AppHost());
 	private static final Logger LOGGER = LogManager.getLogger();
 
 	public static final WebManager getInstance() {
 		return INSTANCE;
 	}
 
+	/**
+	 * The system property that replaces the base URL of the website, e.g. with the address of a stand-in server
+	 */
+	public static final String PROP_SERVER_URL = "unistat.server.url";
+	/**
+	 * The system property that replaces the base URL of the login website
+	 */
+	public static final String PROP_LOGIN_URL = "unistat.login.url";
+
+	/** The time in milliseconds for which a received page is reused instead of requested again */
+	private static final long PAGE_REUSE_TIME = 60 * 1000;
+	/** The idle time in milliseconds after which the session is kept alive with a request */
+	private static final long KEEP_ALIVE_INTERVAL = 10 * 60 * 1000;
+	/** The maximum number of fetched bills published at once */
+	private static final int BATCH_SIZE = 10;
+	/** The maximum time in milliseconds a fetched bill waits to be published */
+	private static final long BATCH_INTERVAL = 500;
+	/** The order in which the details of bills are fetched */
+	private static final Comparator<BillRow> NEWEST_FIRST = Comparator.comparing(BillRow::getDateTime).reversed();
+	/** The largest number of times a page is requested before its request fails */
+	private static final int MAX_ATTEMPTS = 3;
+	/** The time in milliseconds before a failed request is first repeated */
+	private static final long RETRY_DELAY = 500;
+	/** The longest time in milliseconds before a failed request is repeated */
+	private static final long MAX_RETRY_DELAY = 4000;
+	/** The number of failed requests in a row after which the webserver is considered down */
+	private static final int FAILURE_THRESHOLD = 3;
+	/** The time in milliseconds for which no requests are made once the webserver is considered down */
+	private static final long OFFLINE_TIME = 30 * 1000;
+	/** The longest time in milliseconds for which no requests are made while the webserver stays down */
+	private static final long MAX_OFFLINE_TIME = 10 * 60 * 1000;
+	/** The time in milliseconds to wait for a connection to the webserver when checking that it is reachable */
+	private static final int PROBE_TIMEOUT = 3000;
+	/** The time in seconds to wait for the running webserver operation when the application exits */
+	private static final long STOP_TIMEOUT = 10;
+
 	/**
 	 * The base URL for the website
 	 */
-	private static final String URL_BASE = "https://issp.srce.hr/";
+	private final String urlBase;
 	/**
 	 * The URL for the logged-in student
 	 */
-	private static final String URL_STUDENT = "https://issp.srce.hr/Student";
+	private final String urlStudent;
 	/**
 	 * This is only the beginning part of the URL for the bills page. A real bills URL should have additional characters
 	 * appended to this string
 	 */
-	private static final String GENERIC_URL_BILLS = "https://issp.srce.hr/Student/StudentRacuni";
+	private final String genericUrlBills;
 	/**
 	 * This is only the beginning part of a login URL. A real login URL will have additional characters appended to this
 	 * string
 	 */
-	private static final String GENERIC_URL_LOGIN = "https://login.aaiedu.hr/sso/module.php/core/loginuserpass.php";
-	private static final String URL_LOGOUT = "https://issp.srce.hr/Account/Odjava";
-
-	private static final DecimalFormat FLOAT_FORMAT;
+	private final String genericUrlLogin;
+	private final String urlLogout;
+
+	private final Host host;
+	private final WebSession session = new WebSession();
+	private final ReadOnlyBooleanWrapper offline = new ReadOnlyBooleanWrapper(false);
+	private final CircuitBreaker breaker;
+	private final ReadOnlyObjectWrapper<SyncReport> lastSyncReport = new ReadOnlyObjectWrapper<>();
+	/**
+	 * The executor of the web thread, which owns the engine and the state of the session: every operation on the
+	 * webserver runs on it, one at a time, since the engine has a single current page. Only the bill details of a data
+	 * fetch are fetched beside it, on the threads of a {@link DetailFetcher}.
+	 */
+	private ScheduledExecutorService webExecutor;
+	private volatile Thread webThread;
+	private ScrapeEngine engine;
+	private String engineName;
+	private SyncHistory syncHistory;
+	/** The report of the running data fetch, or null if no data is being fetched */
+	private volatile SyncReport syncReport;
+	private volatile String loginFailMessage = "";
+
+	/** The URL of the user's bills page. Confined to the web thread. */
+	private String urlBills;
 
-	static {
-		DecimalFormatSymbols symbols = new DecimalFormatSymbols();
-		symbols.setDecimalSeparator(',');
-		FLOAT_FORMAT = new DecimalFormat("0.00");
-		FLOAT_FORMAT.setDecimalFormatSymbols(symbols);
+	/**
+	 * Creates a manager of the website whose URLs are given by the {@link #PROP_SERVER_URL} and {@link #PROP_LOGIN_URL}
+	 * system properties, or else of the real website.
+	 * @param host The application the manager works for
+	 */
+	WebManager(Host host) {
+		this.host = host;
+		this.urlBase = System.getProperty(PROP_SERVER_URL, "https://issp.srce.hr/");
+		this.urlStudent = urlBase + "Student";
+		this.genericUrlBills = urlBase + "Student/StudentRacuni";
+		this.genericUrlLogin = System.getProperty(PROP_LOGIN_URL, "https://login.aaiedu.hr/") + "sso/module.php/core/loginuserpass.php";
+		this.urlLogout = urlBase + "Account/Odjava";
+		this.breaker = new CircuitBreaker(FAILURE_THRESHOLD, OFFLINE_TIME, MAX_OFFLINE_TIME,
+				state -> host.runFx(() -> offline.set(state != CircuitBreaker.State.CLOSED)));
 	}
 
-	private WebClient webClient;
-	private HtmlPage currentPage;
-	private boolean loggedIn;
-	private String loggedUserId;
-	private String loginFailMessage = "";
-
-	private String urlBills;
-
 	void start() {
-		webClient = new WebClient(BrowserVersion.INTERNET_EXPLORER); // IE doesn't throw js exceptions when fetching
-		webClient.getOptions().setThrowExceptionOnScriptError(false);
+		ScrapeEngine scrapeEngine = host.createScrapeEngine();
+		engineName = scrapeEngine.getClass().getSimpleName();
+		LOGGER.debug("Using the {} scrape engine", engineName);
+		engine = new GuardedScrapeEngine(scrapeEngine, new RetryPolicy(MAX_ATTEMPTS, RETRY_DELAY, MAX_RETRY_DELAY), breaker, () -> {
+			SyncReport report = syncReport;
+			if (report != null) report.recordRetry();
+		});
+		loadCookies();
+		syncHistory = new SyncHistory(host.getSyncHistoryFile());
+
+		webExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "WebSession");
+			thread.setDaemon(true);
+			webThread = thread;
+			return thread;
+		});
+		webExecutor.scheduleWithFixedDelay(this::keepAlive, 1, 1, TimeUnit.MINUTES);
 	}
 
 	void stop() {
-		webClient.close();
+		LOGGER.info("Webserver session at exit: {}", session);
+
+		// runs after the operations requested before, the keep-alive is not repeated after the shutdown
+		webExecutor.execute(() -> {
+			try {
+				if (session.isLoggedIn()) saveCookies();
+				engine.close();
+			} catch (IOException e) {
+				LOGGER.warn("", e);
+			}
+		});
+		webExecutor.shutdown();
+
+		// waited for with a limit, since the caller is the JavaFX thread
+		try {
+			if (!webExecutor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+				LOGGER.error("Timed out while closing the webserver session");
+				webExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			LOGGER.warn("", e);
+			webExecutor.shutdownNow();
+		}
 	}
 
 	String getLoginFailMessage() {
 		return loginFailMessage;
 	}
 
+	/**
+	 * The report of the latest data fetch, or null if no data was fetched since the application started. Updated on the
+	 * JavaFX thread after each fetch, whether it succeeded or not.
+	 */
+	final ReadOnlyObjectProperty<SyncReport> lastSyncReportProperty() {
+		return lastSyncReport.getReadOnlyProperty();
+	}
+
+	/**
+	 * Whether the webserver is considered down, in which case no requests are made to it for a while and data fetches
+	 * fail at once with a {@link ServerUnavailableException}. Updated on the JavaFX thread.
+	 */
+	final ReadOnlyBooleanProperty offlineProperty() {
+		return offline.getReadOnlyProperty();
+	}
+
+	/**
+	 * @return The time in milliseconds until requests are made to the webserver again, or 0 if it is not considered
+	 *         down
+	 */
+	long getOfflineDelay() {
+		return breaker.getRetryDelay();
+	}
+
 	/**
 	 * Tries to log on the webserver with the specified login details, returning true if succeeded, false if not.
 	 * @param userID The webserver user ID of the user to log on
 	 * @param password The webserver password of the user to log on
 	 * 
 	 * @return true if the user was successfully logged on the webserver, false otherwise
+	 * @throws ServerUnavailableException if the webserver is down
 	 * @throws FailingHttpStatusCodeException if the server returns a failing status code
 	 * @throws IOException if an IO problem occurs
 	 */
 	boolean verifyLogin(String userID, String password) throws FailingHttpStatusCodeException, IOException {
 		LOGGER.info("Verifying login information with the webserver...");
-		try {
-			login(userID, password);
-			LOGGER.info("Login information valid");
-			return true;
+		return onWebThread(() -> {
+			try {
+				probeServer();
+				login(userID, password);
+				LOGGER.info("Login information valid");
+				return true;
 
-		} catch (FailedLoginException e) {
-			LOGGER.info("Login verification failed. Server message: {}", e.getMessage());
-			return false;
-		}
+			} catch (FailedLoginException e) {
+				LOGGER.info("Login verification failed. Server message: {}", e.getMessage());
+				return false;
+			}
+		});
 	}
 
 	/**
@@ -117,41 +258,84 @@ final class WebManager {
 	 * The task fetches the logged-in user's data from the webserver and returns it in a {@link UserData} object. If the
 	 * task is canceled while the fetch is in progress, it will return null at its earliest convenience.
 	 * </p>
+	 * <p>
+	 * The fresh bills are also passed to the specified consumer as they are fetched, newest first, in batches of at most
+	 * {@link #BATCH_SIZE} bills. A batch is published at the latest {@link #BATCH_INTERVAL} after its first bill was
+	 * fetched, and the bills fetched before the task is canceled or fails are published as well. The consumer is called
+	 * on the web thread.
+	 * </p>
+	 * <p>
+	 * The fetch runs on the web thread, after any other operation on the webserver that was requested before it. The
+	 * task's own thread waits for it.
+	 * </p>
 	 * <h3>Task Exceptions</h3> Notable exceptions that the task may encounter include:
 	 * <ul>
 	 * <li>{@link FailedLoginException} - if the user could not be logged on the webserver</li>
+	 * <li>{@link ServerUnavailableException} - if the webserver is down, also if it goes down during the fetch. Requests
+	 * that fail with a transient error are repeated before they count as failed.</li>
 	 * <li>{@link FailingHttpStatusCodeException} - if the server returns a failing status code</li>
 	 * <li>{@link IOException} - if an IO problem occurs</li>
 	 * <li>{@link IllegalStateException} - if no user is logged on the application</li>
 	 * </ul>
+	 * @param billSink The consumer of the batches of fetched bills
 	 * @return The Task that, when started, will fetch user data from the webserver
 	 */
-	Task<UserData> fetchData() {
-		return new DataFetchTask();
+	Task<UserData> fetchData(Consumer<List<Bill>> billSink) {
+		return new DataFetchTask((bills, storedBills) -> billSink.accept(bills), false);
+	}
+
+	/**
+	 * Returns a {@link Task} that fetches user data from the webserver like {@link #fetchData(Consumer)}, but checks the
+	 * whole bill list instead of stopping at the first bill the user already has.
+	 * <p>
+	 * The bills listed on the webserver are compared with the user's stored bills month by month, by their
+	 * {@link BillDigest}s. Only the bills of the months whose digests differ are compared one by one, and only the
+	 * details of the bills that are missing or whose total cost differs are fetched. Bills the user edited are left
+	 * alone.
+	 * </p>
+	 * The stored bills the bill list was compared with are passed to the consumer along with each batch, by dateTime and
+	 * source, so the fetched bills can replace them without reading them again. The map is not modified.
+	 * @param billSink The consumer of the batches of fetched bills and the stored bills
+	 * @return The Task that, when started, will repair the user's data from the webserver
+	 */
+	Task<UserData> repairData(BiConsumer<List<Bill>, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill>> billSink) {
+		return new DataFetchTask(billSink, true);
+	}
+
+	/**
+	 * Requests the user to be logged off the webserver if one is thought to be logged in. The logout runs on the web
+	 * thread after the operations requested before it, so this method returns immediately and may be called on the
+	 * JavaFX thread. A failed logout is reported to the user.
+	 */
+	void logout() {
+		webExecutor.execute(() -> {
+			try {
+				endSession();
+			} catch (FailingHttpStatusCodeException | IOException e) {
+				Alerts.catching("Problem logging out of webserver", e, LOGGER);
+			}
+		});
 	}
 
 	/**
-	 * Logs the user off the webserver if one is thought to be logged in.
+	 * Logs the user off the webserver if one is thought to be logged in. While the webserver is down, the session is
+	 * only dropped locally. Runs on the web thread.
 	 * 
 	 * @throws FailingHttpStatusCodeException if the server returns a failing status code
 	 * @throws IOException if an IO problem occurs
 	 */
-	void logout() throws FailingHttpStatusCodeException, IOException {
-		if (!loggedIn) return;
+	private void endSession() throws FailingHttpStatusCodeException, IOException {
+		if (!session.isLoggedIn()) return;
 
 		LOGGER.info("Logging off the webserver...");
-		connect(URL_LOGOUT);
+		deleteCookies();
+		if (breaker.getState() == CircuitBreaker.State.CLOSED) connect(urlLogout);
+		else engine.clearCookies();
 
-		loggedIn = false;
-		loggedUserId = "";
+		session.loggedOut();
 		urlBills = null;
 	}
 
-	private String getCurrentUrl() {
-		if (currentPage == null) return "";
-		return currentPage.getUrl().toExternalForm();
-	}
-
 	/**
 	 * Logs a user on the webserver.
 	 * @param userID The webserver user ID of the user to log on
@@ -163,42 +347,43 @@ final class WebManager {
 	 * @throws IOException if an IO problem occurs
 	 */
 	private void login(String userID, String password) throws FailedLoginException, FailingHttpStatusCodeException, IOException {
-		logout();
-
-		LOGGER.info("Logging on the webserver...");
-		String result = connect(URL_STUDENT);
-		if (!result.startsWith(GENERIC_URL_LOGIN)) throw new IOException("Unexpected webserver response");
+		if (syncReport != null) syncReport.beginPhase(Phase.LOGIN);
+		try {
+			// the login form is only shown without a session
+			endSession();
 
-		HtmlForm loginForm = currentPage.getFormByName("f");
-		HtmlTextInput usernameInput = loginForm.getInputByName("username");
-		HtmlPasswordInput passwordInput = loginForm.getInputByName("password");
-		HtmlButton submitInput = loginForm.getButtonByName("Submit");
+			LOGGER.info("Logging on the webserver...");
+			String result = connect(urlStudent);
+			if (!result.startsWith(genericUrlLogin)) throw new IOException("Unexpected webserver response");
 
-		usernameInput.type(userID);
-		passwordInput.type(password);
+			String loginResponse = engine.submitLogin(userID, password);
 
-		String loginResponse = setCurrent(submitInput.click());
-		webClient.waitForBackgroundJavaScript(5000);
+			// checked first, since a stand-in login server may share the base URL of the website
+			if (loginResponse.startsWith(genericUrlLogin)) {
+				String errorMessage = engine.readLoginError();
 
-		if (loginResponse.startsWith(URL_BASE)) {
-			LOGGER.info("Login successful");
+				loginFailMessage = errorMessage;
+				throw new FailedLoginException(errorMessage);
 
-			loggedIn = true;
-			loggedUserId = userID;
-			loginFailMessage = "";
+			} else if (loginResponse.startsWith(urlBase)) {
+				session.loggedIn(userID);
+				if (syncReport != null) syncReport.recordLogin();
+				LOGGER.info("Login successful ({} logins since start)", session.getLoginCount());
 
-		} else if (loginResponse.startsWith(GENERIC_URL_LOGIN)) {
-			DomNode errorMsgContainer = currentPage.querySelector(".aai_messages_container");
-			String errorMessage = errorMsgContainer != null ? errorMsgContainer.asText() : "--";
+				loginFailMessage = "";
+				saveCookies();
 
-			loginFailMessage = errorMessage;
-			throw new FailedLoginException(errorMessage);
+			} else throw new IOException("Unexpected webserver response");
 
-		} else throw new IOException("Unexpected webserver response");
+		} finally {
+			if (syncReport != null) syncReport.endPhase();
+		}
 	}
 
 	/**
-	 * Connects to the specified URL ensuring that the user is logged on the webserver.
+	 * Connects to the specified URL ensuring that the user is logged on the webserver. The user is only logged in if the
+	 * server redirects to the login page. If the current page was received from the URL just before, it is reused
+	 * instead.
 	 * @param url The string from of the URL to connect to
 	 * @return The URL string of the received page
 	 * 
@@ -209,17 +394,28 @@ final class WebManager {
 	 * @throws IllegalStateException if no user is logged on the application
 	 */
 	private String connectLoggedIn(String url) throws FailedLoginException, FailingHttpStatusCodeException, MalformedURLException, IOException {
-		if (url.startsWith(GENERIC_URL_LOGIN)) throw new IllegalArgumentException("Trying to connect logged-in to the login URL makes no sense");
+		if (url.startsWith(genericUrlLogin)) throw new IllegalArgumentException("Trying to connect logged-in to the login URL makes no sense");
 
-		User user = App.userManager.getUser();
+		User user = host.getUser();
 		if (user == null) throw new IllegalStateException("No user is logged on the application");
 
+		// the session of another user would be mistaken for the user's
+		if (session.isLoggedIn() && !session.isOf(user.getUserID())) {
+			LOGGER.warn("Logged-in user mismatch between server and application!");
+			endSession();
+		}
+
+		if (session.canReusePage(user.getUserID(), PAGE_REUSE_TIME) && engine.getCurrentUrl().equals(url)) {
+			LOGGER.debug("Reusing the page received from {}", url);
+			return url;
+		}
+
 		String currentUrl = connect(url);
 
-		if (!Objects.equals(user.getUserID(), loggedUserId) || currentUrl.startsWith(GENERIC_URL_LOGIN)) {
+		if (currentUrl.startsWith(genericUrlLogin)) {
 			LOGGER.info("Not logged on the server. Will attempt login...");
 
-			login(App.userManager.getUser().getUserID(), App.userManager.getUserPassword());
+			login(user.getUserID(), host.getUserPassword());
 			currentUrl = connect(url);
 		}
 
@@ -237,58 +433,220 @@ final class WebManager {
 	 */
 	private String connect(String url) throws FailingHttpStatusCodeException, MalformedURLException, IOException {
 		LOGGER.info("Connecting to {}", url);
-		String current = setCurrent(webClient.getPage(url));
-		webClient.waitForBackgroundJavaScript(5000);
-		return current;
+		String currentUrl = engine.connect(url);
+		if (currentUrl.startsWith(genericUrlLogin)) {
+			if (session.isLoggedIn()) LOGGER.info("The webserver session has expired");
+			session.expired();
+		} else if (session.isLoggedIn()) {
+			session.touch();
+		}
+		return currentUrl;
+	}
+
+	/**
+	 * Checks that a connection to the webserver can be opened, which fails fast if the network or the server is down,
+	 * unlike a page request that waits for its timeouts. The webserver is considered down if it can not be reached.
+	 * @throws ServerUnavailableException if the webserver is considered down, or turns out to be unreachable
+	 */
+	private void probeServer() throws ServerUnavailableException {
+		if (!breaker.allowRequest()) throw new ServerUnavailableException(breaker.getRetryDelay(), null);
+
+		try (Socket socket = new Socket()) {
+			URL url = new URL(urlBase);
+			socket.connect(new InetSocketAddress(url.getHost(), url.getPort() != -1 ? url.getPort() : url.getDefaultPort()), PROBE_TIMEOUT);
+		} catch (IOException e) {
+			LOGGER.warn("The webserver can not be reached: {}", e.toString());
+			breaker.trip();
+			throw new ServerUnavailableException(breaker.getRetryDelay(), e);
+		}
+	}
+
+	/**
+	 * Requests the student page if the session has been idle for a while, so that the server does not expire it
+	 * between data fetches. Runs on the web thread.
+	 */
+	private void keepAlive() {
+		if (!session.needsKeepAlive(KEEP_ALIVE_INTERVAL)) return;
+		if (breaker.getState() != CircuitBreaker.State.CLOSED || host.getUser() == null) return;
+		try {
+			LOGGER.debug("Keeping the webserver session alive");
+			connect(urlStudent);
+		} catch (Exception e) {
+			LOGGER.warn("Could not keep the webserver session alive", e);
+		}
 	}
 
-	private String setCurrent(HtmlPage page) {
-		this.currentPage = page;
-		return getCurrentUrl();
+	/**
+	 * Runs the specified operation on the web thread and waits for it. Operations requested while another one runs wait
+	 * for their turn. If called on the web thread, the operation runs at once.
+	 * @return The result of the operation
+	 * @throws X1 if the operation fails with it
+	 * @throws X2 if the operation fails with it
+	 * @throws InterruptedIOException if interrupted while waiting, in which case the operation is interrupted as well
+	 */
+	private <T, X1 extends Exception, X2 extends Exception> T onWebThread(WebCall<T, X1, X2> call) throws X1, X2, InterruptedIOException {
+		if (Thread.currentThread() == webThread) return call.call();
+
+		Future<T> future = webExecutor.submit(call::call);
+		try {
+			return future.get();
+
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the webserver operation");
+
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			// the operation only throws unchecked exceptions, X1 and X2, so the cause is one of them
+			@SuppressWarnings("unchecked")
+			X1 failure = (X1) cause;
+			throw failure;
+		}
 	}
 
-	/*private void saveCookies() {
+	/**
+	 * Persists the cookies of the logged-in user's webserver session, so that the session can be resumed on the next
+	 * start.
+	 */
+	private void saveCookies() {
 		LOGGER.debug("Saving cookies");
-		App.ioManager.writeObject(webClient.getCookieManager().getCookies(), App.ioManager.getPath(IOManager.F_COOKIE_STORE));
+		try {
+			new CookieJar(session.getUserID(), engine.getCookies()).write(host.getCookieFile());
+		} catch (IOException e) {
+			LOGGER.warn("Could not save cookies", e);
+		}
 	}
-	
+
+	/**
+	 * Restores the persisted webserver session, if there is one. The session is assumed to be valid until the server
+	 * redirects to the login page.
+	 */
 	private void loadCookies() {
 		LOGGER.debug("Loading cookies");
-		Path cookiesFile = App.ioManager.getPath(IOManager.F_COOKIE_STORE);
-		if (Files.exists(cookiesFile)) {
-			@SuppressWarnings("unchecked")
-			Set<Cookie> cookies = (Set<Cookie>) App.ioManager.readObject(cookiesFile);
-			for (Cookie cookie : cookies) {
-				webClient.getCookieManager().addCookie(cookie);
+		try {
+			CookieJar jar = CookieJar.read(host.getCookieFile());
+			if (jar == null || jar.getCookies().isEmpty()) return;
+
+			engine.addCookies(jar.getCookies());
+			session.restored(jar.getUserID());
+
+		} catch (IOException e) {
+			LOGGER.warn("Could not load cookies", e);
+			deleteCookies();
+		}
+	}
+
+	private void deleteCookies() {
+		try {
+			Files.deleteIfExists(host.getCookieFile());
+		} catch (IOException e) {
+			LOGGER.warn("Could not delete cookies", e);
+		}
+	}
+
+	/**
+	 * Compares the rows of the bills table with the bills of the specified user, from the newest row up to the first row
+	 * of a bill the user already has unchanged, as the bills below it are not fresh either. Bills the user edited are
+	 * left alone. A bill counts as changed if the total cost listed in its row differs from the user's bill, in which
+	 * case its cached details are dropped.
+	 * @param billRows The rows of the bills table, newest first
+	 * @param user The user whose bills the rows are compared with
+	 * @param detailCache The cache of the details of the user's bills
+	 * @return The rows of the bills whose details need to be fetched, newest first
+	 */
+	static PriorityQueue<BillRow> diffBillRows(List<BillRow> billRows, User user, DetailCache detailCache) {
+		final PriorityQueue<BillRow> staleRows = new PriorityQueue<>(Math.max(1, billRows.size()), NEWEST_FIRST);
+
+		for (BillRow row : billRows) {
+			Bill existingBill = user.findBill(row.getDateTime(), row.getSource());
+			if (existingBill == null) {
+				staleRows.add(row);
+
+			} else if (existingBill.isEdited()) {
+				LOGGER.info("Skipping bill {}", row.getIndex() + 1);
+
+			} else if (row.differsFrom(existingBill)) {
+				LOGGER.info("Bill {} changed on the webserver", row.getIndex() + 1);
+				detailCache.invalidate(row);
+				staleRows.add(row);
+
+			} else {
+				LOGGER.debug("Reached end of fresh bills at row {}", row.getIndex() + 1);
+				break;
 			}
 		}
-	}*/
+		return staleRows;
+	}
 
 
 	private class DataFetchTask extends Task<UserData> {
+		private final BiConsumer<List<Bill>, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill>> billSink;
+		/** Whether the whole bill list is reconciled with the stored bills */
+		private final boolean repair;
+		/** The stored bills the bill list was reconciled with, by dateTime and source, or null if it was not */
+		private Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedBills;
+		private final List<Bill> pendingBills = new ArrayList<>(BATCH_SIZE);
+		private long batchStart;
+		private DetailCache detailCache;
+		/** The number of bill details taken from the cache instead of fetched */
+		private int cachedDetails;
+
+		DataFetchTask(BiConsumer<List<Bill>, Map<SimpleImmutableEntry<LocalDateTime, String>, Bill>> billSink, boolean repair) {
+			this.billSink = billSink;
+			this.repair = repair;
+		}
 
 		@Override
 		protected UserData call() throws FailedLoginException, FailingHttpStatusCodeException, IOException {
+			// the exception types are given, since inferring them would merge them into Exception
+			return WebManager.this.<UserData, FailedLoginException, IOException>onWebThread(this::fetchReported);
+		}
 
-			final User mainUser = App.userManager.getUser();
+		/**
+		 * Fetches the data, recording the fetch in a {@link SyncReport}. Runs on the web thread.
+		 */
+		private UserData fetchReported() throws FailedLoginException, FailingHttpStatusCodeException, IOException {
+			final SyncReport report = new SyncReport(repair, engineName, engine);
+			syncReport = report;
+			try {
+				UserData userData = fetch();
+				report.finish(userData == null ? Outcome.CANCELED : Outcome.SUCCEEDED, null);
+				return userData;
+
+			} catch (FailedLoginException | IOException | RuntimeException e) {
+				report.finish(Outcome.FAILED, e);
+				throw e;
+
+			} finally {
+				syncReport = null;
+				LOGGER.info("Webserver session after data fetch: {}", session);
+				publishReport(report);
+			}
+		}
+
+		private UserData fetch() throws FailedLoginException, FailingHttpStatusCodeException, IOException {
+			final User mainUser = host.getUser();
 			if (mainUser == null) throw new IllegalStateException("No user is logged on the application");
 
 			LOGGER.info("Fetching user data");
-			updateTitle("Preuzimanje podataka");
-
-			// If somehow there is a user change and we have the wrong user logged on the server, we log out so the
-			// correct user logs in later
-			if (!mainUser.getUserID().equals(loggedUserId)) {
-				LOGGER.warn("Logged-in user mismatch between server and application!");
-				logout();
-			}
+			updateTitle(repair ? "Popravak podataka" : "Preuzimanje podataka");
 
 			if (cancelCheck()) return null;
 
+			probeServer();
 			final UserData userData = new UserData(mainUser.getUserID());
 
 			updateMessage("Preuzimam opće podatke...");
-			boolean success = fetchGeneralData(userData);
+			syncReport.beginPhase(Phase.GENERAL_DATA);
+			boolean success;
+			try {
+				success = fetchGeneralData(userData);
+			} finally {
+				syncReport.endPhase();
+			}
 
 			if (cancelCheck()) return null;
 
@@ -297,7 +655,9 @@ final class WebManager {
 			if (cancelCheck()) return null;
 
 			if (!success) {
-				Alerts.warn("Problem pri preuzimanju podataka. Neki podaci možda nisu ispravni!");
+				// the user is told by whoever waits for the fetch, which may be running in the background
+				LOGGER.warn("Some of the user data could not be read, the fetched data may be incomplete");
+				syncReport.recordIncomplete();
 			}
 
 			return userData;
@@ -305,27 +665,12 @@ final class WebManager {
 
 		private boolean fetchGeneralData(UserData userData) throws FailedLoginException, FailingHttpStatusCodeException, IOException {
 			boolean success = true;
-			String resultUrl = connectLoggedIn(URL_STUDENT);
+			String resultUrl = connectLoggedIn(urlStudent);
 
-			if (resultUrl.startsWith(URL_STUDENT)) {
+			if (resultUrl.startsWith(urlStudent)) {
 				try {
-					DomNode node_testimonialCard = currentPage.querySelector(".testimonial-card");
-
-					DomNode node_fullName = node_testimonialCard.getFirstByXPath(".//div[3]/h4");
-					userData.setFullName(node_fullName.asText());
-
-					DomNode node_institution = node_testimonialCard.getFirstByXPath(".//div[3]/h5");
-					userData.setInstitution(node_institution.asText());
-
-					DomNode node_privilege = node_testimonialCard.getFirstByXPath(".//div[3]/div[1]/div[1]/p[2]");
-					userData.setPrivilege(node_privilege.asText());
-
-					DomNode node_availableFunds = node_testimonialCard.getFirstByXPath(".//div[3]/div[1]/div[2]/p[2]");
-					final String fundsRaw = node_availableFunds.asText();
-					userData.setAvailableFunds(FLOAT_FORMAT.parse(fundsRaw.substring(0, fundsRaw.lastIndexOf(" "))).floatValue());
-
-					String href = ((DomNode) node_testimonialCard.getFirstByXPath(".//div[3]/a")).getAttributes().getNamedItem("href").getTextContent();
-					urlBills = GENERIC_URL_BILLS.concat(href.substring(href.indexOf('?')));
+					String href = engine.readGeneralData(userData);
+					urlBills = genericUrlBills.concat(href.substring(href.indexOf('?')));
 
 				} catch (ParseException e) {
 					LOGGER.warn("Parse exception on data fetch", e);
@@ -344,89 +689,226 @@ final class WebManager {
 			if (urlBills == null || urlBills.isEmpty()) throw new IllegalStateException("'urlBills' is unknown. Cannot fetch bills");
 
 			boolean success = true;
+			ServerUnavailableException unavailable = null;
+			syncReport.beginPhase(Phase.BILL_LIST);
 			String resultUrl = connectLoggedIn(urlBills);
 
-			if (resultUrl.startsWith(GENERIC_URL_BILLS)) {
-				final DomNodeList<DomNode> billRows = currentPage.querySelectorAll(".table > tbody:nth-child(2) > tr");
-				final int totalBills = billRows.getLength();
-				int c = 0;
+			if (resultUrl.startsWith(genericUrlBills)) {
+				final User user = host.getUser();
+				final List<BillRow> billRows = engine.readBillRows();
+				detailCache = new DetailCache(host.getDetailCacheDir(user.getUserID()));
 
-				final ArrayList<Bill> bills = new ArrayList<Bill>(totalBills);
+				final PriorityQueue<BillRow> staleRows = repair ? reconcileBillRows(billRows) : diffBillRows(billRows, user, detailCache);
+				LOGGER.info("{} of {} listed bills are new or changed", staleRows.size(), billRows.size());
+				syncReport.recordBillList(billRows.size(), staleRows.size());
+				syncReport.endPhase();
+				final ArrayList<Bill> bills = new ArrayList<Bill>(staleRows.size());
 
+				syncReport.beginPhase(Phase.DETAILS);
 				try {
-					for (DomNode row : billRows) {
-						c++;
+					final int concurrency = Math.min(host.getFetchConcurrency(), staleRows.size());
+					if (concurrency > 1 && hasDetailUrls(staleRows)) success = fetchBillsParallel(staleRows, concurrency, bills);
+					else success = fetchBillsSequential(staleRows, bills);
 
-						if (cancelCheck()) return false;
+				} catch (ServerUnavailableException e) {
+					unavailable = e;
+				} catch (Exception e) {
+					LOGGER.warn("Exception while fetching bill data", e);
+					success = false;
+				}
+				syncReport.endPhase();
+				syncReport.recordDetails(Math.max(0, bills.size() - cachedDetails), cachedDetails);
 
-						DomNodeList<DomNode> cells = row.querySelectorAll("td");
+				// whatever was fetched is kept, even if the fetch was canceled or failed
+				publishBills();
+				userData.setBills(bills);
+				// the app goes offline rather than showing a partial fetch as a success
+				if (unavailable != null) throw unavailable;
 
-						String source = cells.get(0).asText();
-						String date = cells.get(1).asText();
-						String time = cells.get(2).asText();
-						LocalDateTime dateTime = LocalDateTime.parse(date + ". " + time, UIManager.SERVER_DATE_TIME_FORMATTER);
+			} else {
+				syncReport.endPhase();
+				LOGGER.warn("Unexpected server response to data fetch\n\tReceived: {}\n\twhen expected URL_BILLS", resultUrl);
+				success = false;
+			}
 
-						Bill bill = new Bill(dateTime, source);
+			return success;
+		}
 
-						LOGGER.debug("Pulling bill details {}/{}", c, totalBills);
+		/**
+		 * Compares the rows of the bills table with the stored bills of the user month by month, and row by row in the
+		 * months whose {@link BillDigest}s differ. Bills the user edited are left alone. A bill counts as changed if the
+		 * total cost listed in its row differs from the stored bill, in which case its cached details are dropped.
+		 * The stored bills are kept to be published along with the fetched bills.
+		 * @return The rows of the bills whose details need to be fetched, newest first
+		 * @throws IOException if the stored bills can not be read
+		 */
+		private PriorityQueue<BillRow> reconcileBillRows(List<BillRow> billRows) throws IOException {
+			final PriorityQueue<BillRow> staleRows = new PriorityQueue<>(Math.max(1, billRows.size()), NEWEST_FIRST);
+			if (billRows.isEmpty()) return staleRows;
+
+			updateMessage("Provjeravam račune...");
+			final SortedMap<YearMonth, BillDigest> serverDigests = BillDigest.ofRows(billRows);
+			final List<Bill> storedBills;
+			try {
+				storedBills = host.queryBills(serverDigests.firstKey().atDay(1).atStartOfDay(),
+						serverDigests.lastKey().plusMonths(1).atDay(1).atStartOfDay(), null);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return staleRows;
+			}
+			final SortedMap<YearMonth, BillDigest> storedDigests = BillDigest.ofBills(storedBills);
 
-						HtmlAnchor detailsBtn = (HtmlAnchor) cells.get(6).querySelector("a");
-						HtmlPage detailsPage = detailsBtn.click();
+			final Set<YearMonth> staleMonths = new HashSet<>();
+			for (Map.Entry<YearMonth, BillDigest> entry : serverDigests.entrySet()) {
+				if (!entry.getValue().equals(storedDigests.get(entry.getKey()))) staleMonths.add(entry.getKey());
+			}
+			LOGGER.info("{} of {} months differ from the stored bills", staleMonths.size(), serverDigests.size());
+			if (staleMonths.isEmpty()) return staleRows;
 
-						int stillExec = webClient.waitForBackgroundJavaScript(5000);
-						if (stillExec > 0) {
-							LOGGER.warn("Background javascript still executing after timeout (count: {})" + stillExec);
-							success = false;
-						}
+			final Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedByKey = new HashMap<>(storedBills.size() * 2);
+			for (Bill bill : storedBills) {
+				storedByKey.put(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource()), bill);
+			}
+			this.storedBills = Collections.unmodifiableMap(storedByKey);
 
-						DomNodeList<DomNode> detailRows = detailsPage.querySelectorAll(".table > tbody:nth-child(2) > tr:nth-last-child(n+2)");
-						for (DomNode detailRow : detailRows) {
+			for (BillRow row : billRows) {
+				if (!staleMonths.contains(YearMonth.from(row.getDateTime()))) continue;
 
-							DomNodeList<DomNode> detailCells = detailRow.querySelectorAll("td");
+				Bill storedBill = storedByKey.get(new SimpleImmutableEntry<>(row.getDateTime(), row.getSource()));
+				if (storedBill == null) {
+					staleRows.add(row);
 
-							String articleName = detailCells.get(0).asText();
-							int amount = Integer.parseInt(detailCells.get(1).asText());
-							float articlePrice = FLOAT_FORMAT.parse(detailCells.get(2).asText()).floatValue();
-							float subsidy = FLOAT_FORMAT.parse(detailCells.get(4).asText()).floatValue();
+				} else if (!storedBill.isEdited() && row.differsFrom(storedBill)) {
+					LOGGER.info("Bill {} differs from the stored bill", row.getIndex() + 1);
+					detailCache.invalidate(row);
+					staleRows.add(row);
+				}
+			}
+			return staleRows;
+		}
 
-							bill.addEntry(articleName, articlePrice, amount, subsidy);
-						}
+		/**
+		 * Fetches the details of the specified bill rows one by one in order of priority, taking those that are cached
+		 * from the cache.
+		 * @return true if no problem was encountered
+		 */
+		private boolean fetchBillsSequential(PriorityQueue<BillRow> billRows, List<Bill> bills) throws Exception {
+			final int totalBills = billRows.size();
+			boolean success = true;
+			int c = 0;
 
-						boolean shouldAdd = true;
-						boolean shouldStop = false;
-						for (Bill existingBill : App.userManager.getUser().getBills()) {
-							if (bill.equals(existingBill)) {
-								shouldStop = true;
+			BillRow row;
+			while ((row = billRows.poll()) != null) {
+				c++;
 
-							} else if (bill.isSameTimePlace(existingBill) && existingBill.isEdited()) {
-								shouldAdd = false;
-							}
-						}
+				if (cancelCheck()) return false;
 
-						if (shouldStop) {
-							LOGGER.debug("Reached end of fresh bills. Stopping bill fetch");
-							break;
+				Bill bill = row.toBill();
+
+				DetailCache.Record cached = detailCache.get(row);
+				if (cached != null) {
+					cached.fill(bill);
+					cachedDetails++;
+
+				} else {
+					LOGGER.debug("Pulling bill details {}/{}", c, totalBills);
+
+					DetailCache.Validators validators = new DetailCache.Validators();
+					if (engine.fetchDetails(row, bill, validators)) detailCache.put(bill, validators);
+					else success = false;
+				}
+
+				collectBill(bill, c, bills);
+			}
+
+			return success;
+		}
+
+		/**
+		 * Fetches the details of the specified bill rows concurrently over a {@link DetailFetcher}. The rows are submitted
+		 * in order of priority and the fetched bills are collected in the same order.
+		 * @return true if no problem was encountered
+		 */
+		private boolean fetchBillsParallel(PriorityQueue<BillRow> billRows, int concurrency, List<Bill> bills) throws Exception {
+			final int totalBills = billRows.size();
+			LOGGER.debug("Pulling details of {} bills over {} sessions", totalBills, concurrency);
+
+			try (DetailFetcher fetcher = new DetailFetcher(engine, detailCache, concurrency, new RateLimiter(host.getFetchRate(), concurrency))) {
+				final List<Future<Bill>> fetches = new ArrayList<>(totalBills);
+				BillRow row;
+				while ((row = billRows.poll()) != null) {
+					fetches.add(fetcher.submit(row, row.toBill()));
+				}
+
+				try {
+					for (int c = 1; c <= totalBills; c++) {
+						if (cancelCheck()) return false;
+
+						Bill bill;
+						try {
+							bill = fetches.get(c - 1).get();
+						} catch (ExecutionException e) {
+							throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
 						}
 
-						if (shouldAdd) {
-							bills.add(bill);
-							updateMessage("Preuzeto računa: " + c);
-						} else LOGGER.info("Skipping bill {}", c);
+						collectBill(bill, c, bills);
 					}
 
-				} catch (Exception e) {
-					LOGGER.warn("Exception while fetching bill data", e);
-					success = false;
+					return fetcher.getUnsettledCount() == 0;
+
+				} finally {
+					cachedDetails = fetcher.getCachedCount();
 				}
+			}
+		}
 
-				userData.setBills(bills);
+		/**
+		 * @return true if the details of all specified bill rows have their own URL, so they can be fetched concurrently
+		 */
+		private boolean hasDetailUrls(Collection<BillRow> billRows) {
+			for (BillRow row : billRows) {
+				if (row.getDetailUrl() == null) {
+					LOGGER.debug("Bill details are not linked directly. Falling back to sequential fetch");
+					return false;
+				}
+			}
+			return true;
+		}
 
-			} else {
-				LOGGER.warn("Unexpected server response to data fetch\n\tReceived: {}\n\twhen expected URL_BILLS", resultUrl);
-				success = false;
+		/**
+		 * Adds the specified fetched bill to the fresh bills and publishes it once its batch is complete.
+		 */
+		private void collectBill(Bill bill, int c, List<Bill> bills) {
+			bills.add(bill);
+			updateMessage("Preuzeto računa: " + c);
+
+			if (pendingBills.isEmpty()) batchStart = System.currentTimeMillis();
+			pendingBills.add(bill);
+			if (pendingBills.size() >= BATCH_SIZE || System.currentTimeMillis() - batchStart >= BATCH_INTERVAL) publishBills();
+		}
+
+		/**
+		 * Writes the specified finished report to the sync history and publishes it as the report of the latest fetch.
+		 */
+		private void publishReport(SyncReport report) {
+			LOGGER.info("Data fetch report: {}", report);
+			report.setTypicalMillis(syncHistory.getTypicalMillis());
+			try {
+				syncHistory.append(report);
+			} catch (IOException e) {
+				LOGGER.warn("Could not write the sync history", e);
 			}
+			host.runFx(() -> lastSyncReport.set(report));
+		}
 
-			return success;
+		/**
+		 * Passes the bills fetched since the last batch to the bill consumer.
+		 */
+		private void publishBills() {
+			if (pendingBills.isEmpty()) return;
+			List<Bill> batch = new ArrayList<>(pendingBills);
+			pendingBills.clear();
+			billSink.accept(batch, storedBills);
 		}
 
 		@Override
@@ -448,4 +930,113 @@ final class WebManager {
 
 	}
 
-}
\ No newline at end of file
+	/**
+	 * An operation on the webserver, run on the web thread.
+	 * @param <T> The type of the result of the operation
+	 * @param <X1> The type of an exception the operation may fail with
+	 * @param <X2> The type of another exception the operation may fail with
+	 */
+	@FunctionalInterface
+	private interface WebCall<T, X1 extends Exception, X2 extends Exception> {
+		T call() throws X1, X2;
+	}
+
+	/**
+	 * The application a {@link WebManager} works for: the logged-in user and the user's stored bills, the files the
+	 * webserver session is kept in and the settings of the data fetches.
+	 */
+	interface Host {
+		/**
+		 * @return The logged-in user, or null if no user is logged in
+		 */
+		User getUser();
+
+		String getUserPassword();
+
+		/**
+		 * @see UserManager#queryBills(LocalDateTime, LocalDateTime, String)
+		 */
+		List<Bill> queryBills(LocalDateTime from, LocalDateTime to, String source) throws IOException, InterruptedException;
+
+		Path getCookieFile();
+
+		Path getSyncHistoryFile();
+
+		Path getDetailCacheDir(String userID);
+
+		ScrapeEngine createScrapeEngine();
+
+		/**
+		 * @return The largest number of bill details fetched at the same time
+		 */
+		int getFetchConcurrency();
+
+		/**
+		 * @return The largest number of bill details requested per second
+		 */
+		double getFetchRate();
+
+		/**
+		 * Runs the specified action on the JavaFX thread, which the properties of the manager are changed on.
+		 */
+		void runFx(Runnable runnable);
+	}
+
+	/**
+	 * The host of the running application, which reads the user from the {@link UserManager}, the files from the
+	 * {@link IOManager} and the settings from the preferences.
+	 */
+	private static final class AppHost implements Host {
+		@Override
+		public User getUser() {
+			return App.userManager.getUser();
+		}
+
+		@Override
+		public String getUserPassword() {
+			return App.userManager.getUserPassword();
+		}
+
+		@Override
+		public List<Bill> queryBills(LocalDateTime from, LocalDateTime to, String source) throws IOException, InterruptedException {
+			return App.userManager.queryBills(from, to, source);
+		}
+
+		@Override
+		public Path getCookieFile() {
+			return App.ioManager.getPath(IOManager.F_COOKIE_STORE);
+		}
+
+		@Override
+		public Path getSyncHistoryFile() {
+			return App.ioManager.getPath(IOManager.F_SYNC_HISTORY);
+		}
+
+		@Override
+		public Path getDetailCacheDir(String userID) {
+			return App.ioManager.getUserDetailCacheDir(userID);
+		}
+
+		@Override
+		public ScrapeEngine createScrapeEngine() {
+			if (Pref.ENGINE_HTTP.equals(Pref.getScrapeEngine())) return new HttpScrapeEngine();
+			return new HtmlUnitScrapeEngine();
+		}
+
+		@Override
+		public int getFetchConcurrency() {
+			return Pref.getFetchConcurrency();
+		}
+
+		@Override
+		public double getFetchRate() {
+			return Pref.getFetchRate();
+		}
+
+		@Override
+		public void runFx(Runnable runnable) {
+			App.runFx(runnable);
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package altline.unistat;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The state of the application's session on the webserver, as far as {@link WebManager} knows it.
+ * <p>
+ * A session is either logged out, restored from the previous run of the application and not yet confirmed by the
+ * server, or active. The time of the last request made in the session is tracked, so that an idle session can be kept
+ * alive and a page that was just received can be reused. The number of logins, logouts, resumed sessions and detected
+ * expiries are counted, so that redundant login round trips show up in the log.
+ * </p>
+ * The session can be read and updated from several threads at once.
+ */
+final class WebSession {
+
+	enum State {
+		LOGGED_OUT,
+		/** Restored from the previous run of the application and not yet confirmed by the server */
+		RESTORED,
+		ACTIVE
+	}
+
+	/** Tells the current time in milliseconds */
+	private final LongSupplier clock;
+
+	private State state = State.LOGGED_OUT;
+	private String userID = "";
+	private long lastActivity;
+
+	private int logins;
+	private int logouts;
+	private int resumes;
+	private int expiries;
+
+	WebSession() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * @param clock Tells the current time in milliseconds
+	 */
+	WebSession(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return true if the server is thought to have a session, which is so until it redirects to the login page
+	 */
+	synchronized boolean isLoggedIn() {
+		return state != State.LOGGED_OUT;
+	}
+
+	/**
+	 * @return The user the session belongs to, or an empty string if there is no session
+	 */
+	synchronized String getUserID() {
+		return userID;
+	}
+
+	/**
+	 * @return true if the session belongs to the specified user
+	 */
+	synchronized boolean isOf(String userID) {
+		return state != State.LOGGED_OUT && this.userID.equals(userID);
+	}
+
+	/**
+	 * @return The time in milliseconds since the last request made in the session
+	 */
+	synchronized long getIdleTime() {
+		return clock.getAsLong() - lastActivity;
+	}
+
+	/**
+	 * @param userID The user the page is requested for
+	 * @param reuseTime The time in milliseconds for which a received page is reused
+	 * @return true if a page the session just received can be reused for the specified user instead of being requested
+	 *         again
+	 */
+	synchronized boolean canReusePage(String userID, long reuseTime) {
+		return isOf(userID) && getIdleTime() < reuseTime;
+	}
+
+	/**
+	 * @param interval The idle time in milliseconds after which the session is kept alive
+	 * @return true if the session is known to be active, but has been idle long enough for the server to expire it
+	 */
+	synchronized boolean needsKeepAlive(long interval) {
+		return state == State.ACTIVE && getIdleTime() >= interval;
+	}
+
+	/**
+	 * Records that the session of the specified user was restored from the previous run of the application.
+	 */
+	synchronized void restored(String userID) {
+		this.state = State.RESTORED;
+		this.userID = userID;
+	}
+
+	/**
+	 * Records that the specified user was logged on the webserver with the login form.
+	 */
+	synchronized void loggedIn(String userID) {
+		this.state = State.ACTIVE;
+		this.userID = userID;
+		this.lastActivity = clock.getAsLong();
+		logins++;
+	}
+
+	/**
+	 * Records that the server accepted the restored session.
+	 */
+	synchronized void resumed() {
+		this.state = State.ACTIVE;
+		this.lastActivity = clock.getAsLong();
+		resumes++;
+	}
+
+	/**
+	 * Records that a request was made in the session without the server redirecting to the login page.
+	 */
+	synchronized void touch() {
+		if (state == State.RESTORED) resumed();
+		this.lastActivity = clock.getAsLong();
+	}
+
+	/**
+	 * Records that the user was logged off the webserver.
+	 */
+	synchronized void loggedOut() {
+		if (state != State.LOGGED_OUT) logouts++;
+		reset();
+	}
+
+	/**
+	 * Records that the server redirected to the login page, so the session is gone.
+	 */
+	synchronized void expired() {
+		if (state != State.LOGGED_OUT) expiries++;
+		reset();
+	}
+
+	/**
+	 * @return The number of times the login form was submitted since the application started
+	 */
+	synchronized int getLoginCount() {
+		return logins;
+	}
+
+	/**
+	 * @return The number of restored sessions the server accepted since the application started
+	 */
+	synchronized int getResumeCount() {
+		return resumes;
+	}
+
+	/**
+	 * @return The number of times the server was found to have expired the session since the application started
+	 */
+	synchronized int getExpiryCount() {
+		return expiries;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("WebSession [state=%s, logins=%d, resumes=%d, logouts=%d, expiries=%d]", state, logins, resumes, logouts,
+				expiries);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void reset() {
+		this.state = State.LOGGED_OUT;
+		this.userID = "";
+	}
+
+}
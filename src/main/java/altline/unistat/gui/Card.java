@@ -0,0 +1,14 @@
+package altline.unistat.gui;
+
+/**
+ * The controller of a card of the {@link GuiBase}. Cards observe the user they were loaded for, which usually outlives
+ * them, so they stop observing it when the GUI is discarded.
+ */
+interface Card {
+
+	/**
+	 * Detaches the listeners this card registered on the user and the application.
+	 */
+	void dispose();
+
+}
@@ -1,11 +1,14 @@
 package altline.unistat.gui;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import altline.unistat.App;
-import altline.unistat.Bill;
+import altline.unistat.BillAggregates;
+import altline.unistat.BillAggregates.ArticleTotals;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.property.FloatProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
@@ -14,7 +17,6 @@ import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
-import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.SortedList;
 import javafx.event.EventHandler;
@@ -31,10 +33,13 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.Tooltip;
 import javafx.scene.input.MouseEvent;
 
-public class GuiArticleStats {
+public class GuiArticleStats implements Card {
 
 	private final ObservableList<ArticleSummation> distinctArticles = FXCollections.observableArrayList();
 
+	private BillAggregates aggregates;
+	private final InvalidationListener aggregatesListener = obs -> Platform.runLater(() -> populate());
+
 	@FXML
 	private TableView<ArticleSummation> articlesTable;
 
@@ -117,31 +122,22 @@ public class GuiArticleStats {
 		articleAmountChart.setStyle("CHART_COLOR_1: CHART_COLOR_2;");
 		sourceChart.setStartAngle(150);
 
-		App.userManager.getUser().getElementObservableBills()
-				.addListener((Change<? extends Bill> c) -> {
-					Platform.runLater(() -> populate());
-				});
+		aggregates = App.userManager.getUser().getAggregates();
+		aggregates.addListener(aggregatesListener);
 
 		populate();
 	}
 
+	@Override
+	public void dispose() {
+		aggregates.removeListener(aggregatesListener);
+	}
+
 	private void populate() {
 		distinctArticles.clear();
-		for (Bill bill : App.userManager.getUser().getBills()) {
-			for (Bill.Entry entry : bill.getEntries()) {
-
-				boolean alreadyAdded = false;
-				for (ArticleSummation distinctArticle : distinctArticles) {
-					if (entry.getArticleName().equals(distinctArticle.name.get())) {
-						alreadyAdded = true;
-						break;
-					}
-				}
-				if (!alreadyAdded) {
-					distinctArticles.add(new ArticleSummation(entry.getArticleName()));
-				}
-			}
-		}
+		App.userManager.getUser().getAggregates().getArticles().forEach((name, totals) -> {
+			distinctArticles.add(new ArticleSummation(name, totals));
+		});
 		distinctArticles.sort((o1, o2) -> {
 			return o1.cost.get() > o2.cost.get() ? 1 : o1.cost.get() < o2.cost.get() ? -1 : 0;
 		});
@@ -201,19 +197,9 @@ public class GuiArticleStats {
 		lblNoSubsidyCost.textProperty().bind(article.cost.subtract(article.subsidy).asString("%.2f"));
 		lblSubsidy.textProperty().bind(article.subsidy.asString("%.2f"));
 
-		HashMap<String, Integer> amountMap = new HashMap<>();
-		for (Bill bill : App.userManager.getUser().getBills()) {
-			for (Bill.Entry entry : bill.getEntries()) {
-
-				if (article.name.get().equals(entry.getArticleName())) {
-					amountMap.merge(bill.getSource(), entry.getAmount(), Integer::sum);
-				}
-			}
-		}
-
 		sourceChart.getData().clear();
-		amountMap.keySet().stream().sorted().forEach(source -> {
-			sourceChart.getData().add(new PieChart.Data(source, amountMap.get(source)));
+		article.amountBySource.forEach((source, amount) -> {
+			sourceChart.getData().add(new PieChart.Data(source, amount));
 		});
 		sourceChart.setTitle(article.name.get());
 	}
@@ -280,19 +266,14 @@ public class GuiArticleStats {
 		FloatProperty cost = new SimpleFloatProperty();
 		FloatProperty subsidy = new SimpleFloatProperty();
 		IntegerProperty amount = new SimpleIntegerProperty();
+		Map<String, Integer> amountBySource;
 
-		ArticleSummation(String articleName) {
+		ArticleSummation(String articleName, ArticleTotals totals) {
 			name.set(articleName);
-			for (Bill bill : App.userManager.getUser().getBills()) {
-				for (Bill.Entry entry : bill.getEntries()) {
-
-					if (articleName.equals(entry.getArticleName())) {
-						cost.set(cost.get() + entry.getArticlePrice() * entry.getAmount());
-						subsidy.set(subsidy.get() + entry.getSubsidy());
-						amount.set(amount.get() + entry.getAmount());
-					}
-				}
-			}
+			cost.set(totals.getCost());
+			subsidy.set(totals.getSubsidy());
+			amount.set(totals.getAmount());
+			amountBySource = new TreeMap<>(totals.getAmountBySource());
 		}
 	}
 
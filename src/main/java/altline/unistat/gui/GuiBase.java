@@ -8,16 +8,22 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import altline.unistat.App;
+import altline.unistat.ServerUnavailableException;
+import altline.unistat.SyncReport;
 import altline.utils.Alerts;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.StringBinding;
 import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.Label;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
@@ -43,7 +49,14 @@ public class GuiBase {
 		}
 	};
 
-	private static Map<String, Pane> cardMap = new HashMap<String, Pane>();
+	/**
+	 * The loaded cards. Cards are loaded the first time they are shown, so that the bills are only read by the cards
+	 * the user actually looks at.
+	 */
+	private final Map<String, Pane> cardMap = new HashMap<String, Pane>();
+	private final Map<String, String> cardResources = new HashMap<String, String>();
+	/** The controllers of the loaded cards */
+	private final Map<String, Card> cardControllers = new HashMap<String, Card>();
 
 	@FXML
 	private BorderPane view;
@@ -55,11 +68,26 @@ public class GuiBase {
 	private ToggleButton btnOverview, btnBills, btnCalendar, btnGeneralStats, btnArticleStats;
 
 	@FXML
-	private Label lblUserName;
+	private Label lblUserName, lblLastSync;
+
+	/** The update task whose monitor was shown last */
+	private Task<Integer> monitoredUpdate;
+	private final InvalidationListener updateProgressListener = obs -> showSyncStatus();
+	private final ChangeListener<Object> syncStatusListener = (obs, oldVal, newVal) -> showSyncStatus();
+	private final ChangeListener<Task<Integer>> activeUpdateListener = (obs, oldVal, newVal) -> {
+		if (oldVal != null) oldVal.messageProperty().removeListener(updateProgressListener);
+		if (newVal != null) newVal.messageProperty().addListener(updateProgressListener);
+		showSyncStatus();
+	};
+	private StringBinding userNameBinding;
 
 	@FXML
-	private void initialize() throws IOException {
-		loadCards();
+	private void initialize() {
+		cardResources.put(CARD_OVERVIEW, "/gui/Overview.fxml");
+		cardResources.put(CARD_BILLS, "/gui/Bills.fxml");
+		cardResources.put(CARD_CALENDAR, "/gui/Calendar.fxml");
+		cardResources.put(CARD_GENERAL_STATS, "/gui/GeneralStats.fxml");
+		cardResources.put(CARD_ARTICLE_STATS, "/gui/ArticleStats.fxml");
 
 		initCardButton(btnOverview, CARD_OVERVIEW);
 		initCardButton(btnBills, CARD_BILLS);
@@ -67,10 +95,11 @@ public class GuiBase {
 		initCardButton(btnGeneralStats, CARD_GENERAL_STATS);
 		initCardButton(btnArticleStats, CARD_ARTICLE_STATS);
 
-		lblUserName.textProperty().bind(new StringBinding() {
+		userNameBinding = new StringBinding() {
 			private StringProperty userFullNameProperty;
 			{
-				bind(App.userManager.getUser().fullNameProperty());
+				userFullNameProperty = App.userManager.getUser().fullNameProperty();
+				bind(userFullNameProperty);
 			}
 			@Override
 			protected String computeValue() {
@@ -85,19 +114,75 @@ public class GuiBase {
 					bind(userFullNameProperty);
 				} else userFullNameProperty = null;
 			}
-		});
+
+			@Override
+			public void dispose() {
+				if (userFullNameProperty != null) unbind(userFullNameProperty);
+			}
+		};
+		lblUserName.textProperty().bind(userNameBinding);
+
+		App.userManager.lastSyncReportProperty().addListener(syncStatusListener);
+		App.userManager.offlineProperty().addListener(syncStatusListener);
+		App.userManager.activeUpdateProperty().addListener(activeUpdateListener);
+		if (App.userManager.getActiveUpdate() != null) {
+			App.userManager.getActiveUpdate().messageProperty().addListener(updateProgressListener);
+		}
+		showSyncStatus();
 
 		showCard(CARD_OVERVIEW);
 	}
 
+	/**
+	 * Detaches the listeners this GUI and its loaded cards registered on the user and the application, so that the GUI
+	 * can be garbage collected once it is discarded. The GUI must not be shown afterwards.
+	 */
+	public void dispose() {
+		lblUserName.textProperty().unbind();
+		userNameBinding.dispose();
+		App.userManager.lastSyncReportProperty().removeListener(syncStatusListener);
+		App.userManager.offlineProperty().removeListener(syncStatusListener);
+		App.userManager.activeUpdateProperty().removeListener(activeUpdateListener);
+		if (App.userManager.getActiveUpdate() != null) {
+			App.userManager.getActiveUpdate().messageProperty().removeListener(updateProgressListener);
+		}
+
+		for (Card card : cardControllers.values()) {
+			card.dispose();
+		}
+		cardControllers.clear();
+	}
+
 	@FXML
 	private void updateUser() {
-		Task<Void> updateTask = App.userManager.updateUser();
-		updateTask.setOnFailed(e -> {
-			Alerts.catching("Osvježavanje nije uspjelo", updateTask.getException(), LOGGER);
+		monitorUpdate(App.userManager.updateUser(), "Osvježavanje nije uspjelo");
+	}
+
+	@FXML
+	private void repairUser() {
+		monitorUpdate(App.userManager.repairUser(), "Popravak podataka nije uspio");
+	}
+
+	/**
+	 * Shows a monitor of the specified update task and reports its failure or incomplete data, unless the task is
+	 * already monitored, since a requested update joins the running one. Updates that run in the background only show
+	 * their outcome in the sync status.
+	 */
+	private void monitorUpdate(Task<Integer> task, String failureMessage) {
+		if (task == monitoredUpdate) return;
+		monitoredUpdate = task;
+		// the task is shared with the other requests that joined it, so their handlers are not replaced
+		task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> {
+			// the report of the fetch is published before the update finishes
+			SyncReport report = App.userManager.getLastSyncReport();
+			if (report != null && report.isIncomplete()) {
+				Alerts.warn("Problem pri preuzimanju podataka. Neki podaci možda nisu ispravni!");
+			}
 		});
-		App.uiManager.showWorkerMonitor(updateTask);
-		App.execute(updateTask);
+		task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> {
+			showUpdateFailure(failureMessage, task.getException());
+		});
+		App.uiManager.showWorkerMonitor(task);
 	}
 
 	@FXML
@@ -106,21 +191,20 @@ public class GuiBase {
 		App.userManager.logout();
 	}
 
-	private void loadCards() throws IOException {
-		FXMLLoader loader = new FXMLLoader(App.class.getResource("/gui/Overview.fxml"));
-		cardMap.put(CARD_OVERVIEW, loader.load());
-
-		loader = new FXMLLoader(App.class.getResource("/gui/Bills.fxml"));
-		cardMap.put(CARD_BILLS, loader.load());
-		
-		loader = new FXMLLoader(App.class.getResource("/gui/Calendar.fxml"));
-		cardMap.put(CARD_CALENDAR, loader.load());
+	private Pane loadCard(String cardID) {
+		Pane card = cardMap.get(cardID);
+		if (card != null) return card;
 
-		loader = new FXMLLoader(App.class.getResource("/gui/GeneralStats.fxml"));
-		cardMap.put(CARD_GENERAL_STATS, loader.load());
-
-		loader = new FXMLLoader(App.class.getResource("/gui/ArticleStats.fxml"));
-		cardMap.put(CARD_ARTICLE_STATS, loader.load());
+		FXMLLoader loader = new FXMLLoader(App.class.getResource(cardResources.get(cardID)));
+		try {
+			card = loader.load();
+		} catch (IOException e) {
+			Alerts.catching("Could not load card: " + cardID, e, LOGGER);
+			return null;
+		}
+		cardMap.put(cardID, card);
+		if (loader.getController() instanceof Card) cardControllers.put(cardID, loader.<Card>getController());
+		return card;
 	}
 	
 	private void initCardButton(ToggleButton cardButton, String cardID) {
@@ -130,8 +214,33 @@ public class GuiBase {
 		});
 	}
 
+	private void showUpdateFailure(String message, Throwable e) {
+		if (e instanceof ServerUnavailableException) {
+			LOGGER.warn(message, e);
+			Alerts.warn("Poslužitelj trenutno nije dostupan. Podaci će se moći osvježiti kad se veza obnovi.");
+		} else {
+			Alerts.catching(message, e, LOGGER);
+		}
+	}
+
+	private void showSyncStatus() {
+		SyncReport report = App.userManager.getLastSyncReport();
+		String summary = report == null ? "" : report.getSummary();
+		if (App.userManager.isOffline()) summary = summary.isEmpty() ? "Izvan mreže" : "Izvan mreže\n" + summary;
+
+		// the running update is shown here, so that the stored data can be used while it runs
+		Task<Integer> update = App.userManager.getActiveUpdate();
+		if (update != null) {
+			String message = update.getMessage();
+			summary = message == null || message.isEmpty() ? "Osvježavanje..." : message;
+		}
+
+		lblLastSync.setText(summary);
+		lblLastSync.setTooltip(report == null ? null : new Tooltip(report.getDetails()));
+	}
+
 	private void showCard(String cardID) {
-		view.setCenter(cardMap.get(cardID));
+		view.setCenter(loadCard(cardID));
 	}
 
 }
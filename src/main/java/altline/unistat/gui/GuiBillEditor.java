@@ -158,13 +158,8 @@ public class GuiBillEditor extends PromptBase {
 						.or(Bindings.createBooleanBinding(() -> StringUtils.isBlank(sourceField.getValue()), sourceField.valueProperty()))
 						.or(Bindings.createBooleanBinding(() -> {
 							// disables if there exists a bill with the same dateTime and if this editor disallows that
-							if (!allowExsitingDateTime.get()) {
-								for (Bill testBill : App.userManager.getUser().getBills()) {
-									if (datePicker.getValue() == null ||
-											timePicker.getValue() == null ||
-											testBill.getDateTime().isEqual(LocalDateTime.of(datePicker.getValue(), timePicker.getValue())))
-										return true;
-								}
+							if (!allowExsitingDateTime.get() && datePicker.getValue() != null && timePicker.getValue() != null) {
+								return App.userManager.billExistsAt(LocalDateTime.of(datePicker.getValue(), timePicker.getValue()));
 							}
 							return false;
 						}, allowExsitingDateTime, datePicker.valueProperty(), timePicker.valueProperty()))
@@ -1,5 +1,6 @@
 package altline.unistat.gui;
 
+import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Arrays;
@@ -16,6 +17,7 @@ import altline.utils.Alerts;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.collections.transformation.SortedList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -24,8 +26,10 @@ import javafx.scene.control.TableColumn.SortType;
 import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.StackPane;
+import javafx.stage.FileChooser;
+import javafx.stage.FileChooser.ExtensionFilter;
 
-public class GuiBills {
+public class GuiBills implements Card {
 
 	private static final Logger LOGGER = LogManager.getLogger();
 
@@ -33,7 +37,7 @@ public class GuiBills {
 	private Label lblTotalBills;
 
 	@FXML
-	private Button btnNewBill, btnEditBill, btnDeleteBill;
+	private Button btnNewBill, btnEditBill, btnDeleteBill, btnImport, btnExport;
 
 
 	@FXML
@@ -85,7 +89,6 @@ public class GuiBills {
 				if (gui.acquireInput()) {
 					Bill template = gui.getBillTemplate();
 					App.userManager.createBill(template.getSource(), template.getDateTime(), template.getEntries());
-					App.userManager.saveUser();
 				}
 
 			} catch (IOException e1) {
@@ -107,8 +110,7 @@ public class GuiBills {
 				template.edit(editedBill.getDateTime(), editedBill.getSource(), editedBill.getEntries());
 
 				if (gui.acquireInput()) {
-					editedBill.edit(template.getDateTime(), template.getSource(), template.getEntries());
-					App.userManager.saveUser();
+					App.userManager.editBill(editedBill, template.getDateTime(), template.getSource(), template.getEntries());
 				}
 
 			} catch (IOException e1) {
@@ -121,13 +123,59 @@ public class GuiBills {
 		btnDeleteBill.disableProperty().bind(selectedBillProperty().isNull());
 		btnDeleteBill.setOnAction(e -> {
 			App.userManager.deleteBill(selectedBillProperty().get());
-			App.userManager.saveUser();
+		});
+
+		btnImport.setOnAction(e -> {
+			File file = createBillFileChooser("Uvoz računa").showOpenDialog(btnImport.getScene().getWindow());
+			if (file == null) return;
+
+			Task<Integer> importTask = App.userManager.importBills(file.toPath());
+			importTask.setOnFailed(e1 -> {
+				Alerts.catching("Uvoz računa nije uspio", importTask.getException(), LOGGER);
+			});
+			App.uiManager.showWorkerMonitor(importTask);
+			App.execute(importTask);
+		});
+
+		btnExport.setOnAction(e -> {
+			FileChooser chooser = createBillFileChooser("Izvoz računa");
+			File file = chooser.showSaveDialog(btnExport.getScene().getWindow());
+			if (file == null) return;
+
+			// the format of the file is determined by its extension
+			ExtensionFilter filter = chooser.getSelectedExtensionFilter();
+			if (filter != null) {
+				String extension = filter.getExtensions().get(0).substring(1);
+				if (!file.getName().toLowerCase().endsWith(extension)) file = new File(file.getPath() + extension);
+			}
+
+			Task<Integer> exportTask = App.userManager.exportBills(file.toPath());
+			exportTask.setOnFailed(e1 -> {
+				Alerts.catching("Izvoz računa nije uspio", exportTask.getException(), LOGGER);
+			});
+			App.uiManager.showWorkerMonitor(exportTask);
+			App.execute(exportTask);
 		});
 
 		initBillsTable();
 		populate();
 	}
 
+	@Override
+	public void dispose() {
+		lblTotalBills.textProperty().unbind();
+		billsTable.setItems(null);
+	}
+
+	private FileChooser createBillFileChooser(String title) {
+		FileChooser chooser = new FileChooser();
+		chooser.setTitle(title);
+		chooser.getExtensionFilters().addAll(
+				new ExtensionFilter("CSV (*.csv)", "*.csv"),
+				new ExtensionFilter("JSON (*.json)", "*.json"));
+		return chooser;
+	}
+
 	private void initBillsTable() {
 		// an attempt to squeeze all bill table columns on the screen when the application window is at default
 		// non-maximized size
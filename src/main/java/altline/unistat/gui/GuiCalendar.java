@@ -12,7 +12,9 @@ import com.sun.javafx.scene.control.skin.TableHeaderRow;
 import altline.unistat.App;
 import altline.unistat.Bill;
 import altline.unistat.UIManager;
+import altline.unistat.User;
 import altline.unistat.gui.component.BillView;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.FloatBinding;
 import javafx.beans.binding.NumberBinding;
@@ -23,6 +25,7 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ObservableValue;
 import javafx.beans.value.ObservableValueBase;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -42,10 +45,17 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.util.Callback;
 
-public class GuiCalendar {
+public class GuiCalendar implements Card {
 
 	private final HashMap<LocalDate, Float> costMap = new HashMap<>();
 
+	private User user;
+	private final ListChangeListener<Bill> billsListener = (Change<? extends Bill> c) -> populateCalTable();
+	private final InvalidationListener aggregatesListener = obs -> {
+		updateCostMap();
+		populateCalTable();
+	};
+
 	@FXML
 	private TableView<Week> calTable;
 
@@ -73,11 +83,9 @@ public class GuiCalendar {
 	private void initialize() {
 		setSelectedMonth(YearMonth.now());
 		
-		App.userManager.getUser().getElementObservableBills()
-				.addListener((Change<? extends Bill> c) -> {
-					updateCostMap();
-					populateCalTable();
-				});
+		user = App.userManager.getUser();
+		user.getElementObservableBills().addListener(billsListener);
+		user.getAggregates().addListener(aggregatesListener);
 
 		selectedDay.bind(Bindings.createObjectBinding(() -> {
 			if (calTable.getSelectionModel().isEmpty()) return null;
@@ -101,6 +109,12 @@ public class GuiCalendar {
 		updateCostMap();
 	}
 
+	@Override
+	public void dispose() {
+		user.getElementObservableBills().removeListener(billsListener);
+		user.getAggregates().removeListener(aggregatesListener);
+	}
+
 	private void initCalTable() {
 		calTable.getSelectionModel().setCellSelectionEnabled(true);
 
@@ -295,10 +309,10 @@ public class GuiCalendar {
 	}
 
 	private void updateCostMap() {
+		// the aggregates cover the days of the years that are not loaded as well
 		costMap.clear();
-		for (Bill bill : App.userManager.getUser().getBills()) {
-			costMap.merge(bill.getDateTime().toLocalDate(), bill.getTotalCost(), Float::sum);
-		}
+		App.userManager.getUser().getAggregates().getDays()
+				.forEach((date, totals) -> costMap.put(date, totals.getCost()));
 	}
 
 	@FXML
@@ -321,6 +335,8 @@ public class GuiCalendar {
 	private final ObjectProperty<YearMonth> selectedMonth = new ObjectPropertyBase<YearMonth>() {
 		@Override
 		protected void invalidated() {
+			// the first week of the month may start in the previous year
+			App.userManager.loadBillsSince(getSelectedMonth().atDay(1).minusDays(6).getYear());
 			populateCalTable();
 		}
 
@@ -2,12 +2,16 @@ package altline.unistat.gui;
 
 import java.time.LocalDate;
 import java.time.YearMonth;
-import java.util.HashMap;
 
 import altline.unistat.App;
 import altline.unistat.Bill;
+import altline.unistat.BillAggregates;
+import altline.unistat.BillAggregates.Totals;
 import altline.unistat.UIManager;
+import altline.unistat.User;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -21,7 +25,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 
-public class GuiGeneralStats {
+public class GuiGeneralStats implements Card {
 
 	private LineChart<String, Number> costTrendChart;
 	private StackedBarChart<String, Number> dailyCostChart;
@@ -32,9 +36,12 @@ public class GuiGeneralStats {
 	@FXML
 	private VBox content;
 
+	private User user;
+	private final ListChangeListener<Bill> billsListener = (Change<? extends Bill> c) -> Platform.runLater(() -> populateTrendChart());
+	private final InvalidationListener aggregatesListener = obs -> Platform.runLater(() -> populateCharts());
+
 	@FXML
 	private void initialize() {
-
 		// Cost trend chart
 		{
 			final CategoryAxis xAxis = new CategoryAxis();
@@ -89,15 +96,24 @@ public class GuiGeneralStats {
 
 		content.getChildren().addAll(costTrendChart, dailyCostChart, monthlyCostChart, sourceChartsBox);
 
-		App.userManager.getUser().getElementObservableBills()
-				.addListener((Change<? extends Bill> c) -> {
-					Platform.runLater(() -> populateCharts());
-				});
-		
+		user = App.userManager.getUser();
+		user.getElementObservableBills().addListener(billsListener);
+		user.getAggregates().addListener(aggregatesListener);
+
 		populateCharts();
+		populateTrendChart();
+
+		// the trend chart shows every single bill of the user's history
+		App.userManager.loadAllBills();
 	}
 
-	private void populateCharts() {
+	@Override
+	public void dispose() {
+		user.getElementObservableBills().removeListener(billsListener);
+		user.getAggregates().removeListener(aggregatesListener);
+	}
+
+	private void populateTrendChart() {
 		ObservableList<Bill> bills = App.userManager.getUser().getBills();
 		if(bills.isEmpty()) return;
 
@@ -112,6 +128,11 @@ public class GuiGeneralStats {
 			costTrendChart.getData().clear();
 			costTrendChart.getData().add(series);
 		}
+	}
+
+	private void populateCharts() {
+		BillAggregates aggregates = App.userManager.getUser().getAggregates();
+		if(aggregates.getDays().isEmpty()) return;
 
 		// Daily cost chart
 		{
@@ -120,18 +141,10 @@ public class GuiGeneralStats {
 			paidSeries.setName("Vrijednost bez subvencije");
 			subsidySeries.setName("Iznos subvencije");
 
-			for (LocalDate i = bills.get(0).getDateTime().toLocalDate(); i.isBefore(LocalDate.now().plusDays(1)); i = i.plusDays(1)) {
-				final LocalDate date = i;
-
-				float cost = (float) bills.stream()
-						.filter(bill -> date.equals(bill.getDateTime().toLocalDate()))
-						.mapToDouble(bill -> bill.getTotalCost())
-						.sum();
-
-				float subsidy = (float) bills.stream()
-						.filter(bill -> date.equals(bill.getDateTime().toLocalDate()))
-						.mapToDouble(bill -> bill.getTotalSubsidy())
-						.sum();
+			for (LocalDate i = aggregates.getDays().firstKey(); i.isBefore(LocalDate.now().plusDays(1)); i = i.plusDays(1)) {
+				final Totals day = aggregates.getDay(i);
+				float cost = day.getCost();
+				float subsidy = day.getSubsidy();
 
 				paidSeries.getData().add(new XYChart.Data<String, Number>(i.format(UIManager.DATE_FORMATTER), cost - subsidy));
 				subsidySeries.getData().add(new XYChart.Data<String, Number>(i.format(UIManager.DATE_FORMATTER), subsidy));
@@ -149,18 +162,10 @@ public class GuiGeneralStats {
 			paidSeries.setName("Vrijednost bez subvencije");
 			subsidySeries.setName("Iznos subvencije");
 
-			for (LocalDate i = bills.get(0).getDateTime().toLocalDate(); i.isBefore(LocalDate.now().plusMonths(1)); i = i.plusMonths(1)) {
-				final YearMonth yearMonth = YearMonth.from(i);
-
-				float cost = (float) bills.stream()
-						.filter(bill -> yearMonth.equals(YearMonth.from(bill.getDateTime())))
-						.mapToDouble(bill -> bill.getTotalCost())
-						.sum();
-
-				float subsidy = (float) bills.stream()
-						.filter(bill -> yearMonth.equals(YearMonth.from(bill.getDateTime())))
-						.mapToDouble(bill -> bill.getTotalSubsidy())
-						.sum();
+			for (LocalDate i = aggregates.getDays().firstKey(); i.isBefore(LocalDate.now().plusMonths(1)); i = i.plusMonths(1)) {
+				final Totals month = aggregates.getMonth(YearMonth.from(i));
+				float cost = month.getCost();
+				float subsidy = month.getSubsidy();
 
 				paidSeries.getData().add(new XYChart.Data<String, Number>(i.format(UIManager.MONTH_FORMATTER), cost - subsidy));
 				subsidySeries.getData().add(new XYChart.Data<String, Number>(i.format(UIManager.MONTH_FORMATTER), subsidy));
@@ -175,13 +180,8 @@ public class GuiGeneralStats {
 		{
 			sourceChart.getData().clear();
 
-			HashMap<String, Integer> amountMap = new HashMap<>();
-			for (Bill bill : App.userManager.getUser().getBills()) {
-				amountMap.merge(bill.getSource(), bill.getTotalArticles(), Integer::sum);
-			}
-
-			amountMap.keySet().stream().sorted().forEach(source -> {
-				sourceChart.getData().add(new PieChart.Data(source, amountMap.get(source)));
+			aggregates.getSources().forEach((source, totals) -> {
+				sourceChart.getData().add(new PieChart.Data(source, totals.getArticleCount()));
 			});
 		}
 
@@ -192,17 +192,9 @@ public class GuiGeneralStats {
 			paidSeries.setName("Vrijednost bez subvencije");
 			subsidySeries.setName("Iznos subvencije");
 
-			HashMap<String, Float> paidMap = new HashMap<>();
-			HashMap<String, Float> subsidyMap = new HashMap<>();
-
-			for (Bill bill : App.userManager.getUser().getBills()) {
-				paidMap.merge(bill.getSource(), bill.getTotalCost() - bill.getTotalSubsidy(), Float::sum);
-				subsidyMap.merge(bill.getSource(), bill.getTotalSubsidy(), Float::sum);
-			}
-
-			paidMap.keySet().stream().sorted().forEach(source -> {
-				paidSeries.getData().add(new XYChart.Data<String, Number>(source, paidMap.get(source)));
-				subsidySeries.getData().add(new XYChart.Data<String, Number>(source, subsidyMap.get(source)));
+			aggregates.getSources().forEach((source, totals) -> {
+				paidSeries.getData().add(new XYChart.Data<String, Number>(source, totals.getPaid()));
+				subsidySeries.getData().add(new XYChart.Data<String, Number>(source, totals.getSubsidy()));
 			});
 
 			costPerSourceChart.getData().clear();
@@ -3,13 +3,13 @@ package altline.unistat.gui;
 import java.time.LocalDate;
 
 import altline.unistat.App;
-import altline.unistat.Bill;
+import altline.unistat.BillAggregates;
+import altline.unistat.BillAggregates.Totals;
 import altline.unistat.UIManager;
 import altline.unistat.User;
 import altline.unistat.gui.component.BillSummary;
 import javafx.application.Platform;
-import javafx.collections.ListChangeListener.Change;
-import javafx.collections.ObservableList;
+import javafx.beans.InvalidationListener;
 import javafx.fxml.FXML;
 import javafx.geometry.Orientation;
 import javafx.scene.chart.LineChart;
@@ -21,7 +21,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.util.StringConverter;
 
-public class GuiOverview {
+public class GuiOverview implements Card {
 
 	private LineChart<Number, Number> dailySpendingChart;
 	private LineChart<Number, Number> totalSpendingChart;
@@ -35,9 +35,13 @@ public class GuiOverview {
 	@FXML
 	private Label lblAvailableFunds;
 
+	private BillAggregates aggregates;
+	private InvalidationListener aggregatesListener;
+
 	@FXML
 	private void initialize() {
 		User user = App.userManager.getUser();
+		aggregates = user.getAggregates();
 
 		lblAvailableFunds.textProperty().bind(user.availableFundsProperty().asString("%.2f"));
 		
@@ -57,7 +61,9 @@ public class GuiOverview {
 				user.getBills()
 						.filtered(bill -> bill.getDateTime().toLocalDate().isAfter(LocalDate.now().minusMonths(1))),
 				"Ovaj mjesec");
-		BillSummary overallSummary = new BillSummary(user.getBills(), "Ukupno");
+		// the overall summary covers the user's whole history, including the bills that are not loaded
+		BillSummary overallSummary = new BillSummary("Ukupno");
+		overallSummary.setTotals(aggregates.getOverall());
 
 		billSummaryArea.getChildren().addAll(
 				todaySummary, new Separator(Orientation.VERTICAL),
@@ -111,17 +117,24 @@ public class GuiOverview {
 
 		content.getChildren().addAll(dailySpendingChart, totalSpendingChart);
 
-		App.userManager.getUser().getElementObservableBills()
-				.addListener((Change<? extends Bill> c) -> {
-					Platform.runLater(() -> populateCharts());
-				});
+		aggregatesListener = obs -> {
+			overallSummary.setTotals(aggregates.getOverall());
+			Platform.runLater(() -> populateCharts());
+		};
+		aggregates.addListener(aggregatesListener);
 
 		populateCharts();
 	}
 
+	@Override
+	public void dispose() {
+		lblAvailableFunds.textProperty().unbind();
+		aggregates.removeListener(aggregatesListener);
+	}
+
 	private void populateCharts() {
-		ObservableList<Bill> bills = App.userManager.getUser().getBills();
-		if(bills.isEmpty()) return;
+		BillAggregates aggregates = App.userManager.getUser().getAggregates();
+		if(aggregates.getDays().isEmpty()) return;
 
 		// Daily spending chart
 		{
@@ -131,17 +144,9 @@ public class GuiOverview {
 			subsidySeries.setName("Potrošnja subvencije");
 			
 			for (LocalDate i = LocalDate.now().minusMonths(1); i.isBefore(LocalDate.now().plusDays(1)); i = i.plusDays(1)) {
-				final LocalDate date = i;
-
-				float cost = (float) bills.stream()
-						.filter(bill -> date.equals(bill.getDateTime().toLocalDate()))
-						.mapToDouble(bill -> bill.getTotalCost())
-						.sum();
-
-				float subsidy = (float) bills.stream()
-						.filter(bill -> date.equals(bill.getDateTime().toLocalDate()))
-						.mapToDouble(bill -> bill.getTotalSubsidy())
-						.sum();
+				final Totals day = aggregates.getDay(i);
+				float cost = day.getCost();
+				float subsidy = day.getSubsidy();
 
 				costSeries.getData().add(new XYChart.Data<Number, Number>(i.toEpochDay(), cost));
 				subsidySeries.getData().add(new XYChart.Data<Number, Number>(i.toEpochDay(), subsidy));
@@ -160,18 +165,10 @@ public class GuiOverview {
 			subsidySeries.setName("Potrošeno subvencije");
 			
 			float cost = 0, subsidy = 0;
-			for (LocalDate i = bills.get(0).getDateTime().toLocalDate(); i.isBefore(LocalDate.now().plusDays(1)); i = i.plusDays(1)) {
-				final LocalDate date = i;
-
-				cost += (float) bills.stream()
-						.filter(bill -> date.equals(bill.getDateTime().toLocalDate()))
-						.mapToDouble(bill -> bill.getTotalCost())
-						.sum();
-
-				subsidy += (float) bills.stream()
-						.filter(bill -> date.equals(bill.getDateTime().toLocalDate()))
-						.mapToDouble(bill -> bill.getTotalSubsidy())
-						.sum();
+			for (LocalDate i = aggregates.getDays().firstKey(); i.isBefore(LocalDate.now().plusDays(1)); i = i.plusDays(1)) {
+				final Totals day = aggregates.getDay(i);
+				cost += day.getCost();
+				subsidy += day.getSubsidy();
 
 				costSeries.getData().add(new XYChart.Data<Number, Number>(i.toEpochDay(), cost));
 				subsidySeries.getData().add(new XYChart.Data<Number, Number>(i.toEpochDay(), subsidy));
@@ -1,13 +1,20 @@
 package altline.unistat.gui.component;
 
+import java.util.function.Function;
+
 import altline.unistat.Bill;
+import altline.unistat.BillAggregates.Totals;
 import altline.unistat.util.FXUtils;
 import javafx.beans.Observable;
 import javafx.beans.binding.Bindings;
+import javafx.beans.binding.StringBinding;
 import javafx.beans.property.ListProperty;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleListProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.HPos;
@@ -57,34 +64,38 @@ public class BillSummary extends GridPane {
 		lblTitle.textProperty().bind(title);
 
 		final Label lblBills = new Label();
-		lblBills.textProperty().bind(Bindings.size(bills).asString());
+		lblBills.textProperty().bind(withTotals(Bindings.size(bills).asString(),
+				totals -> String.valueOf(totals.getBillCount())));
 
 		final Label lblArticles = new Label();
-		lblArticles.textProperty().bind(FXUtils.createListElementBinding(() -> {
+		lblArticles.textProperty().bind(withTotals(FXUtils.createListElementBinding(() -> {
 			int sum = 0;
 			for (Bill bill : getBills()) {
 				sum += bill.getTotalArticles();
 			}
 			return String.valueOf(sum);
-		}, bills, e -> new Observable[] { e.totalArticlesBinding() }));
+		}, bills, e -> new Observable[] { e.totalArticlesBinding() }),
+				totals -> String.valueOf(totals.getArticleCount())));
 
 		final Label lblCost = new Label();
-		lblCost.textProperty().bind(FXUtils.createListElementBinding(() -> {
+		lblCost.textProperty().bind(withTotals(FXUtils.createListElementBinding(() -> {
 			float sum = 0;
 			for (Bill bill : getBills()) {
 				sum += bill.getTotalCost();
 			}
 			return String.format("%.2f", sum);
-		}, bills, e -> new Observable[] { e.totalCostBinding() }));
+		}, bills, e -> new Observable[] { e.totalCostBinding() }),
+				totals -> String.format("%.2f", totals.getCost())));
 
 		final Label lblSubsidy = new Label();
-		lblSubsidy.textProperty().bind(FXUtils.createListElementBinding(() -> {
+		lblSubsidy.textProperty().bind(withTotals(FXUtils.createListElementBinding(() -> {
 			float sum = 0;
 			for (Bill bill : getBills()) {
 				sum += bill.getTotalSubsidy();
 			}
 			return String.format("%.2f", sum);
-		}, bills, e -> new Observable[] { e.totalSubsidyBinding() }));
+		}, bills, e -> new Observable[] { e.totalSubsidyBinding() }),
+				totals -> String.format("%.2f", totals.getSubsidy())));
 		
 
 		add(lblTitle, 0, 0, 2, 1);
@@ -94,6 +105,16 @@ public class BillSummary extends GridPane {
 		addRow(4, new Label("Subvencija: "), lblSubsidy);
 	}
 
+	/**
+	 * Creates a binding that shows the specified value of the summarized bills, or the specified value of the totals if
+	 * the totals are set.
+	 */
+	private StringBinding withTotals(ObservableValue<String> billsValue, Function<Totals, String> totalsValue) {
+		return Bindings.createStringBinding(
+				() -> getTotals() == null ? billsValue.getValue() : totalsValue.apply(getTotals()),
+				totals, billsValue);
+	}
+
 	/* *************************************************************************
 	 *                                                                         *
 	 * Properties                                                              *
@@ -119,6 +140,25 @@ public class BillSummary extends GridPane {
 	}
 
 
+	// --- totals
+	/**
+	 * Pre-computed totals to show instead of summarizing the bills, or null to summarize the bills.
+	 */
+	private ObjectProperty<Totals> totals = new SimpleObjectProperty<Totals>(this, "totals");
+
+	public final ObjectProperty<Totals> totalsProperty() {
+		return totals;
+	}
+
+	public final Totals getTotals() {
+		return totals.get();
+	}
+
+	public final void setTotals(Totals value) {
+		totals.set(value);
+	}
+
+
 	// --- title
 	public static final String DEFAULT_TITLE = "Statistika";
 	/**
@@ -0,0 +1,153 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Handing batches of fetched bills over to the thread the user is modified on with a {@link BatchedBillSink}, while
+ * that thread falls behind. A single-threaded executor stands in for the JavaFX thread.
+ */
+public class BatchedBillSinkTest extends TestCase {
+
+	private static final int MAX_PENDING_BATCHES = 4;
+	private static final int BATCHES = 20;
+	private static final int BATCH_SIZE = 3;
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private ExecutorService fxExecutor;
+	/** Holds back the batches until it is opened */
+	private CountDownLatch gate;
+	private List<Bill> applied;
+
+	@Override
+	protected void setUp() throws Exception {
+		fxExecutor = Executors.newSingleThreadExecutor();
+		gate = new CountDownLatch(1);
+		applied = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		gate.countDown();
+		fxExecutor.shutdownNow();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The fetch waits once too many batches are queued, and every bill is applied exactly once, in the order it was
+	 * published in.
+	 */
+	public void testBackpressure() throws Exception {
+		BatchedBillSink sink = createSink();
+		List<Bill> bills = createBills(BATCHES * BATCH_SIZE);
+		AtomicInteger published = new AtomicInteger();
+		Thread fetch = new Thread(() -> {
+			for (int i = 0; i < BATCHES; i++) {
+				sink.accept(bills.subList(i * BATCH_SIZE, (i + 1) * BATCH_SIZE), null);
+				published.incrementAndGet();
+			}
+		});
+		fetch.start();
+
+		awaitWaiting(fetch);
+		assertEquals(MAX_PENDING_BATCHES, published.get());
+		assertTrue(applied.isEmpty());
+
+		gate.countDown();
+		fetch.join(TIMEOUT_MILLIS);
+		assertFalse(fetch.isAlive());
+		awaitApplied();
+
+		assertEquals(bills, applied);
+		assertEquals(bills.size(), sink.getAppliedCount());
+	}
+
+	/**
+	 * A batch published while the fetch is canceled is still applied, and the fetch thread stays interrupted.
+	 */
+	public void testInterruptedWhileWaiting() throws Exception {
+		BatchedBillSink sink = createSink();
+		List<Bill> bills = createBills((MAX_PENDING_BATCHES + 1) * BATCH_SIZE);
+		AtomicBoolean interrupted = new AtomicBoolean();
+		Thread fetch = new Thread(() -> {
+			for (int i = 0; i <= MAX_PENDING_BATCHES; i++) {
+				sink.accept(bills.subList(i * BATCH_SIZE, (i + 1) * BATCH_SIZE), null);
+			}
+			interrupted.set(Thread.currentThread().isInterrupted());
+		});
+		fetch.start();
+
+		awaitWaiting(fetch);
+		fetch.interrupt();
+		fetch.join(TIMEOUT_MILLIS);
+		assertFalse(fetch.isAlive());
+		assertTrue(interrupted.get());
+
+		gate.countDown();
+		awaitApplied();
+		assertEquals(bills, applied);
+		assertEquals(bills.size(), sink.getAppliedCount());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private BatchedBillSink createSink() {
+		return new BatchedBillSink(MAX_PENDING_BATCHES, fxExecutor, (bills, storedBills) -> {
+			try {
+				if (!gate.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return 0;
+			}
+			applied.addAll(bills);
+			return bills.size();
+		});
+	}
+
+	/**
+	 * Waits for the specified thread to wait for a queued batch to be applied.
+	 */
+	private static void awaitWaiting(Thread thread) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (thread.getState() != Thread.State.WAITING) {
+			assertTrue("The fetch did not wait for the queued batches", System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Waits for the batches queued so far to be applied.
+	 */
+	private void awaitApplied() throws Exception {
+		fxExecutor.submit(() -> {}).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static List<Bill> createBills(int count) {
+		List<Bill> bills = new ArrayList<>(count);
+		LocalDateTime dateTime = LocalDateTime.of(2020, 3, 2, 12, 0);
+		for (int i = 0; i < count; i++) {
+			bills.add(new Bill(dateTime.minusMinutes(i), "Restoran SC"));
+		}
+		return bills;
+	}
+
+}
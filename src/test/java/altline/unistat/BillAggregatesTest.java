@@ -0,0 +1,185 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Keeping {@link BillAggregates} up to date as the bills of a {@link User} change, which must give the same totals as
+ * computing them from all of the bills again.
+ */
+public class BillAggregatesTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+	private static final float DELTA = 1e-3f;
+
+	private Path dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-aggregates");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testIncrementalChanges() {
+		User user = UserCodecTest.createUser();
+		user.setAggregates(BillAggregates.compute(user.getBills()));
+
+		Bill added = new Bill(LocalDateTime.of(2019, 4, 1, 18, 0), "Menza Cvjetno");
+		added.addEntry("Juha", 1.5f, 2, 0.5f);
+		user.addBill(added);
+		assertAggregates(user);
+
+		// a bill issued at the same time in the same place replaces the one the user has
+		Bill replacing = new Bill(added.getDateTime(), added.getSource());
+		replacing.addEntry("Kolac", 2f, 1, 0f);
+		user.addBill(replacing);
+		assertAggregates(user);
+
+		// moving a bill to another day, month and source
+		Bill edited = user.getBills().get(0);
+		user.editBill(edited, edited.getDateTime().plusMonths(2), "Menza Savska",
+				Collections.singletonList(edited.new Entry("Juha", 1.5f, 3, 0.5f)));
+		assertAggregates(user);
+
+		Bill refreshed = user.getBills().get(1).copy();
+		refreshed.setEntries(Collections.singletonList(refreshed.new Entry("Glavno jelo", 12.4f, 1, 10f)));
+		assertNotNull(user.refreshBill(refreshed));
+		assertAggregates(user);
+
+		user.removeBill(user.getBills().get(2));
+		assertAggregates(user);
+	}
+
+	/**
+	 * Groups whose last bill or entry is removed are dropped, the same as the groups a full computation never creates.
+	 */
+	public void testRemoveAll() {
+		User user = UserCodecTest.createUser();
+		user.setAggregates(BillAggregates.compute(user.getBills()));
+
+		for (Bill bill : new ArrayList<>(user.getBills())) {
+			user.removeBill(bill);
+		}
+		BillAggregates aggregates = user.getAggregates();
+		assertEquals(0, aggregates.getOverall().getBillCount());
+		assertEquals(0, aggregates.getOverall().getCost(), DELTA);
+		assertTrue(aggregates.getDays().isEmpty());
+		assertTrue(aggregates.getMonths().isEmpty());
+		assertTrue(aggregates.getSources().isEmpty());
+		assertTrue(aggregates.getArticles().isEmpty());
+	}
+
+	/**
+	 * The aggregates of a user that has not loaded its older years also count the stored bills of those years, so
+	 * fetching a new version of such a bill replaces the stored one, and loading the older years changes nothing.
+	 */
+	public void testBillsOfYearsNotLoaded() {
+		List<Bill> stored = UserCodecTest.createUser().getBills();
+		User user = new User(USER_ID);
+		user.addBills(Arrays.asList(stored.get(2).copy()));
+		user.setAggregates(BillAggregates.compute(stored));
+
+		Bill changed = stored.get(1).copy();
+		changed.setEntries(Collections.singletonList(changed.new Entry("Glavno jelo", 12.4f, 1, 10f)));
+		Bill added = new Bill(LocalDateTime.of(2019, 5, 6, 12, 0), "Restoran SC");
+		added.addEntry("Juha", 1.5f, 1, 0.5f);
+
+		Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> storedBills = new HashMap<>();
+		for (Bill bill : stored) {
+			storedBills.put(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource()), bill);
+		}
+		assertEquals(2, user.addNewBills(Arrays.asList(changed, added), storedBills).size());
+
+		List<Bill> expected = new ArrayList<>(Arrays.asList(stored.get(0), changed, added, stored.get(2)));
+		assertAggregates(BillAggregates.compute(expected), user.getAggregates());
+
+		// the loaded bills the user already has are skipped
+		List<Bill> loaded = new ArrayList<>();
+		for (Bill bill : stored.subList(0, 2)) {
+			loaded.add(bill.copy());
+		}
+		user.addLoadedBills(loaded, Integer.MIN_VALUE);
+		assertEquals(4, user.getBills().size());
+		assertAggregates(user);
+	}
+
+	public void testReadWrite() throws IOException {
+		BillAggregates aggregates = BillAggregates.compute(UserCodecTest.createUser().getBills());
+		aggregates.setDataVersion(42);
+		Path file = dir.resolve("aggregates.dat");
+		aggregates.write(file);
+
+		BillAggregates read = BillAggregates.read(file);
+		assertEquals(42, read.getDataVersion());
+		assertAggregates(aggregates, read);
+		assertAggregates(aggregates, aggregates.copy());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Asserts that the aggregates of the specified user equal those computed from all of its bills.
+	 */
+	private static void assertAggregates(User user) {
+		assertAggregates(BillAggregates.compute(user.getBills()), user.getAggregates());
+	}
+
+	private static void assertAggregates(BillAggregates expected, BillAggregates actual) {
+		assertTotals(expected.getOverall(), actual.getOverall());
+		assertTotals(expected.getDays(), actual.getDays());
+		assertTotals(expected.getMonths(), actual.getMonths());
+		assertTotals(expected.getSources(), actual.getSources());
+
+		assertEquals(expected.getArticles().keySet(), actual.getArticles().keySet());
+		for (Map.Entry<String, BillAggregates.ArticleTotals> entry : expected.getArticles().entrySet()) {
+			BillAggregates.ArticleTotals expectedTotals = entry.getValue();
+			BillAggregates.ArticleTotals actualTotals = actual.getArticles().get(entry.getKey());
+			assertEquals(expectedTotals.getAmount(), actualTotals.getAmount());
+			assertEquals(expectedTotals.getCost(), actualTotals.getCost(), DELTA);
+			assertEquals(expectedTotals.getSubsidy(), actualTotals.getSubsidy(), DELTA);
+			assertEquals(expectedTotals.getAmountBySource(), actualTotals.getAmountBySource());
+		}
+	}
+
+	private static <K> void assertTotals(Map<K, BillAggregates.Totals> expected, Map<K, BillAggregates.Totals> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		Iterator<BillAggregates.Totals> actualTotals = actual.values().iterator();
+		for (BillAggregates.Totals expectedTotals : expected.values()) {
+			assertTotals(expectedTotals, actualTotals.next());
+		}
+	}
+
+	private static void assertTotals(BillAggregates.Totals expected, BillAggregates.Totals actual) {
+		assertEquals(expected.getBillCount(), actual.getBillCount());
+		assertEquals(expected.getArticleCount(), actual.getArticleCount());
+		assertEquals(expected.getCost(), actual.getCost(), DELTA);
+		assertEquals(expected.getSubsidy(), actual.getSubsidy(), DELTA);
+		assertEquals(expected.getPaid(), actual.getPaid(), DELTA);
+	}
+
+}
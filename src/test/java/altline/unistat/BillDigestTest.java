@@ -0,0 +1,139 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import altline.unistat.ScrapeEngine.BillRow;
+import junit.framework.TestCase;
+
+/**
+ * The month by month comparison of the bills listed on the webserver with the stored bills through their
+ * {@link BillDigest}s, which a repair uses to find the months it has to compare row by row.
+ */
+public class BillDigestTest extends TestCase {
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The rows of the stored bills give the same digests, whatever their order.
+	 */
+	public void testMatchingMonths() {
+		List<Bill> bills = createBills();
+		List<BillRow> rows = toRows(bills);
+		Collections.reverse(rows);
+
+		SortedMap<YearMonth, BillDigest> rowDigests = BillDigest.ofRows(rows);
+		SortedMap<YearMonth, BillDigest> billDigests = BillDigest.ofBills(bills);
+		assertEquals(billDigests, rowDigests);
+		assertEquals(3, rowDigests.size());
+		assertEquals(2, rowDigests.get(YearMonth.of(2019, 3)).getCount());
+	}
+
+	public void testMissingBill() {
+		List<Bill> bills = createBills();
+		List<BillRow> rows = toRows(bills);
+		Bill missing = new Bill(LocalDateTime.of(2019, 4, 20, 12, 0), "Menza Cvjetno");
+		missing.addEntry("Juha", 1.5f, 1, 0.5f);
+		rows.add(toRow(rows.size(), missing));
+
+		assertEquals(Collections.singletonList(YearMonth.of(2019, 4)), getStaleMonths(rows, bills));
+	}
+
+	/**
+	 * A bill whose entries changed on the webserver is listed with a different total cost, which only changes the digest
+	 * of its month.
+	 */
+	public void testChangedTotal() {
+		List<Bill> bills = createBills();
+		List<BillRow> rows = toRows(bills);
+		BillRow row = rows.get(0);
+		BillRow changed = new BillRow(row.getIndex(), row.getDateTime(), row.getSource(), row.getTotalCost() + 0.5f, null);
+		rows.set(0, changed);
+
+		assertEquals(Collections.singletonList(YearMonth.of(2019, 3)), getStaleMonths(rows, bills));
+		assertTrue(changed.differsFrom(bills.get(0)));
+		assertFalse(rows.get(1).differsFrom(bills.get(1)));
+	}
+
+	/**
+	 * A month with a row whose total cost is unknown is always compared row by row.
+	 */
+	public void testUnknownTotal() {
+		List<Bill> bills = createBills();
+		List<BillRow> rows = toRows(bills);
+		BillRow row = rows.get(4);
+		rows.set(4, new BillRow(row.getIndex(), row.getDateTime(), row.getSource(), Float.NaN, null));
+
+		assertEquals(Collections.singletonList(YearMonth.of(2020, 1)), getStaleMonths(rows, bills));
+		assertFalse(rows.get(4).differsFrom(bills.get(4)));
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return The months whose digests of the specified rows differ from the digests of the specified bills, the same
+	 *         way a repair finds them
+	 */
+	private static List<YearMonth> getStaleMonths(List<BillRow> rows, List<Bill> bills) {
+		SortedMap<YearMonth, BillDigest> storedDigests = BillDigest.ofBills(bills);
+		List<YearMonth> staleMonths = new ArrayList<>();
+		for (Map.Entry<YearMonth, BillDigest> entry : BillDigest.ofRows(rows).entrySet()) {
+			if (!entry.getValue().equals(storedDigests.get(entry.getKey()))) staleMonths.add(entry.getKey());
+		}
+		return staleMonths;
+	}
+
+	private static List<BillRow> toRows(List<Bill> bills) {
+		List<BillRow> rows = new ArrayList<>();
+		for (Bill bill : bills) {
+			rows.add(toRow(rows.size(), bill));
+		}
+		return rows;
+	}
+
+	private static BillRow toRow(int index, Bill bill) {
+		return new BillRow(index, bill.getDateTime(), bill.getSource(), bill.getTotalCost(), null);
+	}
+
+	/**
+	 * @return Two bills in March and April 2019 each, and one in January 2020
+	 */
+	private static List<Bill> createBills() {
+		List<Bill> bills = new ArrayList<>();
+		Bill bill = new Bill(LocalDateTime.of(2019, 3, 4, 12, 0), "Restoran SC");
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		bill.addEntry("Glavno jelo", 12.4f, 2, 10f);
+		bills.add(bill);
+
+		bill = new Bill(LocalDateTime.of(2019, 3, 31, 2, 30), "Menza Savska");
+		bill.addEntry("Kolac", 2f, 1, 0f);
+		bills.add(bill);
+
+		bill = new Bill(LocalDateTime.of(2019, 4, 1, 13, 15, 20, 500), "Menza Savska");
+		bill.addEntry("Juha", 1.5f, 3, 0.5f);
+		bills.add(bill);
+
+		bill = new Bill(LocalDateTime.of(2019, 4, 15, 18, 0), "Restoran SC");
+		bill.addEntry("Glavno jelo", 12.4f, 1, 10f);
+		bills.add(bill);
+
+		bill = new Bill(LocalDateTime.of(2020, 1, 2, 8, 0), "Restoran SC");
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		bills.add(bill);
+		return bills;
+	}
+
+}
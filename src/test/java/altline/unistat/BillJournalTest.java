@@ -0,0 +1,214 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Appending to and replaying a {@link BillJournal}, including journals whose last record is incomplete or corrupted.
+ */
+public class BillJournalTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+
+	private Path dir;
+	private Path journalFile;
+	private BillJournal journal;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-journal");
+		journalFile = dir.resolve("user").resolve("journal.dat");
+		journal = new BillJournal(journalFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testReplay() throws IOException {
+		User expected = UserCodecTest.createUser();
+		journal.appendAdds(expected.getBills());
+
+		Bill edited = expected.getBills().get(0);
+		LocalDateTime oldDateTime = edited.getDateTime();
+		expected.editBill(edited, oldDateTime.plusMinutes(5), "Menza Cvjetno",
+				Collections.singletonList(edited.new Entry("Kolac", 2f, 1, 0f)));
+		journal.appendEdit(oldDateTime, "Restoran SC", edited);
+
+		Bill deleted = expected.getBills().get(2);
+		expected.removeBill(deleted);
+		journal.appendDelete(deleted.getDateTime(), deleted.getSource());
+
+		journal.appendUserInfo(expected.getFullName(), expected.getAvailableFunds());
+		assertEquals(6, journal.getRecordCount());
+
+		User user = new User(USER_ID);
+		assertEquals(6, new BillJournal(journalFile).replay(user));
+		assertEquals(expected.getFullName(), user.getFullName());
+		assertEquals(expected.getAvailableFunds(), user.getAvailableFunds(), 0f);
+		UserCodecTest.assertBills(expected.getBills(), user.getBills());
+	}
+
+	/**
+	 * Replaying a record again has the same result, since a journal that was not cleared after a full save is replayed
+	 * on top of the data it was saved into.
+	 */
+	public void testReplayIsIdempotent() throws IOException {
+		User expected = UserCodecTest.createUser();
+		journal.appendAdds(expected.getBills());
+
+		User user = new User(USER_ID);
+		journal.replay(user);
+		journal.replay(user);
+		UserCodecTest.assertBills(expected.getBills(), user.getBills());
+	}
+
+	public void testTruncatedRecord() throws IOException {
+		List<Bill> bills = UserCodecTest.createUser().getBills();
+		journal.appendAdds(bills.subList(0, 2));
+		long validLength = Files.size(journalFile);
+		journal.appendAdd(bills.get(2));
+
+		// the application was killed while writing the last record
+		try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(journalFile) - 3);
+		}
+
+		User user = new User(USER_ID);
+		assertEquals(2, journal.replay(user));
+		UserCodecTest.assertBills(bills.subList(0, 2), user.getBills());
+		assertEquals(validLength, Files.size(journalFile));
+
+		// records appended after the truncation are replayed
+		journal.appendAdd(bills.get(2));
+		user = new User(USER_ID);
+		assertEquals(3, journal.replay(user));
+		UserCodecTest.assertBills(bills, user.getBills());
+	}
+
+	public void testCorruptedRecord() throws IOException {
+		List<Bill> bills = UserCodecTest.createUser().getBills();
+		journal.appendAdds(bills.subList(0, 2));
+		long validLength = Files.size(journalFile);
+		journal.appendAdd(bills.get(2));
+
+		// the record is complete, but a byte of its payload changed, which only the CRC reveals
+		flipByte(validLength + 6);
+
+		User user = new User(USER_ID);
+		assertEquals(2, journal.replay(user));
+		UserCodecTest.assertBills(bills.subList(0, 2), user.getBills());
+		assertEquals(validLength, Files.size(journalFile));
+	}
+
+	public void testCorruptedLength() throws IOException {
+		List<Bill> bills = UserCodecTest.createUser().getBills();
+		journal.appendAdd(bills.get(0));
+		long validLength = Files.size(journalFile);
+		journal.appendAdd(bills.get(1));
+
+		// the record length is read first
+		try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+			ByteBuffer length = ByteBuffer.allocate(4);
+			length.putInt(0, -1);
+			channel.write(length, validLength);
+		}
+
+		User user = new User(USER_ID);
+		assertEquals(1, journal.replay(user));
+		UserCodecTest.assertBills(bills.subList(0, 1), user.getBills());
+		assertEquals(validLength, Files.size(journalFile));
+	}
+
+	/**
+	 * {@link BillJournal#applyTo(User)} reads the valid records without repairing the journal, so reading it does not
+	 * change it.
+	 */
+	public void testApplyToLeavesJournal() throws IOException {
+		List<Bill> bills = UserCodecTest.createUser().getBills();
+		journal.appendAdds(bills);
+		try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(journalFile) - 3);
+		}
+		long length = Files.size(journalFile);
+
+		User user = new User(USER_ID);
+		journal.applyTo(user);
+		UserCodecTest.assertBills(bills.subList(0, 2), user.getBills());
+		assertEquals(length, Files.size(journalFile));
+		assertEquals(3, journal.getRecordCount());
+	}
+
+	public void testCompaction() throws IOException {
+		List<Bill> bills = new ArrayList<>();
+		LocalDateTime dateTime = LocalDateTime.of(2019, 1, 1, 12, 0);
+		for (int i = 0; i < BillJournal.COMPACTION_THRESHOLD; i++) {
+			bills.add(new Bill(dateTime.plusDays(i), "Restoran SC"));
+		}
+
+		journal.appendAdds(bills.subList(0, bills.size() - 1));
+		assertFalse(journal.needsCompaction());
+		journal.appendAdd(bills.get(bills.size() - 1));
+		assertTrue(journal.needsCompaction());
+
+		// the count of a journal that is opened again comes from the replay
+		BillJournal reopened = new BillJournal(journalFile);
+		assertFalse(reopened.needsCompaction());
+		User user = new User(USER_ID);
+		reopened.replay(user);
+		assertTrue(reopened.needsCompaction());
+		assertEquals(bills.size(), user.getBills().size());
+
+		reopened.clear();
+		assertFalse(reopened.needsCompaction());
+		assertFalse(Files.exists(journalFile));
+		assertEquals(0, reopened.replay(new User(USER_ID)));
+	}
+
+	public void testEarliestYear() throws IOException {
+		assertEquals(Integer.MAX_VALUE, journal.getEarliestYear());
+
+		Bill bill = new Bill(LocalDateTime.of(2019, 5, 6, 12, 0), "Restoran SC");
+		journal.appendAdd(bill);
+		journal.appendUserInfo("Ivo Ivic", 10f);
+		assertEquals(2019, journal.getEarliestYear());
+
+		// an edit refers to the year the bill was moved from as well
+		journal.appendEdit(LocalDateTime.of(2017, 12, 31, 20, 0), "Restoran SC", bill);
+		assertEquals(2017, journal.getEarliestYear());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void flipByte(long position) throws IOException {
+		try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, position);
+			b.put(0, (byte) ~b.get(0));
+			b.rewind();
+			channel.write(b, position);
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package altline.unistat;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import altline.unistat.ScrapeEngine.BillRow;
+import altline.unistat.StandInServer.SyntheticBill;
+import altline.unistat.StandInServer.SyntheticEntry;
+import junit.framework.TestCase;
+
+/**
+ * The list phase of a data fetch, which compares the rows of the bills table of a {@link StandInServer} with the
+ * user's bills, so that only the details of new and changed bills are fetched.
+ */
+public class BillListDiffTest extends TestCase {
+
+	private static final int BILLS = 30;
+
+	private StandInServer server;
+	private Path cacheDir;
+	private DetailCache cache;
+	private List<BillRow> rows;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new StandInServer(BILLS, 11);
+		server.start(0);
+		cacheDir = TestFiles.createTempDir("unistat-diff");
+		cache = new DetailCache(cacheDir);
+
+		try (ScrapeEngine engine = new HttpScrapeEngine()) {
+			engine.connect(server.getServerUrl() + "Student");
+			engine.submitLogin(StandInServer.USER_ID, StandInServer.PASSWORD);
+			String href = engine.readGeneralData(new UserData(StandInServer.USER_ID));
+			engine.connect(server.getServerUrl() + "Student/StudentRacuni" + href.substring(href.indexOf('?')));
+			rows = engine.readBillRows();
+		}
+		assertEquals(BILLS, rows.size());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+		TestFiles.deleteTree(cacheDir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * A user who has all listed bills needs no details fetched.
+	 */
+	public void testNothingNew() {
+		User user = createUser();
+		assertTrue(WebManager.diffBillRows(rows, user, cache).isEmpty());
+	}
+
+	/**
+	 * Bills the user does not have and bills whose total cost changed are fetched, newest first, down to the first bill
+	 * the user has unchanged. Bills the user edited are left alone.
+	 */
+	public void testNewAndChangedRows() {
+		User user = createUser();
+		// new
+		user.removeBill(findBill(user, rows.get(0)));
+		user.removeBill(findBill(user, rows.get(2)));
+		// edited by the user, so it is not fetched even though it differs
+		Bill edited = findBill(user, rows.get(1));
+		Bill editedEntries = edited.copy();
+		editedEntries.addEntry("Kava", 1.2f, 1, 0f);
+		edited.edit(edited.getDateTime(), edited.getSource(), editedEntries.getEntries());
+		// changed on the webserver
+		Bill changed = findBill(user, rows.get(3));
+		changed.addEntry("Kava", 1.2f, 1, 0f);
+		cache.put(changed, new DetailCache.Validators());
+		// below the first unchanged bill, so not fresh
+		user.removeBill(findBill(user, rows.get(6)));
+		cache.put(findBill(user, rows.get(4)), new DetailCache.Validators());
+
+		List<Integer> staleIndices = toIndices(WebManager.diffBillRows(rows, user, cache));
+		assertEquals(Arrays.asList(0, 2, 3), staleIndices);
+
+		// the details of the changed bill are fetched again, those of the unchanged one are still cached
+		assertNull(cache.get(rows.get(3)));
+		assertNotNull(cache.get(rows.get(4)));
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return A user with all bills of the stand-in server
+	 */
+	private User createUser() {
+		User user = new User(StandInServer.USER_ID);
+		List<Bill> bills = new ArrayList<>(BILLS);
+		for (SyntheticBill synthetic : server.getBills()) {
+			Bill bill = new Bill(synthetic.dateTime, synthetic.source);
+			for (SyntheticEntry entry : synthetic.entries) {
+				bill.addEntry(entry.articleName, entry.articlePrice, entry.amount, entry.subsidy);
+			}
+			bills.add(bill);
+		}
+		user.addBills(bills);
+		return user;
+	}
+
+	private static Bill findBill(User user, BillRow row) {
+		Bill bill = user.findBill(row.getDateTime(), row.getSource());
+		assertNotNull("No bill of row " + row.getIndex(), bill);
+		return bill;
+	}
+
+	/**
+	 * @return The indices of the specified rows in the order they are taken from the queue
+	 */
+	private static List<Integer> toIndices(PriorityQueue<BillRow> rows) {
+		List<Integer> indices = new ArrayList<>(rows.size());
+		BillRow row;
+		while ((row = rows.poll()) != null) {
+			indices.add(row.getIndex());
+		}
+		return indices;
+	}
+
+}
@@ -0,0 +1,187 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Exporting bills with a {@link BillTransfer} and importing them back, in both supported formats.
+ */
+public class BillTransferTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+
+	private Path dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-transfer");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testCsvRoundTrip() throws Exception {
+		assertRoundTrip(dir.resolve("bills.csv"));
+	}
+
+	public void testJsonRoundTrip() throws Exception {
+		assertRoundTrip(dir.resolve("bills.json"));
+	}
+
+	public void testCsvReimport() throws Exception {
+		assertReimport(dir.resolve("bills.csv"));
+	}
+
+	public void testJsonReimport() throws Exception {
+		assertReimport(dir.resolve("bills.json"));
+	}
+
+	public void testCsvBatches() throws Exception {
+		assertBatches(dir.resolve("bills.csv"));
+	}
+
+	public void testJsonBatches() throws Exception {
+		assertBatches(dir.resolve("bills.json"));
+	}
+
+	/**
+	 * The rows of a CSV bill are parsed in different chunks when the bill crosses a chunk boundary.
+	 */
+	public void testBillsAcrossChunks() throws Exception {
+		List<Bill> bills = new ArrayList<>();
+		LocalDateTime dateTime = LocalDateTime.of(2019, 1, 1, 12, 0);
+		for (int i = 0; i < 1000; i++) {
+			Bill bill = new Bill(dateTime.plusHours(i), "Restoran SC");
+			bill.addEntry("Juha", 1.5f, 1, 0.5f);
+			bill.addEntry("Glavno jelo", 12.4f, 2, 10f);
+			bill.addEntry("Kolac", 2f, 1, 0f);
+			bills.add(bill);
+		}
+
+		Path file = dir.resolve("bills.csv");
+		BillTransfer transfer = BillTransfer.forFile(file);
+		transfer.write(file, bills);
+		UserCodecTest.assertBills(bills, transfer.read(file));
+	}
+
+	/**
+	 * Of the bills in a file that were issued at the same time in the same place, only the first one is read.
+	 */
+	public void testDuplicatesInFile() throws Exception {
+		Path file = dir.resolve("bills.json");
+		List<Bill> bills = createBills();
+		List<Bill> duplicated = new ArrayList<>(bills);
+		duplicated.add(bills.get(0).copy());
+
+		BillTransfer transfer = BillTransfer.forFile(file);
+		transfer.write(file, duplicated);
+		UserCodecTest.assertBills(bills, transfer.read(file));
+	}
+
+	public void testUnsupportedFormat() {
+		try {
+			BillTransfer.forFile(dir.resolve("bills.xml"));
+			fail("A transfer was created for an unsupported format");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testMalformedCsv() throws IOException, InterruptedException {
+		Path file = dir.resolve("bills.csv");
+		Files.write(file, Arrays.asList("dateTime,source,articleName,articlePrice,amount,subsidy",
+				"2019-10-01T12:30:15,Restoran,Juha,tri,1,2.0"), StandardCharsets.UTF_8);
+		try {
+			BillTransfer.forFile(file).read(file);
+			fail("A malformed record was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static void assertRoundTrip(Path file) throws Exception {
+		List<Bill> bills = createBills();
+		BillTransfer transfer = BillTransfer.forFile(file);
+		transfer.write(file, bills);
+		UserCodecTest.assertBills(bills, transfer.read(file));
+	}
+
+	/**
+	 * Importing an exported file adds its bills to a user that does not have them, and importing it again adds none,
+	 * the same as {@link UserManager#importBills(Path)}.
+	 */
+	private static void assertReimport(Path file) throws Exception {
+		List<Bill> bills = createBills();
+		BillTransfer transfer = BillTransfer.forFile(file);
+		transfer.write(file, bills);
+
+		User user = new User(USER_ID);
+		user.setAggregates(BillAggregates.compute(user.getBills()));
+		assertEquals(bills.size(), user.addNewBills(transfer.read(file)).size());
+		assertTrue(user.addNewBills(transfer.read(file)).isEmpty());
+		UserCodecTest.assertBills(bills, user.getBills());
+		assertEquals(bills.size(), user.getAggregates().getOverall().getBillCount());
+	}
+
+	/**
+	 * Bills written in batches, one of them empty, are read back the same as if they were written at once.
+	 */
+	private static void assertBatches(Path file) throws Exception {
+		List<Bill> bills = createBills();
+		BillTransfer transfer = BillTransfer.forFile(file);
+		try (BillTransfer.BatchWriter writer = transfer.openWriter(file)) {
+			writer.write(bills.subList(0, 1));
+			writer.write(Collections.<Bill>emptyList());
+			writer.write(bills.subList(1, bills.size()));
+			assertEquals(bills.size(), writer.getCount());
+		}
+		UserCodecTest.assertBills(bills, transfer.read(file));
+	}
+
+	/**
+	 * @return Bills in the order of their dateTimes, with texts that have to be escaped and a bill without entries
+	 */
+	private static List<Bill> createBills() {
+		List<Bill> bills = new ArrayList<>();
+
+		Bill bill = new Bill(LocalDateTime.of(2019, 3, 31, 2, 30), "Restoran SC");
+		bill.addEntry("Juha, povrtna", 1.5f, 1, 0.5f);
+		bill.addEntry("Kolac \"Sacher\"", 2.25f, 2, 0f);
+		bills.add(bill);
+
+		bill = new Bill(LocalDateTime.of(2019, 4, 1, 13, 15, 20, 500), "Menza \"Savska\"");
+		bill.addEntry("Glavno jelo\nveliko", 12.4f, 1, 10f);
+		bills.add(bill);
+
+		bills.add(new Bill(LocalDateTime.of(2019, 4, 1, 13, 15, 20, 500), "Menza Cvjetno"));
+
+		bill = new Bill(LocalDateTime.of(2020, 1, 2, 8, 0), "Čitaonica, FER");
+		bill.addEntry("Čaj", 0.8f, 3, 0.3f);
+		bills.add(bill);
+		return bills;
+	}
+
+}
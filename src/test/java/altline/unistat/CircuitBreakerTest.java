@@ -0,0 +1,131 @@
+package altline.unistat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import altline.unistat.CircuitBreaker.State;
+import junit.framework.TestCase;
+
+/**
+ * The state changes of a {@link CircuitBreaker} and the growth of the time it stays open.
+ */
+public class CircuitBreakerTest extends TestCase {
+
+	private static final int FAILURE_THRESHOLD = 3;
+	private static final long MIN_OPEN_TIME = 100;
+	private static final long MAX_OPEN_TIME = 300;
+
+	private List<State> states;
+	private CircuitBreaker breaker;
+
+	@Override
+	protected void setUp() throws Exception {
+		states = new ArrayList<>();
+		breaker = new CircuitBreaker(FAILURE_THRESHOLD, MIN_OPEN_TIME, MAX_OPEN_TIME, states::add);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testOpensAtThreshold() {
+		for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+			breaker.recordFailure();
+			assertEquals(State.CLOSED, breaker.getState());
+			assertTrue(breaker.allowRequest());
+		}
+
+		breaker.recordFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(Arrays.asList(State.OPEN), states);
+	}
+
+	/**
+	 * Only failures in a row open the breaker.
+	 */
+	public void testSuccessResetsFailures() {
+		for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+			breaker.recordFailure();
+		}
+		breaker.recordSuccess();
+		breaker.recordFailure();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(states.isEmpty());
+	}
+
+	public void testHalfOpenAfterTimeout() throws InterruptedException {
+		breaker.trip();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+
+		waitUntilAllowed();
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertEquals(0, breaker.getRetryDelay());
+
+		breaker.recordSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(Arrays.asList(State.OPEN, State.HALF_OPEN, State.CLOSED), states);
+	}
+
+	/**
+	 * A failed trial opens the breaker for twice as long as before, up to the maximum, while a success resets the time
+	 * to the minimum.
+	 */
+	public void testOpenTimeDoubles() throws InterruptedException {
+		breaker.trip();
+		assertOpenFor(MIN_OPEN_TIME);
+
+		waitUntilAllowed();
+		breaker.recordFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertOpenFor(MIN_OPEN_TIME * 2);
+
+		waitUntilAllowed();
+		breaker.recordFailure();
+		assertOpenFor(MAX_OPEN_TIME);
+
+		waitUntilAllowed();
+		breaker.recordFailure();
+		assertOpenFor(MAX_OPEN_TIME);
+
+		waitUntilAllowed();
+		breaker.recordSuccess();
+		breaker.trip();
+		assertOpenFor(MIN_OPEN_TIME);
+	}
+
+	/**
+	 * Failures of requests that were under way when the breaker opened do not keep it open longer.
+	 */
+	public void testFailuresWhileOpen() {
+		breaker.trip();
+		long delay = breaker.getRetryDelay();
+		breaker.recordFailure();
+		breaker.trip();
+		assertTrue(breaker.getRetryDelay() <= delay);
+		assertEquals(Arrays.asList(State.OPEN), states);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void assertOpenFor(long openTime) {
+		long delay = breaker.getRetryDelay();
+		assertTrue("Open for " + delay + " ms instead of " + openTime, delay <= openTime && delay > openTime / 2);
+	}
+
+	private void waitUntilAllowed() throws InterruptedException {
+		Thread.sleep(breaker.getRetryDelay());
+		while (!breaker.allowRequest()) {
+			Thread.sleep(5);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import altline.unistat.CookieJar.StoredCookie;
+import junit.framework.TestCase;
+
+/**
+ * Writing a {@link CookieJar} and reading it back, which drops the cookies that expired.
+ */
+public class CookieJarTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+	private static final long HOUR = 60 * 60 * 1000;
+
+	private Path dir;
+	private Path jarFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-cookies");
+		jarFile = dir.resolve("user").resolve("cookies.dat");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testRoundTrip() throws IOException {
+		long now = System.currentTimeMillis();
+		StoredCookie session = new StoredCookie("JSESSIONID", "abc123", "issp.srce.hr", "/", -1, true, true);
+		StoredCookie persistent = new StoredCookie("remember", "yes", "issp.srce.hr", null, now + HOUR, false, false);
+		StoredCookie expired = new StoredCookie("tracking", "1", "issp.srce.hr", "/stats", now - HOUR, false, false);
+		new CookieJar(USER_ID, Arrays.asList(session, expired, persistent)).write(jarFile);
+
+		CookieJar read = CookieJar.read(jarFile);
+		assertEquals(USER_ID, read.getUserID());
+		List<StoredCookie> cookies = read.getCookies();
+		assertEquals(2, cookies.size());
+		assertCookie(session, cookies.get(0));
+		assertCookie(persistent, cookies.get(1));
+		assertEquals("/", cookies.get(1).getPath());
+	}
+
+	public void testMissingFile() throws IOException {
+		assertNull(CookieJar.read(jarFile));
+	}
+
+	public void testInvalidFile() throws IOException {
+		Files.createDirectories(jarFile.getParent());
+		Files.write(jarFile, "not a cookie jar".getBytes(StandardCharsets.US_ASCII));
+		try {
+			CookieJar.read(jarFile);
+			fail("An invalid cookie jar was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static void assertCookie(StoredCookie expected, StoredCookie actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getValue(), actual.getValue());
+		assertEquals(expected.getDomain(), actual.getDomain());
+		assertEquals(expected.getPath(), actual.getPath());
+		assertEquals(expected.getExpires(), actual.getExpires());
+		assertEquals(expected.isSecure(), actual.isSecure());
+		assertEquals(expected.isHttpOnly(), actual.isHttpOnly());
+	}
+
+}
@@ -0,0 +1,210 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Storing user data in a {@link DatabaseBillStore}, importing it from a {@link FileBillStore}, and the data version
+ * that stamps the stored aggregates.
+ */
+public class DatabaseBillStoreTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+
+	private Path dir;
+	private Path databaseFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-database");
+		databaseFile = dir.resolve(USER_ID + DatabaseBillStore.FILE_SUFFIX);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testRoundTrip() throws IOException {
+		User user = UserCodecTest.createUser();
+		user.getBills().get(1).setEdited(true);
+		user.addBill(new Bill(LocalDateTime.of(2019, 5, 6, 12, 0), null));
+		user.sortBills();
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			store.saveAll(user);
+		}
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			User read = store.load();
+			assertEquals(USER_ID, read.getUserID());
+			assertEquals(user.getFullName(), read.getFullName());
+			assertEquals(user.getAvailableFunds(), read.getAvailableFunds(), 0f);
+			UserCodecTest.assertBills(user.getBills(), read.getBills());
+			assertNull(read.getBills().get(2).getSource());
+		}
+	}
+
+	/**
+	 * The bills are stored as they are issued, also those issued in the hour skipped by the daylight saving change.
+	 */
+	public void testDaylightSavingGap() throws IOException {
+		User user = UserCodecTest.createUser();
+		LocalDateTime inGap = user.getBills().get(0).getDateTime();
+		assertEquals(LocalDateTime.of(2019, 3, 31, 2, 30), inGap);
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			store.saveAll(user);
+			assertEquals(inGap, store.query(null, null, null).get(0).getDateTime());
+		}
+	}
+
+	public void testSingleChanges() throws IOException {
+		User user = UserCodecTest.createUser();
+		List<Bill> bills = user.getBills();
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			store.insertAll(bills);
+			store.saveUserInfo("Ana Anic", 5f);
+
+			Bill moved = bills.get(0).copy();
+			moved.edit(moved.getDateTime().plusHours(1), "Menza Cvjetno", Collections.<Bill.Entry>emptyList());
+			store.update(bills.get(0).getDateTime(), bills.get(0).getSource(), moved);
+			store.delete(bills.get(2).getDateTime(), bills.get(2).getSource());
+
+			List<Bill> stored = store.query(null, null, null);
+			UserCodecTest.assertBills(Arrays.asList(moved, bills.get(1)), stored);
+
+			// queries by range and source
+			assertEquals(1, store.query(null, null, "Menza Savska").size());
+			assertEquals(1, store.query(LocalDateTime.of(2019, 4, 1, 0, 0), null, null).size());
+			assertEquals(1, store.query(null, bills.get(1).getDateTime(), null).size());
+
+			User read = store.load();
+			assertEquals("Ana Anic", read.getFullName());
+			assertEquals(5f, read.getAvailableFunds(), 0f);
+		}
+	}
+
+	/**
+	 * Only the bills of the recent years are loaded with the user. The older years are loaded on request and kept
+	 * when a user that has not loaded them is saved.
+	 */
+	public void testRecentYears() throws IOException {
+		User user = UserCodecTest.createUser();
+
+		try (DatabaseBillStore store = open(2020)) {
+			store.saveAll(user);
+
+			User read = store.load();
+			assertEquals(2020, read.getFirstLoadedYear());
+			UserCodecTest.assertBills(user.getBills().subList(2, 3), read.getBills());
+			UserCodecTest.assertBills(user.getBills().subList(0, 2), store.loadYears(2019, 2020));
+
+			read.addBill(new Bill(LocalDateTime.of(2020, 5, 6, 12, 0), "Restoran SC"));
+			store.saveAll(read);
+			assertEquals(4, store.query(null, null, null).size());
+		}
+	}
+
+	/**
+	 * The database is filled from the user's data files, including the archives and the journal, the first time it is
+	 * opened.
+	 */
+	public void testImportFromFileStore() throws IOException {
+		Path userFile = dir.resolve(USER_ID + ".dat");
+		Path journalFile = dir.resolve(USER_ID + ".journal");
+		User user = UserCodecTest.createUser();
+
+		FileBillStore fileStore = new FileBillStore(USER_ID, userFile, journalFile, 2020);
+		fileStore.saveAll(user);
+		Bill added = new Bill(LocalDateTime.of(2018, 6, 1, 12, 0), "Menza Savska");
+		added.addEntry("Juha", 1.5f, 1, 0.5f);
+		fileStore.upsert(added);
+		user.addBill(added);
+		user.sortBills();
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			store.saveAll(new FileBillStore(USER_ID, userFile, journalFile, Integer.MIN_VALUE).load());
+		}
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			User read = store.load();
+			assertEquals(user.getFullName(), read.getFullName());
+			UserCodecTest.assertBills(user.getBills(), read.getBills());
+		}
+	}
+
+	/**
+	 * The keys of the bills of a time range and the years of all bills are read, with a bill without a source having a
+	 * key without one.
+	 */
+	public void testKeysAndYears() throws IOException {
+		User user = UserCodecTest.createUser();
+		user.addBillSorted(new Bill(LocalDateTime.of(2017, 8, 1, 12, 0), null));
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			store.saveAll(user);
+			assertEquals(new TreeSet<>(Arrays.asList(2017, 2019, 2020)), store.getYears());
+
+			Set<SimpleImmutableEntry<LocalDateTime, String>> expected = new HashSet<>();
+			expected.add(new SimpleImmutableEntry<>(LocalDateTime.of(2017, 8, 1, 12, 0), null));
+			expected.add(new SimpleImmutableEntry<>(LocalDateTime.of(2019, 3, 31, 2, 30), "Restoran SC"));
+			assertEquals(expected, store.queryKeys(null, LocalDateTime.of(2019, 4, 1, 0, 0)));
+		}
+	}
+
+	/**
+	 * Every write advances the version, which survives reopening the database, while reads leave it alone.
+	 */
+	public void testDataVersion() throws IOException {
+		User user = UserCodecTest.createUser();
+		long version;
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			version = store.getDataVersion();
+
+			store.saveAll(user);
+			assertEquals(version + 1, store.getDataVersion());
+			store.upsert(user.getBills().get(0));
+			assertEquals(version + 2, store.getDataVersion());
+			store.saveUserInfo("Ana Anic", 5f);
+			assertEquals(version + 3, store.getDataVersion());
+
+			store.load();
+			store.query(null, null, null);
+			assertEquals(version + 3, store.getDataVersion());
+		}
+
+		try (DatabaseBillStore store = open(Integer.MIN_VALUE)) {
+			assertEquals(version + 3, store.getDataVersion());
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private DatabaseBillStore open(int recentYear) throws IOException {
+		return new DatabaseBillStore(USER_ID, databaseFile, recentYear);
+	}
+
+}
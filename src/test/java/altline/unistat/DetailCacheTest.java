@@ -0,0 +1,140 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import altline.unistat.ScrapeEngine.BillRow;
+import junit.framework.TestCase;
+
+/**
+ * Storing bill details in a {@link DetailCache} and reading them back, with the validators of their pages.
+ */
+public class DetailCacheTest extends TestCase {
+
+	private Path dir;
+	private DetailCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-cache");
+		cache = new DetailCache(dir.resolve("details"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testRoundTrip() {
+		Bill bill = createBill();
+		assertNull(cache.get(toRow(bill)));
+		cache.put(bill, new DetailCache.Validators());
+
+		DetailCache.Record record = cache.get(toRow(bill));
+		assertNotNull(record);
+		Bill filled = toRow(bill).toBill();
+		record.fill(filled);
+		UserCodecTest.assertBills(Collections.singletonList(bill), Collections.singletonList(filled));
+
+		// other bills are not affected
+		Bill other = new Bill(bill.getDateTime(), "Menza Savska");
+		assertNull(cache.get(toRow(other)));
+	}
+
+	public void testValidators() {
+		Bill bill = createBill();
+		cache.put(bill, new DetailCache.Validators("\"abc\"", "Mon, 02 Mar 2020 12:00:00 GMT"));
+
+		DetailCache.Validators validators = cache.get(toRow(bill)).getValidators();
+		assertTrue(validators.isPresent());
+		assertEquals("\"abc\"", validators.getEtag());
+		assertEquals("Mon, 02 Mar 2020 12:00:00 GMT", validators.getLastModified());
+		assertFalse(validators.isNotModified());
+
+		validators.setNotModified(true);
+		assertTrue(validators.isNotModified());
+
+		// validators the server did not send are read back as missing
+		cache.put(bill, new DetailCache.Validators(null, "Mon, 02 Mar 2020 12:00:00 GMT"));
+		validators = cache.get(toRow(bill)).getValidators();
+		assertNull(validators.getEtag());
+		assertTrue(validators.isPresent());
+
+		cache.put(bill, new DetailCache.Validators());
+		assertFalse(cache.get(toRow(bill)).getValidators().isPresent());
+	}
+
+	public void testInvalidate() {
+		Bill bill = createBill();
+		cache.put(bill, new DetailCache.Validators());
+		cache.invalidate(toRow(bill));
+		assertNull(cache.get(toRow(bill)));
+
+		// invalidating details that are not cached does nothing
+		cache.invalidate(toRow(bill));
+	}
+
+	/**
+	 * A file that can not be read is discarded, so the details are fetched and cached again.
+	 */
+	public void testCorruptFileIsDiscarded() throws IOException {
+		Bill bill = createBill();
+		cache.put(bill, new DetailCache.Validators());
+		List<Path> files = listFiles();
+		assertEquals(1, files.size());
+		Files.write(files.get(0), new byte[] { 1, 2, 3 });
+
+		assertNull(cache.get(toRow(bill)));
+		assertTrue(listFiles().isEmpty());
+
+		cache.put(bill, new DetailCache.Validators());
+		assertNotNull(cache.get(toRow(bill)));
+	}
+
+	public void testEntryWithoutName() {
+		Bill bill = createBill();
+		bill.addEntry(null, 0.8f, 1, 0f);
+		cache.put(bill, new DetailCache.Validators());
+
+		Bill filled = toRow(bill).toBill();
+		cache.get(toRow(bill)).fill(filled);
+		assertEquals(3, filled.getEntries().size());
+		assertEquals("", filled.getEntries().get(2).getArticleName());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private List<Path> listFiles() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			return files.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+	}
+
+	private static BillRow toRow(Bill bill) {
+		return new BillRow(0, bill.getDateTime(), bill.getSource(), bill.getTotalCost(), null);
+	}
+
+	private static Bill createBill() {
+		Bill bill = new Bill(LocalDateTime.of(2020, 3, 2, 12, 0), "Restoran SC");
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		bill.addEntry("Glavno jelo", 12.4f, 2, 10f);
+		return bill;
+	}
+
+}
@@ -0,0 +1,245 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import altline.unistat.ScrapeEngine.BillRow;
+import junit.framework.TestCase;
+
+/**
+ * Fetching bill details concurrently with a {@link DetailFetcher}: the number of details fetched at the same time, the
+ * order the results are consumed in and the details taken from the {@link DetailCache}.
+ */
+public class DetailFetcherTest extends TestCase {
+
+	private static final int CONCURRENCY = 3;
+	private static final int ROWS = 12;
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private Path cacheDir;
+	private DetailCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		cacheDir = TestFiles.createTempDir("unistat-details");
+		cache = new DetailCache(cacheDir);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(cacheDir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testConcurrencyLimit() throws Exception {
+		StubEngine engine = new StubEngine();
+		// the first fetches wait for each other, so as many run at the same time as the fetcher allows
+		engine.started = new CountDownLatch(CONCURRENCY);
+		List<BillRow> rows = createRows();
+
+		try (DetailFetcher fetcher = createFetcher(engine)) {
+			List<Future<Bill>> futures = submitAll(fetcher, rows);
+			for (Future<Bill> future : futures) {
+				future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+		assertEquals(CONCURRENCY, engine.maxActive.get());
+		assertEquals(ROWS, engine.fetches.get());
+	}
+
+	/**
+	 * The details complete in reverse order, but are consumed in the order they were submitted in.
+	 */
+	public void testOrderedResults() throws Exception {
+		StubEngine engine = new StubEngine();
+		engine.reverseDelays = true;
+		List<BillRow> rows = createRows();
+
+		List<Bill> bills = new ArrayList<>();
+		try (DetailFetcher fetcher = createFetcher(engine)) {
+			for (Future<Bill> future : submitAll(fetcher, rows)) {
+				bills.add(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+			}
+		}
+
+		assertEquals(ROWS, bills.size());
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(rows.get(i).getDateTime(), bills.get(i).getDateTime());
+			assertEquals(1, bills.get(i).getEntries().size());
+			assertEquals(StubEngine.getArticleName(rows.get(i)), bills.get(i).getEntries().get(0).getArticleName());
+		}
+	}
+
+	/**
+	 * Fetched details are cached, so they are not fetched again. Details of pages that may not have been completely
+	 * loaded are not cached.
+	 */
+	public void testCachedDetails() throws Exception {
+		StubEngine engine = new StubEngine();
+		engine.unsettledRow = 0;
+		List<BillRow> rows = createRows();
+		try (DetailFetcher fetcher = createFetcher(engine)) {
+			for (Future<Bill> future : submitAll(fetcher, rows)) {
+				future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			assertEquals(1, fetcher.getUnsettledCount());
+			assertEquals(0, fetcher.getCachedCount());
+		}
+
+		engine.fetches.set(0);
+		try (DetailFetcher fetcher = createFetcher(engine)) {
+			List<Future<Bill>> futures = submitAll(fetcher, rows);
+			for (int i = 0; i < ROWS; i++) {
+				Bill bill = futures.get(i).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				assertEquals(StubEngine.getArticleName(rows.get(i)), bill.getEntries().get(0).getArticleName());
+			}
+			assertEquals(ROWS - 1, fetcher.getCachedCount());
+		}
+		assertEquals(1, engine.fetches.get());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private DetailFetcher createFetcher(ScrapeEngine engine) {
+		// the limiter never delays the tests
+		return new DetailFetcher(engine, cache, CONCURRENCY, new RateLimiter(10000, ROWS));
+	}
+
+	private static List<Future<Bill>> submitAll(DetailFetcher fetcher, List<BillRow> rows) {
+		List<Future<Bill>> futures = new ArrayList<>(rows.size());
+		for (BillRow row : rows) {
+			futures.add(fetcher.submit(row, row.toBill()));
+		}
+		return futures;
+	}
+
+	private static List<BillRow> createRows() throws IOException {
+		List<BillRow> rows = new ArrayList<>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			rows.add(new BillRow(i, LocalDateTime.of(2020, 3, 1 + i, 12, 0), "Restoran SC", 1.5f,
+					new URL("http://example.com/Student/StudentRacuni/Detalji?id=" + i)));
+		}
+		return rows;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * An engine that only fetches details, adding a single entry named after the row, and counts the fetches that run
+	 * at the same time.
+	 */
+	private static final class StubEngine implements ScrapeEngine {
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger maxActive = new AtomicInteger();
+		private final AtomicInteger fetches = new AtomicInteger();
+		private final Traffic traffic = new Traffic();
+		/** Counted down by every fetch, which then waits for it to reach zero, or null */
+		private volatile CountDownLatch started;
+		/** Whether the fetches of earlier rows take longer */
+		private volatile boolean reverseDelays;
+		/** The index of the row whose details page is reported as not completely loaded, or -1 */
+		private volatile int unsettledRow = -1;
+
+		private static String getArticleName(BillRow row) {
+			return "Artikl " + row.getIndex();
+		}
+
+		@Override
+		public boolean fetchDetails(BillRow row, Bill bill, DetailCache.Validators validators) throws IOException {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			fetches.incrementAndGet();
+			try {
+				CountDownLatch latch = started;
+				if (latch != null) {
+					latch.countDown();
+					if (!latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) throw new IOException("The other fetches did not start");
+				}
+				if (reverseDelays) Thread.sleep(5 * (ROWS - row.getIndex()));
+
+				bill.addEntry(getArticleName(row), 1.5f, 1, 0.5f);
+				return row.getIndex() != unsettledRow;
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+
+		@Override
+		public String connect(String url) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getCurrentUrl() {
+			return "";
+		}
+
+		@Override
+		public String submitLogin(String userID, String password) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String readLoginError() {
+			return "--";
+		}
+
+		@Override
+		public String readGeneralData(UserData userData) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<BillRow> readBillRows() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<CookieJar.StoredCookie> getCookies() {
+			return new ArrayList<>();
+		}
+
+		@Override
+		public void addCookies(Collection<CookieJar.StoredCookie> cookies) {
+		}
+
+		@Override
+		public void clearCookies() {
+		}
+
+		@Override
+		public Traffic getTraffic() {
+			return traffic;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
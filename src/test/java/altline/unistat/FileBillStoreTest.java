@@ -0,0 +1,238 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Splitting the bills of a {@link FileBillStore} into the main data file and yearly archives, and merging them back
+ * when older years are loaded.
+ */
+public class FileBillStoreTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+	private static final int RECENT_YEAR = 2020;
+
+	private Path dir;
+	private Path userFile;
+	private Path journalFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-store");
+		userFile = dir.resolve(USER_ID + ".dat");
+		journalFile = dir.resolve(USER_ID + ".journal");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testArchivesPerYear() throws IOException {
+		User user = createUser();
+		openStore(RECENT_YEAR).saveAll(user);
+
+		for (int year = 2016; year < RECENT_YEAR; year++) {
+			assertTrue(Files.exists(getArchiveFile(year)));
+			assertEquals(2, UserCodec.read(getArchiveFile(year)).getBills().size());
+		}
+		assertFalse(Files.exists(getArchiveFile(RECENT_YEAR)));
+		assertEquals(4, UserCodec.read(userFile).getBills().size());
+	}
+
+	/**
+	 * Loading the older years the way {@link UserManager#loadBillsSince(int)} does gives the same bills as loading them
+	 * all at once.
+	 */
+	public void testLoadOlderYears() throws IOException {
+		User user = createUser();
+		openStore(RECENT_YEAR).saveAll(user);
+
+		FileBillStore store = openStore(RECENT_YEAR);
+		User loaded = store.load();
+		assertEquals(RECENT_YEAR, loaded.getFirstLoadedYear());
+		assertFalse(loaded.isYearLoaded(2019));
+		UserCodecTest.assertBills(user.getBills().subList(8, 12), loaded.getBills());
+
+		loaded.addLoadedBills(store.loadYears(2018, RECENT_YEAR), 2018);
+		assertEquals(2018, loaded.getFirstLoadedYear());
+		UserCodecTest.assertBills(user.getBills().subList(4, 12), loaded.getBills());
+
+		loaded.addLoadedBills(store.loadYears(Integer.MIN_VALUE, 2018), Integer.MIN_VALUE);
+		assertTrue(loaded.isYearLoaded(2016));
+		UserCodecTest.assertBills(user.getBills(), loaded.getBills());
+
+		UserCodecTest.assertBills(user.getBills(), openStore(Integer.MIN_VALUE).load().getBills());
+	}
+
+	/**
+	 * Saving a user whose older years are not loaded keeps their archives, and bills of those years that the user got
+	 * in the meantime are merged into them.
+	 */
+	public void testSaveWithoutOlderYears() throws IOException {
+		User user = createUser();
+		openStore(RECENT_YEAR).saveAll(user);
+
+		FileBillStore store = openStore(RECENT_YEAR);
+		User loaded = store.load();
+		Bill repaired = new Bill(LocalDateTime.of(2017, 7, 1, 12, 0), "Menza Savska");
+		repaired.addEntry("Juha", 1.5f, 1, 0.5f);
+		loaded.addBill(repaired.copy());
+		loaded.removeBill(loaded.getBills().get(0));
+		loaded.sortBills();
+		store.saveAll(loaded);
+
+		user.addBill(repaired);
+		user.removeBill(user.getBills().get(8));
+		user.sortBills();
+		assertEquals(3, UserCodec.read(getArchiveFile(2017)).getBills().size());
+		UserCodecTest.assertBills(user.getBills(), openStore(Integer.MIN_VALUE).load().getBills());
+	}
+
+	/**
+	 * Bills that moved out of the recent years when the recent years advanced are archived with the next save, and are
+	 * still found by the loads of their year before that.
+	 */
+	public void testRecentYearsAdvance() throws IOException {
+		User user = createUser();
+		openStore(2016).saveAll(user);
+		assertFalse(Files.exists(getArchiveFile(2016)));
+
+		FileBillStore store = openStore(RECENT_YEAR);
+		User loaded = store.load();
+		UserCodecTest.assertBills(user.getBills(), loaded.getBills());
+
+		store.saveAll(loaded);
+		assertTrue(Files.exists(getArchiveFile(2016)));
+		UserCodecTest.assertBills(user.getBills().subList(8, 12), UserCodec.read(userFile).getBills());
+		UserCodecTest.assertBills(user.getBills().subList(2, 4), openStore(RECENT_YEAR).loadYears(2017, 2018));
+	}
+
+	/**
+	 * Changes written to the journal are replayed on top of the main data file and the archives, loading the archives
+	 * of the years they refer to.
+	 */
+	public void testJournalOfOlderYear() throws IOException {
+		User user = createUser();
+		openStore(RECENT_YEAR).saveAll(user);
+
+		Bill added = new Bill(LocalDateTime.of(2018, 12, 31, 20, 0), "Restoran SC");
+		openStore(RECENT_YEAR).upsert(added);
+
+		User loaded = openStore(RECENT_YEAR).load();
+		assertEquals(2018, loaded.getFirstLoadedYear());
+		assertTrue(loaded.hasBill(added.getDateTime(), added.getSource()));
+		assertEquals(4 + 4 + 1, loaded.getBills().size());
+	}
+
+	public void testQueryAcrossArchives() throws IOException {
+		User user = createUser();
+		FileBillStore store = openStore(RECENT_YEAR);
+		store.saveAll(user);
+
+		List<Bill> bills = store.query(LocalDateTime.of(2017, 6, 1, 0, 0), LocalDateTime.of(2020, 6, 1, 0, 0), null);
+		UserCodecTest.assertBills(user.getBills().subList(3, 9), bills);
+		assertEquals(6, store.query(null, null, "Menza Savska").size());
+	}
+
+	/**
+	 * Changes written through the store are applied to the data that was already queried, at their place in the order
+	 * of dateTimes.
+	 */
+	public void testQueryAfterChanges() throws IOException {
+		User user = createUser();
+		FileBillStore store = openStore(RECENT_YEAR);
+		store.saveAll(user);
+		assertEquals(12, store.query(null, null, null).size());
+
+		Bill added = new Bill(LocalDateTime.of(2018, 3, 1, 12, 0), "Restoran SC");
+		added.addEntry("Juha", 1.5f, 1, 0.5f);
+		store.upsert(added);
+		user.addBill(added.copy());
+
+		Bill moved = user.getBills().get(10).copy();
+		LocalDateTime oldDateTime = moved.getDateTime();
+		moved.edit(LocalDateTime.of(2016, 5, 1, 12, 0), moved.getSource(), moved.getEntries());
+		store.update(oldDateTime, moved.getSource(), moved);
+		user.editBill(user.getBills().get(10), moved.getDateTime(), moved.getSource(), moved.getEntries());
+
+		Bill removed = user.getBills().get(0);
+		store.delete(removed.getDateTime(), removed.getSource());
+		user.removeBill(removed);
+
+		user.sortBills();
+		UserCodecTest.assertBills(user.getBills(), store.query(null, null, null));
+		// a fresh store reads the same bills from the files
+		UserCodecTest.assertBills(user.getBills(), openStore(RECENT_YEAR).query(null, null, null));
+	}
+
+	/**
+	 * The years of all bills include the archived ones and the ones only the journal has, and the keys of a time range
+	 * are read across archives and the main data file.
+	 */
+	public void testKeysAndYears() throws IOException {
+		FileBillStore store = openStore(RECENT_YEAR);
+		store.saveAll(createUser());
+		store.upsert(new Bill(LocalDateTime.of(2014, 5, 1, 12, 0), "Restoran SC"));
+		assertEquals(new TreeSet<>(Arrays.asList(2014, 2016, 2017, 2018, 2019, 2020, 2021)), openStore(RECENT_YEAR).getYears());
+
+		Set<SimpleImmutableEntry<LocalDateTime, String>> expected = new HashSet<>();
+		expected.add(new SimpleImmutableEntry<>(LocalDateTime.of(2019, 7, 1, 12, 30), "Menza Savska"));
+		expected.add(new SimpleImmutableEntry<>(LocalDateTime.of(2020, 1, 2, 8, 0), "Restoran SC"));
+		assertEquals(expected, store.queryKeys(LocalDateTime.of(2019, 6, 1, 0, 0), LocalDateTime.of(2020, 6, 1, 0, 0)));
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private FileBillStore openStore(int recentYear) {
+		return new FileBillStore(USER_ID, userFile, journalFile, recentYear);
+	}
+
+	private Path getArchiveFile(int year) {
+		return dir.resolve(USER_ID + "." + year + ".dat");
+	}
+
+	/**
+	 * @return A user with two bills in each year from 2016 to 2021, one at the beginning and one in the middle of the
+	 *         year
+	 */
+	private static User createUser() {
+		User user = new User(USER_ID);
+		user.setFullName("Ivo Ivic");
+
+		List<Bill> bills = new ArrayList<>();
+		for (int year = 2016; year <= 2021; year++) {
+			Bill bill = new Bill(LocalDateTime.of(year, 1, 2, 8, 0), "Restoran SC");
+			bill.addEntry("Juha", 1.5f, 1, 0.5f);
+			bills.add(bill);
+
+			bill = new Bill(LocalDateTime.of(year, 7, 1, 12, 30), "Menza Savska");
+			bill.addEntry("Glavno jelo", 12.4f, 2, 10f);
+			bills.add(bill);
+		}
+		user.addBills(bills);
+		return user;
+	}
+
+}
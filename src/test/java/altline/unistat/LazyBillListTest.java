@@ -0,0 +1,221 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.collections.ListChangeListener;
+import junit.framework.TestCase;
+
+/**
+ * Looking bills of a {@link LazyBillList} up by their dateTime and source through its index, while the list and its
+ * bills change.
+ */
+public class LazyBillListTest extends TestCase {
+
+	private static final LocalDateTime MONDAY = LocalDateTime.of(2020, 3, 2, 12, 0);
+	private static final LocalDateTime TUESDAY = LocalDateTime.of(2020, 3, 3, 12, 0);
+	private static final LocalDateTime WEDNESDAY = LocalDateTime.of(2020, 3, 4, 12, 0);
+	private static final LocalDateTime THURSDAY = LocalDateTime.of(2020, 3, 5, 12, 0);
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testAdd() {
+		LazyBillList bills = new LazyBillList();
+		bills.add(createBill(MONDAY, "Restoran SC"));
+		// the index is built by the first lookup, and kept up to date from then on
+		assertEquals(0, bills.indexOf(MONDAY, "Restoran SC"));
+
+		bills.add(createBill(TUESDAY, "Restoran SC"));
+		bills.add(createBill(TUESDAY, "Menza Savska"));
+		assertEquals(1, bills.indexOf(TUESDAY, "Restoran SC"));
+		assertEquals(2, bills.indexOf(TUESDAY, "Menza Savska"));
+		assertEquals(-1, bills.indexOf(MONDAY, "Menza Savska"));
+		assertTrue(bills.containsDateTime(TUESDAY));
+		assertFalse(bills.containsDateTime(WEDNESDAY));
+	}
+
+	/**
+	 * Inserting a bill moves the positions of the bills after it.
+	 */
+	public void testInsertInMiddle() {
+		LazyBillList bills = createList();
+		bills.add(1, createBill(TUESDAY, "Restoran SC"));
+
+		assertEquals(0, bills.indexOf(MONDAY, "Restoran SC"));
+		assertEquals(1, bills.indexOf(TUESDAY, "Restoran SC"));
+		assertEquals(2, bills.indexOf(WEDNESDAY, "Restoran SC"));
+		assertEquals(3, bills.indexOf(THURSDAY, "Restoran SC"));
+	}
+
+	public void testRemove() {
+		LazyBillList bills = createList();
+		bills.remove(1);
+
+		assertEquals(0, bills.indexOf(MONDAY, "Restoran SC"));
+		assertEquals(-1, bills.indexOf(WEDNESDAY, "Restoran SC"));
+		assertEquals(1, bills.indexOf(THURSDAY, "Restoran SC"));
+		assertFalse(bills.containsDateTime(WEDNESDAY));
+
+		assertTrue(bills.remove(bills.get(0)));
+		assertEquals(0, bills.indexOf(THURSDAY, "Restoran SC"));
+	}
+
+	/**
+	 * Of several bills with the same dateTime and source, the first one is found.
+	 */
+	public void testDuplicateKeys() {
+		LazyBillList bills = createList();
+		Bill first = createBill(WEDNESDAY, "Menza Savska");
+		Bill second = createBill(WEDNESDAY, "Menza Savska");
+		second.addEntry("Kolac", 2f, 1, 0f);
+		bills.addSorted(first);
+		bills.addSorted(second);
+		assertEquals(2, bills.indexOf(WEDNESDAY, "Menza Savska"));
+		assertEquals(3, bills.indexOf(second));
+
+		bills.remove(2);
+		assertSame(second, bills.get(bills.indexOf(WEDNESDAY, "Menza Savska")));
+		bills.remove(0);
+		assertEquals(1, bills.indexOf(WEDNESDAY, "Menza Savska"));
+		assertTrue(bills.containsDateTime(WEDNESDAY));
+
+		assertTrue(bills.remove(second));
+		assertEquals(-1, bills.indexOf(WEDNESDAY, "Menza Savska"));
+		assertTrue(bills.containsDateTime(WEDNESDAY));
+	}
+
+	/**
+	 * A list that is not sorted by dateTime still finds its bills, by scanning it, until it is sorted again.
+	 */
+	public void testUnsortedList() {
+		LazyBillList bills = createList();
+		bills.add(createBill(TUESDAY, "Menza Savska"));
+		bills.add(0, createBill(THURSDAY, "Menza Savska"));
+
+		assertEquals(0, bills.indexOf(THURSDAY, "Menza Savska"));
+		assertEquals(2, bills.indexOf(WEDNESDAY, "Restoran SC"));
+		assertEquals(4, bills.indexOf(TUESDAY, "Menza Savska"));
+		assertEquals(4, bills.indexOf(bills.get(4)));
+		assertEquals(-1, bills.indexOf(TUESDAY, "Restoran SC"));
+
+		// bills issued at the same time keep their order
+		bills.sortByDateTime();
+		assertEquals(1, bills.indexOf(TUESDAY, "Menza Savska"));
+		assertEquals(3, bills.indexOf(THURSDAY, "Menza Savska"));
+		assertEquals(4, bills.indexOf(THURSDAY, "Restoran SC"));
+	}
+
+	/**
+	 * A bill of a sorted list whose dateTime changes is moved to its position in the order of dateTimes, in a single
+	 * change.
+	 */
+	public void testEditMovesBill() {
+		LazyBillList bills = createList();
+		Bill bill = bills.get(0);
+		List<String> changes = new ArrayList<>();
+		bills.addListener((ListChangeListener<Bill>) change -> {
+			while (change.next()) {
+				if (change.wasRemoved()) changes.add("-" + change.getFrom());
+				if (change.wasAdded()) changes.add("+" + change.getFrom());
+			}
+		});
+
+		bill.edit(WEDNESDAY.plusHours(1), bill.getSource(), bill.getEntries());
+		assertSame(bill, bills.get(1));
+		assertEquals(1, bills.indexOf(WEDNESDAY.plusHours(1), "Restoran SC"));
+		assertEquals(0, bills.indexOf(WEDNESDAY, "Restoran SC"));
+		assertEquals(2, bills.indexOf(THURSDAY, "Restoran SC"));
+		assertFalse(bills.containsDateTime(MONDAY));
+		assertEquals(Arrays.asList("-0", "+1"), changes);
+
+		// changes that keep the order do not move the bill
+		bill.edit(WEDNESDAY.plusHours(2), "Menza Savska", bill.getEntries());
+		assertSame(bill, bills.get(1));
+		assertTrue(bills.moveSorted(bill));
+		assertSame(bill, bills.get(1));
+	}
+
+	/**
+	 * A bill whose dateTime changes is found under its new dateTime.
+	 */
+	public void testEditedBill() {
+		LazyBillList bills = createList();
+		Bill bill = bills.get(bills.indexOf(WEDNESDAY, "Restoran SC"));
+		bill.edit(TUESDAY, "Menza Savska", bill.getEntries());
+
+		assertEquals(-1, bills.indexOf(WEDNESDAY, "Restoran SC"));
+		assertEquals(1, bills.indexOf(TUESDAY, "Menza Savska"));
+		assertFalse(bills.containsDateTime(WEDNESDAY));
+	}
+
+	public void testAddSorted() {
+		LazyBillList bills = createList();
+		bills.addSorted(createBill(TUESDAY, "Restoran SC"));
+		bills.addSorted(createBill(THURSDAY, "Menza Savska"));
+		bills.addSorted(createBill(MONDAY.minusDays(1), "Restoran SC"));
+
+		assertEquals(0, bills.indexOf(MONDAY.minusDays(1), "Restoran SC"));
+		assertEquals(2, bills.indexOf(TUESDAY, "Restoran SC"));
+		// after the bills issued at the same time
+		assertEquals(5, bills.indexOf(THURSDAY, "Menza Savska"));
+
+		Bill bill = bills.get(0);
+		bill.edit(WEDNESDAY, "Menza Savska", bill.getEntries());
+		assertTrue(bills.moveSorted(bill));
+		assertSame(bill, bills.get(3));
+		assertEquals(3, bills.indexOf(WEDNESDAY, "Menza Savska"));
+		assertFalse(bills.moveSorted(createBill(WEDNESDAY, "Menza Savska")));
+	}
+
+	/**
+	 * Missing bills are added at their positions in the order of dateTimes, in a single change.
+	 */
+	public void testAddMissing() {
+		LazyBillList bills = createList();
+		AtomicInteger changes = new AtomicInteger();
+		bills.addListener((ListChangeListener<Bill>) change -> changes.incrementAndGet());
+
+		List<Bill> added = bills.addMissing(Arrays.asList(
+				createBill(THURSDAY.plusDays(1), "Restoran SC"),
+				createBill(WEDNESDAY, "Restoran SC"),
+				createBill(TUESDAY, "Restoran SC"),
+				createBill(TUESDAY, "Restoran SC")));
+		assertEquals(2, added.size());
+		assertEquals(5, bills.size());
+		assertEquals(1, bills.indexOf(TUESDAY, "Restoran SC"));
+		assertEquals(4, bills.indexOf(THURSDAY.plusDays(1), "Restoran SC"));
+		assertEquals(1, changes.get());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * @return A list of three bills, issued on Monday, Wednesday and Thursday, whose index is built
+	 */
+	private static LazyBillList createList() {
+		LazyBillList bills = new LazyBillList();
+		bills.add(createBill(MONDAY, "Restoran SC"));
+		bills.add(createBill(WEDNESDAY, "Restoran SC"));
+		bills.add(createBill(THURSDAY, "Restoran SC"));
+		assertEquals(0, bills.indexOf(MONDAY, "Restoran SC"));
+		return bills;
+	}
+
+	private static Bill createBill(LocalDateTime dateTime, String source) {
+		Bill bill = new Bill(dateTime, source);
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		return bill;
+	}
+
+}
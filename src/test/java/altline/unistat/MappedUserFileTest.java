@@ -0,0 +1,113 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Reading user data files through a {@link MappedUserFile}, and rewriting a file while it is mapped.
+ */
+public class MappedUserFileTest extends TestCase {
+
+	private Path dir;
+	private Path userFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-mapped");
+		userFile = dir.resolve("user.dat");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testMappedRoundTrip() throws IOException {
+		User user = UserCodecTest.createUser();
+		UserCodec.write(user, userFile, false, true);
+
+		User mapped = new User(MappedUserFile.open(userFile));
+		assertEquals(user.getUserID(), mapped.getUserID());
+		assertEquals(user.getFullName(), mapped.getFullName());
+
+		// looking bills up does not read them
+		Bill bill = user.getBills().get(1);
+		assertTrue(mapped.hasBill(bill.getDateTime(), bill.getSource()));
+		assertFalse(mapped.hasBill(bill.getDateTime(), "Menza Cvjetno"));
+		for (int i = 0; i < mapped.getBills().size(); i++) {
+			assertFalse(mapped.getBillList().isMaterialized(i));
+		}
+
+		UserCodecTest.assertBills(user.getBills(), mapped.getBills());
+	}
+
+	public void testUnindexedFileIsNotMapped() throws IOException {
+		UserCodec.write(UserCodecTest.createUser(), userFile, true, false);
+		assertNull(MappedUserFile.open(userFile));
+	}
+
+	public void testCorruptedIndex() throws IOException {
+		UserCodec.write(UserCodecTest.createUser(), userFile, false, true);
+
+		// the file ends with the position of the index
+		try (FileChannel channel = FileChannel.open(userFile, StandardOpenOption.WRITE)) {
+			ByteBuffer position = ByteBuffer.allocate(8);
+			position.putLong(0, Integer.MAX_VALUE);
+			channel.write(position, channel.size() - 8);
+		}
+
+		try {
+			MappedUserFile.open(userFile);
+			fail("A file with a corrupted index was mapped");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testRewriteMappedFile() throws IOException {
+		UserCodec.write(UserCodecTest.createUser(), userFile, false, true);
+		User mapped = new User(MappedUserFile.open(userFile));
+
+		Bill edited = mapped.getBills().get(0);
+		mapped.editBill(edited, edited.getDateTime(), edited.getSource(),
+				Collections.singletonList(edited.new Entry("Kolac", 2f, 1, 0f)));
+		mapped.addBill(new Bill(LocalDateTime.of(2018, 12, 24, 11, 0), "Restoran SC"));
+		mapped.sortBills();
+
+		UserCodec.write(mapped.snapshot(), userFile, false, true);
+
+		// the bills that were never read are now read from the rewritten file
+		assertFalse(mapped.getBillList().isMaterialized(2));
+		UserCodecTest.assertBills(UserCodec.read(userFile).getBills(), mapped.getBills());
+		assertTrue(UserCodec.read(userFile).getBills().get(1).isEdited());
+		UserCodecTest.assertBills(mapped.getBills(), new User(MappedUserFile.open(userFile)).getBills());
+	}
+
+	/**
+	 * Mapped files are unmapped through the internal API of the running Java version, both before and since Java 9.
+	 */
+	public void testUnmap() throws IOException {
+		UserCodec.write(UserCodecTest.createUser(), userFile, false, true);
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(userFile, StandardOpenOption.READ)) {
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		assertTrue(MappedUserFile.unmap(buffer));
+	}
+
+}
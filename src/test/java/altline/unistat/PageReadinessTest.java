@@ -0,0 +1,114 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+import altline.unistat.PageReadiness.PageType;
+import junit.framework.TestCase;
+
+/**
+ * Waiting for pages of a {@link StandInServer} to be ready with {@link PageReadiness}. Every page runs a script that
+ * never settles, so a page is only ready early if its element appears or it navigates away.
+ */
+public class PageReadinessTest extends TestCase {
+
+	/** A script that keeps the page's background jobs from ever running out */
+	private static final String NEVER_SETTLES = "setInterval(function() {}, 100);";
+	/** The time in milliseconds after which the scripts of the pages change them */
+	private static final long SCRIPT_DELAY = 300;
+
+	private StandInServer server;
+	private WebClient webClient;
+	private PageReadiness readiness;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new StandInServer(0, 1);
+		server.start(0);
+
+		// the same client settings as the HtmlUnit engine
+		webClient = new WebClient(BrowserVersion.INTERNET_EXPLORER);
+		webClient.getOptions().setThrowExceptionOnScriptError(false);
+		readiness = new PageReadiness();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		webClient.close();
+		server.stop();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The page is ready as soon as its element is added by a script, long before its time budget runs out.
+	 */
+	public void testElementAppears() throws IOException {
+		HtmlPage page = load("/wait/appears", "var card = document.createElement('div');"
+				+ " card.className = 'testimonial-card'; document.body.appendChild(card);");
+
+		long start = System.nanoTime();
+		assertTrue(readiness.await(page, PageType.STUDENT));
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertNotNull(page.querySelector(".testimonial-card"));
+		assertTrue("The wait took " + waited + " ms", waited < 2000);
+	}
+
+	/**
+	 * The wait gives up once the time budget of the page type runs out, and the timeout is recorded.
+	 */
+	public void testTimeout() throws IOException {
+		HtmlPage page = load("/wait/never", "");
+
+		long start = System.nanoTime();
+		assertFalse(readiness.await(page, PageType.DETAILS));
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("The wait took " + waited + " ms", waited >= 3000);
+		assertTrue(readiness.toString(), readiness.toString().contains("timeouts=1"));
+	}
+
+	/**
+	 * The wait ends when a script navigates the page's window to another page.
+	 */
+	public void testNavigationAway() throws IOException {
+		server.addPage("/wait/next", "<!DOCTYPE html><html><body>Next</body></html>");
+		HtmlPage page = load("/wait/away", "location.href = '/wait/next';");
+
+		long start = System.nanoTime();
+		assertTrue(readiness.await(page, PageType.STUDENT));
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Page current = page.getEnclosingWindow().getEnclosedPage();
+		assertNotSame(page, current);
+		assertEquals("/wait/next", current.getUrl().getPath());
+		assertTrue("The wait took " + waited + " ms", waited < 2000);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Serves and loads a page whose scripts never settle, and that runs the specified script after
+	 * {@link #SCRIPT_DELAY}.
+	 */
+	private HtmlPage load(String path, String delayedScript) throws IOException {
+		server.addPage(path, "<!DOCTYPE html><html><body><script>" + NEVER_SETTLES
+				+ " setTimeout(function() { " + delayedScript + " }, " + SCRIPT_DELAY + ");</script></body></html>");
+		return webClient.getPage(server.getServerUrl() + path.substring(1));
+	}
+
+}
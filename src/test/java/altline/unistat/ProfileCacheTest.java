@@ -0,0 +1,192 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import altline.unistat.ProfileCache.Profile;
+import junit.framework.TestCase;
+
+/**
+ * Evicting the profiles of logged-out users from a {@link ProfileCache} once it exceeds its memory budget.
+ */
+public class ProfileCacheTest extends TestCase {
+
+	/** The estimated size of the profile of a user without bills */
+	private static final long PROFILE_SIZE = 4 << 20;
+
+	/** The userIDs of the evicted profiles, in the order they were evicted */
+	private List<String> evicted;
+
+	@Override
+	protected void setUp() throws Exception {
+		evicted = new ArrayList<>();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * The profile that was cached the longest time ago is evicted first, and caching a user's profile again makes it
+	 * the most recent one.
+	 */
+	public void testLruOrder() {
+		ProfileCache cache = createCache(3 * PROFILE_SIZE);
+		cache.put(createProfile("A", null));
+		cache.put(createProfile("B", null));
+		cache.put(createProfile("C", null));
+		cache.put(createProfile("A", null));
+		assertTrue(evicted.isEmpty());
+
+		cache.put(createProfile("D", null));
+		assertEquals(Arrays.asList("B"), evicted);
+		cache.put(createProfile("E", null));
+		assertEquals(Arrays.asList("B", "C"), evicted);
+		assertNotNull(cache.take("A"));
+	}
+
+	/**
+	 * As many profiles are evicted as needed to fit the budget, and a larger profile takes more of it.
+	 */
+	public void testBudgetEviction() {
+		ProfileCache cache = createCache(3 * PROFILE_SIZE);
+		cache.put(createProfile("A", null));
+		cache.put(createProfile("B", null));
+		assertEquals(2 * PROFILE_SIZE, cache.getSize());
+
+		Profile large = createProfile("C", null);
+		for (int i = 0; i < 10000; i++) {
+			Bill bill = new Bill(LocalDateTime.of(2020, 3, 2, 12, 0).minusMinutes(i), "Restoran SC");
+			bill.addEntry("Juha", 1.5f, 1, 0.5f);
+			large.getUser().addBill(bill);
+		}
+		cache.put(large);
+		assertEquals(Arrays.asList("A", "B"), evicted);
+		assertTrue(cache.getSize() > PROFILE_SIZE);
+
+		assertNull(cache.take("A"));
+		assertSame(large, cache.take("C"));
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * A profile larger than the whole budget is still cached, as it is the most recent one.
+	 */
+	public void testMostRecentNeverEvicted() {
+		ProfileCache cache = createCache(1);
+		Profile first = createProfile("A", null);
+		cache.put(first);
+		assertTrue(evicted.isEmpty());
+
+		Profile second = createProfile("B", null);
+		cache.put(second);
+		assertEquals(Arrays.asList("A"), evicted);
+		assertSame(second, cache.take("B"));
+	}
+
+	/**
+	 * The store of an evicted profile is closed before the listener is notified, while a taken profile keeps its store
+	 * open for the user who logs in again.
+	 */
+	public void testStoreClosedOnEviction() {
+		ClosableStore storeA = new ClosableStore();
+		ClosableStore storeB = new ClosableStore();
+		ClosableStore storeC = new ClosableStore();
+		List<Boolean> closedWhenEvicted = new ArrayList<>();
+		ProfileCache cache = new ProfileCache(PROFILE_SIZE, profile -> {
+			closedWhenEvicted.add(((ClosableStore) profile.getStore()).closed);
+		});
+
+		cache.put(createProfile("A", storeA));
+		cache.put(createProfile("B", storeB));
+		assertTrue(storeA.closed);
+		assertFalse(storeB.closed);
+
+		assertSame(storeB, cache.take("B").getStore());
+		assertFalse(storeB.closed);
+
+		cache.put(createProfile("C", storeC));
+		cache.clear();
+		assertTrue(storeC.closed);
+		assertEquals(Arrays.asList(true, true), closedWhenEvicted);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private ProfileCache createCache(long budget) {
+		return new ProfileCache(budget, profile -> evicted.add(profile.getUser().getUserID()));
+	}
+
+	private static Profile createProfile(String userID, BillStore store) {
+		return new Profile(new User(userID), store);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * A store that only records whether it was closed.
+	 */
+	private static final class ClosableStore implements BillStore {
+		private boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public User load() {
+			return null;
+		}
+
+		@Override
+		public List<Bill> query(LocalDateTime from, LocalDateTime to, String source) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public void upsert(Bill bill) {
+		}
+
+		@Override
+		public void insertAll(Collection<Bill> bills) {
+		}
+
+		@Override
+		public void delete(LocalDateTime dateTime, String source) {
+		}
+
+		@Override
+		public void saveUserInfo(String fullName, float availableFunds) {
+		}
+
+		@Override
+		public void saveAll(User user) {
+		}
+
+		@Override
+		public long getDataVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean needsCompaction() {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package altline.unistat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * The rate at which a {@link RateLimiter} hands out permits, alone and shared by several threads.
+ */
+public class RateLimiterTest extends TestCase {
+
+	private static final double PERMITS_PER_SECOND = 50;
+	/** The time between two permits once the burst is used up */
+	private static final long INTERVAL_MILLIS = 20;
+	/** The time the tests allow for the slack of sleeping */
+	private static final long SLACK_MILLIS = 10;
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testBurstIsNotDelayed() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(1, 5);
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire();
+		}
+		// a permit is only refilled after a second
+		assertTrue(elapsedMillis(start) < 500);
+	}
+
+	public void testPermitsPerInterval() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(PERMITS_PER_SECOND, 1);
+		long start = System.nanoTime();
+		for (int i = 0; i <= 10; i++) {
+			limiter.acquire();
+		}
+		// the first permit is the burst, each of the others waits for its interval
+		assertTrue(elapsedMillis(start) >= 10 * INTERVAL_MILLIS - SLACK_MILLIS);
+	}
+
+	/**
+	 * Permits taken after the bucket was idle are limited by the burst, not by the idle time.
+	 */
+	public void testBurstIsCapped() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(PERMITS_PER_SECOND, 2);
+		Thread.sleep(10 * INTERVAL_MILLIS);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 2 + 5; i++) {
+			limiter.acquire();
+		}
+		assertTrue(elapsedMillis(start) >= 5 * INTERVAL_MILLIS - SLACK_MILLIS);
+	}
+
+	/**
+	 * The rate holds however many threads take permits.
+	 */
+	public void testSharedByThreads() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(PERMITS_PER_SECOND, 1);
+		List<Thread> threads = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					for (int j = 0; j < 5; j++) {
+						limiter.acquire();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(elapsedMillis(start) >= (4 * 5 - 1) * INTERVAL_MILLIS - SLACK_MILLIS);
+	}
+
+	public void testInvalidArguments() {
+		try {
+			new RateLimiter(0, 1);
+			fail("A rate of 0 was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new RateLimiter(Double.NaN, 1);
+			fail("A rate of NaN was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new RateLimiter(1, 0);
+			fail("A burst of 0 was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static long elapsedMillis(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+}
@@ -0,0 +1,123 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Repeating requests with a {@link RetryPolicy}, which only repeats transient errors and stops after its attempts.
+ */
+public class RetryPolicyTest extends TestCase {
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private RetryPolicy policy;
+	private AtomicInteger attempts;
+	private AtomicInteger retries;
+
+	@Override
+	protected void setUp() throws Exception {
+		policy = new RetryPolicy(MAX_ATTEMPTS, 1, 4);
+		attempts = new AtomicInteger();
+		retries = new AtomicInteger();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testTransientErrors() throws Exception {
+		URL url = new URL("http://example.com/");
+		assertTrue(RetryPolicy.isTransient(new ScrapeEngine.StatusCodeException(503, url)));
+		assertTrue(RetryPolicy.isTransient(new ScrapeEngine.StatusCodeException(429, url)));
+		assertTrue(RetryPolicy.isTransient(new SocketTimeoutException()));
+		assertTrue(RetryPolicy.isTransient(new IOException("Connection reset")));
+
+		assertFalse(RetryPolicy.isTransient(new ScrapeEngine.StatusCodeException(404, url)));
+		assertFalse(RetryPolicy.isTransient(new ConnectException()));
+		assertFalse(RetryPolicy.isTransient(new UnknownHostException()));
+		assertFalse(RetryPolicy.isTransient(new InterruptedIOException()));
+		assertFalse(RetryPolicy.isTransient(new ServerUnavailableException(1000, null)));
+		assertFalse(RetryPolicy.isTransient(new IllegalStateException()));
+	}
+
+	public void testTransientErrorIsRepeated() throws Exception {
+		String result = policy.execute(() -> {
+			if (attempts.incrementAndGet() < MAX_ATTEMPTS) throw new SocketTimeoutException();
+			return "OK";
+		}, retries::incrementAndGet);
+
+		assertEquals("OK", result);
+		assertEquals(MAX_ATTEMPTS, attempts.get());
+		assertEquals(MAX_ATTEMPTS - 1, retries.get());
+	}
+
+	public void testAttemptsRunOut() throws Exception {
+		try {
+			policy.execute(() -> {
+				attempts.incrementAndGet();
+				throw new ScrapeEngine.StatusCodeException(503, new URL("http://example.com/"));
+			}, retries::incrementAndGet);
+			fail("The request succeeded");
+		} catch (ScrapeEngine.StatusCodeException e) {
+			// expected
+		}
+		assertEquals(MAX_ATTEMPTS, attempts.get());
+		assertEquals(MAX_ATTEMPTS - 1, retries.get());
+	}
+
+	public void testNonTransientErrorIsNotRepeated() throws Exception {
+		try {
+			policy.execute(() -> {
+				attempts.incrementAndGet();
+				throw new ConnectException("Connection refused");
+			}, retries::incrementAndGet);
+			fail("The request succeeded");
+		} catch (ConnectException e) {
+			// expected
+		}
+		assertEquals(1, attempts.get());
+		assertEquals(0, retries.get());
+	}
+
+	/**
+	 * The request's own exceptions are passed on without repeating the request.
+	 */
+	public void testOwnExceptionIsNotRepeated() throws Exception {
+		try {
+			policy.<String, IllegalStateException> execute(() -> {
+				attempts.incrementAndGet();
+				throw new IllegalStateException("Not logged in");
+			}, retries::incrementAndGet);
+			fail("The request succeeded");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, attempts.get());
+	}
+
+	public void testInterruptedWait() throws Exception {
+		RetryPolicy slowPolicy = new RetryPolicy(MAX_ATTEMPTS, 60000, 60000);
+		Thread.currentThread().interrupt();
+		try {
+			slowPolicy.execute(() -> {
+				attempts.incrementAndGet();
+				throw new SocketTimeoutException();
+			}, retries::incrementAndGet);
+			fail("The request succeeded");
+		} catch (InterruptedIOException e) {
+			assertFalse(e instanceof SocketTimeoutException);
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(1, attempts.get());
+	}
+
+}
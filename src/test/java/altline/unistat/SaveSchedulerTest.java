@@ -0,0 +1,200 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Coalescing of save requests by a {@link SaveScheduler} and the flush of the pending save when it is closed. The
+ * scheduler takes its snapshots on the JavaFX thread, so the JavaFX toolkit is started for these tests.
+ */
+public class SaveSchedulerTest extends TestCase {
+
+	/** The save window of the tests that wait for it to pass */
+	private static final long WINDOW_MILLIS = 200;
+	/** The save window of the tests that never wait for it */
+	private static final long LONG_WINDOW_MILLIS = 60000;
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private Path dir;
+	private User user;
+	private CountingStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+		TestFx.startToolkit();
+		dir = TestFiles.createTempDir("unistat-save");
+		user = UserCodecTest.createUser();
+		store = new CountingStore();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testRequestsAreCoalesced() throws Exception {
+		SaveScheduler scheduler = createScheduler(WINDOW_MILLIS);
+		for (int i = 0; i < 5; i++) {
+			scheduler.requestSave();
+		}
+		// a change made within the window is included in the save
+		App.runFxAndWait(() -> user.addBill(new Bill(LocalDateTime.of(2020, 2, 3, 12, 0), "Restoran SC")));
+
+		assertTrue(store.awaitSaves(1));
+		assertEquals(4, store.getLastSaved().getBills().size());
+
+		// a request after the save starts a new window. Any other save of the coalesced requests would be written
+		// before it, without the change made after the first save
+		App.runFxAndWait(() -> user.addBill(new Bill(LocalDateTime.of(2020, 2, 4, 12, 0), "Restoran SC")));
+		scheduler.requestSave();
+		assertTrue(store.awaitSaves(2));
+		assertEquals(5, store.getLastSaved().getBills().size());
+
+		scheduler.close();
+		assertTrue(scheduler.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(2, store.getSaveCount());
+	}
+
+	public void testCloseFlushesPendingSave() throws Exception {
+		SaveScheduler scheduler = createScheduler(LONG_WINDOW_MILLIS);
+		scheduler.requestSave();
+		scheduler.requestSave();
+		assertEquals(0, store.getSaveCount());
+
+		scheduler.close();
+		assertTrue(scheduler.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(1, store.getSaveCount());
+		assertEquals(user.getBills().size(), store.getLastSaved().getBills().size());
+		assertTrue(store.isClosed());
+
+		// requests after closing are ignored
+		scheduler.requestSave();
+		scheduler.close();
+		assertEquals(1, store.getSaveCount());
+	}
+
+	public void testCloseWithoutPendingSave() throws Exception {
+		SaveScheduler scheduler = createScheduler(LONG_WINDOW_MILLIS);
+		scheduler.close();
+		assertTrue(scheduler.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(0, store.getSaveCount());
+		assertTrue(store.isClosed());
+	}
+
+	/**
+	 * A change that can not be written is covered by a full save instead.
+	 */
+	public void testFailedChangeRequestsSave() throws Exception {
+		SaveScheduler scheduler = createScheduler(WINDOW_MILLIS);
+		scheduler.submit(store -> {
+			throw new IOException("Disk full");
+		});
+
+		assertTrue(store.awaitSaves(1));
+		scheduler.close();
+		assertTrue(scheduler.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(1, store.getSaveCount());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private SaveScheduler createScheduler(long windowMillis) {
+		return new SaveScheduler(user, store, dir.resolve("aggregates.dat"), windowMillis);
+	}
+
+	/**
+	 * A store that only counts the full saves written to it.
+	 */
+	private static final class CountingStore implements BillStore {
+		private final List<User> saved = new ArrayList<>();
+		private boolean closed;
+
+		synchronized int getSaveCount() {
+			return saved.size();
+		}
+
+		synchronized User getLastSaved() {
+			return saved.get(saved.size() - 1);
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		synchronized boolean awaitSaves(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while (saved.size() < count) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) return false;
+				wait(remaining);
+			}
+			return true;
+		}
+
+		@Override
+		public synchronized void saveAll(User user) {
+			saved.add(user);
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+		}
+
+		@Override
+		public User load() {
+			return null;
+		}
+
+		@Override
+		public List<Bill> query(LocalDateTime from, LocalDateTime to, String source) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public void upsert(Bill bill) {
+		}
+
+		@Override
+		public void insertAll(Collection<Bill> bills) {
+		}
+
+		@Override
+		public void delete(LocalDateTime dateTime, String source) {
+		}
+
+		@Override
+		public void saveUserInfo(String fullName, float availableFunds) {
+		}
+
+		@Override
+		public long getDataVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean needsCompaction() {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.List;
+
+import altline.unistat.ScrapeEngine.BillRow;
+import junit.framework.TestCase;
+
+/**
+ * The {@link HttpScrapeEngine} and the {@link HtmlUnitScrapeEngine} read the same data from the pages of a
+ * {@link StandInServer}, so that either can be used.
+ */
+public class ScrapeEngineParityTest extends TestCase {
+
+	private static final int BILLS = 40;
+
+	private StandInServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new StandInServer(BILLS, 7);
+		server.start(0);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testGeneralData() throws Exception {
+		UserData httpData = new UserData(StandInServer.USER_ID);
+		UserData htmlUnitData = new UserData(StandInServer.USER_ID);
+		try (ScrapeEngine http = new HttpScrapeEngine(); ScrapeEngine htmlUnit = new HtmlUnitScrapeEngine()) {
+			login(http);
+			login(htmlUnit);
+			assertEquals(http.readGeneralData(httpData), htmlUnit.readGeneralData(htmlUnitData));
+		}
+
+		assertEquals(httpData.getFullName(), htmlUnitData.getFullName());
+		assertEquals(httpData.getInstitution(), htmlUnitData.getInstitution());
+		assertEquals(httpData.getPrivilege(), htmlUnitData.getPrivilege());
+		assertEquals(httpData.getAvailableFunds(), htmlUnitData.getAvailableFunds(), 0.005f);
+		assertEquals("Ime Prezime", httpData.getFullName());
+	}
+
+	public void testBillRowsAndDetails() throws Exception {
+		try (ScrapeEngine http = new HttpScrapeEngine(); ScrapeEngine htmlUnit = new HtmlUnitScrapeEngine()) {
+			List<BillRow> httpRows = readBillRows(http);
+			List<BillRow> htmlUnitRows = readBillRows(htmlUnit);
+			assertEquals(BILLS, httpRows.size());
+			assertEquals(httpRows.size(), htmlUnitRows.size());
+
+			for (int i = 0; i < httpRows.size(); i++) {
+				BillRow httpRow = httpRows.get(i);
+				BillRow htmlUnitRow = htmlUnitRows.get(i);
+				assertEquals("Index of row " + i, httpRow.getIndex(), htmlUnitRow.getIndex());
+				assertEquals("Date of row " + i, httpRow.getDateTime(), htmlUnitRow.getDateTime());
+				assertEquals("Source of row " + i, httpRow.getSource(), htmlUnitRow.getSource());
+				assertEquals("Total cost of row " + i, httpRow.getTotalCost(), htmlUnitRow.getTotalCost(), 0.005f);
+				// URL.equals resolves the host, so the URLs are compared as text
+				assertEquals("Detail URL of row " + i, String.valueOf(httpRow.getDetailUrl()), String.valueOf(htmlUnitRow.getDetailUrl()));
+
+				Bill httpBill = httpRow.toBill();
+				Bill htmlUnitBill = htmlUnitRow.toBill();
+				http.fetchDetails(httpRow, httpBill, new DetailCache.Validators());
+				htmlUnit.fetchDetails(htmlUnitRow, htmlUnitBill, new DetailCache.Validators());
+				assertEntries("Bill " + i, httpBill, htmlUnitBill);
+				assertEquals(server.getBills().get(i).entries.size(), httpBill.getEntries().size());
+			}
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private List<BillRow> readBillRows(ScrapeEngine engine) throws IOException, ParseException {
+		login(engine);
+		String href = engine.readGeneralData(new UserData(StandInServer.USER_ID));
+		engine.connect(server.getServerUrl() + "Student/StudentRacuni" + href.substring(href.indexOf('?')));
+		return engine.readBillRows();
+	}
+
+	private void login(ScrapeEngine engine) throws IOException {
+		engine.connect(server.getServerUrl() + "Student");
+		String url = engine.submitLogin(StandInServer.USER_ID, StandInServer.PASSWORD);
+		assertFalse("The login failed: " + engine.readLoginError(), url.contains("/loginuserpass.php"));
+	}
+
+	private static void assertEntries(String message, Bill expected, Bill actual) {
+		assertEquals(message, expected.getEntries().size(), actual.getEntries().size());
+		for (int i = 0; i < expected.getEntries().size(); i++) {
+			Bill.Entry expectedEntry = expected.getEntries().get(i);
+			Bill.Entry actualEntry = actual.getEntries().get(i);
+			assertEquals(message, expectedEntry.getArticleName(), actualEntry.getArticleName());
+			assertEquals(message, expectedEntry.getArticlePrice(), actualEntry.getArticlePrice(), 0.005f);
+			assertEquals(message, expectedEntry.getAmount(), actualEntry.getAmount());
+			assertEquals(message, expectedEntry.getSubsidy(), actualEntry.getSubsidy(), 0.005f);
+		}
+	}
+
+}
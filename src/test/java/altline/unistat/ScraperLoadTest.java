@@ -0,0 +1,396 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import altline.unistat.ScrapeEngine.BillRow;
+import altline.unistat.StandInServer.SyntheticBill;
+import altline.unistat.SyncReport.Outcome;
+import javafx.concurrent.Task;
+import junit.framework.TestCase;
+
+/**
+ * Load test of the scraping, against a {@link StandInServer}. Runs offline, as part of the Maven build.
+ * <p>
+ * Every scraping mode runs a data fetch of a {@link WebManager} that is pointed at the stand-in server with the
+ * {@link WebManager#PROP_SERVER_URL} and {@link WebManager#PROP_LOGIN_URL} system properties, so the fetch goes through
+ * the session handling, the login, the retries of the guarded engine and the detail fetcher the same way as against the
+ * real webserver. The fetched bills are checked against the synthetic history. The throughput in bills per second and
+ * the percentiles of the details request latency are logged per mode.
+ * </p>
+ * The load can be set with system properties, e.g.
+ * <code>mvn test -Dtest=ScraperLoadTest -Dunistat.loadtest.bills=2000 -Dunistat.loadtest.latency=40 -Dunistat.loadtest.jitter=20</code>
+ */
+public class ScraperLoadTest extends TestCase {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final int BILLS = Integer.getInteger("unistat.loadtest.bills", 100);
+	private static final long LATENCY = Long.getLong("unistat.loadtest.latency", 5);
+	private static final long JITTER = Long.getLong("unistat.loadtest.jitter", 5);
+	private static final int CONCURRENCY = Integer.getInteger("unistat.loadtest.concurrency", 4);
+
+	private StandInServer server;
+	private Path cacheDir;
+	private String serverUrlProperty;
+	private String loginUrlProperty;
+
+	@Override
+	protected void setUp() throws Exception {
+		TestFx.startToolkit();
+		server = new StandInServer(BILLS, 42);
+		server.setLatency(LATENCY, JITTER);
+		server.start(0);
+		cacheDir = TestFiles.createTempDir("unistat-loadtest");
+
+		serverUrlProperty = System.setProperty(WebManager.PROP_SERVER_URL, server.getServerUrl());
+		loginUrlProperty = System.setProperty(WebManager.PROP_LOGIN_URL, server.getLoginUrl());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		restoreProperty(WebManager.PROP_SERVER_URL, serverUrlProperty);
+		restoreProperty(WebManager.PROP_LOGIN_URL, loginUrlProperty);
+		server.stop();
+		TestFiles.deleteTree(cacheDir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testHttpSequential() throws Exception {
+		runMode("HTTP, sequential", new HttpScrapeEngine(), 1);
+	}
+
+	public void testHttpParallel() throws Exception {
+		runMode("HTTP, parallel x" + CONCURRENCY, new HttpScrapeEngine(), CONCURRENCY);
+	}
+
+	public void testHtmlUnitSequential() throws Exception {
+		runMode("HtmlUnit, sequential", new HtmlUnitScrapeEngine(), 1);
+	}
+
+	public void testHtmlUnitParallel() throws Exception {
+		runMode("HtmlUnit, parallel x" + CONCURRENCY, new HtmlUnitScrapeEngine(), CONCURRENCY);
+	}
+
+	public void testSessionExpiry() throws Exception {
+		try (ScrapeEngine engine = new HttpScrapeEngine()) {
+			login(engine);
+			assertFalse(isLoginPage(engine.connect(server.getServerUrl() + "Student")));
+
+			server.expireSessions();
+			assertTrue("An expired session must lead to the login page", isLoginPage(engine.connect(server.getServerUrl() + "Student")));
+
+			login(engine);
+			server.setSessionLifetime(2);
+			assertFalse(isLoginPage(engine.connect(server.getServerUrl() + "Student")));
+			assertFalse(isLoginPage(engine.connect(server.getServerUrl() + "Student")));
+			assertTrue("A session must expire after its lifetime", isLoginPage(engine.connect(server.getServerUrl() + "Student")));
+		}
+	}
+
+	public void testErrorInjection() throws Exception {
+		server.setErrorRate(0.2);
+		try (ScrapeEngine engine = new HttpScrapeEngine()) {
+			List<BillRow> rows = readBillRows(engine);
+
+			int fetched = 0;
+			int failed = 0;
+			for (BillRow row : rows) {
+				try {
+					engine.fetchDetails(row, row.toBill(), new DetailCache.Validators());
+					fetched++;
+				} catch (IOException e) {
+					failed++;
+				}
+			}
+
+			assertEquals(rows.size(), fetched + failed);
+			assertEquals(server.getInjectedErrorCount(), failed);
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Fetches the data of the stand-in user with a new {@link WebManager}, whose engine is the specified one.
+	 */
+	private void runMode(String mode, ScrapeEngine scrapeEngine, int concurrency) throws Exception {
+		Path dir = Files.createDirectories(cacheDir.resolve(mode));
+		TimingEngine engine = new TimingEngine(scrapeEngine);
+		WebManager webManager = new WebManager(new StandInHost(new User(StandInServer.USER_ID), engine, dir, concurrency));
+		webManager.start();
+		try {
+			List<Bill> published = Collections.synchronizedList(new ArrayList<>());
+			Task<UserData> fetch = webManager.fetchData(published::addAll);
+
+			final long start = System.nanoTime();
+			fetch.run();
+			UserData userData = getResult(fetch);
+			final long elapsed = System.nanoTime() - start;
+
+			List<Bill> bills = userData.getBills();
+			assertEquals(BILLS, bills.size());
+			// every fetched bill is published once, in the order it was fetched
+			assertEquals(bills, published);
+			verify(bills);
+
+			SyncReport report = webManager.lastSyncReportProperty().get();
+			assertEquals(Outcome.SUCCEEDED, report.getOutcome());
+			assertFalse(report.isIncomplete());
+			report(mode, bills.size(), elapsed, engine.latencies);
+
+		} finally {
+			webManager.stop();
+		}
+	}
+
+	private List<BillRow> readBillRows(ScrapeEngine engine) throws IOException, ParseException {
+		login(engine);
+		String href = engine.readGeneralData(new UserData(StandInServer.USER_ID));
+		engine.connect(server.getServerUrl() + "Student/StudentRacuni" + href.substring(href.indexOf('?')));
+		return engine.readBillRows();
+	}
+
+	private void login(ScrapeEngine engine) throws IOException {
+		String url = engine.connect(server.getServerUrl() + "Student");
+		assertTrue("The student page must lead to the login page without a session", isLoginPage(url));
+		url = engine.submitLogin(StandInServer.USER_ID, StandInServer.PASSWORD);
+		assertFalse("The login failed: " + engine.readLoginError(), isLoginPage(url));
+	}
+
+	private static boolean isLoginPage(String url) {
+		return url.contains("/loginuserpass.php");
+	}
+
+	/**
+	 * Checks the specified fetched bills against the synthetic history. Bills issued at the same time may be fetched in
+	 * any order, so they are matched by their dateTime and source.
+	 */
+	private void verify(List<Bill> bills) {
+		List<SyntheticBill> expected = server.getBills();
+		assertEquals(expected.size(), bills.size());
+		Map<SimpleImmutableEntry<LocalDateTime, String>, Bill> fetched = new HashMap<>(bills.size() * 2);
+		for (Bill bill : bills) {
+			fetched.put(new SimpleImmutableEntry<>(bill.getDateTime(), bill.getSource()), bill);
+		}
+
+		for (int i = 0; i < expected.size(); i++) {
+			SyntheticBill synthetic = expected.get(i);
+			Bill bill = fetched.get(new SimpleImmutableEntry<>(synthetic.dateTime, synthetic.source));
+			assertNotNull("Bill " + i + " was not fetched", bill);
+			assertEquals("Entries of bill " + i, synthetic.entries.size(), bill.getEntries().size());
+			assertEquals("Total cost of bill " + i, synthetic.getTotalCost(), bill.getTotalCost(), 0.005f);
+			assertEquals("Total subsidy of bill " + i, synthetic.getTotalSubsidy(), bill.getTotalSubsidy(), 0.005f);
+		}
+	}
+
+	private static void restoreProperty(String key, String value) {
+		if (value == null) System.clearProperty(key);
+		else System.setProperty(key, value);
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			throw e;
+		}
+	}
+
+	private static void report(String mode, int billCount, long elapsedNanos, Collection<Long> latencies) {
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		double seconds = elapsedNanos / 1e9;
+		LOGGER.info(String.format(Locale.ROOT, "%-22s %6d bills in %7.2f s = %8.1f bills/s | details p50 %5d ms, p90 %5d ms, p99 %5d ms",
+				mode, billCount, seconds, billCount / seconds, percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99)));
+	}
+
+	/**
+	 * @return The specified percentile of the specified sorted latencies, in milliseconds
+	 */
+	private static long percentile(List<Long> sorted, int percentile) {
+		if (sorted.isEmpty()) return 0;
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+		return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, index)));
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * An engine that records the time each details fetch of the engine it wraps takes.
+	 */
+	private static final class TimingEngine implements ScrapeEngine {
+		private final ScrapeEngine engine;
+		private final Collection<Long> latencies = new ConcurrentLinkedQueue<>();
+
+		private TimingEngine(ScrapeEngine engine) {
+			this.engine = engine;
+		}
+
+		@Override
+		public boolean fetchDetails(BillRow row, Bill bill, DetailCache.Validators validators) throws ParseException, IOException {
+			long start = System.nanoTime();
+			try {
+				return engine.fetchDetails(row, bill, validators);
+			} finally {
+				latencies.add(System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public String connect(String url) throws IOException {
+			return engine.connect(url);
+		}
+
+		@Override
+		public String getCurrentUrl() {
+			return engine.getCurrentUrl();
+		}
+
+		@Override
+		public String submitLogin(String userID, String password) throws IOException {
+			return engine.submitLogin(userID, password);
+		}
+
+		@Override
+		public String readLoginError() {
+			return engine.readLoginError();
+		}
+
+		@Override
+		public String readGeneralData(UserData userData) throws ParseException, IOException {
+			return engine.readGeneralData(userData);
+		}
+
+		@Override
+		public List<BillRow> readBillRows() {
+			return engine.readBillRows();
+		}
+
+		@Override
+		public List<CookieJar.StoredCookie> getCookies() {
+			return engine.getCookies();
+		}
+
+		@Override
+		public void addCookies(Collection<CookieJar.StoredCookie> cookies) {
+			engine.addCookies(cookies);
+		}
+
+		@Override
+		public void clearCookies() {
+			engine.clearCookies();
+		}
+
+		@Override
+		public Traffic getTraffic() {
+			return engine.getTraffic();
+		}
+
+		@Override
+		public void close() throws IOException {
+			engine.close();
+		}
+	}
+
+	/**
+	 * The application of the stand-in user, which is logged in with the stand-in password and keeps its files in a
+	 * directory of its own.
+	 */
+	private static final class StandInHost implements WebManager.Host {
+		private final User user;
+		private final ScrapeEngine engine;
+		private final Path dir;
+		private final int concurrency;
+
+		private StandInHost(User user, ScrapeEngine engine, Path dir, int concurrency) {
+			this.user = user;
+			this.engine = engine;
+			this.dir = dir;
+			this.concurrency = concurrency;
+		}
+
+		@Override
+		public User getUser() {
+			return user;
+		}
+
+		@Override
+		public String getUserPassword() {
+			return StandInServer.PASSWORD;
+		}
+
+		@Override
+		public List<Bill> queryBills(LocalDateTime from, LocalDateTime to, String source) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Path getCookieFile() {
+			return dir.resolve("cookieStore.dat");
+		}
+
+		@Override
+		public Path getSyncHistoryFile() {
+			return dir.resolve("syncHistory.jsonl");
+		}
+
+		@Override
+		public Path getDetailCacheDir(String userID) {
+			return dir.resolve("details");
+		}
+
+		@Override
+		public ScrapeEngine createScrapeEngine() {
+			return engine;
+		}
+
+		@Override
+		public int getFetchConcurrency() {
+			return concurrency;
+		}
+
+		@Override
+		public double getFetchRate() {
+			return 1000;
+		}
+
+		@Override
+		public void runFx(Runnable runnable) {
+			runnable.run();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package altline.unistat;
+
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+
+/**
+ * The rules by which a requested update or repair joins the running one with a {@link SingleFlightUpdate}. Futures
+ * stand in for the update tasks, and are completed by hand.
+ */
+public class SingleFlightUpdateTest extends TestCase {
+
+	private SingleFlightUpdate<CompletableFuture<Integer>> updates;
+	private User user;
+	private int started;
+
+	@Override
+	protected void setUp() throws Exception {
+		updates = new SingleFlightUpdate<>(CompletableFuture::isDone);
+		user = new User("0036000000");
+		started = 0;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testUpdateJoinsRunningUpdate() {
+		CompletableFuture<Integer> update = start(user, false);
+		assertSame(update, start(user, false));
+		assertEquals(1, started);
+	}
+
+	/**
+	 * An update is covered by a running repair, but a repair is not covered by a running update.
+	 */
+	public void testRepairIsNotCoveredByUpdate() {
+		CompletableFuture<Integer> update = start(user, false);
+		CompletableFuture<Integer> repair = start(user, true);
+		assertNotSame(update, repair);
+		assertEquals(2, started);
+
+		assertSame(repair, start(user, true));
+		assertSame(repair, start(user, false));
+		assertEquals(2, started);
+	}
+
+	/**
+	 * A request of another user, e.g. after a logout and a login, does not join the running task of the previous user.
+	 */
+	public void testOtherUserStartsNewTask() {
+		CompletableFuture<Integer> update = start(user, false);
+		assertNotSame(update, start(new User("0036999999"), false));
+		assertEquals(2, started);
+	}
+
+	/**
+	 * A task that succeeded or failed is not joined, so the next request starts a new one.
+	 */
+	public void testDoneTaskIsNotJoined() {
+		CompletableFuture<Integer> repair = start(user, true);
+		repair.complete(1);
+		CompletableFuture<Integer> update = start(user, false);
+		assertNotSame(repair, update);
+		assertEquals(2, started);
+
+		update.completeExceptionally(new IllegalStateException());
+		assertNotSame(update, start(user, false));
+		assertEquals(3, started);
+	}
+
+	public void testClear() {
+		assertNull(updates.clear());
+		CompletableFuture<Integer> update = start(user, false);
+		assertSame(update, updates.clear());
+		assertNotSame(update, start(user, false));
+		assertEquals(2, started);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private CompletableFuture<Integer> start(User user, boolean repair) {
+		return updates.start(user, repair, () -> {
+			started++;
+			return new CompletableFuture<>();
+		});
+	}
+
+}
@@ -0,0 +1,550 @@
+package altline.unistat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the webserver and its login server, for testing the scraping without the live site.
+ * <p>
+ * The server serves anonymized copies of the login, student, bills and bill details pages, filled in with a synthetic
+ * bill history of any size. The login goes through the same steps as on the live site: the student pages redirect to
+ * the login form, the form answers with a single sign-on form that submits itself with JavaScript, and that form opens
+ * the session. Latency, failing detail requests and session expiry can be injected.
+ * </p>
+ * The application can be pointed at a running stand-in with the {@link WebManager#PROP_SERVER_URL} and
+ * {@link WebManager#PROP_LOGIN_URL} system properties, see {@link #main(String[])}.
+ */
+public final class StandInServer {
+
+	static final String USER_ID = "student@example.org";
+	static final String PASSWORD = "lozinka";
+
+	private static final String LOGIN_PATH = "/sso/module.php/core/loginuserpass.php";
+	private static final String ACS_PATH = "/saml/acs";
+	private static final String SESSION_COOKIE = "StandInSession";
+	private static final String[] SOURCES = { "Restoran A", "Restoran B", "Menza C", "Caffe D", "Menza E" };
+	private static final String[] ARTICLES = { "Juha", "Glavno jelo", "Prilog", "Salata", "Kruh", "Desert", "Voda", "Jogurt" };
+	private static final float[] PRICES = { 3.5f, 14.2f, 4.8f, 5.6f, 0.8f, 6.1f, 4.0f, 3.2f };
+
+	private final List<SyntheticBill> bills;
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> samlResponses = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger injectedErrors = new AtomicInteger();
+	private final Random random;
+	private final Map<String, String> templates = new HashMap<>();
+	/** Pages served as they are, by their path */
+	private final Map<String, String> extraPages = new ConcurrentHashMap<>();
+
+	private volatile long latency;
+	private volatile long jitter;
+	private volatile double errorRate;
+	private volatile int sessionLifetime;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param billCount The number of bills in the synthetic history
+	 * @param seed The seed of the synthetic history and of the injected errors
+	 */
+	public StandInServer(int billCount, long seed) {
+		this.random = new Random(seed);
+		this.bills = Collections.unmodifiableList(synthesize(billCount, new Random(seed)));
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * API                                                                     *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Starts the server on the specified port of the loopback address.
+	 * @param port The port, or 0 for any free port
+	 * @throws IOException if the server can not be started
+	 */
+	public void start(int port) throws IOException {
+		for (String page : new String[] { "login", "saml", "student", "bills", "details" }) {
+			templates.put(page, readTemplate(page));
+		}
+
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "StandInServer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return The base URL of the stand-in webserver, with a trailing slash
+	 */
+	public String getServerUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return The base URL of the stand-in login server, with a trailing slash. It is the same as that of the webserver.
+	 */
+	public String getLoginUrl() {
+		return getServerUrl();
+	}
+
+	/**
+	 * @return The bills of the synthetic history, newest first
+	 */
+	public List<SyntheticBill> getBills() {
+		return bills;
+	}
+
+	/**
+	 * Delays every response by the specified fixed time plus a random time up to the specified jitter.
+	 */
+	public void setLatency(long latencyMillis, long jitterMillis) {
+		this.latency = latencyMillis;
+		this.jitter = jitterMillis;
+	}
+
+	/**
+	 * Makes the specified fraction of the bill details requests fail with status 500.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Expires every session after the specified number of requests made in it, or never if 0.
+	 */
+	public void setSessionLifetime(int requests) {
+		this.sessionLifetime = requests;
+	}
+
+	/**
+	 * Expires all sessions, so that the next request of every client is redirected to the login form.
+	 */
+	public void expireSessions() {
+		sessions.clear();
+	}
+
+	/**
+	 * Serves the specified page at the specified path, in place of any page of the stand-in, e.g. for tests of how
+	 * pages are waited for.
+	 * @param path The path of the page, starting with a slash
+	 * @param html The HTML of the page
+	 */
+	public void addPage(String path, String html) {
+		extraPages.put(path, html);
+	}
+
+	/**
+	 * @return The number of requests served so far
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return The number of requests answered with an injected error so far
+	 */
+	public int getInjectedErrorCount() {
+		return injectedErrors.get();
+	}
+
+	/**
+	 * Runs a stand-in server until the process is stopped.
+	 * <p>
+	 * Arguments: <code>[port [billCount [latencyMillis]]]</code>. The application is then started with
+	 * <code>-Dunistat.server.url=http://127.0.0.1:&lt;port&gt;/ -Dunistat.login.url=http://127.0.0.1:&lt;port&gt;/</code>
+	 * and logged in as {@value #USER_ID} with the password {@value #PASSWORD}.
+	 * </p>
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int billCount = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		StandInServer server = new StandInServer(billCount, 1);
+		if (args.length > 2) server.setLatency(Long.parseLong(args[2]), 0);
+		server.start(port);
+
+		System.out.println("Stand-in server with " + billCount + " bills running at " + server.getServerUrl());
+		System.out.println("-D" + WebManager.PROP_SERVER_URL + "=" + server.getServerUrl() + " -D" + WebManager.PROP_LOGIN_URL + "="
+				+ server.getLoginUrl());
+		System.out.println("Login: " + USER_ID + " / " + PASSWORD);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			delay();
+			route(exchange);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void route(HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath();
+		final Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+		final boolean post = "POST".equals(exchange.getRequestMethod());
+
+		String extraPage = extraPages.get(path);
+		if (extraPage != null) {
+			sendPage(exchange, extraPage);
+			return;
+		}
+
+		if (path.equals(LOGIN_PATH)) {
+			if (!post) {
+				sendPage(exchange, fill("login", "error", "", "authState", newToken()));
+				return;
+			}
+			Map<String, String> form = parseForm(readBody(exchange));
+			if (USER_ID.equals(form.get("username")) && PASSWORD.equals(form.get("password"))) {
+				String samlResponse = newToken();
+				samlResponses.put(samlResponse, Boolean.TRUE);
+				sendPage(exchange, fill("saml", "acsUrl", ACS_PATH, "samlResponse", samlResponse));
+			} else {
+				sendPage(exchange, fill("login", "error", "<div class=\"aai_messages_container\">Neispravna korisnička oznaka ili zaporka.</div>",
+						"authState", newToken()));
+			}
+			return;
+		}
+
+		if (path.equals(ACS_PATH) && post) {
+			String samlResponse = parseForm(readBody(exchange)).get("SAMLResponse");
+			if (samlResponse == null || samlResponses.remove(samlResponse) == null) {
+				send(exchange, 403, "Invalid SAML response");
+				return;
+			}
+			String sessionID = newToken();
+			sessions.put(sessionID, new Session());
+			exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + sessionID + "; Path=/; HttpOnly");
+			redirect(exchange, "/Student");
+			return;
+		}
+
+		if (path.equals("/Account/Odjava")) {
+			String sessionID = getSessionID(exchange);
+			if (sessionID != null) sessions.remove(sessionID);
+			redirect(exchange, "/");
+			return;
+		}
+
+		if (path.equals("/")) {
+			sendPage(exchange, "<!DOCTYPE html><html><body><a href=\"/Student\">Student</a></body></html>");
+			return;
+		}
+
+		if (!path.startsWith("/Student")) {
+			send(exchange, 404, "Not found");
+			return;
+		}
+
+		if (!touchSession(exchange)) {
+			redirect(exchange, LOGIN_PATH + "?AuthState=" + newToken());
+			return;
+		}
+
+		if (path.equals("/Student")) {
+			sendPage(exchange, fill("student", "fullName", "Ime Prezime", "institution", "Sveučilište u Primjeru", "privilege",
+					"Redoviti student", "availableFunds", formatAmount(123.45f), "studentKey", "00000000001"));
+
+		} else if (path.equals("/Student/StudentRacuni")) {
+			sendPage(exchange, fill("bills", "rows", billRows()));
+
+		} else if (path.equals("/Student/StudentRacuni/Detalji")) {
+			SyntheticBill bill = findBill(query.get("id"));
+			if (bill == null) {
+				send(exchange, 404, "No such bill");
+			} else if (injectError()) {
+				injectedErrors.incrementAndGet();
+				send(exchange, 500, "Injected error");
+			} else {
+				sendPage(exchange, fill("details", "source", bill.source, "date", formatDate(bill.dateTime), "time", formatTime(bill.dateTime),
+						"rows", detailRows(bill)));
+			}
+
+		} else {
+			send(exchange, 404, "Not found");
+		}
+	}
+
+	/**
+	 * Counts a request in the session of the specified exchange.
+	 * @return false if the request has no live session
+	 */
+	private boolean touchSession(HttpExchange exchange) {
+		String sessionID = getSessionID(exchange);
+		Session session = sessionID == null ? null : sessions.get(sessionID);
+		if (session == null) return false;
+
+		int limit = sessionLifetime;
+		if (limit > 0 && session.requests.incrementAndGet() > limit) {
+			sessions.remove(sessionID);
+			return false;
+		}
+		return true;
+	}
+
+	private static String getSessionID(HttpExchange exchange) {
+		List<String> headers = exchange.getRequestHeaders().get("Cookie");
+		if (headers == null) return null;
+		for (String header : headers) {
+			for (String cookie : header.split(";")) {
+				String trimmed = cookie.trim();
+				if (trimmed.startsWith(SESSION_COOKIE + "=")) return trimmed.substring(SESSION_COOKIE.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	private void delay() throws InterruptedException {
+		long delay = latency;
+		long maxJitter = jitter;
+		if (maxJitter > 0) delay += ThreadLocalRandom.current().nextLong(maxJitter + 1);
+		if (delay > 0) Thread.sleep(delay);
+	}
+
+	private boolean injectError() {
+		double rate = errorRate;
+		if (rate <= 0) return false;
+		synchronized (random) {
+			return random.nextDouble() < rate;
+		}
+	}
+
+	private String billRows() {
+		StringBuilder rows = new StringBuilder(bills.size() * 256);
+		for (SyntheticBill bill : bills) {
+			rows.append("\t\t\t<tr><td>").append(bill.source).append("</td><td>").append(formatDate(bill.dateTime)).append("</td><td>")
+					.append(formatTime(bill.dateTime)).append("</td><td>").append(formatAmount(bill.getTotalCost())).append(" kn</td><td>")
+					.append(formatAmount(bill.getTotalSubsidy())).append(" kn</td><td>")
+					.append(formatAmount(bill.getTotalCost() - bill.getTotalSubsidy())).append(" kn</td><td><a class=\"btn\" href=\"")
+					.append("/Student/StudentRacuni/Detalji?id=").append(bill.id).append("\">Detalji</a></td></tr>\n");
+		}
+		return rows.toString();
+	}
+
+	private static String detailRows(SyntheticBill bill) {
+		StringBuilder rows = new StringBuilder(bill.entries.size() * 128);
+		for (SyntheticEntry entry : bill.entries) {
+			rows.append("\t\t\t<tr><td>").append(entry.articleName).append("</td><td>").append(entry.amount).append("</td><td>")
+					.append(formatAmount(entry.articlePrice)).append(" kn</td><td>").append(formatAmount(entry.articlePrice * entry.amount))
+					.append(" kn</td><td>").append(formatAmount(entry.subsidy)).append(" kn</td></tr>\n");
+		}
+		rows.append("\t\t\t<tr><td>Ukupno</td><td></td><td></td><td>").append(formatAmount(bill.getTotalCost())).append(" kn</td><td>")
+				.append(formatAmount(bill.getTotalSubsidy())).append(" kn</td></tr>\n");
+		return rows.toString();
+	}
+
+	private SyntheticBill findBill(String id) {
+		if (id == null) return null;
+		try {
+			int index = Integer.parseInt(id);
+			return index >= 0 && index < bills.size() ? bills.get(index) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private String fill(String template, String... values) {
+		String page = templates.get(template);
+		for (int i = 0; i < values.length; i += 2) {
+			page = page.replace("${" + values[i] + "}", values[i + 1]);
+		}
+		return page;
+	}
+
+	private static String readTemplate(String name) throws IOException {
+		try (InputStream in = StandInServer.class.getResourceAsStream("/standin/" + name + ".html")) {
+			if (in == null) throw new IOException("Missing stand-in page: " + name);
+			return new String(readAll(in), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			return new String(readAll(in), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Map<String, String> parseForm(String encoded) throws IOException {
+		Map<String, String> form = new HashMap<>();
+		if (encoded == null || encoded.isEmpty()) return form;
+		for (String pair : encoded.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) form.put(URLDecoder.decode(pair, "UTF-8"), "");
+			else form.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return form;
+	}
+
+	private static void sendPage(HttpExchange exchange, String html) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		send(exchange, 200, html);
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void redirect(HttpExchange exchange, String location) throws IOException {
+		exchange.getResponseHeaders().set("Location", location);
+		exchange.sendResponseHeaders(302, -1);
+	}
+
+	private static String newToken() {
+		return UUID.randomUUID().toString().replace("-", "");
+	}
+
+	private static String formatDate(LocalDateTime dateTime) {
+		return dateTime.getDayOfMonth() + "." + dateTime.getMonthValue() + "." + dateTime.getYear();
+	}
+
+	private static String formatTime(LocalDateTime dateTime) {
+		return String.format(Locale.ROOT, "%d:%02d", dateTime.getHour(), dateTime.getMinute());
+	}
+
+	private static String formatAmount(float amount) {
+		return String.format(Locale.ROOT, "%.2f", amount).replace('.', ',');
+	}
+
+	/**
+	 * Makes up a history of bills issued at meal times, newest first.
+	 */
+	private static List<SyntheticBill> synthesize(int billCount, Random random) {
+		final int[] mealHours = { 8, 12, 13, 14, 18, 19 };
+		final List<SyntheticBill> bills = new ArrayList<>(billCount);
+		LocalDateTime day = LocalDateTime.of(2020, 1, 31, 0, 0);
+
+		while (bills.size() < billCount) {
+			int hour = 24;
+			for (int meal = random.nextInt(3); meal >= 0 && bills.size() < billCount; meal--) {
+				// earlier in the day than the previous bill, so that the history stays sorted newest first
+				hour = mealHours[random.nextInt(mealHours.length)] % hour;
+				LocalDateTime dateTime = day.withHour(hour).withMinute(random.nextInt(60));
+
+				SyntheticBill bill = new SyntheticBill(bills.size(), dateTime, SOURCES[random.nextInt(SOURCES.length)]);
+				for (int entries = 1 + random.nextInt(4); entries > 0; entries--) {
+					int article = random.nextInt(ARTICLES.length);
+					int amount = 1 + random.nextInt(2);
+					bill.entries.add(new SyntheticEntry(ARTICLES[article], PRICES[article], amount, random.nextBoolean() ? PRICES[article] * amount / 2 : 0));
+				}
+				bills.add(bill);
+				if (hour == 0) break;
+			}
+			day = day.minusDays(1);
+		}
+		return bills;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private static final class Session {
+		private final AtomicInteger requests = new AtomicInteger();
+	}
+
+	/**
+	 * A bill of the synthetic history, as the stand-in server lists it.
+	 */
+	static final class SyntheticBill {
+		final int id;
+		final LocalDateTime dateTime;
+		final String source;
+		final List<SyntheticEntry> entries = new ArrayList<>(4);
+
+		private SyntheticBill(int id, LocalDateTime dateTime, String source) {
+			this.id = id;
+			this.dateTime = dateTime;
+			this.source = source;
+		}
+
+		float getTotalCost() {
+			float total = 0;
+			for (SyntheticEntry entry : entries) {
+				total += entry.articlePrice * entry.amount;
+			}
+			return total;
+		}
+
+		float getTotalSubsidy() {
+			float total = 0;
+			for (SyntheticEntry entry : entries) {
+				total += entry.subsidy;
+			}
+			return total;
+		}
+	}
+
+	static final class SyntheticEntry {
+		final String articleName;
+		final float articlePrice;
+		final int amount;
+		final float subsidy;
+
+		private SyntheticEntry(String articleName, float articlePrice, int amount, float subsidy) {
+			this.articleName = articleName;
+			this.articlePrice = articlePrice;
+			this.amount = amount;
+			this.subsidy = subsidy;
+		}
+	}
+
+}
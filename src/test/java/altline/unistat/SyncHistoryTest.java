@@ -0,0 +1,74 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Reading the typical fetch time back from the records of a {@link SyncHistory}.
+ */
+public class SyncHistoryTest extends TestCase {
+
+	private Path dir;
+	private Path file;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-history");
+		file = dir.resolve("sync-history.jsonl");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testNoHistory() {
+		assertEquals(-1, new SyncHistory(file).getTypicalMillis());
+	}
+
+	/**
+	 * Only successful fetches count, and text inside the values of other fields is not mistaken for a field.
+	 */
+	public void testTypicalMillis() throws IOException {
+		writeRecords(
+				record("SUCCEEDED", 3000, null),
+				record("FAILED", 100, "\\\"outcome\\\":\\\"SUCCEEDED\\\",\\\"totalMs\\\":1"),
+				"{\"outcome\":\"SUCCEEDED\",\"totalMs\":",
+				record("SUCCEEDED", 1000, null),
+				record("CANCELED", 50, null),
+				record("SUCCEEDED", 2000, null));
+		assertEquals(2000, new SyncHistory(file).getTypicalMillis());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void writeRecords(String... records) throws IOException {
+		Files.write(file, Arrays.asList(records), StandardCharsets.UTF_8);
+	}
+
+	private static String record(String outcome, long totalMillis, String error) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"start\":\"2020-03-02T12:00\",\"mode\":\"update\",\"engine\":\"http\"");
+		sb.append(",\"outcome\":\"").append(outcome).append('"');
+		sb.append(",\"totalMs\":").append(totalMillis);
+		sb.append(",\"phasesMs\":{\"LOGIN\":10},\"billsPerSecond\":1.50");
+		if (error != null) sb.append(",\"error\":\"").append(error).append('"');
+		return sb.append('}').toString();
+	}
+
+}
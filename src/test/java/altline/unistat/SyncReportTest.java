@@ -0,0 +1,67 @@
+package altline.unistat;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import altline.unistat.ScrapeEngine.Traffic;
+import altline.unistat.SyncReport.Outcome;
+import junit.framework.TestCase;
+
+/**
+ * The counts a {@link SyncReport} writes to the history, read back from its JSON. The page waits are recorded on the
+ * traffic of the engine by hand.
+ */
+public class SyncReportTest extends TestCase {
+
+	private ScrapeEngine engine;
+
+	@Override
+	protected void setUp() throws Exception {
+		engine = new HttpScrapeEngine();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		engine.close();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Logins are counted apart from the requests repeated by the retry policy.
+	 */
+	public void testLoginsAndRetries() {
+		SyncReport report = new SyncReport(false, "http", engine);
+		report.recordLogin();
+		report.recordLogin();
+		report.recordRetry();
+		report.finish(Outcome.SUCCEEDED, null);
+
+		Map<String, Object> fields = JsonParser.parseObject(report.toJson());
+		assertEquals(2.0, fields.get("logins"));
+		assertEquals(1.0, fields.get("retries"));
+	}
+
+	/**
+	 * Only the page waits made since the report was started are counted, with the ones that timed out.
+	 */
+	public void testPageWaits() {
+		Traffic traffic = engine.getTraffic();
+		traffic.recordWait(TimeUnit.MILLISECONDS.toNanos(500), true);
+
+		SyncReport report = new SyncReport(false, "htmlunit", engine);
+		traffic.recordWait(TimeUnit.MILLISECONDS.toNanos(20), true);
+		traffic.recordWait(TimeUnit.MILLISECONDS.toNanos(30), false);
+		report.finish(Outcome.SUCCEEDED, null);
+
+		Map<String, Object> fields = JsonParser.parseObject(report.toJson());
+		assertEquals(2.0, fields.get("pageWaits"));
+		assertEquals(1.0, fields.get("pageWaitTimeouts"));
+		assertEquals(50.0, fields.get("pageWaitMs"));
+	}
+
+}
@@ -0,0 +1,141 @@
+package altline.unistat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * The delay a {@link SyncScheduler} waits before the next background update. The scheduler runs on a clock that the
+ * tests set by hand, and the webserver is considered down while the tests say so.
+ */
+public class SyncSchedulerTest extends TestCase {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long BUSY_INTERVAL = 15 * MINUTE;
+	private static final long MAX_INTERVAL = 4 * HOUR;
+	/** A Monday */
+	private static final LocalDateTime DAY = LocalDateTime.of(2020, 3, 2, 0, 0);
+
+	private LocalDateTime now;
+	private long offlineDelay;
+	private SyncScheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		now = DAY.withHour(9);
+		offlineDelay = 0;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (scheduler != null) scheduler.close();
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Every update that brings no new bills doubles the interval, up to the longest interval, and an update that brings
+	 * new bills resets it.
+	 */
+	public void testBackoff() {
+		createScheduler(HOUR);
+		assertEquals(HOUR, scheduler.nextDelay());
+		scheduler.recordUpdate(0);
+		assertEquals(2 * HOUR, scheduler.nextDelay());
+		scheduler.recordUpdate(0);
+		assertEquals(MAX_INTERVAL, scheduler.nextDelay());
+		scheduler.recordUpdate(0);
+		assertEquals(MAX_INTERVAL, scheduler.nextDelay());
+
+		scheduler.recordUpdate(3);
+		assertEquals(HOUR, scheduler.nextDelay());
+	}
+
+	public void testBaseIntervalIsCapped() {
+		createScheduler(2 * MAX_INTERVAL);
+		assertEquals(MAX_INTERVAL, scheduler.nextDelay());
+	}
+
+	/**
+	 * The bills are usually issued around noon, so the data is updated often from noon until two, and the first update
+	 * before noon is brought forward to noon.
+	 */
+	public void testBusyHours() {
+		createScheduler(MAX_INTERVAL);
+		scheduler.recordBills(createBills(12, 10));
+
+		now = DAY.withHour(9).withMinute(30);
+		assertEquals(2 * HOUR + 30 * MINUTE, scheduler.nextDelay());
+		now = DAY.withHour(12).withMinute(10);
+		assertEquals(BUSY_INTERVAL, scheduler.nextDelay());
+		// the hour after the usual one is busy too
+		now = DAY.withHour(13).withMinute(50);
+		assertEquals(BUSY_INTERVAL, scheduler.nextDelay());
+		now = DAY.withHour(14);
+		assertEquals(MAX_INTERVAL, scheduler.nextDelay());
+	}
+
+	/**
+	 * A short interval is not stretched to the busy interval during the busy hours.
+	 */
+	public void testShortIntervalInBusyHour() {
+		createScheduler(5 * MINUTE);
+		scheduler.recordBills(createBills(12, 10));
+		now = DAY.withHour(12);
+		assertEquals(5 * MINUTE, scheduler.nextDelay());
+	}
+
+	/**
+	 * The busy hours are not trusted until there are enough bills to learn them from.
+	 */
+	public void testTooFewBills() {
+		createScheduler(MAX_INTERVAL);
+		scheduler.recordBills(createBills(12, 9));
+		now = DAY.withHour(12);
+		assertEquals(MAX_INTERVAL, scheduler.nextDelay());
+	}
+
+	/**
+	 * No update is made while the webserver is down, not even in a busy hour.
+	 */
+	public void testOfflineDelay() {
+		createScheduler(HOUR);
+		scheduler.recordBills(createBills(12, 10));
+		now = DAY.withHour(12);
+		offlineDelay = 20 * MINUTE;
+		assertEquals(20 * MINUTE, scheduler.nextDelay());
+
+		offlineDelay = 0;
+		assertEquals(BUSY_INTERVAL, scheduler.nextDelay());
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	private void createScheduler(long baseInterval) {
+		scheduler = new SyncScheduler(new User("0036000000"), baseInterval, () -> now, () -> offlineDelay);
+	}
+
+	/**
+	 * @return The specified number of bills issued in the specified hour of different days
+	 */
+	private static List<Bill> createBills(int hour, int count) {
+		List<Bill> bills = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			bills.add(new Bill(DAY.minusDays(i + 1).withHour(hour).withMinute(i), "Restoran SC"));
+		}
+		return bills;
+	}
+
+}
@@ -0,0 +1,40 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The temporary directories that tests keep their files in.
+ */
+final class TestFiles {
+
+	private TestFiles() {
+	}
+
+	/**
+	 * Creates a new empty directory in the default temporary-file directory.
+	 * @param prefix The prefix of the directory's name
+	 * @return The created directory
+	 * @throws IOException if the directory can not be created
+	 */
+	static Path createTempDir(String prefix) throws IOException {
+		return Files.createTempDirectory(prefix);
+	}
+
+	/**
+	 * Deletes the specified directory with everything in it, as far as possible. Files that can not be deleted (e.g.
+	 * files still mapped on some platforms) are left for the system to clean up.
+	 * @param dir The directory to delete, or null if it was never created
+	 * @throws IOException if the directory can not be walked
+	 */
+	static void deleteTree(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir)) return;
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+}
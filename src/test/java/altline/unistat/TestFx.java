@@ -0,0 +1,30 @@
+package altline.unistat;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.sun.javafx.application.PlatformImpl;
+
+/**
+ * The JavaFX toolkit that tests of code running on the JavaFX thread, or running JavaFX tasks, need.
+ */
+final class TestFx {
+
+	private TestFx() {
+	}
+
+	/**
+	 * Starts the JavaFX toolkit, unless an earlier test already started it, and waits for it to run.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	static void startToolkit() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		try {
+			PlatformImpl.startup(started::countDown);
+		} catch (IllegalStateException e) {
+			// already started by an earlier test
+			started.countDown();
+		}
+		started.await();
+	}
+
+}
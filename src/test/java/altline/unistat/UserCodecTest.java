@@ -0,0 +1,161 @@
+package altline.unistat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of {@link User} data through the binary format of {@link UserCodec}, in every combination of compressed
+ * and indexed output.
+ */
+public class UserCodecTest extends TestCase {
+
+	private static final String USER_ID = "0036500000";
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testEmptyUser() throws IOException {
+		User user = new User(USER_ID);
+
+		for (User read : roundTrips(user)) {
+			assertEquals(USER_ID, read.getUserID());
+			assertEquals("", read.getFullName());
+			assertEquals(0f, read.getAvailableFunds(), 0f);
+			assertTrue(read.getBills().isEmpty());
+		}
+	}
+
+	public void testUserInfoAndBills() throws IOException {
+		User user = createUser();
+
+		for (User read : roundTrips(user)) {
+			assertEquals(user.getFullName(), read.getFullName());
+			assertEquals(user.getAvailableFunds(), read.getAvailableFunds(), 0f);
+			assertBills(user.getBills(), read.getBills());
+		}
+	}
+
+	public void testNullSource() throws IOException {
+		User user = new User(USER_ID);
+		Bill bill = new Bill(LocalDateTime.of(2019, 5, 6, 12, 0), null);
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		user.addBill(bill);
+
+		for (User read : roundTrips(user)) {
+			Bill readBill = read.getBills().get(0);
+			assertNull(readBill.getSource());
+			assertEquals(bill, readBill);
+			assertTrue(read.hasBill(bill.getDateTime(), null));
+		}
+	}
+
+	public void testEditedBills() throws IOException {
+		User user = createUser();
+		user.getBills().get(1).setEdited(true);
+
+		for (User read : roundTrips(user)) {
+			for (int i = 0; i < user.getBills().size(); i++) {
+				assertEquals(user.getBills().get(i).isEdited(), read.getBills().get(i).isEdited());
+			}
+		}
+	}
+
+	/**
+	 * Version 1 files have the layout of unindexed version 2 files, so they are made by writing one and changing the
+	 * version byte.
+	 */
+	public void testVersion1File() throws IOException {
+		User user = createUser();
+
+		for (boolean compress : new boolean[] { false, true }) {
+			byte[] data = write(user, compress, false);
+			assertEquals(UserCodec.VERSION, data[4]);
+			data[4] = 1;
+
+			User read = UserCodec.read(new ByteArrayInputStream(data));
+			assertEquals(user.getFullName(), read.getFullName());
+			assertBills(user.getBills(), read.getBills());
+		}
+	}
+
+	public void testUnsupportedVersion() throws IOException {
+		byte[] data = write(createUser(), false, false);
+		data[4] = UserCodec.VERSION + 1;
+
+		try {
+			UserCodec.read(new ByteArrayInputStream(data));
+			fail("A file of a newer version was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	static User createUser() {
+		User user = new User(USER_ID);
+		user.setFullName("Ivo Ivic");
+		user.setAvailableFunds(123.45f);
+
+		Bill bill = new Bill(LocalDateTime.of(2019, 3, 31, 2, 30), "Restoran SC");
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		bill.addEntry("Glavno jelo", 12.4f, 2, 10f);
+		user.addBill(bill);
+
+		bill = new Bill(LocalDateTime.of(2019, 4, 1, 13, 15, 20, 500), "Menza Savska");
+		bill.addEntry("Juha", 1.5f, 1, 0.5f);
+		bill.addEntry(null, 3f, 3, 0f);
+		user.addBill(bill);
+
+		user.addBill(new Bill(LocalDateTime.of(2020, 1, 2, 8, 0), "Restoran SC"));
+		return user;
+	}
+
+	static void assertBills(List<Bill> expected, List<Bill> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Bill expectedBill = expected.get(i);
+			Bill actualBill = actual.get(i);
+			assertEquals(expectedBill.getDateTime(), actualBill.getDateTime());
+			assertEquals(expectedBill.getSource(), actualBill.getSource());
+			assertEquals(expectedBill.isEdited(), actualBill.isEdited());
+			assertEquals(expectedBill.getEntries().size(), actualBill.getEntries().size());
+			for (int j = 0; j < expectedBill.getEntries().size(); j++) {
+				Bill.Entry expectedEntry = expectedBill.getEntries().get(j);
+				Bill.Entry actualEntry = actualBill.getEntries().get(j);
+				// a missing article name is stored as an empty one
+				assertEquals(expectedEntry.getArticleName() == null ? "" : expectedEntry.getArticleName(), actualEntry.getArticleName());
+				assertEquals(expectedEntry.getArticlePrice(), actualEntry.getArticlePrice(), 0f);
+				assertEquals(expectedEntry.getAmount(), actualEntry.getAmount());
+				assertEquals(expectedEntry.getSubsidy(), actualEntry.getSubsidy(), 0f);
+			}
+		}
+	}
+
+	private static User[] roundTrips(User user) throws IOException {
+		return new User[] {
+				UserCodec.read(new ByteArrayInputStream(write(user, false, false))),
+				UserCodec.read(new ByteArrayInputStream(write(user, true, false))),
+				UserCodec.read(new ByteArrayInputStream(write(user, false, true))),
+				UserCodec.read(new ByteArrayInputStream(write(user, true, true))) };
+	}
+
+	private static byte[] write(User user, boolean compress, boolean indexed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		UserCodec.write(user, out, compress, indexed);
+		return out.toByteArray();
+	}
+
+}
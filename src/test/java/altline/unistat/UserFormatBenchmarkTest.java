@@ -0,0 +1,188 @@
+package altline.unistat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Benchmark of the user data file formats: the legacy (Java serialization) format, which data files are migrated from,
+ * and the binary format of {@link UserCodec} in every combination of compressed and indexed output. Every format writes
+ * and reads the same synthetic user a number of times, and the best write and read times and the file size are logged
+ * per format. The synthetic user is generated from a fixed seed, so the runs are repeatable.
+ * <p>
+ * The load can be set with system properties, e.g.
+ * <code>mvn test -Dtest=UserFormatBenchmarkTest -Dunistat.benchmark.bills=50000 -Dunistat.benchmark.rounds=10</code>
+ * </p>
+ */
+public class UserFormatBenchmarkTest extends TestCase {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final int BILLS = Integer.getInteger("unistat.benchmark.bills", 5000);
+	private static final int ROUNDS = Integer.getInteger("unistat.benchmark.rounds", 3);
+
+	private static final String[] SOURCES = { "Restoran SC", "Menza Savska", "Menza Cvjetno", "FSB Caffe", "TTF Menza" };
+	private static final String[] ARTICLES = { "Juha", "Glavno jelo", "Salata", "Kruh", "Desert", "Sok", "Vegetarijanski meni" };
+
+	private Path dir;
+	private User user;
+	private long legacySize;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = TestFiles.createTempDir("unistat-benchmark");
+		user = createUser(BILLS, 42);
+		try (OutputStream out = Files.newOutputStream(dir.resolve("legacy-size.dat"))) {
+			writeLegacy(out);
+		}
+		legacySize = Files.size(dir.resolve("legacy-size.dat"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestFiles.deleteTree(dir);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testLegacy() throws IOException {
+		run("legacy", this::writeLegacy, this::readLegacy);
+	}
+
+	public void testBinary() throws IOException {
+		runBinary("binary", false, false);
+	}
+
+	public void testBinaryCompressed() throws IOException {
+		runBinary("binary, compressed", true, false);
+	}
+
+	public void testBinaryIndexed() throws IOException {
+		runBinary("binary, indexed", false, true);
+	}
+
+	public void testBinaryCompressedIndexed() throws IOException {
+		runBinary("binary, compr.+indexed", true, true);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Private implementation                                                  *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	/**
+	 * Runs the specified binary format and checks that its file is smaller than the legacy one.
+	 */
+	private void runBinary(String format, boolean compress, boolean indexed) throws IOException {
+		long size = run(format, out -> UserCodec.write(user, out, compress, indexed), UserCodec::read);
+		assertTrue(format + " file (" + size + " bytes) must be smaller than the legacy one (" + legacySize + " bytes)",
+				size < legacySize);
+	}
+
+	/**
+	 * Writes and reads the user in the specified format {@link #ROUNDS} times, checks the user that was read and logs
+	 * the best times.
+	 * @return The size of the written file
+	 */
+	private long run(String format, UserWriter writer, UserReader reader) throws IOException {
+		Path file = dir.resolve(format.replaceAll("\\W+", "-") + ".dat");
+		long bestWrite = Long.MAX_VALUE;
+		long bestRead = Long.MAX_VALUE;
+		User read = null;
+
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			try (OutputStream out = Files.newOutputStream(file)) {
+				writer.write(out);
+			}
+			bestWrite = Math.min(bestWrite, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			try (InputStream in = Files.newInputStream(file)) {
+				read = reader.read(in);
+			}
+			bestRead = Math.min(bestRead, System.nanoTime() - start);
+		}
+
+		assertEquals(user.getUserID(), read.getUserID());
+		UserCodecTest.assertBills(user.getBills(), read.getBills());
+
+		long size = Files.size(file);
+		LOGGER.info(String.format(Locale.ROOT, "%-22s %6d bills | %9d bytes (%5.1f %% of legacy) | write %6.1f ms, read %6.1f ms",
+				format, BILLS, size, 100.0 * size / legacySize, bestWrite / 1e6, bestRead / 1e6));
+		return size;
+	}
+
+	private void writeLegacy(OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(user);
+		oos.flush();
+	}
+
+	private User readLegacy(InputStream in) throws IOException {
+		try {
+			return (User) new ObjectInputStream(in).readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return A user with the specified number of bills, of one to four entries each, issued two a day at lunchtime
+	 * from 2015-01-01 on
+	 */
+	private static User createUser(int billCount, long seed) {
+		Random random = new Random(seed);
+		User user = new User("0036500000");
+		user.setFullName("Ivo Ivic");
+		user.setAvailableFunds(123.45f);
+
+		LocalDateTime day = LocalDateTime.of(2015, 1, 1, 0, 0);
+		for (int i = 0; i < billCount; i++) {
+			// the bills are added in the order of dateTimes, one before and one after 13h
+			LocalDateTime dateTime = day.plusDays(i / 2).withHour(11 + 2 * (i % 2) + random.nextInt(2))
+					.withMinute(random.nextInt(60)).withSecond(random.nextInt(60));
+			Bill bill = new Bill(dateTime, SOURCES[random.nextInt(SOURCES.length)]);
+			int entries = 1 + random.nextInt(4);
+			for (int j = 0; j < entries; j++) {
+				float price = (50 + random.nextInt(1500)) / 100f;
+				bill.addEntry(ARTICLES[random.nextInt(ARTICLES.length)], price, 1 + random.nextInt(2), price * random.nextInt(2) / 2);
+			}
+			user.addBill(bill);
+		}
+		return user;
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Inner classes                                                           *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	@FunctionalInterface
+	private interface UserWriter {
+		void write(OutputStream out) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface UserReader {
+		User read(InputStream in) throws IOException;
+	}
+
+}
@@ -0,0 +1,117 @@
+package altline.unistat;
+
+import junit.framework.TestCase;
+
+/**
+ * The rules by which a {@link WebSession} is reused, kept alive and found to be expired. The session runs on a clock
+ * that the tests advance by hand.
+ */
+public class WebSessionTest extends TestCase {
+
+	private static final String USER_ID = "0036000000";
+	private static final long REUSE_TIME = 60 * 1000;
+	private static final long KEEP_ALIVE_INTERVAL = 10 * 60 * 1000;
+
+	private long now;
+	private WebSession session;
+
+	@Override
+	protected void setUp() throws Exception {
+		now = 1000000;
+		session = new WebSession(() -> now);
+	}
+
+	/* *************************************************************************
+	 *                                                                         *
+	 * Tests                                                                   *
+	 *                                                                         *
+	 ************************************************************************* */
+
+	public void testLoggedOut() {
+		assertEquals(WebSession.State.LOGGED_OUT, session.getState());
+		assertFalse(session.isLoggedIn());
+		assertFalse(session.isOf(USER_ID));
+		assertFalse(session.canReusePage(USER_ID, REUSE_TIME));
+		assertFalse(session.needsKeepAlive(KEEP_ALIVE_INTERVAL));
+		assertEquals("", session.getUserID());
+	}
+
+	/**
+	 * A page is only reused for the user of the session, and only shortly after it was received.
+	 */
+	public void testPageReuse() {
+		session.loggedIn(USER_ID);
+		assertTrue(session.canReusePage(USER_ID, REUSE_TIME));
+		assertFalse(session.canReusePage("0036999999", REUSE_TIME));
+
+		now += REUSE_TIME - 1;
+		assertTrue(session.canReusePage(USER_ID, REUSE_TIME));
+		now += 1;
+		assertFalse(session.canReusePage(USER_ID, REUSE_TIME));
+
+		// every request received in the session makes its pages fresh again
+		session.touch();
+		assertTrue(session.canReusePage(USER_ID, REUSE_TIME));
+
+		session.loggedOut();
+		assertFalse(session.canReusePage(USER_ID, REUSE_TIME));
+	}
+
+	public void testKeepAlive() {
+		session.loggedIn(USER_ID);
+		now += KEEP_ALIVE_INTERVAL - 1;
+		assertFalse(session.needsKeepAlive(KEEP_ALIVE_INTERVAL));
+		now += 1;
+		assertTrue(session.needsKeepAlive(KEEP_ALIVE_INTERVAL));
+
+		session.touch();
+		assertFalse(session.needsKeepAlive(KEEP_ALIVE_INTERVAL));
+	}
+
+	/**
+	 * A session restored from the previous run is not kept alive until the server accepts it, which the first request
+	 * received in it does.
+	 */
+	public void testRestoredSessionResumes() {
+		session.restored(USER_ID);
+		assertEquals(WebSession.State.RESTORED, session.getState());
+		assertTrue(session.isOf(USER_ID));
+		now += KEEP_ALIVE_INTERVAL;
+		assertFalse(session.needsKeepAlive(KEEP_ALIVE_INTERVAL));
+
+		session.touch();
+		assertEquals(WebSession.State.ACTIVE, session.getState());
+		assertEquals(1, session.getResumeCount());
+		assertEquals(0, session.getLoginCount());
+		assertEquals(0, session.getIdleTime());
+
+		// touching an active session does not count as resuming it
+		session.touch();
+		assertEquals(1, session.getResumeCount());
+	}
+
+	public void testExpiry() {
+		session.restored(USER_ID);
+		session.expired();
+		assertEquals(WebSession.State.LOGGED_OUT, session.getState());
+		assertEquals("", session.getUserID());
+		assertEquals(1, session.getExpiryCount());
+
+		// the login page of a session that is already gone is not another expiry
+		session.expired();
+		assertEquals(1, session.getExpiryCount());
+
+		session.loggedIn(USER_ID);
+		assertEquals(1, session.getLoginCount());
+		session.expired();
+		assertFalse(session.isLoggedIn());
+		assertFalse(session.canReusePage(USER_ID, REUSE_TIME));
+		assertEquals(2, session.getExpiryCount());
+		assertEquals(0, session.getResumeCount());
+
+		// a request without a session does not bring it back
+		session.touch();
+		assertFalse(session.isLoggedIn());
+	}
+
+}